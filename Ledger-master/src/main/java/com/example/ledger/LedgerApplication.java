@@ -3,9 +3,11 @@ package com.example.ledger;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.data.jpa.repository.config.EnableJpaAuditing;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @EnableJpaAuditing
+@EnableScheduling
 public class LedgerApplication {
 	public static void main(String[] args) {
 		SpringApplication.run(LedgerApplication.class, args);
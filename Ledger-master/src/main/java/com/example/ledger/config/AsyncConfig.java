@@ -5,8 +5,13 @@ package com.example.ledger.config;
  * @create 2025/12/22 14:31
  */
 
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
@@ -15,10 +20,37 @@ import java.util.concurrent.ThreadPoolExecutor;
 
 @Configuration
 @EnableAsync
+@Slf4j
 public class AsyncConfig {
 
+    // 虚拟线程模式：上传、查询、导出任务每个任务一个虚拟线程，阻塞在JDBC上时不占用平台线程
+    // 需要 JDK 21 及以上，低版本自动使用平台线程池；数据库并发由 DbConcurrencyLimiter 按连接池大小限制
+    @Value("${app.async.virtual-threads:false}")
+    private boolean virtualThreads;
+
+    // 上传验证转换线程池大小，0 为CPU核数
+    @Value("${app.upload.pipeline.pool-size:0}")
+    private int pipelinePoolSize;
+
+    private boolean useVirtualThreads;
+
+    @PostConstruct
+    public void init() {
+        int feature = Runtime.version().feature();
+        useVirtualThreads = virtualThreads && feature >= 21;
+        if (virtualThreads && !useVirtualThreads) {
+            log.warn("当前 JDK {} 不支持虚拟线程，使用平台线程池", feature);
+        }
+        log.info("异步任务执行模式: {}", useVirtualThreads ? "虚拟线程" : "平台线程池");
+    }
+
     @Bean("uploadTaskExecutor")
     public Executor uploadTaskExecutor() {
+        if (useVirtualThreads) {
+            // 上传任务的并发和排队由 UploadScheduler 控制
+            return virtualThreadExecutor("upload-vthread-");
+        }
+
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
 
         // 核心线程数
@@ -31,8 +63,8 @@ public class AsyncConfig {
         executor.setKeepAliveSeconds(60);
         // 线程名前缀
         executor.setThreadNamePrefix("upload-thread-");
-        // 拒绝策略
-        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        // 拒绝策略：上传任务由 UploadScheduler 控制并发和排队，线程池满时直接拒绝，不占用请求线程
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
         // 等待所有任务结束后再关闭线程池
         executor.setWaitForTasksToCompleteOnShutdown(true);
         // 等待时间
@@ -42,8 +74,36 @@ public class AsyncConfig {
         return executor;
     }
 
+    @Bean("uploadPipelineExecutor")
+    public Executor uploadPipelineExecutor() {
+        if (useVirtualThreads) {
+            // 转换任务是CPU计算，虚拟线程由数量等于CPU核数的载体线程执行
+            return virtualThreadExecutor("upload-pipeline-vthread-");
+        }
+
+        // 所有上传共用的验证转换线程，线程数不随并发上传数增长；每个上传的并行任务数由 app.upload.pipeline.workers 限制
+        int threads = pipelinePoolSize > 0 ? pipelinePoolSize : Runtime.getRuntime().availableProcessors();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(1000);
+        executor.setKeepAliveSeconds(60);
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.setThreadNamePrefix("upload-pipeline-");
+        // 队列满时由读取线程自己转换，相当于背压
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+
+        executor.initialize();
+        return executor;
+    }
+
     @Bean("queryTaskExecutor")
     public Executor queryTaskExecutor() {
+        if (useVirtualThreads) {
+            return virtualThreadExecutor("query-vthread-");
+        }
+
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
 
         executor.setCorePoolSize(3);
@@ -56,4 +116,34 @@ public class AsyncConfig {
         executor.initialize();
         return executor;
     }
-}
\ No newline at end of file
+
+    @Bean("exportTaskExecutor")
+    public AsyncTaskExecutor exportTaskExecutor() {
+        if (useVirtualThreads) {
+            return virtualThreadExecutor("export-vthread-");
+        }
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+
+        // 流式导出写响应的线程，导出期间一直占用
+        executor.setCorePoolSize(2);
+        executor.setMaxPoolSize(4);
+        executor.setQueueCapacity(20);
+        executor.setKeepAliveSeconds(60);
+        executor.setThreadNamePrefix("export-thread-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * 虚拟线程执行器：每个任务一个虚拟线程，关闭时等待正在执行的任务结束
+     */
+    private SimpleAsyncTaskExecutor virtualThreadExecutor(String threadNamePrefix) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(threadNamePrefix);
+        executor.setVirtualThreads(true);
+        executor.setTaskTerminationTimeout(60000);
+        return executor;
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.ledger.config;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 16:10
+ */
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+public class WebMvcConfig implements WebMvcConfigurer {
+
+    private final AsyncTaskExecutor exportTaskExecutor;
+
+    // 异步请求（流式导出）超时时间，大数据量导出需要较长时间
+    @Value("${app.export.async-timeout-ms:1800000}")
+    private long asyncTimeoutMs;
+
+    public WebMvcConfig(@Qualifier("exportTaskExecutor") AsyncTaskExecutor exportTaskExecutor) {
+        this.exportTaskExecutor = exportTaskExecutor;
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(exportTaskExecutor);
+        configurer.setDefaultTimeout(asyncTimeoutMs);
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.ledger.controller;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 15:30
+ */
+
+import com.example.ledger.dto.request.LedgerDataAggregateRequest;
+import com.example.ledger.dto.request.LedgerDataDynamicQueryRequest;
+import com.example.ledger.dto.request.LedgerDataQueryRequest;
+import com.example.ledger.dto.response.ApiResponse;
+import com.example.ledger.dto.response.LedgerDataAggregateResponse;
+import com.example.ledger.dto.response.LedgerDataCursorPageResponse;
+import com.example.ledger.dto.response.LedgerDataDynamicCursorPageResponse;
+import com.example.ledger.service.LedgerDataAggregateService;
+import com.example.ledger.service.LedgerDataQueryService;
+import com.example.ledger.util.SecurityUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.util.StringUtils;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/ledger/query")
+@RequiredArgsConstructor
+@Slf4j
+public class LedgerDataQueryController {
+
+    private final LedgerDataQueryService ledgerDataQueryService;
+    private final LedgerDataAggregateService ledgerDataAggregateService;
+    private final SecurityUtil securityUtil;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * 游标分页查询台账数据（首页不传cursor，后续页传上一页返回的nextCursor）
+     */
+    @PostMapping("/cursor")
+    @PreAuthorize("hasRole('ADMIN') or hasRole('PRODUCTION')")
+    public ApiResponse<LedgerDataCursorPageResponse> queryByCursor(@RequestBody LedgerDataQueryRequest request) {
+        try {
+            return ApiResponse.success("查询成功", ledgerDataQueryService.queryLedgerDataByCursor(request));
+        } catch (Exception e) {
+            log.error("游标分页查询失败", e);
+            return ApiResponse.error("查询失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 动态列游标分页查询
+     */
+    @PostMapping("/dynamic/cursor")
+    @PreAuthorize("hasRole('ADMIN') or hasRole('PRODUCTION')")
+    public ApiResponse<LedgerDataDynamicCursorPageResponse> queryDynamicByCursor(
+            @RequestBody LedgerDataDynamicQueryRequest request) {
+        try {
+            return ApiResponse.success("查询成功", ledgerDataQueryService.queryDynamicLedgerDataByCursor(request));
+        } catch (Exception e) {
+            log.error("动态列游标分页查询失败", e);
+            return ApiResponse.error("查询失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 数据统计（指定单位时返回单位统计，不指定时返回全局统计，全局统计需要管理员权限）
+     */
+    @GetMapping("/statistics")
+    @PreAuthorize("hasRole('ADMIN') or hasRole('PRODUCTION')")
+    public ApiResponse<Map<String, Object>> getStatistics(@RequestParam(required = false) String unitName) {
+        try {
+            if (!StringUtils.hasText(unitName) && !securityUtil.isAdmin()) {
+                return ApiResponse.error("无权限查看全局统计");
+            }
+            return ApiResponse.success("查询成功", ledgerDataQueryService.getDataStatistics(unitName));
+        } catch (Exception e) {
+            log.error("统计查询失败", e);
+            return ApiResponse.error("统计查询失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 汇总/透视查询（不指定单位和模板时汇总全部数据，需要管理员权限）
+     */
+    @PostMapping("/aggregate")
+    @PreAuthorize("hasRole('ADMIN') or hasRole('PRODUCTION')")
+    public ApiResponse<LedgerDataAggregateResponse> aggregate(@RequestBody LedgerDataAggregateRequest request) {
+        try {
+            if (isGlobalAggregate(request) && !securityUtil.isAdmin()) {
+                return ApiResponse.error("无权限汇总全部数据");
+            }
+            return ApiResponse.success("查询成功", ledgerDataAggregateService.aggregate(request));
+        } catch (Exception e) {
+            log.error("汇总查询失败", e);
+            return ApiResponse.error("汇总查询失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 流式汇总/透视查询（NDJSON，首行为列定义，之后每行一个JSON数组，末行为行数和是否截断）
+     */
+    @PostMapping("/aggregate/stream")
+    @PreAuthorize("hasRole('ADMIN') or hasRole('PRODUCTION')")
+    public ResponseEntity<StreamingResponseBody> aggregateStream(@RequestBody LedgerDataAggregateRequest request) {
+        try {
+            if (isGlobalAggregate(request) && !securityUtil.isAdmin()) {
+                return aggregateError(HttpStatus.FORBIDDEN, "无权限汇总全部数据");
+            }
+            // 写响应前解析请求，参数错误仍可返回错误信息
+            LedgerDataAggregateService.AggregateQuery query = ledgerDataAggregateService.prepare(request);
+            StreamingResponseBody body = outputStream -> {
+                try {
+                    ledgerDataAggregateService.stream(query, outputStream);
+                } catch (Exception e) {
+                    // 响应头已发出，只能中断连接并记录日志
+                    log.error("流式汇总查询失败", e);
+                    throw e;
+                }
+            };
+            return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_NDJSON)
+                    .body(body);
+        } catch (Exception e) {
+            log.error("流式汇总查询失败", e);
+            return aggregateError(HttpStatus.BAD_REQUEST, "汇总查询失败: " + e.getMessage());
+        }
+    }
+
+    private boolean isGlobalAggregate(LedgerDataAggregateRequest request) {
+        return !StringUtils.hasText(request.getUnitName()) && request.getTemplateId() == null;
+    }
+
+    private ResponseEntity<StreamingResponseBody> aggregateError(HttpStatus status, String message) {
+        return ResponseEntity.status(status)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(outputStream -> objectMapper.writeValue(outputStream, ApiResponse.error(message)));
+    }
+}
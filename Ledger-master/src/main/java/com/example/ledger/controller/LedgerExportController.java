@@ -11,12 +11,13 @@ import com.example.ledger.service.ExcelExportService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.io.IOException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
@@ -38,7 +39,7 @@ public class LedgerExportController {
      */
     @PostMapping("/selected")
     @PreAuthorize("hasRole('ADMIN') or hasRole('PRODUCTION')")
-    public ResponseEntity<byte[]> exportSelectedLedgerData(@RequestBody ExportLedgerRequest request) {
+    public ResponseEntity<StreamingResponseBody> exportSelectedLedgerData(@RequestBody ExportLedgerRequest request) {
         try {
             log.info("接收到导出请求，模板ID: {}, 数据量: {}",
                     request.getTemplateId(),
@@ -50,39 +51,24 @@ public class LedgerExportController {
 
             if (request.getDataIds() == null || request.getDataIds().isEmpty()) {
                 log.warn("导出数据ID列表为空");
-                return ResponseEntity.badRequest()
-                        .body(("导出失败: 请选择要导出的数据").getBytes(StandardCharsets.UTF_8));
+                return errorResponse(HttpStatus.BAD_REQUEST, "导出失败: 请选择要导出的数据");
             }
 
-            byte[] excelBytes = excelExportService.exportLedgerData(request.getTemplateId(), request.getDataIds());
+            // 写响应前先校验模板，校验失败仍可返回错误信息
+            excelExportService.requireTemplate(request.getTemplateId());
+            String widthMode = excelExportService.resolveWidthMode(request.getWidthMode());
 
-            // 生成文件名
-            String timestamp = LocalDateTime.now()
-                    .format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
-            String fileName = "台账导出_" + timestamp + ".xlsx";
-            String encodedFileName = URLEncoder.encode(fileName, StandardCharsets.UTF_8)
-                    .replaceAll("\\+", "%20");
-
-            // 设置响应头
-            return ResponseEntity.ok()
-                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                    .header(HttpHeaders.CONTENT_DISPOSITION,
-                            "attachment; filename*=UTF-8''" + encodedFileName)
-                    .header(HttpHeaders.CONTENT_LENGTH, String.valueOf(excelBytes.length))
-                    .body(excelBytes);
+            Long templateId = request.getTemplateId();
+            List<Long> dataIds = request.getDataIds();
+            return streamingResponse("台账导出_" + timestamp() + ".xlsx",
+                    outputStream -> excelExportService.streamLedgerData(templateId, dataIds, widthMode, outputStream));
 
         } catch (IllegalArgumentException e) {
             log.error("导出参数错误", e);
-            return ResponseEntity.badRequest()
-                    .body(("导出失败: " + e.getMessage()).getBytes(StandardCharsets.UTF_8));
-        } catch (IOException e) {
-            log.error("导出IO异常", e);
-            return ResponseEntity.internalServerError()
-                    .body(("导出失败: " + e.getMessage()).getBytes(StandardCharsets.UTF_8));
+            return errorResponse(HttpStatus.BAD_REQUEST, "导出失败: " + e.getMessage());
         } catch (Exception e) {
             log.error("导出异常", e);
-            return ResponseEntity.internalServerError()
-                    .body(("导出失败: " + e.getMessage()).getBytes(StandardCharsets.UTF_8));
+            return errorResponse(HttpStatus.INTERNAL_SERVER_ERROR, "导出失败: " + e.getMessage());
         }
     }
 
@@ -91,41 +77,23 @@ public class LedgerExportController {
      */
     @GetMapping("/unit/{unitName}")
     @PreAuthorize("hasRole('ADMIN') or hasRole('PRODUCTION')")
-    public ResponseEntity<byte[]> exportUnitLedgerData(@PathVariable String unitName) {
+    public ResponseEntity<StreamingResponseBody> exportUnitLedgerData(@PathVariable String unitName,
+                                                                      @RequestParam(required = false) String widthMode) {
         try {
             log.info("导出单位台账请求，单位名称: {}", unitName);
 
-            if (unitName == null || unitName.trim().isEmpty()) {
-                throw new IllegalArgumentException("单位名称不能为空");
-            }
-
-            byte[] excelBytes = excelExportService.exportAllLedgerDataByUnit(unitName);
+            excelExportService.requireUnitTemplate(unitName);
+            String resolvedWidthMode = excelExportService.resolveWidthMode(widthMode);
 
-            String timestamp = LocalDateTime.now()
-                    .format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
-            String fileName = unitName + "_台账导出_" + timestamp + ".xlsx";
-            String encodedFileName = URLEncoder.encode(fileName, StandardCharsets.UTF_8)
-                    .replaceAll("\\+", "%20");
-
-            return ResponseEntity.ok()
-                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                    .header(HttpHeaders.CONTENT_DISPOSITION,
-                            "attachment; filename*=UTF-8''" + encodedFileName)
-                    .header(HttpHeaders.CONTENT_LENGTH, String.valueOf(excelBytes.length))
-                    .body(excelBytes);
+            return streamingResponse(unitName + "_台账导出_" + timestamp() + ".xlsx",
+                    outputStream -> excelExportService.streamLedgerDataByUnit(unitName, resolvedWidthMode, outputStream));
 
         } catch (IllegalArgumentException e) {
             log.error("导出单位台账参数错误", e);
-            return ResponseEntity.badRequest()
-                    .body(("导出失败: " + e.getMessage()).getBytes(StandardCharsets.UTF_8));
-        } catch (IOException e) {
-            log.error("导出单位台账IO异常", e);
-            return ResponseEntity.internalServerError()
-                    .body(("导出失败: " + e.getMessage()).getBytes(StandardCharsets.UTF_8));
+            return errorResponse(HttpStatus.BAD_REQUEST, "导出失败: " + e.getMessage());
         } catch (Exception e) {
             log.error("导出单位台账异常", e);
-            return ResponseEntity.internalServerError()
-                    .body(("导出失败: " + e.getMessage()).getBytes(StandardCharsets.UTF_8));
+            return errorResponse(HttpStatus.INTERNAL_SERVER_ERROR, "导出失败: " + e.getMessage());
         }
     }
 
@@ -150,82 +118,25 @@ public class LedgerExportController {
      */
     @GetMapping("/template/{templateId}")
     @PreAuthorize("hasRole('ADMIN') or hasRole('PRODUCTION')")
-    public ResponseEntity<byte[]> exportByTemplate(@PathVariable Long templateId) {
+    public ResponseEntity<StreamingResponseBody> exportByTemplate(@PathVariable Long templateId,
+                                                                  @RequestParam(required = false) String widthMode) {
         try {
             log.info("按模板导出请求，模板ID: {}", templateId);
 
-            if (templateId == null) {
-                throw new IllegalArgumentException("模板ID不能为空");
-            }
-
-            // 获取模板的所有数据ID
-            List<Long> allDataIds = excelExportService.getAllDataIdsByTemplate(templateId);
-
-            if (allDataIds.isEmpty()) {
-                log.info("模板 {} 没有数据，导出空表格", templateId);
-                // 创建空表格
-                byte[] excelBytes = createEmptyTemplateExport(templateId);
-
-                String timestamp = LocalDateTime.now()
-                        .format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
-                String fileName = "模板" + templateId + "_导出_" + timestamp + ".xlsx";
-                String encodedFileName = URLEncoder.encode(fileName, StandardCharsets.UTF_8)
-                        .replaceAll("\\+", "%20");
-
-                return ResponseEntity.ok()
-                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                        .header(HttpHeaders.CONTENT_DISPOSITION,
-                                "attachment; filename*=UTF-8''" + encodedFileName)
-                        .header(HttpHeaders.CONTENT_LENGTH, String.valueOf(excelBytes.length))
-                        .body(excelBytes);
-            }
-
-            // 调用导出方法
-            byte[] excelBytes = excelExportService.exportLedgerData(templateId, allDataIds);
-
-            String timestamp = LocalDateTime.now()
-                    .format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
-            String fileName = "模板" + templateId + "_导出_" + timestamp + ".xlsx";
-            String encodedFileName = URLEncoder.encode(fileName, StandardCharsets.UTF_8)
-                    .replaceAll("\\+", "%20");
+            excelExportService.requireTemplate(templateId);
+            String resolvedWidthMode = excelExportService.resolveWidthMode(widthMode);
 
-            return ResponseEntity.ok()
-                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                    .header(HttpHeaders.CONTENT_DISPOSITION,
-                            "attachment; filename*=UTF-8''" + encodedFileName)
-                    .header(HttpHeaders.CONTENT_LENGTH, String.valueOf(excelBytes.length))
-                    .body(excelBytes);
+            // 没有数据时由导出服务写出空表格
+            return streamingResponse("模板" + templateId + "_导出_" + timestamp() + ".xlsx",
+                    outputStream -> excelExportService.streamLedgerDataByTemplate(templateId, resolvedWidthMode,
+                            outputStream));
 
         } catch (IllegalArgumentException e) {
             log.error("按模板导出参数错误", e);
-            return ResponseEntity.badRequest()
-                    .body(("导出失败: " + e.getMessage()).getBytes(StandardCharsets.UTF_8));
+            return errorResponse(HttpStatus.BAD_REQUEST, "导出失败: " + e.getMessage());
         } catch (Exception e) {
             log.error("按模板导出异常", e);
-            return ResponseEntity.internalServerError()
-                    .body(("导出失败: " + e.getMessage()).getBytes(StandardCharsets.UTF_8));
-        }
-    }
-
-    /**
-     * 创建空模板导出文件
-     */
-    private byte[] createEmptyTemplateExport(Long templateId) throws IOException {
-        // 简单的空表格实现
-        org.apache.poi.xssf.usermodel.XSSFWorkbook workbook = new org.apache.poi.xssf.usermodel.XSSFWorkbook();
-        org.apache.poi.xssf.usermodel.XSSFSheet sheet = workbook.createSheet("数据");
-
-        org.apache.poi.xssf.usermodel.XSSFRow titleRow = sheet.createRow(0);
-        titleRow.createCell(0).setCellValue("模板ID: " + templateId);
-        titleRow.createCell(1).setCellValue("导出时间: " + LocalDateTime.now());
-
-        org.apache.poi.xssf.usermodel.XSSFRow infoRow = sheet.createRow(1);
-        infoRow.createCell(0).setCellValue("该模板没有数据");
-
-        try (java.io.ByteArrayOutputStream outputStream = new java.io.ByteArrayOutputStream()) {
-            workbook.write(outputStream);
-            workbook.close();
-            return outputStream.toByteArray();
+            return errorResponse(HttpStatus.INTERNAL_SERVER_ERROR, "导出失败: " + e.getMessage());
         }
     }
 
@@ -234,8 +145,8 @@ public class LedgerExportController {
      */
     @PostMapping
     @PreAuthorize("hasRole('ADMIN') or hasRole('PRODUCTION')")
-    public ResponseEntity<byte[]> exportLedgerDataLegacy(@RequestParam Long templateId,
-                                                         @RequestBody List<Long> dataIds) {
+    public ResponseEntity<StreamingResponseBody> exportLedgerDataLegacy(@RequestParam Long templateId,
+                                                                        @RequestBody List<Long> dataIds) {
         try {
             log.info("接收到旧版导出请求，模板ID: {}, 数据量: {}", templateId, dataIds.size());
 
@@ -247,11 +158,47 @@ public class LedgerExportController {
 
         } catch (Exception e) {
             log.error("旧版导出异常", e);
-            return ResponseEntity.internalServerError()
-                    .body(("导出失败: " + e.getMessage()).getBytes(StandardCharsets.UTF_8));
+            return errorResponse(HttpStatus.INTERNAL_SERVER_ERROR, "导出失败: " + e.getMessage());
         }
     }
 
+    /**
+     * 流式下载响应（不设置Content-Length，边生成边写出）
+     */
+    private ResponseEntity<StreamingResponseBody> streamingResponse(String fileName, StreamingResponseBody body) {
+        String encodedFileName = URLEncoder.encode(fileName, StandardCharsets.UTF_8)
+                .replaceAll("\\+", "%20");
+
+        StreamingResponseBody loggingBody = outputStream -> {
+            try {
+                body.writeTo(outputStream);
+            } catch (Exception e) {
+                // 响应头已发出，只能中断连接并记录日志
+                log.error("流式导出失败: {}", fileName, e);
+                throw e;
+            }
+        };
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename*=UTF-8''" + encodedFileName)
+                .body(loggingBody);
+    }
+
+    /**
+     * 错误响应（写出错误信息文本）
+     */
+    private ResponseEntity<StreamingResponseBody> errorResponse(HttpStatus status, String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        return ResponseEntity.status(status)
+                .body(outputStream -> outputStream.write(bytes));
+    }
+
+    private String timestamp() {
+        return LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
+    }
+
     /**
      * Excel列字母转索引（用于调试接口）
      */
@@ -0,0 +1,196 @@
+package com.example.ledger.controller;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 11:48
+ */
+
+import com.example.ledger.dto.response.ApiResponse;
+import com.example.ledger.service.ColumnarSnapshotService;
+import com.example.ledger.service.DetailTypedValueService;
+import com.example.ledger.service.IndexAdvisorService;
+import com.example.ledger.service.LedgerPartitionService;
+import com.example.ledger.service.LedgerRowStorageService;
+import com.example.ledger.service.LedgerStatisticsService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/ledger/storage")
+@RequiredArgsConstructor
+@Slf4j
+public class LedgerStorageController {
+
+    private final LedgerRowStorageService ledgerRowStorageService;
+    private final LedgerPartitionService ledgerPartitionService;
+    private final IndexAdvisorService indexAdvisorService;
+    private final LedgerStatisticsService ledgerStatisticsService;
+    private final DetailTypedValueService detailTypedValueService;
+    private final ColumnarSnapshotService columnarSnapshotService;
+
+    /**
+     * 启动紧凑存储迁移任务（不指定上传ID时迁移全部数据）
+     */
+    @PostMapping("/migrate")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ApiResponse<Map<String, Object>> startMigration(@RequestParam(required = false) Long uploadId) {
+        try {
+            log.info("启动紧凑存储迁移任务，上传ID: {}", uploadId);
+            Map<String, Object> status = ledgerRowStorageService.startMigration(uploadId);
+            return ApiResponse.success("迁移任务已启动", status);
+        } catch (Exception e) {
+            log.error("启动迁移任务失败", e);
+            return ApiResponse.error("启动迁移任务失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 查询迁移任务状态
+     */
+    @GetMapping("/migrate/status")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ApiResponse<Map<String, Object>> getMigrationStatus() {
+        try {
+            return ApiResponse.success("查询成功", ledgerRowStorageService.getMigrationStatus());
+        } catch (Exception e) {
+            log.error("查询迁移任务状态失败", e);
+            return ApiResponse.error("查询迁移任务状态失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 查询数据表分区状态
+     */
+    @GetMapping("/partitions")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ApiResponse<Map<String, Object>> getPartitionStatus() {
+        try {
+            return ApiResponse.success("查询成功", ledgerPartitionService.getStatus());
+        } catch (Exception e) {
+            log.error("查询分区状态失败", e);
+            return ApiResponse.error("查询分区状态失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 将数据表转换为按月分区
+     */
+    @PostMapping("/partitions/init")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ApiResponse<Map<String, Object>> initializePartitions() {
+        try {
+            log.info("开始转换数据表分区");
+            return ApiResponse.success("分区转换完成", ledgerPartitionService.initialize());
+        } catch (Exception e) {
+            log.error("转换数据表分区失败", e);
+            return ApiResponse.error("转换数据表分区失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 立即创建未来月份的分区
+     */
+    @PostMapping("/partitions/maintain")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ApiResponse<Map<String, Object>> createUpcomingPartitions() {
+        try {
+            return ApiResponse.success("分区维护完成", ledgerPartitionService.createUpcomingPartitions());
+        } catch (Exception e) {
+            log.error("创建分区失败", e);
+            return ApiResponse.error("创建分区失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 索引诊断：缺失的受管索引及热点查询的执行计划问题
+     */
+    @GetMapping("/indexes/advice")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ApiResponse<Map<String, Object>> getIndexAdvice() {
+        try {
+            return ApiResponse.success("诊断完成", indexAdvisorService.analyze());
+        } catch (Exception e) {
+            log.error("索引诊断失败", e);
+            return ApiResponse.error("索引诊断失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 创建缺失的受管索引
+     */
+    @PostMapping("/indexes/apply")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ApiResponse<Map<String, Object>> applyMissingIndexes() {
+        try {
+            log.info("开始创建缺失的索引");
+            return ApiResponse.success("索引创建完成", indexAdvisorService.applyMissingIndexes());
+        } catch (Exception e) {
+            log.error("创建索引失败", e);
+            return ApiResponse.error("创建索引失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 从台账数据重建统计汇总表
+     */
+    @PostMapping("/statistics/rebuild")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ApiResponse<Map<String, Object>> rebuildStatistics() {
+        try {
+            log.info("开始重建统计汇总表");
+            return ApiResponse.success("统计汇总表重建完成", ledgerStatisticsService.rebuild());
+        } catch (Exception e) {
+            log.error("重建统计汇总表失败", e);
+            return ApiResponse.error("重建统计汇总表失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 回填明细的数字/日期取值（不指定模板时处理全部模板）
+     */
+    @PostMapping("/typed-values/backfill")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ApiResponse<Map<String, Object>> backfillTypedValues(@RequestParam(required = false) Long templateId) {
+        try {
+            log.info("开始回填明细类型化取值，模板ID: {}", templateId);
+            return ApiResponse.success("回填完成", detailTypedValueService.backfill(templateId));
+        } catch (Exception e) {
+            log.error("回填明细类型化取值失败", e);
+            return ApiResponse.error("回填明细类型化取值失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 查询列式快照缓存状态
+     */
+    @GetMapping("/columnar/stats")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ApiResponse<Map<String, Object>> getColumnarStats() {
+        try {
+            return ApiResponse.success("查询成功", columnarSnapshotService.getStats());
+        } catch (Exception e) {
+            log.error("查询列式快照状态失败", e);
+            return ApiResponse.error("查询列式快照状态失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 释放列式快照（不指定模板时释放全部），下次查询重建
+     */
+    @PostMapping("/columnar/evict")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ApiResponse<Void> evictColumnar(@RequestParam(required = false) Long templateId) {
+        try {
+            log.info("释放列式快照，模板ID: {}", templateId);
+            columnarSnapshotService.evict(templateId);
+            return ApiResponse.success("释放完成", null);
+        } catch (Exception e) {
+            log.error("释放列式快照失败", e);
+            return ApiResponse.error("释放列式快照失败: " + e.getMessage());
+        }
+    }
+}
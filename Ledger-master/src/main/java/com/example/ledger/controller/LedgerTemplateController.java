@@ -11,6 +11,7 @@ import com.example.ledger.dto.response.LedgerTemplateResponse;
 import com.example.ledger.entity.LedgerTemplate;
 import com.example.ledger.service.FileStorageService;
 import com.example.ledger.service.LedgerTemplateService;
+import com.example.ledger.service.TemplateMetadataCache;
 import com.example.ledger.service.TemplateUploadService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -21,6 +22,7 @@ import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/template")
@@ -31,6 +33,7 @@ public class LedgerTemplateController {
     private final LedgerTemplateService ledgerTemplateService;
     private final TemplateUploadService templateUploadService;
     private final FileStorageService fileStorageService;
+    private final TemplateMetadataCache templateMetadataCache;
 
     /**
      * 获取模板列表
@@ -230,4 +233,18 @@ public class LedgerTemplateController {
             return ApiResponse.error("获取模板文件失败: " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 获取模板元数据缓存统计
+     */
+    @GetMapping("/cache/stats")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ApiResponse<Map<String, Object>> getMetadataCacheStats() {
+        try {
+            return ApiResponse.success("获取成功", templateMetadataCache.getStats());
+        } catch (Exception e) {
+            log.error("获取模板缓存统计失败", e);
+            return ApiResponse.error("获取模板缓存统计失败: " + e.getMessage());
+        }
+    }
+}
@@ -12,9 +12,13 @@ import com.example.ledger.entity.LedgerTemplate;
 import com.example.ledger.repository.LedgerTemplateRepository;
 import com.example.ledger.service.LedgerUploadService;
 import com.example.ledger.service.RequiredFieldConfigService;
+import com.example.ledger.service.UploadScheduler;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
@@ -39,7 +43,8 @@ public class LedgerUploadController {
     @PreAuthorize("hasRole('ADMIN') or hasRole('PRODUCTION')")
     public ApiResponse<LedgerUploadResponse> uploadLedgerData(
             @ModelAttribute LedgerUploadRequest request,
-            HttpServletRequest httpRequest) {
+            HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse) {
 
         try {
             log.info("接收到台账数据上传请求，单位: {}，文件名: {}，验证必填项: {}，跳过无效行: {}",
@@ -61,6 +66,9 @@ public class LedgerUploadController {
             // 获取客户端IP
             String uploadIp = getClientIp(httpRequest);
 
+            // 上传队列已满时在验证文件之前拒绝
+            ledgerUploadService.checkUploadCapacity(request.getUnitName());
+
             // 如果开启了必填项验证，先验证文件
             if (Boolean.TRUE.equals(request.getValidateRequiredFields())) {
                 try {
@@ -131,6 +139,12 @@ public class LedgerUploadController {
             LedgerUploadResponse response = ledgerUploadService.uploadLedgerData(request, uploadIp);
             return ApiResponse.success("上传已开始处理", response);
 
+        } catch (UploadScheduler.UploadRejectedException e) {
+            log.warn("上传队列已满，单位: {}，{}", request.getUnitName(), e.getMessage());
+            httpResponse.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            httpResponse.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()));
+            return ApiResponse.error(HttpStatus.TOO_MANY_REQUESTS.value(),
+                    e.getMessage() + "（建议" + e.getRetryAfterSeconds() + "秒后重试）");
         } catch (IOException e) {
             log.error("文件上传IO异常", e);
             return ApiResponse.error("文件上传失败: " + e.getMessage());
@@ -142,6 +156,20 @@ public class LedgerUploadController {
             return ApiResponse.error("上传失败: " + e.getMessage());
         }
     }
+    /**
+     * 上传调度统计：每个单位的排队数和等待时间
+     */
+    @GetMapping("/scheduler/stats")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ApiResponse<Map<String, Object>> getSchedulerStats() {
+        try {
+            return ApiResponse.success("查询成功", ledgerUploadService.getSchedulerStats());
+        } catch (Exception e) {
+            log.error("查询上传调度统计失败", e);
+            return ApiResponse.error("查询上传调度统计失败: " + e.getMessage());
+        }
+    }
+
     /**
      * 查询上传进度
      */
@@ -15,4 +15,5 @@ public class ExportLedgerRequest {
     private String unitName; // 可选，如果按单位导出
     private Boolean includeHeader = true; // 是否包含表头
     private String exportType = "SELECTED"; // ALL: 所有数据, SELECTED: 选择的数据
+    private String widthMode; // 列宽模式：AUTO-精确计算, ESTIMATE-采样估算, NONE-不调整，为空时使用配置
 }
\ No newline at end of file
@@ -0,0 +1,33 @@
+package com.example.ledger.dto.request;
+
+/**
+ * @author 霜月
+ * @create 2026/10/18 01:05
+ */
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 字段条件（在数据库中计算）
+ * 数字、日期类型的字段按 numeric_value / date_value 比较，其余字段按字段值字符串比较
+ */
+@Data
+public class FieldCondition {
+
+    public static final String EQ = "EQ";
+    public static final String NE = "NE";
+    public static final String GT = "GT";
+    public static final String GTE = "GTE";
+    public static final String LT = "LT";
+    public static final String LTE = "LTE";
+    public static final String BETWEEN = "BETWEEN";
+    public static final String IN = "IN";
+    public static final String LIKE = "LIKE";
+
+    private String field;              // 字段名（原始字段名或存储字段名 字段名_列字母）
+    private String operator = EQ;      // 操作符：EQ, NE, GT, GTE, LT, LTE, BETWEEN, IN, LIKE
+    private String value;              // 比较值（EQ/NE/GT/GTE/LT/LTE/LIKE）
+    private List<String> values;       // IN 的值列表；BETWEEN 为 [下限, 上限]（包含边界）
+}
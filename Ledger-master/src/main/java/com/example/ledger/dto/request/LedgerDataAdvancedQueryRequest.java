@@ -6,6 +6,7 @@ package com.example.ledger.dto.request;
  */
 
 import lombok.Data;
+import java.util.List;
 import java.util.Map;
 
 @Data
@@ -13,6 +14,7 @@ public class LedgerDataAdvancedQueryRequest {
     private String unitName;           // 单位名称
     private Long templateId;          // 模板ID
     private Map<String, Object> conditions; // 字段条件映射
+    private List<FieldCondition> fieldConditions; // 带操作符的字段条件（范围/IN/BETWEEN）
     private Boolean matchAll = true;  // true: 所有条件必须满足, false: 满足任一条件
     private Integer page = 1;
     private Integer size = 10;
@@ -0,0 +1,68 @@
+package com.example.ledger.dto.request;
+
+/**
+ * @author 霜月
+ * @create 2026/10/18 01:30
+ */
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 台账数据汇总/透视请求
+ * 分组维度和透视列取 UNIT、TEMPLATE、UPLOAD、MONTH（不区分大小写），其余按模板字段名处理
+ */
+@Data
+public class LedgerDataAggregateRequest {
+
+    // 分组维度
+    public static final String UNIT = "UNIT";
+    public static final String TEMPLATE = "TEMPLATE";
+    public static final String UPLOAD = "UPLOAD";
+    public static final String MONTH = "MONTH";
+
+    // 汇总函数
+    public static final String COUNT = "COUNT";
+    public static final String SUM = "SUM";
+    public static final String AVG = "AVG";
+    public static final String MIN = "MIN";
+    public static final String MAX = "MAX";
+
+    // 过滤条件
+    private String unitName;
+    private Long templateId;
+    private Long uploadId;
+    private String validationStatus;
+    private LocalDateTime startTime;
+    private LocalDateTime endTime;
+    private Integer year;
+    private Integer month;
+    // 字段条件（全部满足）
+    private List<FieldCondition> fieldConditions;
+
+    // 分组维度或字段名
+    private List<String> groupBy;
+    // 透视列：取值展开为列，每个取值 x 每个汇总项一列
+    private String pivotBy;
+    // 汇总项，为空时统计行数
+    private List<Metric> metrics;
+
+    // 返回的最大行数（分组数）
+    private Integer limit;
+    // 查询超时（秒）
+    private Integer timeoutSeconds;
+
+    // 权限控制
+    private Boolean viewOwnOnly = false;
+
+    @Data
+    public static class Metric {
+        // 字段名，COUNT 不指定字段时统计行数
+        private String field;
+        private String function = COUNT;
+        // 列名，为空时按"函数_字段名"生成
+        private String alias;
+    }
+}
@@ -3,6 +3,7 @@ package com.example.ledger.dto.request;
 import lombok.Data;
 
 import java.time.LocalDateTime;
+import java.util.List;
 
 /**
  * @author 霜月
@@ -21,12 +22,19 @@ public class LedgerDataDynamicQueryRequest {
     private Integer month;
     private String yearMonth;
 
+    // 字段条件（全部满足）
+    private List<FieldCondition> fieldConditions;
+
     // 分页和排序 - 修改默认排序
     private Integer page = 1;
     private Integer size = 10;
     private String sortField = "uploadId"; // 默认按上传ID排序
     private String sortOrder = "ASC";      // 默认升序
 
+    // 游标分页（仅游标查询接口使用）
+    private String cursor;                  // 上一页返回的nextCursor，首页为空
+    private String totalMode = "NONE";      // 总数模式：NONE-不统计，APPROXIMATE-首页统计后沿用，EXACT-每页统计
+
     // 权限控制
     private Boolean viewAll = false;
     private Boolean viewOwnOnly = false;
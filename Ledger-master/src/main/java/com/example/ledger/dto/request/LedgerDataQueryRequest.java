@@ -45,6 +45,10 @@ public class LedgerDataQueryRequest {
     private String sortField = "uploadId"; // 默认按上传ID排序
     private String sortOrder = "ASC";        // 默认升序
 
+    // 游标分页（仅游标查询接口使用）
+    private String cursor;                  // 上一页返回的nextCursor，首页为空
+    private String totalMode = "NONE";      // 总数模式：NONE-不统计，APPROXIMATE-首页统计后沿用，EXACT-每页统计
+
     // 权限控制
     private Boolean viewAll = false;  // 是否查看所有数据（管理员权限）
     private Boolean viewOwnOnly = false; // 是否只看自己的数据
@@ -13,7 +13,8 @@ public class LedgerUploadRequest {
     private String unitName;  // 单位名称
     private MultipartFile file;  // Excel文件
     private String description;  // 上传描述（可选）
-    private String processMode = "REPLACE";  // REPLACE-全量替换, UPDATE-智能更新, INSERT-仅新增
+    private String processMode = "REPLACE";  // REPLACE-全量替换, DIFF-按业务主键增量更新
+    private String businessKeyFields;  // 差异上传的业务主键字段（逗号分隔），为空时使用模板配置
     private Boolean keepHistorical = true;
     private Boolean validateRequiredFields = true;  // 是否验证必填项
     private Boolean skipInvalidRows = false;  // 是否跳过无效行
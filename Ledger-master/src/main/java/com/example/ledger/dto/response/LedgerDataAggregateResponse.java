@@ -0,0 +1,38 @@
+package com.example.ledger.dto.response;
+
+/**
+ * @author 霜月
+ * @create 2026/10/18 01:35
+ */
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class LedgerDataAggregateResponse {
+    private List<Column> columns;                    // 列定义（分组列在前，汇总列在后）
+    private List<List<Object>> rows;                 // 每行按列定义顺序排列
+    private Integer rowCount;                        // 返回行数
+    private Boolean truncated;                       // 分组数超过行数限制时为true
+    private String source;                           // 结果来源：DATABASE-数据库，SNAPSHOT-列式快照
+    private Long elapsedMillis;                      // 查询耗时
+
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Column {
+        private String name;                         // 列名
+        private String kind;                         // DIMENSION-分组列，METRIC-汇总列
+        private String function;                     // 汇总函数（分组列为空）
+        private String field;                        // 字段名（按维度分组或统计行数时为空）
+        private String pivotValue;                   // 透视取值（未透视时为空）
+    }
+}
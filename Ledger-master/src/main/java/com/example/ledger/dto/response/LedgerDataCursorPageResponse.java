@@ -0,0 +1,26 @@
+package com.example.ledger.dto.response;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 15:12
+ */
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class LedgerDataCursorPageResponse {
+    private List<LedgerDataResponse> data;           // 当前页数据
+    private Integer pageSize;                        // 每页大小
+    private Boolean hasNext;                         // 是否有下一页
+    private String nextCursor;                       // 下一页游标（没有下一页时为空）
+    private Long totalElements;                      // 总记录数（totalMode为NONE时为空）
+    private String totalMode;                        // 总数模式：NONE, APPROXIMATE, EXACT
+}
@@ -0,0 +1,25 @@
+package com.example.ledger.dto.response;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 15:14
+ */
+// LedgerDataDynamicCursorPageResponse.java - 动态列游标分页响应
+@Data
+@Builder
+public class LedgerDataDynamicCursorPageResponse {
+    private List<LedgerDataDynamicResponse> data;
+    private Integer pageSize;
+    private Boolean hasNext;
+    private String nextCursor;
+    private Long totalElements;
+    private String totalMode;
+
+    // 额外信息：当前查询的模板字段定义
+    private List<LedgerDataDynamicResponse.TemplateFieldInfo> currentTemplateFields;
+}
@@ -28,6 +28,7 @@ public class LedgerDataPageResponse {
     private List<String> fieldNames;                 // 字段名称列表
     private List<String> unitNames;                  // 单位名称列表
     private QueryStats stats;                        // 查询统计
+    private Boolean truncated;                       // 全文检索候选数据达到上限，结果只包含相关度最高的部分
 
     @Data
     @Builder
@@ -27,6 +27,7 @@ public class LedgerTemplateResponse {
     private Integer headerRowCount;
     private Integer dataStartRow;
     private Integer columnCount;
+    private String businessKeyFields;  // 差异上传的业务主键字段
 
     @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
     private LocalDateTime createdTime;
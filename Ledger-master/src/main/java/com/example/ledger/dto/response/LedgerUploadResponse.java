@@ -41,6 +41,13 @@ public class LedgerUploadResponse {
     private Integer oldDataCount;   // 旧数据数量
     private Boolean isCoverageUpdate; // 是否执行覆盖更新
 
+    // 差异上传统计
+    private String processMode;
+    private Integer insertedRows;
+    private Integer updatedRows;
+    private Integer deletedRows;
+    private Integer unchangedRows;
+
     // 构造方法（可选）
     public LedgerUploadResponse() {
     }
@@ -14,7 +14,15 @@ import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "ledger_data")
+@Table(name = "ledger_data", indexes = {
+        @Index(name = "idx_ledger_data_unit_month", columnList = "unit_name, created_month"),
+        @Index(name = "idx_ledger_data_unit_time", columnList = "unit_name, deleted, created_time"),
+        @Index(name = "idx_ledger_data_unit_latest", columnList = "unit_name, deleted, is_latest"),
+        @Index(name = "idx_ledger_data_user_unit", columnList = "created_by, unit_name, deleted"),
+        @Index(name = "idx_ledger_data_upload_row", columnList = "upload_id, row_num"),
+        @Index(name = "idx_ledger_data_template", columnList = "template_id, deleted"),
+        @Index(name = "idx_ledger_data_historical", columnList = "historical_data_id")
+})
 @Data
 @EntityListeners(AuditingEntityListener.class)
 public class LedgerData {
@@ -73,4 +81,12 @@ public class LedgerData {
 
     @Column(name = "data_version", nullable = false)
     private Integer dataVersion = 1;  // 数据版本号
+
+    @Column(name = "packed_values", columnDefinition = "JSON")
+    private String packedValues;      // 紧凑存储的字段值（按sortOrder排列），为空时从明细表读取
+
+    // 创建年月（yyyyMM），由数据库根据创建时间生成，用于年月查询和按月分区
+    @Column(name = "created_month", insertable = false, updatable = false,
+            columnDefinition = "INT GENERATED ALWAYS AS (YEAR(created_time) * 100 + MONTH(created_time)) STORED")
+    private Integer createdMonth;
 }
@@ -11,9 +11,17 @@ import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.LastModifiedDate;
 import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 
+import java.math.BigDecimal;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 @Entity
-@Table(name = "ledger_data_detail")
+@Table(name = "ledger_data_detail", indexes = {
+        // field_value 为TEXT，(field_name, field_value) 前缀索引和 field_value 全文索引由 IndexAdvisorService 维护
+        @Index(name = "idx_detail_data_field", columnList = "data_id, field_name"),
+        // 数字/日期字段的范围查询
+        @Index(name = "idx_detail_field_numeric", columnList = "field_name, numeric_value"),
+        @Index(name = "idx_detail_field_date", columnList = "field_name, date_value")
+})
 @Data
 @EntityListeners(AuditingEntityListener.class)  // 确保有这个注解
 public class LedgerDataDetail {
@@ -34,6 +42,12 @@ public class LedgerDataDetail {
     @Column(name = "original_value", columnDefinition = "TEXT")
     private String originalValue;  // 原始值（未转换）
 
+    @Column(name = "numeric_value", precision = 38, scale = 10)
+    private BigDecimal numericValue;  // 数字字段的值（按字段类型转换，用于范围查询）
+
+    @Column(name = "date_value")
+    private LocalDate dateValue;  // 日期字段的值（按字段类型转换，用于范围查询）
+
     @Column(name = "is_empty", nullable = false)
     private Boolean isEmpty = false;  // 是否为空
 
@@ -13,7 +13,11 @@ import org.springframework.data.annotation.LastModifiedDate;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "ledger_edit_history")
+@Table(name = "ledger_edit_history", indexes = {
+        @Index(name = "idx_edit_history_data_time", columnList = "data_id, edit_time"),
+        @Index(name = "idx_edit_history_user_time", columnList = "edited_by, edit_time"),
+        @Index(name = "idx_edit_history_time", columnList = "edit_time")
+})
 @Data
 public class LedgerEditHistory {
 
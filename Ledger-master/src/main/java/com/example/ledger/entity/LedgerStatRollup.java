@@ -0,0 +1,52 @@
+package com.example.ledger.entity;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 22:10
+ */
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 台账数据统计汇总（按 单位 + 用户 + 模板 + 创建年月 汇总未删除数据的行数）
+ * 上传、编辑、删除、恢复时在同一事务中增量更新，统计接口直接读取汇总表
+ */
+@Entity
+@Table(name = "ledger_stat_rollup", uniqueConstraints = @UniqueConstraint(
+        name = "uk_stat_rollup_key",
+        columnNames = {"unit_name", "user_id", "template_id", "created_month"}
+))
+@Data
+public class LedgerStatRollup {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "unit_name", nullable = false, length = 100)
+    private String unitName;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;  // 数据创建人
+
+    @Column(name = "template_id", nullable = false)
+    private Long templateId;
+
+    @Column(name = "created_month", nullable = false)
+    private Integer createdMonth;  // 创建年月（yyyyMM）
+
+    @Column(name = "total_rows", nullable = false)
+    private Long totalRows = 0L;
+
+    @Column(name = "valid_rows", nullable = false)
+    private Long validRows = 0L;
+
+    @Column(name = "invalid_rows", nullable = false)
+    private Long invalidRows = 0L;
+
+    @Column(name = "updated_time", nullable = false)
+    private LocalDateTime updatedTime;
+}
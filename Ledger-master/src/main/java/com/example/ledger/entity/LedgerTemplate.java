@@ -13,7 +13,9 @@ import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "ledger_template")
+@Table(name = "ledger_template", indexes = {
+        @Index(name = "idx_template_unit", columnList = "unit_name, deleted")
+})
 @Data
 @EntityListeners(AuditingEntityListener.class)
 public class LedgerTemplate {
@@ -67,4 +69,7 @@ public class LedgerTemplate {
 
     @Column(name = "has_template_file")
     private Boolean hasTemplateFile = false;
+
+    @Column(name = "business_key_fields", length = 500)
+    private String businessKeyFields;  // 差异上传的业务主键字段（逗号分隔，字段名或字段标签）
 }
\ No newline at end of file
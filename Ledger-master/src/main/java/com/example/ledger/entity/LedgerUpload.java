@@ -13,7 +13,11 @@ import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "ledger_upload")
+@Table(name = "ledger_upload", indexes = {
+        @Index(name = "idx_upload_user_unit_time", columnList = "user_id, unit_name, deleted, upload_time"),
+        @Index(name = "idx_upload_unit_time", columnList = "unit_name, deleted, upload_time"),
+        @Index(name = "idx_upload_template", columnList = "template_id, deleted")
+})
 @Data
 @EntityListeners(AuditingEntityListener.class)
 public class LedgerUpload {
@@ -79,4 +83,16 @@ public class LedgerUpload {
 
     @Column(name = "replace_count", nullable = false)
     private Integer replaceCount = 0;        // 替换次数
+
+    @Column(name = "inserted_rows")
+    private Integer insertedRows = 0;        // 差异上传：新增行数
+
+    @Column(name = "updated_rows")
+    private Integer updatedRows = 0;         // 差异上传：修改行数
+
+    @Column(name = "deleted_rows")
+    private Integer deletedRows = 0;         // 差异上传：删除行数
+
+    @Column(name = "unchanged_rows")
+    private Integer unchangedRows = 0;       // 差异上传：未变化行数
 }
@@ -13,7 +13,9 @@ import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "required_field_config")
+@Table(name = "required_field_config", indexes = {
+        @Index(name = "idx_required_field_template", columnList = "template_id, field_name")
+})
 @Data
 @EntityListeners(AuditingEntityListener.class)
 public class RequiredFieldConfig {
@@ -0,0 +1,109 @@
+package com.example.ledger.entity;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 18:00
+ */
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 上传处理任务（持久化的任务状态、租约和断点）
+ * 处理节点持有租约并定期续约，租约过期的任务由回收任务重新调度，从最后提交的批次继续处理
+ */
+@Entity
+@Table(name = "ledger_upload_job", indexes = {
+        @Index(name = "idx_upload_job_upload", columnList = "upload_id"),
+        @Index(name = "idx_upload_job_status_lease", columnList = "status, lease_until")
+})
+@Data
+public class UploadJob {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "upload_id", nullable = false)
+    private Long uploadId;  // 上传记录ID
+
+    @Column(name = "template_id", nullable = false)
+    private Long templateId;  // 模板ID
+
+    @Column(name = "unit_name", nullable = false, length = 100)
+    private String unitName;  // 单位名称
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;  // 上传用户ID
+
+    @Column(name = "temp_file_path", length = 500)
+    private String tempFilePath;  // 临时文件路径（不存在时使用上传记录的永久文件）
+
+    @Column(name = "validate_required_fields", nullable = false)
+    private Boolean validateRequiredFields = true;
+
+    @Column(name = "skip_invalid_rows", nullable = false)
+    private Boolean skipInvalidRows = false;
+
+    @Column(name = "replace_existing", nullable = false)
+    private Boolean replaceExisting = true;
+
+    @Column(name = "process_mode", length = 20)
+    private String processMode = "REPLACE";  // 处理模式：REPLACE-全量替换, DIFF-按业务主键增量更新
+
+    @Column(name = "business_key_fields", length = 500)
+    private String businessKeyFields;  // 差异上传的业务主键（存储字段名，逗号分隔）
+
+    @Column(name = "status", nullable = false, length = 20)
+    private String status = "PENDING";  // 任务状态：PENDING-待处理, RUNNING-处理中, SUCCESS-成功, PARTIAL_SUCCESS-部分成功, FAILED-失败, CANCELLED-已取消
+
+    @Column(name = "cleanup_done", nullable = false)
+    private Boolean cleanupDone = false;  // 覆盖更新的旧数据是否已清理
+
+    @Column(name = "last_committed_row", nullable = false)
+    private Integer lastCommittedRow = 0;  // 最后提交批次的台账行号（断点）
+
+    @Column(name = "total_rows", nullable = false)
+    private Integer totalRows = 0;
+
+    @Column(name = "processed_rows", nullable = false)
+    private Integer processedRows = 0;
+
+    @Column(name = "success_rows", nullable = false)
+    private Integer successRows = 0;
+
+    @Column(name = "failed_rows", nullable = false)
+    private Integer failedRows = 0;
+
+    @Column(name = "rows_per_second", nullable = false)
+    private Integer rowsPerSecond = 0;
+
+    @Column(name = "current_processing", length = 255)
+    private String currentProcessing;  // 当前处理说明
+
+    @Column(name = "error_message", columnDefinition = "TEXT")
+    private String errorMessage;
+
+    @Column(name = "attempts", nullable = false)
+    private Integer attempts = 0;  // 已执行次数
+
+    @Column(name = "lease_owner", length = 100)
+    private String leaseOwner;  // 持有租约的节点
+
+    @Column(name = "lease_until")
+    private LocalDateTime leaseUntil;  // 租约到期时间
+
+    @Column(name = "heartbeat_time")
+    private LocalDateTime heartbeatTime;  // 最近心跳时间
+
+    @Column(name = "created_time", nullable = false)
+    private LocalDateTime createdTime;
+
+    @Column(name = "updated_time", nullable = false)
+    private LocalDateTime updatedTime;
+
+    @Column(name = "completed_time")
+    private LocalDateTime completedTime;
+}
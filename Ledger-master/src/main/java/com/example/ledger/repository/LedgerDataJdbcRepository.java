@@ -0,0 +1,298 @@
+package com.example.ledger.repository;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 10:05
+ */
+
+import com.example.ledger.entity.LedgerData;
+import com.example.ledger.entity.LedgerDataDetail;
+import com.example.ledger.entity.LedgerEditHistory;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 台账数据批量写入 - 使用多行INSERT绕过IDENTITY主键对Hibernate批处理的限制
+ * 主表按插入顺序回填自增ID，保证行号与ID的对应关系
+ */
+@Repository
+@RequiredArgsConstructor
+@Slf4j
+public class LedgerDataJdbcRepository {
+
+    private static final String DATA_INSERT_PREFIX = "INSERT INTO ledger_data (upload_id, template_id, unit_name, row_num, " +
+            "data_status, validation_status, validation_errors, created_by, created_time, updated_by, updated_time, " +
+            "deleted, is_latest, upload_batch, historical_data_id, data_version, packed_values) VALUES ";
+    private static final String DATA_VALUES = "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String DETAIL_INSERT_PREFIX = "INSERT INTO ledger_data_detail (data_id, field_name, field_value, " +
+            "original_value, numeric_value, date_value, is_empty, is_valid, validation_message, sort_order, " +
+            "created_time, updated_time) VALUES ";
+    private static final String DETAIL_VALUES = "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String HISTORY_INSERT_PREFIX = "INSERT INTO ledger_edit_history (data_id, field_name, " +
+            "old_value, new_value, edit_type, edit_reason, edited_by, edited_by_name, validation_result, " +
+            "validation_message, ip_address, edit_time, deleted) VALUES ";
+    private static final String HISTORY_VALUES = "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // 单条INSERT语句包含的最大行数
+    @Value("${app.upload.insert-rows-per-statement:500}")
+    private int rowsPerStatement;
+
+    /**
+     * 批量插入主数据，并按顺序回填生成的ID
+     */
+    public void batchInsertData(List<LedgerData> dataList) {
+        for (List<LedgerData> chunk : partition(dataList)) {
+            String sql = buildSql(DATA_INSERT_PREFIX, DATA_VALUES, chunk.size());
+            jdbcTemplate.execute((Connection con) -> {
+                try (PreparedStatement ps = con.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                    int index = 1;
+                    for (LedgerData data : chunk) {
+                        index = bindData(ps, index, data);
+                    }
+                    ps.executeUpdate();
+
+                    try (ResultSet keys = ps.getGeneratedKeys()) {
+                        int i = 0;
+                        while (keys.next() && i < chunk.size()) {
+                            chunk.get(i++).setId(keys.getLong(1));
+                        }
+                        if (i != chunk.size()) {
+                            throw new SQLException("返回的主键数量与插入行数不一致: " + i + "/" + chunk.size());
+                        }
+                    }
+                }
+                return null;
+            });
+        }
+    }
+
+    /**
+     * 批量插入明细数据
+     */
+    public void batchInsertDetails(List<LedgerDataDetail> details) {
+        for (List<LedgerDataDetail> chunk : partition(details)) {
+            String sql = buildSql(DETAIL_INSERT_PREFIX, DETAIL_VALUES, chunk.size());
+            jdbcTemplate.update(sql, ps -> {
+                int index = 1;
+                for (LedgerDataDetail detail : chunk) {
+                    index = bindDetail(ps, index, detail);
+                }
+            });
+        }
+    }
+
+    /**
+     * 批量回写紧凑存储的字段值
+     */
+    public void batchUpdatePackedValues(Map<Long, String> packedValues) {
+        if (packedValues.isEmpty()) {
+            return;
+        }
+        List<Map.Entry<Long, String>> entries = new ArrayList<>(packedValues.entrySet());
+        jdbcTemplate.batchUpdate("UPDATE ledger_data SET packed_values = ? WHERE id = ?", entries,
+                Math.max(rowsPerStatement, 1), (ps, entry) -> {
+                    ps.setString(1, entry.getValue());
+                    ps.setLong(2, entry.getKey());
+                });
+    }
+
+    /**
+     * 批量更新明细字段值（按数据ID和字段名定位）
+     */
+    public void batchUpdateDetailValues(List<LedgerDataDetail> details) {
+        if (details.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate("UPDATE ledger_data_detail SET field_value = ?, original_value = ?, numeric_value = ?, " +
+                        "date_value = ?, is_empty = ?, is_valid = ?, validation_message = ?, updated_time = ? " +
+                        "WHERE data_id = ? AND field_name = ?",
+                details, Math.max(rowsPerStatement, 1), (ps, detail) -> {
+                    ps.setString(1, detail.getFieldValue());
+                    ps.setString(2, detail.getOriginalValue());
+                    ps.setBigDecimal(3, detail.getNumericValue());
+                    ps.setObject(4, detail.getDateValue() != null ? Date.valueOf(detail.getDateValue()) : null,
+                            Types.DATE);
+                    ps.setBoolean(5, Boolean.TRUE.equals(detail.getIsEmpty()));
+                    ps.setBoolean(6, !Boolean.FALSE.equals(detail.getIsValid()));
+                    ps.setString(7, detail.getValidationMessage());
+                    ps.setTimestamp(8, toTimestamp(detail.getUpdatedTime()));
+                    ps.setLong(9, detail.getDataId());
+                    ps.setString(10, detail.getFieldName());
+                });
+    }
+
+    /**
+     * 批量更新差异上传修改的行：行号、打包值、验证状态及错误信息、修改人，版本号加1
+     */
+    public void batchUpdateChangedRows(List<LedgerData> dataList) {
+        if (dataList.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate("UPDATE ledger_data SET row_num = ?, packed_values = ?, validation_status = ?, " +
+                        "validation_errors = ?, updated_by = ?, updated_time = ?, data_version = data_version + 1 " +
+                        "WHERE id = ?",
+                dataList, Math.max(rowsPerStatement, 1), (ps, data) -> {
+                    ps.setInt(1, data.getRowNumber());
+                    ps.setString(2, data.getPackedValues());
+                    ps.setString(3, data.getValidationStatus());
+                    ps.setString(4, data.getValidationErrors());
+                    ps.setObject(5, data.getUpdatedBy(), Types.BIGINT);
+                    ps.setTimestamp(6, toTimestamp(data.getUpdatedTime()));
+                    ps.setLong(7, data.getId());
+                });
+    }
+
+    /**
+     * 批量更新行号（内容未变化、位置变化的行）
+     */
+    public void batchUpdateRowNumbers(Map<Long, Integer> rowNumbers) {
+        if (rowNumbers.isEmpty()) {
+            return;
+        }
+        List<Map.Entry<Long, Integer>> entries = new ArrayList<>(rowNumbers.entrySet());
+        jdbcTemplate.batchUpdate("UPDATE ledger_data SET row_num = ? WHERE id = ?", entries,
+                Math.max(rowsPerStatement, 1), (ps, entry) -> {
+                    ps.setInt(1, entry.getValue());
+                    ps.setLong(2, entry.getKey());
+                });
+    }
+
+    /**
+     * 删除用户在某单位除指定上传外的全部明细数据（覆盖更新），按子查询一次删除，不加载主数据
+     */
+    public int deleteDetailsByUserAndUnit(Long userId, String unitName, Long keepUploadId) {
+        // 多表 DELETE：MySQL 8.0.21 之前 DELETE ... IN (子查询) 不能使用半连接，会逐行扫描明细表
+        return jdbcTemplate.update("DELETE d FROM ledger_data_detail d JOIN ledger_data l ON d.data_id = l.id " +
+                "WHERE l.created_by = ? AND l.unit_name = ? AND l.upload_id <> ? AND l.deleted = 0",
+                userId, unitName, keepUploadId);
+    }
+
+    /**
+     * 删除用户在某单位除指定上传外的全部主数据（覆盖更新），需先删除明细数据
+     */
+    public int deleteDataByUserAndUnit(Long userId, String unitName, Long keepUploadId) {
+        return jdbcTemplate.update("DELETE FROM ledger_data WHERE created_by = ? AND unit_name = ? " +
+                "AND upload_id <> ? AND deleted = 0", userId, unitName, keepUploadId);
+    }
+
+    /**
+     * 删除某次上传写入的全部明细数据（覆盖更新失败时丢弃已写入的部分数据）
+     */
+    public int deleteDetailsByUpload(Long uploadId) {
+        return jdbcTemplate.update("DELETE d FROM ledger_data_detail d JOIN ledger_data l ON d.data_id = l.id " +
+                "WHERE l.upload_id = ?", uploadId);
+    }
+
+    /**
+     * 删除某次上传写入的全部主数据，需先删除明细数据
+     */
+    public int deleteDataByUpload(Long uploadId) {
+        return jdbcTemplate.update("DELETE FROM ledger_data WHERE upload_id = ?", uploadId);
+    }
+
+    /**
+     * 批量插入编辑历史
+     */
+    public void batchInsertHistory(List<LedgerEditHistory> histories) {
+        for (List<LedgerEditHistory> chunk : partition(histories)) {
+            String sql = buildSql(HISTORY_INSERT_PREFIX, HISTORY_VALUES, chunk.size());
+            jdbcTemplate.update(sql, ps -> {
+                int index = 1;
+                for (LedgerEditHistory history : chunk) {
+                    ps.setLong(index++, history.getDataId());
+                    ps.setString(index++, history.getFieldName());
+                    ps.setString(index++, history.getOldValue());
+                    ps.setString(index++, history.getNewValue());
+                    ps.setString(index++, history.getEditType());
+                    ps.setString(index++, history.getEditReason());
+                    ps.setLong(index++, history.getEditedBy());
+                    ps.setString(index++, history.getEditedByName());
+                    ps.setString(index++, history.getValidationResult());
+                    ps.setString(index++, history.getValidationMessage());
+                    ps.setString(index++, history.getIpAddress());
+                    ps.setTimestamp(index++, toTimestamp(history.getEditTime()));
+                    ps.setBoolean(index++, Boolean.TRUE.equals(history.getDeleted()));
+                }
+            });
+        }
+    }
+
+    private int bindData(PreparedStatement ps, int index, LedgerData data) throws SQLException {
+        ps.setLong(index++, data.getUploadId());
+        ps.setLong(index++, data.getTemplateId());
+        ps.setString(index++, data.getUnitName());
+        ps.setInt(index++, data.getRowNumber());
+        ps.setString(index++, data.getDataStatus());
+        ps.setString(index++, data.getValidationStatus());
+        ps.setString(index++, data.getValidationErrors());
+        ps.setLong(index++, data.getCreatedBy());
+        ps.setTimestamp(index++, toTimestamp(data.getCreatedTime()));
+        ps.setObject(index++, data.getUpdatedBy(), Types.BIGINT);
+        ps.setTimestamp(index++, toTimestamp(data.getUpdatedTime()));
+        ps.setBoolean(index++, Boolean.TRUE.equals(data.getDeleted()));
+        ps.setBoolean(index++, !Boolean.FALSE.equals(data.getIsLatest()));
+        ps.setInt(index++, data.getUploadBatch() != null ? data.getUploadBatch() : 1);
+        ps.setObject(index++, data.getHistoricalDataId(), Types.BIGINT);
+        ps.setInt(index++, data.getDataVersion() != null ? data.getDataVersion() : 1);
+        ps.setString(index++, data.getPackedValues());
+        return index;
+    }
+
+    private int bindDetail(PreparedStatement ps, int index, LedgerDataDetail detail) throws SQLException {
+        ps.setLong(index++, detail.getDataId());
+        ps.setString(index++, detail.getFieldName());
+        ps.setString(index++, detail.getFieldValue());
+        ps.setString(index++, detail.getOriginalValue());
+        ps.setBigDecimal(index++, detail.getNumericValue());
+        ps.setObject(index++, detail.getDateValue() != null ? Date.valueOf(detail.getDateValue()) : null, Types.DATE);
+        ps.setBoolean(index++, Boolean.TRUE.equals(detail.getIsEmpty()));
+        ps.setBoolean(index++, !Boolean.FALSE.equals(detail.getIsValid()));
+        ps.setString(index++, detail.getValidationMessage());
+        ps.setInt(index++, detail.getSortOrder() != null ? detail.getSortOrder() : 0);
+        ps.setTimestamp(index++, toTimestamp(detail.getCreatedTime()));
+        ps.setTimestamp(index++, toTimestamp(detail.getUpdatedTime()));
+        return index;
+    }
+
+    private Timestamp toTimestamp(LocalDateTime time) {
+        return Timestamp.valueOf(time != null ? time : LocalDateTime.now());
+    }
+
+    private String buildSql(String prefix, String values, int rows) {
+        StringBuilder sb = new StringBuilder(prefix.length() + (values.length() + 1) * rows);
+        sb.append(prefix);
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(values);
+        }
+        return sb.toString();
+    }
+
+    private <T> List<List<T>> partition(List<T> list) {
+        if (list == null || list.isEmpty()) {
+            return Collections.emptyList();
+        }
+        int size = Math.max(rowsPerStatement, 1);
+        List<List<T>> chunks = new ArrayList<>();
+        for (int i = 0; i < list.size(); i += size) {
+            chunks.add(list.subList(i, Math.min(i + size, list.size())));
+        }
+        return chunks;
+    }
+}
@@ -6,6 +6,7 @@ package com.example.ledger.repository;
  */
 
 import com.example.ledger.entity.LedgerData;
+import com.example.ledger.util.CreatedMonth;
 import jakarta.transaction.Transactional;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -19,6 +20,7 @@ import org.springframework.stereotype.Repository;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 @Repository
 public interface LedgerDataRepository extends JpaRepository<LedgerData, Long>, JpaSpecificationExecutor<LedgerData> {
@@ -176,111 +178,194 @@ public interface LedgerDataRepository extends JpaRepository<LedgerData, Long>, J
     List<Long> findUploadIdsByUserIdAndUnitName(@Param("userId") Long userId, @Param("unitName") String unitName);
 
     /**
-     * 按年份查询数据（原生SQL）
+     * 按创建年月范围查询数据（created_month 上的范围条件，可使用索引和分区裁剪）
      */
-    @Query(value = "SELECT * FROM ledger_data WHERE YEAR(created_time) = :year AND deleted = false ORDER BY created_time DESC",
+    @Query(value = "SELECT * FROM ledger_data WHERE created_month BETWEEN :startMonth AND :endMonth " +
+            "AND deleted = false ORDER BY created_time DESC",
             nativeQuery = true)
-    List<LedgerData> findByYear(@Param("year") int year);
+    List<LedgerData> findByCreatedMonthRange(@Param("startMonth") int startMonth, @Param("endMonth") int endMonth);
 
     /**
-     * 按年月查询数据（原生SQL）
+     * 按单位和创建年月范围查询数据
      */
-    @Query(value = "SELECT * FROM ledger_data WHERE YEAR(created_time) = :year AND MONTH(created_time) = :month AND deleted = false ORDER BY created_time DESC",
+    @Query(value = "SELECT * FROM ledger_data WHERE unit_name = :unitName " +
+            "AND created_month BETWEEN :startMonth AND :endMonth AND deleted = false ORDER BY created_time DESC",
             nativeQuery = true)
-    List<LedgerData> findByYearAndMonth(@Param("year") int year, @Param("month") int month);
+    List<LedgerData> findByUnitNameAndCreatedMonthRange(@Param("unitName") String unitName,
+                                                        @Param("startMonth") int startMonth,
+                                                        @Param("endMonth") int endMonth);
 
     /**
-     * 按单位和年月查询数据（原生SQL）
+     * 按创建年月范围分页查询数据
      */
-    @Query(value = "SELECT * FROM ledger_data WHERE unit_name = :unitName AND YEAR(created_time) = :year AND MONTH(created_time) = :month AND deleted = false ORDER BY created_time DESC",
+    @Query(value = "SELECT * FROM ledger_data WHERE created_month BETWEEN :startMonth AND :endMonth " +
+            "AND deleted = false ORDER BY created_time DESC",
+            countQuery = "SELECT COUNT(*) FROM ledger_data WHERE created_month BETWEEN :startMonth AND :endMonth " +
+                    "AND deleted = false",
             nativeQuery = true)
-    List<LedgerData> findByUnitNameAndYearAndMonth(@Param("unitName") String unitName,
-                                                   @Param("year") int year,
-                                                   @Param("month") int month);
+    Page<LedgerData> findByCreatedMonthRange(@Param("startMonth") int startMonth,
+                                             @Param("endMonth") int endMonth,
+                                             Pageable pageable);
 
     /**
-     * 按单位和年份查询数据（原生SQL）
+     * 按单位和创建年月范围分页查询数据
      */
-    @Query(value = "SELECT * FROM ledger_data WHERE unit_name = :unitName AND YEAR(created_time) = :year AND deleted = false ORDER BY created_time DESC",
+    @Query(value = "SELECT * FROM ledger_data WHERE unit_name = :unitName " +
+            "AND created_month BETWEEN :startMonth AND :endMonth AND deleted = false ORDER BY created_time DESC",
+            countQuery = "SELECT COUNT(*) FROM ledger_data WHERE unit_name = :unitName " +
+                    "AND created_month BETWEEN :startMonth AND :endMonth AND deleted = false",
             nativeQuery = true)
-    List<LedgerData> findByUnitNameAndYear(@Param("unitName") String unitName, @Param("year") int year);
+    Page<LedgerData> findByUnitNameAndCreatedMonthRange(@Param("unitName") String unitName,
+                                                        @Param("startMonth") int startMonth,
+                                                        @Param("endMonth") int endMonth,
+                                                        Pageable pageable);
 
     /**
-     * 获取所有不重复的年份
+     * 按年份查询数据
      */
-    @Query(value = "SELECT DISTINCT YEAR(created_time) as year FROM ledger_data WHERE deleted = false ORDER BY year DESC",
-            nativeQuery = true)
-    List<Integer> findAllDistinctYears();
+    default List<LedgerData> findByYear(int year) {
+        return findByCreatedMonthRange(CreatedMonth.start(year, null), CreatedMonth.end(year, null));
+    }
 
     /**
-     * 按单位获取不重复的年份
+     * 按年月查询数据
      */
-    @Query(value = "SELECT DISTINCT YEAR(created_time) as year FROM ledger_data WHERE unit_name = :unitName AND deleted = false ORDER BY year DESC",
-            nativeQuery = true)
-    List<Integer> findDistinctYearsByUnitName(@Param("unitName") String unitName);
+    default List<LedgerData> findByYearAndMonth(int year, int month) {
+        return findByCreatedMonthRange(CreatedMonth.of(year, month), CreatedMonth.of(year, month));
+    }
 
     /**
-     * 获取所有不重复的年月
+     * 按单位和年月查询数据
      */
-    @Query(value = "SELECT DISTINCT CONCAT(YEAR(created_time), '-', LPAD(MONTH(created_time), 2, '0')) as yearMonth FROM ledger_data WHERE deleted = false ORDER BY yearMonth DESC",
-            nativeQuery = true)
-    List<String> findAllDistinctYearMonths();
+    default List<LedgerData> findByUnitNameAndYearAndMonth(String unitName, int year, int month) {
+        return findByUnitNameAndCreatedMonthRange(unitName, CreatedMonth.of(year, month), CreatedMonth.of(year, month));
+    }
 
     /**
-     * 按单位获取不重复的年月
+     * 按单位和年份查询数据
      */
-    @Query(value = "SELECT DISTINCT CONCAT(YEAR(created_time), '-', LPAD(MONTH(created_time), 2, '0')) as yearMonth FROM ledger_data WHERE unit_name = :unitName AND deleted = false ORDER BY yearMonth DESC",
-            nativeQuery = true)
-    List<String> findDistinctYearMonthsByUnitName(@Param("unitName") String unitName);
+    default List<LedgerData> findByUnitNameAndYear(String unitName, int year) {
+        return findByUnitNameAndCreatedMonthRange(unitName, CreatedMonth.start(year, null), CreatedMonth.end(year, null));
+    }
 
     /**
-     * 按年份查询数据（原生SQL） - 修复排序字段
+     * 按年份分页查询数据
      */
-    @Query(value = "SELECT * FROM ledger_data WHERE YEAR(created_time) = :year AND deleted = false ORDER BY created_time DESC",
-            countQuery = "SELECT COUNT(*) FROM ledger_data WHERE YEAR(created_time) = :year AND deleted = false",
-            nativeQuery = true)
-    Page<LedgerData> findByYear(@Param("year") int year, Pageable pageable);
+    default Page<LedgerData> findByYear(int year, Pageable pageable) {
+        return findByCreatedMonthRange(CreatedMonth.start(year, null), CreatedMonth.end(year, null), pageable);
+    }
 
     /**
-     * 按年月查询数据（原生SQL） - 修复排序字段
+     * 按年月分页查询数据
      */
-    @Query(value = "SELECT * FROM ledger_data WHERE YEAR(created_time) = :year AND MONTH(created_time) = :month AND deleted = false ORDER BY created_time DESC",
-            countQuery = "SELECT COUNT(*) FROM ledger_data WHERE YEAR(created_time) = :year AND MONTH(created_time) = :month AND deleted = false",
-            nativeQuery = true)
-    Page<LedgerData> findByYearAndMonth(@Param("year") int year, @Param("month") int month, Pageable pageable);
+    default Page<LedgerData> findByYearAndMonth(int year, int month, Pageable pageable) {
+        return findByCreatedMonthRange(CreatedMonth.of(year, month), CreatedMonth.of(year, month), pageable);
+    }
 
     /**
-     * 按单位和年份查询数据（原生SQL） - 修复排序字段
+     * 按单位和年份分页查询数据
      */
-    @Query(value = "SELECT * FROM ledger_data WHERE unit_name = :unitName AND YEAR(created_time) = :year AND deleted = false ORDER BY created_time DESC",
-            countQuery = "SELECT COUNT(*) FROM ledger_data WHERE unit_name = :unitName AND YEAR(created_time) = :year AND deleted = false",
+    default Page<LedgerData> findByUnitNameAndYear(String unitName, int year, Pageable pageable) {
+        return findByUnitNameAndCreatedMonthRange(unitName,
+                CreatedMonth.start(year, null), CreatedMonth.end(year, null), pageable);
+    }
+
+    /**
+     * 按单位和年月分页查询数据
+     */
+    default Page<LedgerData> findByUnitNameAndYearAndMonth(String unitName, int year, int month, Pageable pageable) {
+        return findByUnitNameAndCreatedMonthRange(unitName,
+                CreatedMonth.of(year, month), CreatedMonth.of(year, month), pageable);
+    }
+
+    /**
+     * 获取所有不重复的创建年月（倒序）
+     */
+    @Query(value = "SELECT DISTINCT created_month FROM ledger_data WHERE deleted = false ORDER BY created_month DESC",
             nativeQuery = true)
-    Page<LedgerData> findByUnitNameAndYear(@Param("unitName") String unitName,
-                                           @Param("year") int year,
-                                           Pageable pageable);
+    List<Integer> findAllDistinctCreatedMonths();
 
     /**
-     * 按单位和年月查询数据（原生SQL） - 修复排序字段
+     * 按单位获取不重复的创建年月（倒序，使用单位+年月索引）
      */
-    @Query(value = "SELECT * FROM ledger_data WHERE unit_name = :unitName AND YEAR(created_time) = :year AND MONTH(created_time) = :month AND deleted = false ORDER BY created_time DESC",
-            countQuery = "SELECT COUNT(*) FROM ledger_data WHERE unit_name = :unitName AND YEAR(created_time) = :year AND MONTH(created_time) = :month AND deleted = false",
+    @Query(value = "SELECT DISTINCT created_month FROM ledger_data WHERE unit_name = :unitName AND deleted = false " +
+            "ORDER BY created_month DESC",
             nativeQuery = true)
-    Page<LedgerData> findByUnitNameAndYearAndMonth(@Param("unitName") String unitName,
-                                                   @Param("year") int year,
-                                                   @Param("month") int month,
-                                                   Pageable pageable);
+    List<Integer> findDistinctCreatedMonthsByUnitName(@Param("unitName") String unitName);
+
+    /**
+     * 获取所有不重复的年份
+     */
+    default List<Integer> findAllDistinctYears() {
+        return findAllDistinctCreatedMonths().stream().map(CreatedMonth::year).distinct().collect(Collectors.toList());
+    }
+
+    /**
+     * 按单位获取不重复的年份
+     */
+    default List<Integer> findDistinctYearsByUnitName(String unitName) {
+        return findDistinctCreatedMonthsByUnitName(unitName).stream()
+                .map(CreatedMonth::year).distinct().collect(Collectors.toList());
+    }
+
+    /**
+     * 获取所有不重复的年月（yyyy-MM）
+     */
+    default List<String> findAllDistinctYearMonths() {
+        return findAllDistinctCreatedMonths().stream().map(CreatedMonth::format).collect(Collectors.toList());
+    }
+
+    /**
+     * 按单位获取不重复的年月（yyyy-MM）
+     */
+    default List<String> findDistinctYearMonthsByUnitName(String unitName) {
+        return findDistinctCreatedMonthsByUnitName(unitName).stream()
+                .map(CreatedMonth::format).collect(Collectors.toList());
+    }
 
     /**
      * 获取年份统计数据
      */
-    @Query(value = "SELECT YEAR(created_time) as year, COUNT(*) as count FROM ledger_data WHERE deleted = false GROUP BY YEAR(created_time) ORDER BY year DESC",
+    @Query(value = "SELECT created_month DIV 100 as year, COUNT(*) as count FROM ledger_data WHERE deleted = false " +
+            "GROUP BY created_month DIV 100 ORDER BY year DESC",
             nativeQuery = true)
     List<Object[]> getYearStatistics();
 
     /**
      * 按单位获取年份统计数据
      */
-    @Query(value = "SELECT YEAR(created_time) as year, COUNT(*) as count FROM ledger_data WHERE unit_name = :unitName AND deleted = false GROUP BY YEAR(created_time) ORDER BY year DESC",
+    @Query(value = "SELECT created_month DIV 100 as year, COUNT(*) as count FROM ledger_data " +
+            "WHERE unit_name = :unitName AND deleted = false GROUP BY created_month DIV 100 ORDER BY year DESC",
             nativeQuery = true)
     List<Object[]> getYearStatisticsByUnitName(@Param("unitName") String unitName);
-}
\ No newline at end of file
+
+    /**
+     * 查找尚未转换为紧凑存储的数据（按ID游标分页，用于迁移）
+     */
+    @Query("SELECT d FROM LedgerData d WHERE d.packedValues IS NULL AND d.id > :lastId " +
+            "AND (:uploadId IS NULL OR d.uploadId = :uploadId) ORDER BY d.id")
+    List<LedgerData> findUnpackedAfter(@Param("lastId") Long lastId,
+                                       @Param("uploadId") Long uploadId,
+                                       Pageable pageable);
+
+    /**
+     * 按ID游标分批读取未删除的数据（用于流式导出，模板和单位条件可为空）
+     */
+    @Query("SELECT d FROM LedgerData d WHERE d.deleted = false AND d.id > :lastId " +
+            "AND (:templateId IS NULL OR d.templateId = :templateId) " +
+            "AND (:unitName IS NULL OR d.unitName = :unitName) ORDER BY d.id")
+    List<LedgerData> findActiveAfter(@Param("lastId") Long lastId,
+                                     @Param("templateId") Long templateId,
+                                     @Param("unitName") String unitName,
+                                     Pageable pageable);
+
+    /**
+     * 按ID游标分批读取用户在某单位的未删除数据（用于差异上传建立业务主键索引）
+     */
+    @Query("SELECT d FROM LedgerData d WHERE d.createdBy = :userId AND d.unitName = :unitName " +
+            "AND d.deleted = false AND d.id > :lastId ORDER BY d.id")
+    List<LedgerData> findByUserIdAndUnitNameAfter(@Param("userId") Long userId,
+                                                  @Param("unitName") String unitName,
+                                                  @Param("lastId") Long lastId,
+                                                  Pageable pageable);
+}
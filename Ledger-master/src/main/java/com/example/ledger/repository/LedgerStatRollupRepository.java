@@ -0,0 +1,30 @@
+package com.example.ledger.repository;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 22:12
+ */
+
+import com.example.ledger.entity.LedgerStatRollup;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface LedgerStatRollupRepository extends JpaRepository<LedgerStatRollup, Long> {
+
+    /**
+     * 单位的汇总行（不含已清零的行）
+     */
+    @Query("SELECT r FROM LedgerStatRollup r WHERE r.unitName = :unitName AND r.totalRows > 0")
+    List<LedgerStatRollup> findByUnitName(@Param("unitName") String unitName);
+
+    /**
+     * 全部汇总行（不含已清零的行）
+     */
+    @Query("SELECT r FROM LedgerStatRollup r WHERE r.totalRows > 0")
+    List<LedgerStatRollup> findAllNonEmpty();
+}
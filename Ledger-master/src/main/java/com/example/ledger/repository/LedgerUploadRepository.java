@@ -59,13 +59,14 @@ public interface LedgerUploadRepository extends JpaRepository<LedgerUpload, Long
     List<LedgerUpload> findByUserIdAndUnitName(@Param("userId") Long userId, @Param("unitName") String unitName);
 
     /**
-     * 批量逻辑删除用户在某单位的上传记录
+     * 批量逻辑删除用户在某单位的上传记录（保留指定的上传记录）
      */
     @Modifying
     @Transactional
-    @Query("UPDATE LedgerUpload u SET u.deleted = true, u.importStatus = 'REPLACED', u.completedTime = :updateTime WHERE u.userId = :userId AND u.unitName = :unitName AND u.deleted = false")
+    @Query("UPDATE LedgerUpload u SET u.deleted = true, u.importStatus = 'REPLACED', u.completedTime = :updateTime WHERE u.userId = :userId AND u.unitName = :unitName AND u.deleted = false AND u.id <> :keepUploadId")
     int markUploadsAsDeleted(@Param("userId") Long userId,
                              @Param("unitName") String unitName,
+                             @Param("keepUploadId") Long keepUploadId,
                              @Param("updateTime") LocalDateTime updateTime);
 
     /**
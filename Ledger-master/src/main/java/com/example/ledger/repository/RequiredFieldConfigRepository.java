@@ -11,6 +11,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -20,6 +21,9 @@ public interface RequiredFieldConfigRepository extends JpaRepository<RequiredFie
     @Query("SELECT c FROM RequiredFieldConfig c WHERE c.templateId = :templateId AND c.isRequired = true AND c.deleted = false ORDER BY c.fieldName")
     List<RequiredFieldConfig> findByTemplateIdAndRequiredTrue(@Param("templateId") Long templateId);
 
+    @Query("SELECT c FROM RequiredFieldConfig c WHERE c.templateId IN :templateIds AND c.isRequired = true AND c.deleted = false ORDER BY c.fieldName")
+    List<RequiredFieldConfig> findByTemplateIdInAndRequiredTrue(@Param("templateIds") Collection<Long> templateIds);
+
     @Query("SELECT c FROM RequiredFieldConfig c WHERE c.templateId = :templateId AND c.deleted = false")
     List<RequiredFieldConfig> findByTemplateId(@Param("templateId") Long templateId);
 
@@ -9,6 +9,7 @@ import com.example.ledger.entity.TemplateField;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -18,5 +19,7 @@ public interface TemplateFieldRepository extends JpaRepository<TemplateField, Lo
 
     List<TemplateField> findByTemplateIdAndDeletedFalse(Long templateId);
 
+    List<TemplateField> findByTemplateIdInAndDeletedFalse(Collection<Long> templateIds);
+
     Long countByTemplateIdAndDeletedFalse(Long templateId);
 }
\ No newline at end of file
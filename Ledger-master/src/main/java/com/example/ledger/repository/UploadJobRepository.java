@@ -0,0 +1,152 @@
+package com.example.ledger.repository;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 18:05
+ */
+
+import com.example.ledger.entity.UploadJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import jakarta.transaction.Transactional;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface UploadJobRepository extends JpaRepository<UploadJob, Long> {
+
+    /**
+     * 上传记录对应的最新任务
+     */
+    Optional<UploadJob> findFirstByUploadIdOrderByIdDesc(Long uploadId);
+
+    /**
+     * 抢占任务：待处理或租约已过期的任务才能被抢占，返回1表示抢占成功
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE UploadJob j SET j.status = 'RUNNING', j.leaseOwner = :owner, j.leaseUntil = :leaseUntil, " +
+            "j.heartbeatTime = :now, j.attempts = j.attempts + 1, j.updatedTime = :now " +
+            "WHERE j.id = :id AND (j.status = 'PENDING' OR (j.status = 'RUNNING' AND j.leaseUntil < :now))")
+    int claim(@Param("id") Long id,
+              @Param("owner") String owner,
+              @Param("leaseUntil") LocalDateTime leaseUntil,
+              @Param("now") LocalDateTime now);
+
+    /**
+     * 心跳续约（租约持有者不变时才续约，返回0表示租约已丢失）
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE UploadJob j SET j.leaseUntil = :leaseUntil, j.heartbeatTime = :now " +
+            "WHERE j.id = :id AND j.status = 'RUNNING' AND j.leaseOwner = :owner")
+    int renewLease(@Param("id") Long id,
+                   @Param("owner") String owner,
+                   @Param("leaseUntil") LocalDateTime leaseUntil,
+                   @Param("now") LocalDateTime now);
+
+    /**
+     * 提交断点和进度（与批次数据在同一事务中，租约不属于本节点时返回0）
+     */
+    @Modifying
+    @Query("UPDATE UploadJob j SET j.lastCommittedRow = :lastRow, j.totalRows = :totalRows, " +
+            "j.processedRows = :processedRows, j.successRows = :successRows, j.failedRows = :failedRows, " +
+            "j.rowsPerSecond = :rowsPerSecond, j.currentProcessing = :currentProcessing, " +
+            "j.leaseUntil = :leaseUntil, j.heartbeatTime = :now, j.updatedTime = :now " +
+            "WHERE j.id = :id AND j.status = 'RUNNING' AND j.leaseOwner = :owner")
+    int checkpoint(@Param("id") Long id,
+                   @Param("owner") String owner,
+                   @Param("lastRow") int lastRow,
+                   @Param("totalRows") int totalRows,
+                   @Param("processedRows") int processedRows,
+                   @Param("successRows") int successRows,
+                   @Param("failedRows") int failedRows,
+                   @Param("rowsPerSecond") int rowsPerSecond,
+                   @Param("currentProcessing") String currentProcessing,
+                   @Param("leaseUntil") LocalDateTime leaseUntil,
+                   @Param("now") LocalDateTime now);
+
+    /**
+     * 标记覆盖更新的旧数据已清理（与清理操作在同一事务中）
+     */
+    @Modifying
+    @Query("UPDATE UploadJob j SET j.cleanupDone = true, j.updatedTime = :now " +
+            "WHERE j.id = :id AND j.status = 'RUNNING' AND j.leaseOwner = :owner")
+    int markCleanupDone(@Param("id") Long id, @Param("owner") String owner, @Param("now") LocalDateTime now);
+
+    /**
+     * 更新进度说明（不涉及断点）
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE UploadJob j SET j.totalRows = :totalRows, j.currentProcessing = :currentProcessing, " +
+            "j.updatedTime = :now WHERE j.id = :id AND j.status = 'RUNNING' AND j.leaseOwner = :owner")
+    int updateProgress(@Param("id") Long id,
+                       @Param("owner") String owner,
+                       @Param("totalRows") int totalRows,
+                       @Param("currentProcessing") String currentProcessing,
+                       @Param("now") LocalDateTime now);
+
+    /**
+     * 结束任务
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE UploadJob j SET j.status = :status, j.errorMessage = :errorMessage, j.totalRows = :totalRows, " +
+            "j.processedRows = :processedRows, j.successRows = :successRows, j.failedRows = :failedRows, " +
+            "j.currentProcessing = :currentProcessing, j.leaseOwner = null, j.leaseUntil = null, " +
+            "j.completedTime = :now, j.updatedTime = :now " +
+            "WHERE j.id = :id AND j.status = 'RUNNING' AND j.leaseOwner = :owner")
+    int finish(@Param("id") Long id,
+               @Param("owner") String owner,
+               @Param("status") String status,
+               @Param("errorMessage") String errorMessage,
+               @Param("totalRows") int totalRows,
+               @Param("processedRows") int processedRows,
+               @Param("successRows") int successRows,
+               @Param("failedRows") int failedRows,
+               @Param("currentProcessing") String currentProcessing,
+               @Param("now") LocalDateTime now);
+
+    /**
+     * 取消上传记录对应的未结束任务
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE UploadJob j SET j.status = 'CANCELLED', j.leaseOwner = null, j.leaseUntil = null, " +
+            "j.completedTime = :now, j.updatedTime = :now " +
+            "WHERE j.uploadId = :uploadId AND j.status IN ('PENDING', 'RUNNING')")
+    int cancelByUploadId(@Param("uploadId") Long uploadId, @Param("now") LocalDateTime now);
+
+    /**
+     * 需要重新调度的任务：租约过期的处理中任务，以及长时间未开始的待处理任务
+     */
+    @Query("SELECT j FROM UploadJob j WHERE (j.status = 'RUNNING' AND j.leaseUntil < :now) " +
+            "OR (j.status = 'PENDING' AND j.createdTime < :pendingBefore) ORDER BY j.id")
+    List<UploadJob> findReclaimable(@Param("now") LocalDateTime now,
+                                    @Param("pendingBefore") LocalDateTime pendingBefore);
+
+    /**
+     * 放弃超过重试次数的任务
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE UploadJob j SET j.status = 'FAILED', j.errorMessage = :errorMessage, j.leaseOwner = null, " +
+            "j.leaseUntil = null, j.completedTime = :now, j.updatedTime = :now " +
+            "WHERE j.id = :id AND (j.status = 'PENDING' OR (j.status = 'RUNNING' AND j.leaseUntil < :now))")
+    int abandon(@Param("id") Long id, @Param("errorMessage") String errorMessage, @Param("now") LocalDateTime now);
+
+    /**
+     * 清理已结束的历史任务
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM UploadJob j WHERE j.status IN ('SUCCESS', 'PARTIAL_SUCCESS', 'FAILED', 'CANCELLED') " +
+            "AND j.completedTime < :before")
+    int deleteFinishedBefore(@Param("before") LocalDateTime before);
+}
@@ -0,0 +1,536 @@
+package com.example.ledger.service;
+
+/**
+ * @author 霜月
+ * @create 2026/10/18 03:20
+ */
+
+import com.example.ledger.entity.LedgerData;
+import com.example.ledger.entity.TemplateField;
+import com.example.ledger.util.ColumnarSnapshot;
+import com.example.ledger.util.FieldValueConverter;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.StringUtils;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * 模板列式快照缓存（可选，默认关闭）
+ * 首次查询某模板时从 ledger_data / ledger_data_detail 构建快照；上传批次、编辑、删除、恢复、差异上传提交后登记变化的数据ID，
+ * 下次查询前只重新加载这些行；覆盖上传、类型化取值回填、模板字段变化时丢弃快照，下次查询重建。
+ * 每个模板有内存预算，超出时不缓存该模板（一段时间后重试），全部快照超出总预算时淘汰最久未访问的快照
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ColumnarSnapshotService {
+
+    private static final int ID_BATCH_SIZE = 500;
+    // 构建时每读取多少行检查一次内存预算
+    private static final int BUDGET_CHECK_ROWS = 4096;
+    private static final long MB = 1024L * 1024L;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TemplateMetadataCache templateMetadataCache;
+    private final DbConcurrencyLimiter dbConcurrencyLimiter;
+
+    @Value("${app.columnar.enabled:false}")
+    private boolean enabled;
+
+    // 单个模板的默认内存预算（MB）
+    @Value("${app.columnar.max-mb-per-template:64}")
+    private long maxMbPerTemplate;
+
+    // 按模板指定内存预算，格式 "模板ID:MB,模板ID:MB"，0 表示该模板不缓存
+    @Value("${app.columnar.template-max-mb:}")
+    private String templateMaxMb;
+
+    // 全部快照的内存预算（MB）
+    @Value("${app.columnar.max-total-mb:256}")
+    private long maxTotalMb;
+
+    // 待刷新的数据ID超过该数量时丢弃快照重建
+    @Value("${app.columnar.max-pending-changes:50000}")
+    private int maxPendingChanges;
+
+    // 失效行占比超过该值时丢弃快照重建
+    @Value("${app.columnar.max-dead-ratio:0.3}")
+    private double maxDeadRatio;
+
+    // 超出预算的模板多久后重试构建（分钟）
+    @Value("${app.columnar.retry-after-minutes:30}")
+    private long retryAfterMinutes;
+
+    private final Map<Long, Long> budgetByTemplate = new HashMap<>();
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong buildCount = new AtomicLong();
+    private final AtomicLong refreshedRows = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong rejectionCount = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        if (StringUtils.hasText(templateMaxMb)) {
+            for (String item : templateMaxMb.split(",")) {
+                String[] parts = item.trim().split(":");
+                if (parts.length == 2) {
+                    budgetByTemplate.put(Long.parseLong(parts[0].trim()), Long.parseLong(parts[1].trim()) * MB);
+                }
+            }
+        }
+        if (enabled) {
+            log.info("列式快照缓存已启用，单模板预算: {} MB，总预算: {} MB，模板预算: {}",
+                    maxMbPerTemplate, maxTotalMb, budgetByTemplate);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 在模板快照上执行只读查询；未启用、模板不缓存、快照正在构建时返回null，调用方改为查询数据库
+     */
+    public <T> T read(Long templateId, Function<ColumnarSnapshot, T> reader) {
+        if (!enabled || templateId == null || budgetBytes(templateId) <= 0) {
+            return null;
+        }
+        Entry entry = entries.computeIfAbsent(templateId, Entry::new);
+        if (entry.rejectedUntil > System.currentTimeMillis()) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        entry.lastAccess = System.currentTimeMillis();
+
+        // 模板字段变化后元数据缓存会重新加载，快照随之重建
+        TemplateMetadataCache.TemplateMetadata metadata = templateMetadataCache.get(templateId);
+        if (metadata == null) {
+            return null;
+        }
+        if (entry.snapshot != null && entry.metadata != metadata) {
+            discard(entry);
+        }
+
+        ReentrantReadWriteLock.WriteLock writeLock = entry.lock.writeLock();
+        if (entry.snapshot == null) {
+            // 其他线程正在构建，本次查询走数据库
+            if (!writeLock.tryLock()) {
+                missCount.incrementAndGet();
+                return null;
+            }
+            try {
+                if (entry.snapshot == null) {
+                    build(entry, metadata);
+                }
+            } finally {
+                writeLock.unlock();
+            }
+            enforceTotalBudget(entry);
+        }
+        if (!entry.pending.isEmpty() && entry.snapshot != null) {
+            writeLock.lock();
+            try {
+                applyPending(entry);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        entry.lock.readLock().lock();
+        try {
+            ColumnarSnapshot snapshot = entry.snapshot;
+            if (snapshot == null) {
+                missCount.incrementAndGet();
+                return null;
+            }
+            T result = reader.apply(snapshot);
+            (result != null ? hitCount : missCount).incrementAndGet();
+            return result;
+        } finally {
+            entry.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 数据行变化（新增、修改、删除、恢复），事务提交后登记，下次查询前重新加载
+     */
+    public void markChanged(Long templateId, Collection<Long> dataIds) {
+        if (!enabled || templateId == null || dataIds.isEmpty()) {
+            return;
+        }
+        // 提交后再判断是否已有快照：提交前开始构建的快照可能读不到本次修改
+        List<Long> ids = new ArrayList<>(dataIds);
+        afterCommit(() -> {
+            Entry entry = entries.get(templateId);
+            if (entry == null) {
+                return;
+            }
+            entry.pending.addAll(ids);
+            if (entry.pending.size() > maxPendingChanges) {
+                log.info("模板 {} 待刷新的数据行过多（{}），丢弃列式快照", templateId, entry.pending.size());
+                discard(entry);
+            }
+        });
+    }
+
+    /**
+     * 数据行变化，按模板分组登记
+     */
+    public void markChanged(Collection<LedgerData> rows) {
+        if (!enabled) {
+            return;
+        }
+        Map<Long, List<Long>> idsByTemplate = new HashMap<>();
+        for (LedgerData row : rows) {
+            if (row.getTemplateId() != null && row.getId() != null) {
+                idsByTemplate.computeIfAbsent(row.getTemplateId(), key -> new ArrayList<>()).add(row.getId());
+            }
+        }
+        idsByTemplate.forEach(this::markChanged);
+    }
+
+    /**
+     * 丢弃模板快照（变化的数据行未知时调用），下次查询重建
+     */
+    public void invalidate(Long templateId) {
+        if (!enabled || templateId == null) {
+            return;
+        }
+        afterCommit(() -> {
+            Entry entry = entries.get(templateId);
+            if (entry != null) {
+                discard(entry);
+            }
+        });
+    }
+
+    /**
+     * 丢弃包含该单位数据的快照（正在构建的快照一并作废）
+     */
+    public void invalidateUnit(String unitName) {
+        if (!enabled || unitName == null) {
+            return;
+        }
+        afterCommit(() -> {
+            for (Entry entry : entries.values()) {
+                ColumnarSnapshot snapshot = entry.snapshot;
+                if (snapshot == null || snapshot.containsUnit(unitName)) {
+                    discard(entry);
+                }
+            }
+        });
+    }
+
+    /**
+     * 丢弃全部快照
+     */
+    public void invalidateAll() {
+        afterCommit(() -> {
+            for (Entry entry : entries.values()) {
+                discard(entry);
+            }
+        });
+    }
+
+    /**
+     * 快照统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("maxTotalMb", maxTotalMb);
+        stats.put("maxMbPerTemplate", maxMbPerTemplate);
+        stats.put("totalBytes", totalBytes());
+        stats.put("hits", hitCount.get());
+        stats.put("misses", missCount.get());
+        stats.put("builds", buildCount.get());
+        stats.put("refreshedRows", refreshedRows.get());
+        stats.put("evictions", evictionCount.get());
+        stats.put("rejections", rejectionCount.get());
+
+        List<Map<String, Object>> templates = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("templateId", entry.templateId);
+            ColumnarSnapshot snapshot = entry.snapshot;
+            item.put("cached", snapshot != null);
+            if (snapshot != null) {
+                item.put("liveRows", snapshot.getLiveRows());
+                item.put("deadRows", snapshot.getDeadRows());
+                item.put("fields", snapshot.getFieldCount());
+                item.put("bytes", snapshot.estimateBytes());
+                item.put("buildMillis", entry.buildMillis);
+            }
+            item.put("budgetBytes", budgetBytes(entry.templateId));
+            item.put("pendingChanges", entry.pending.size());
+            item.put("lastAccess", entry.lastAccess);
+            if (entry.rejectedUntil > System.currentTimeMillis()) {
+                item.put("rejectedUntil", entry.rejectedUntil);
+            }
+            templates.add(item);
+        }
+        stats.put("templates", templates);
+        return stats;
+    }
+
+    /**
+     * 手动丢弃快照（不指定模板时丢弃全部，同时清除超出预算的记录）
+     */
+    public void evict(Long templateId) {
+        // 先递增代数，正在进行的构建完成后不会再放入被丢弃的快照
+        if (templateId == null) {
+            entries.values().removeIf(entry -> {
+                discard(entry);
+                return true;
+            });
+        } else {
+            Entry entry = entries.remove(templateId);
+            if (entry != null) {
+                discard(entry);
+            }
+        }
+    }
+
+    // ---------- 构建和刷新 ----------
+
+    private void build(Entry entry, TemplateMetadataCache.TemplateMetadata metadata) {
+        long start = System.currentTimeMillis();
+        long generation = entry.generation.get();
+        long budget = budgetBytes(entry.templateId);
+
+        Map<String, String> fieldTypes = new LinkedHashMap<>();
+        for (TemplateField field : metadata.getFields()) {
+            FieldValueConverter converter = FieldValueConverter.of(field);
+            fieldTypes.putIfAbsent(TemplateMetadataCache.buildStoredFieldName(field), converter.isNumeric()
+                    ? ColumnarSnapshot.NUMERIC : converter.isDate() ? ColumnarSnapshot.DATE : ColumnarSnapshot.STRING);
+        }
+        ColumnarSnapshot snapshot = new ColumnarSnapshot(entry.templateId, fieldTypes);
+
+        try {
+            dbConcurrencyLimiter.call(() -> {
+                int[] rows = {0};
+                streamQuery("SELECT id, upload_id, created_month, created_by, unit_name, validation_status " +
+                        "FROM ledger_data WHERE template_id = ? AND deleted = 0", List.of(entry.templateId), rs -> {
+                    addRow(snapshot, rs);
+                    if (++rows[0] % BUDGET_CHECK_ROWS == 0) {
+                        checkBudget(snapshot, budget);
+                    }
+                });
+                streamQuery("SELECT d.data_id, d.field_name, d.field_value, d.numeric_value, d.date_value " +
+                        "FROM ledger_data_detail d JOIN ledger_data l ON l.id = d.data_id " +
+                        "WHERE l.template_id = ? AND l.deleted = 0", List.of(entry.templateId), rs -> {
+                    setValue(snapshot, rs);
+                    if (++rows[0] % BUDGET_CHECK_ROWS == 0) {
+                        checkBudget(snapshot, budget);
+                    }
+                });
+                return null;
+            });
+            checkBudget(snapshot, budget);
+        } catch (OverBudgetException e) {
+            reject(entry, e.getMessage());
+            return;
+        }
+
+        // 构建期间快照被丢弃（覆盖上传等），本次结果可能缺少变化，不使用
+        if (generation != entry.generation.get()) {
+            log.info("模板 {} 的列式快照在构建期间失效，放弃本次构建", entry.templateId);
+            return;
+        }
+        entry.snapshot = snapshot;
+        entry.metadata = metadata;
+        entry.buildMillis = System.currentTimeMillis() - start;
+        buildCount.incrementAndGet();
+        log.info("模板 {} 列式快照构建完成，行数: {}，字段数: {}，估算内存: {} KB，耗时 {} ms", entry.templateId,
+                snapshot.getLiveRows(), snapshot.getFieldCount(), snapshot.estimateBytes() / 1024, entry.buildMillis);
+    }
+
+    /**
+     * 重新加载待刷新的数据行（已删除或不再属于该模板的行从快照中移除）
+     */
+    private void applyPending(Entry entry) {
+        ColumnarSnapshot snapshot = entry.snapshot;
+        List<Long> ids = new ArrayList<>();
+        for (Iterator<Long> it = entry.pending.iterator(); it.hasNext(); ) {
+            ids.add(it.next());
+            it.remove();
+        }
+        if (snapshot == null || ids.isEmpty()) {
+            return;
+        }
+
+        dbConcurrencyLimiter.call(() -> {
+            for (int i = 0; i < ids.size(); i += ID_BATCH_SIZE) {
+                List<Long> batchIds = ids.subList(i, Math.min(i + ID_BATCH_SIZE, ids.size()));
+                String placeholders = String.join(", ", Collections.nCopies(batchIds.size(), "?"));
+                for (Long id : batchIds) {
+                    snapshot.removeRow(id);
+                }
+                List<Object> params = new ArrayList<>();
+                params.add(entry.templateId);
+                params.addAll(batchIds);
+                streamQuery("SELECT id, upload_id, created_month, created_by, unit_name, validation_status " +
+                        "FROM ledger_data WHERE template_id = ? AND deleted = 0 AND id IN (" + placeholders + ")",
+                        params, rs -> addRow(snapshot, rs));
+                streamQuery("SELECT data_id, field_name, field_value, numeric_value, date_value " +
+                        "FROM ledger_data_detail WHERE data_id IN (" + placeholders + ")",
+                        new ArrayList<>(batchIds), rs -> setValue(snapshot, rs));
+            }
+            return null;
+        });
+        refreshedRows.addAndGet(ids.size());
+
+        int total = snapshot.getLiveRows() + snapshot.getDeadRows();
+        if (snapshot.estimateBytes() > budgetBytes(entry.templateId)) {
+            reject(entry, "刷新后超出内存预算");
+        } else if (total > 0 && snapshot.getDeadRows() > total * maxDeadRatio) {
+            log.info("模板 {} 列式快照失效行占比过高，丢弃后重建", entry.templateId);
+            discard(entry);
+        }
+    }
+
+    private void addRow(ColumnarSnapshot snapshot, ResultSet rs) throws SQLException {
+        snapshot.addRow(rs.getLong(1), rs.getLong(2), rs.getInt(3), rs.getLong(4), rs.getString(5),
+                rs.getString(6));
+    }
+
+    private void setValue(ColumnarSnapshot snapshot, ResultSet rs) throws SQLException {
+        BigDecimal numericValue = rs.getBigDecimal(4);
+        Date dateValue = rs.getDate(5);
+        snapshot.setValue(rs.getLong(1), rs.getString(2), rs.getString(3), numericValue,
+                dateValue != null ? dateValue.toLocalDate() : null);
+    }
+
+    /**
+     * 逐行流式读取（MySQL驱动不缓存整个结果集）
+     */
+    private void streamQuery(String sql, List<Object> params, RowCallbackHandler handler) {
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(Integer.MIN_VALUE);
+            for (int i = 0; i < params.size(); i++) {
+                ps.setObject(i + 1, params.get(i));
+            }
+            return ps;
+        }, handler);
+    }
+
+    private void checkBudget(ColumnarSnapshot snapshot, long budget) {
+        if (snapshot.estimateBytes() > budget) {
+            throw new OverBudgetException("超出内存预算 " + budget / MB + " MB");
+        }
+    }
+
+    // ---------- 预算和淘汰 ----------
+
+    private long budgetBytes(Long templateId) {
+        Long budget = budgetByTemplate.get(templateId);
+        return budget != null ? budget : maxMbPerTemplate * MB;
+    }
+
+    private void reject(Entry entry, String reason) {
+        entry.snapshot = null;
+        entry.metadata = null;
+        entry.pending.clear();
+        entry.rejectedUntil = System.currentTimeMillis() + retryAfterMinutes * 60_000L;
+        rejectionCount.incrementAndGet();
+        log.warn("模板 {} 不使用列式快照（{}），{} 分钟后重试", entry.templateId, reason, retryAfterMinutes);
+    }
+
+    private void discard(Entry entry) {
+        entry.generation.incrementAndGet();
+        entry.snapshot = null;
+        entry.metadata = null;
+        entry.pending.clear();
+    }
+
+    /**
+     * 全部快照超出总预算时淘汰最久未访问的其他快照
+     */
+    private void enforceTotalBudget(Entry current) {
+        long maxTotalBytes = maxTotalMb * MB;
+        while (totalBytes() > maxTotalBytes) {
+            Entry oldest = null;
+            for (Entry entry : entries.values()) {
+                if (entry != current && entry.snapshot != null
+                        && (oldest == null || entry.lastAccess < oldest.lastAccess)) {
+                    oldest = entry;
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            log.info("列式快照超出总内存预算，淘汰模板 {} 的快照", oldest.templateId);
+            discard(oldest);
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    private long totalBytes() {
+        long total = 0;
+        for (Entry entry : entries.values()) {
+            ColumnarSnapshot snapshot = entry.snapshot;
+            if (snapshot != null) {
+                total += snapshot.estimateBytes();
+            }
+        }
+        return total;
+    }
+
+    private void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private static class Entry {
+        private final Long templateId;
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Set<Long> pending = ConcurrentHashMap.newKeySet();
+        private volatile ColumnarSnapshot snapshot;
+        private volatile TemplateMetadataCache.TemplateMetadata metadata;
+        // 每次丢弃快照时递增，构建期间发生变化时放弃构建结果
+        private final AtomicLong generation = new AtomicLong();
+        private volatile long lastAccess;
+        private volatile long rejectedUntil;
+        private volatile long buildMillis;
+
+        Entry(Long templateId) {
+            this.templateId = templateId;
+        }
+    }
+
+    private static class OverBudgetException extends RuntimeException {
+        OverBudgetException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.ledger.service;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 19:40
+ */
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 后台任务访问数据库的并发限制
+ * 许可数与连接池大小绑定（默认为连接池大小减去给请求线程保留的连接数），
+ * 上传批次写入、导出分块读取等操作在许可内执行；使用虚拟线程时任务数量不再受线程池限制，
+ * 由这里保证同时占用连接的后台操作不会耗尽连接池
+ */
+@Component
+@Slf4j
+public class DbConcurrencyLimiter {
+
+    // 连接池大小
+    @Value("${spring.datasource.hikari.maximum-pool-size:10}")
+    private int poolSize;
+
+    // 给请求线程保留的连接数
+    @Value("${app.db.reserved-connections:2}")
+    private int reservedConnections;
+
+    // 显式指定许可数，小于等于0时按连接池大小计算
+    @Value("${app.db.concurrency-limit:0}")
+    private int concurrencyLimit;
+
+    private Semaphore semaphore;
+    private int permits;
+
+    // 当前线程已持有许可（嵌套调用时不重复获取）
+    private final ThreadLocal<Boolean> holding = new ThreadLocal<>();
+
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong totalWaitMillis = new AtomicLong();
+    private final AtomicLong maxWaitMillis = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        permits = concurrencyLimit > 0 ? concurrencyLimit : Math.max(poolSize - reservedConnections, 1);
+        semaphore = new Semaphore(permits, true);
+        log.info("后台数据库并发限制: {}，连接池大小: {}", permits, poolSize);
+    }
+
+    /**
+     * 在许可内执行
+     */
+    public <T> T call(Supplier<T> action) {
+        if (Boolean.TRUE.equals(holding.get())) {
+            return action.get();
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("等待数据库连接被中断");
+        }
+        long waitMillis = System.currentTimeMillis() - start;
+        acquired.incrementAndGet();
+        totalWaitMillis.addAndGet(waitMillis);
+        maxWaitMillis.accumulateAndGet(waitMillis, Math::max);
+
+        holding.set(Boolean.TRUE);
+        try {
+            return action.get();
+        } finally {
+            holding.remove();
+            semaphore.release();
+        }
+    }
+
+    /**
+     * 在许可内执行
+     */
+    public void run(Runnable action) {
+        call(() -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * 并发限制统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long count = acquired.get();
+        stats.put("permits", permits);
+        stats.put("available", semaphore.availablePermits());
+        stats.put("waiting", semaphore.getQueueLength());
+        stats.put("acquired", count);
+        stats.put("avgWaitMillis", count > 0 ? totalWaitMillis.get() / count : 0);
+        stats.put("maxWaitMillis", maxWaitMillis.get());
+        return stats;
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.ledger.service;
+
+/**
+ * @author 霜月
+ * @create 2026/10/18 00:50
+ */
+
+import com.example.ledger.entity.LedgerTemplate;
+import com.example.ledger.entity.TemplateField;
+import com.example.ledger.repository.LedgerTemplateRepository;
+import com.example.ledger.util.FieldValueConverter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * 明细类型化取值（numeric_value / date_value）的回填
+ * 上传和编辑时已按字段类型写入；存量数据或模板字段类型修改后调用回填，
+ * 按模板和字段分批读取 field_value，用与上传相同的转换器重新计算
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class DetailTypedValueService {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final LedgerTemplateRepository ledgerTemplateRepository;
+    private final TemplateMetadataCache templateMetadataCache;
+    private final ColumnarSnapshotService columnarSnapshotService;
+
+    // 每批读取的明细数
+    @Value("${app.typed-values.backfill-batch-size:2000}")
+    private int batchSize;
+
+    /**
+     * 回填类型化取值（不指定模板时处理全部模板）
+     */
+    public synchronized Map<String, Object> backfill(Long templateId) {
+        List<Long> templateIds = new ArrayList<>();
+        if (templateId != null) {
+            templateIds.add(templateId);
+        } else {
+            for (LedgerTemplate template : ledgerTemplateRepository.findAllActive()) {
+                templateIds.add(template.getId());
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        long updated = 0;
+        long cleared = 0;
+        for (Long id : templateIds) {
+            List<TemplateField> fields = templateMetadataCache.getFields(id);
+            for (TemplateField field : fields) {
+                String storedName = TemplateMetadataCache.buildStoredFieldName(field);
+                FieldValueConverter converter = FieldValueConverter.of(field);
+                if (converter.isNumeric() || converter.isDate()) {
+                    updated += backfillField(id, storedName, converter);
+                } else {
+                    // 字段类型改为非数字/日期后清除旧的类型化取值
+                    cleared += jdbcTemplate.update("UPDATE ledger_data_detail SET numeric_value = NULL, " +
+                            "date_value = NULL WHERE field_name = ? AND (numeric_value IS NOT NULL OR " +
+                            "date_value IS NOT NULL) AND data_id IN (SELECT id FROM ledger_data WHERE template_id = ?)",
+                            storedName, id);
+                }
+            }
+            // 快照中的数字和日期列按新的取值重建
+            columnarSnapshotService.invalidate(id);
+        }
+
+        long elapsed = System.currentTimeMillis() - start;
+        log.info("类型化取值回填完成，模板数: {}，更新明细: {}，清除明细: {}，耗时 {} ms",
+                templateIds.size(), updated, cleared, elapsed);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("templates", templateIds.size());
+        result.put("updatedDetails", updated);
+        result.put("clearedDetails", cleared);
+        result.put("elapsedMillis", elapsed);
+        return result;
+    }
+
+    /**
+     * 按明细ID分批回填一个字段
+     */
+    private long backfillField(Long templateId, String storedName, FieldValueConverter converter) {
+        long updated = 0;
+        long lastId = 0;
+        while (true) {
+            List<Object[]> rows = jdbcTemplate.query("SELECT d.id, d.field_value FROM ledger_data_detail d " +
+                            "JOIN ledger_data l ON l.id = d.data_id WHERE l.template_id = ? AND d.field_name = ? " +
+                            "AND d.id > ? ORDER BY d.id LIMIT ?",
+                    (rs, rowNum) -> new Object[] {rs.getLong(1), rs.getString(2)},
+                    templateId, storedName, lastId, batchSize);
+            if (rows.isEmpty()) {
+                return updated;
+            }
+
+            List<Object[]> updates = new ArrayList<>(rows.size());
+            for (Object[] row : rows) {
+                String value = (String) row[1];
+                String converted = value != null && !value.trim().isEmpty() ? converter.convert(value.trim()) : null;
+                updates.add(new Object[] {converter.toNumericValue(converted), converter.toDateValue(converted), row[0]});
+            }
+            jdbcTemplate.batchUpdate("UPDATE ledger_data_detail SET numeric_value = ?, date_value = ? WHERE id = ?",
+                    updates, updates.size(), (ps, update) -> {
+                        ps.setBigDecimal(1, (BigDecimal) update[0]);
+                        ps.setObject(2, update[1] != null ? Date.valueOf((LocalDate) update[1]) : null, Types.DATE);
+                        ps.setLong(3, (Long) update[2]);
+                    });
+            updated += updates.size();
+            lastId = (Long) rows.get(rows.size() - 1)[0];
+        }
+    }
+}
@@ -7,20 +7,24 @@ package com.example.ledger.service;
 
 import com.example.ledger.entity.*;
 import com.example.ledger.repository.*;
+import com.example.ledger.util.ColumnWidthEstimator;
+import com.example.ledger.util.ExcelStyleRegistry;
+import jakarta.persistence.EntityManager;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.ss.util.CellRangeAddress;
-import org.apache.poi.xssf.usermodel.XSSFCellStyle;
-import org.apache.poi.xssf.usermodel.XSSFColor;
-import org.apache.poi.xssf.usermodel.XSSFFont;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.io.*;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Service
@@ -28,83 +32,153 @@ import java.util.stream.Collectors;
 @Slf4j
 public class ExcelExportService {
 
-    private final LedgerTemplateRepository ledgerTemplateRepository;
-    private final TemplateFieldRepository templateFieldRepository;
+    private final TemplateMetadataCache templateMetadataCache;
     private final TemplateStyleRepository templateStyleRepository;
     private final LedgerDataRepository ledgerDataRepository;
-    private final LedgerDataDetailRepository ledgerDataDetailRepository;
     private final FileStorageService fileStorageService;
+    private final LedgerRowStorageService ledgerRowStorageService;
+    private final EntityManager entityManager;
+    private final DbConcurrencyLimiter dbConcurrencyLimiter;
 
-    /**
-     * 根据模板ID获取所有数据ID
-     */
-    public List<Long> getAllDataIdsByTemplate(Long templateId) {
-        log.info("获取模板 {} 的所有数据ID", templateId);
+    // 流式导出时内存中保留的行数，超出部分写入临时文件
+    @Value("${app.export.window-size:200}")
+    private int exportWindowSize;
 
-        List<LedgerData> dataList = ledgerDataRepository.findByTemplateIdAndDeletedFalse(templateId);
-        if (dataList.isEmpty()) {
-            log.info("模板 {} 没有数据", templateId);
-            return Collections.emptyList();
-        }
+    // 流式导出每批读取的数据条数
+    @Value("${app.export.chunk-size:1000}")
+    private int exportChunkSize;
 
-        List<Long> dataIds = dataList.stream()
-                .map(LedgerData::getId)
-                .collect(Collectors.toList());
+    // 默认列宽模式：AUTO-逐个单元格精确计算，ESTIMATE-采样估算，NONE-不调整
+    @Value("${app.export.width-mode:ESTIMATE}")
+    private String defaultWidthMode;
 
-        log.info("模板 {} 共找到 {} 条数据", templateId, dataIds.size());
-        return dataIds;
-    }
+    // 估算列宽时采样的数据行数
+    @Value("${app.export.width-sample-rows:1000}")
+    private int widthSampleRows;
 
     /**
-     * 导出台账数据（混合模式）- 完全重写，修复数据空白问题
+     * 解析列宽模式（为空时使用配置的默认模式，不支持的模式抛出参数异常）
      */
-    @Transactional(readOnly = true)
-    public byte[] exportLedgerData(Long templateId, List<Long> dataIds) throws IOException {
-        log.info("开始导出数据，模板ID: {}, 数据ID数量: {}", templateId, dataIds == null ? 0 : dataIds.size());
+    public String resolveWidthMode(String widthMode) {
+        return ColumnWidthEstimator.resolveMode(widthMode, defaultWidthMode);
+    }
 
-        // 验证参数
+    /**
+     * 校验模板是否存在（流式导出在写响应前调用）
+     */
+    public LedgerTemplate requireTemplate(Long templateId) {
         if (templateId == null) {
             throw new IllegalArgumentException("模板ID不能为空");
         }
-
-        if (dataIds == null || dataIds.isEmpty()) {
-            log.warn("导出数据ID列表为空，将导出空表格");
-            return createEmptyWorkbook(templateId);
+        TemplateMetadataCache.TemplateMetadata metadata = templateMetadataCache.get(templateId);
+        if (metadata == null) {
+            throw new IllegalArgumentException("模板不存在，ID: " + templateId);
+        }
+        if (metadata.getFields().isEmpty()) {
+            throw new IllegalArgumentException("模板字段定义为空，模板ID: " + templateId);
         }
+        return metadata.getTemplate();
+    }
 
-        try {
-            // 获取模板信息
-            LedgerTemplate template = ledgerTemplateRepository.findById(templateId)
-                    .orElseThrow(() -> new RuntimeException("模板不存在，ID: " + templateId));
+    /**
+     * 校验单位模板是否存在（流式导出在写响应前调用）
+     */
+    public LedgerTemplate requireUnitTemplate(String unitName) {
+        if (unitName == null || unitName.trim().isEmpty()) {
+            throw new IllegalArgumentException("单位名称不能为空");
+        }
+        TemplateMetadataCache.TemplateMetadata metadata = templateMetadataCache.getByUnitName(unitName);
+        if (metadata == null) {
+            throw new IllegalArgumentException("单位不存在或已被删除: " + unitName);
+        }
+        return metadata.getTemplate();
+    }
 
-            log.info("找到模板: {}, 单位: {}", template.getTemplateName(), template.getUnitName());
+    /**
+     * 流式导出选中的数据（按ID分批读取，直接写入输出流）
+     */
+    public void streamLedgerData(Long templateId, List<Long> dataIds, String widthMode,
+                                 OutputStream outputStream) throws IOException {
+        LedgerTemplate template = requireTemplate(templateId);
+
+        // 去重排序后按ID游标分批，与按模板、按单位导出的顺序一致
+        List<Long> sortedIds = dataIds == null ? Collections.emptyList() : dataIds.stream()
+                .filter(Objects::nonNull)
+                .distinct()
+                .sorted()
+                .collect(Collectors.toList());
 
-            // 获取字段定义
-            List<TemplateField> fields = templateFieldRepository.findByTemplateIdAndDeletedFalse(templateId);
-            if (fields.isEmpty()) {
-                throw new RuntimeException("模板字段定义为空，模板ID: " + templateId);
+        streamWorkbook(template, lastId -> {
+            int from = lastId == null ? 0 : Math.abs(Collections.binarySearch(sortedIds, lastId) + 1);
+            // 整批都已删除时继续读下一批
+            while (from < sortedIds.size()) {
+                List<Long> chunkIds = sortedIds.subList(from, Math.min(from + exportChunkSize, sortedIds.size()));
+                List<LedgerData> chunk = new ArrayList<>(ledgerDataRepository.findByIdInAndDeletedFalse(chunkIds));
+                if (!chunk.isEmpty()) {
+                    chunk.sort(Comparator.comparing(LedgerData::getId));
+                    return chunk;
+                }
+                from += chunkIds.size();
             }
+            return Collections.<LedgerData>emptyList();
+        }, resolveWidthMode(widthMode), outputStream, () -> createEmptyWorkbook(templateId));
+    }
 
-            log.info("获取到 {} 个字段定义", fields.size());
-
-            // 获取要导出的数据
-            List<LedgerData> dataList = ledgerDataRepository.findByIdInAndDeletedFalse(dataIds);
-            if (dataList.isEmpty()) {
-                log.warn("未找到对应的数据记录，将导出空表格");
-                return createEmptyWorkbook(templateId);
-            }
+    /**
+     * 流式导出模板下的所有数据
+     */
+    public void streamLedgerDataByTemplate(Long templateId, String widthMode,
+                                           OutputStream outputStream) throws IOException {
+        LedgerTemplate template = requireTemplate(templateId);
+        streamWorkbook(template,
+                lastId -> ledgerDataRepository.findActiveAfter(lastId == null ? 0L : lastId, templateId, null,
+                        PageRequest.of(0, exportChunkSize)),
+                resolveWidthMode(widthMode), outputStream, () -> createEmptyWorkbook(templateId));
+    }
 
-            log.info("获取到 {} 条数据记录", dataList.size());
+    /**
+     * 流式导出单位的所有数据
+     */
+    public void streamLedgerDataByUnit(String unitName, String widthMode,
+                                       OutputStream outputStream) throws IOException {
+        LedgerTemplate template = requireUnitTemplate(unitName);
+        streamWorkbook(template,
+                lastId -> ledgerDataRepository.findActiveAfter(lastId == null ? 0L : lastId, null, unitName,
+                        PageRequest.of(0, exportChunkSize)),
+                resolveWidthMode(widthMode), outputStream, () -> createEmptyExcelForUnit(template, unitName));
+    }
 
-            // 获取数据详情
-            Map<Long, List<LedgerDataDetail>> detailsMap = getDataDetails(dataList);
+    /**
+     * 空表格生成（没有任何数据时使用）
+     */
+    @FunctionalInterface
+    private interface EmptyWorkbookSupplier {
+        byte[] get() throws IOException;
+    }
 
-            // 创建用于调试的输出
-            debugDataDetails(dataList, detailsMap);
+    /**
+     * 流式写出工作簿：分批读取数据，窗口化写入SXSSF工作簿
+     * 不在事务中执行，每批查询独立占用连接（受后台数据库并发限制），写响应期间不持有连接
+     */
+    private void streamWorkbook(LedgerTemplate template,
+                                Function<Long, List<LedgerData>> chunkLoader,
+                                String widthMode,
+                                OutputStream outputStream,
+                                EmptyWorkbookSupplier emptyWorkbook) throws IOException {
+        List<TemplateField> fields = templateMetadataCache.getFields(template.getId());
+
+        List<LedgerData> firstChunk = dbConcurrencyLimiter.call(() -> chunkLoader.apply(null));
+        if (firstChunk.isEmpty()) {
+            log.info("模板 {} 没有可导出的数据，导出空表格", template.getId());
+            outputStream.write(emptyWorkbook.get());
+            return;
+        }
 
-            Workbook workbook;
+        long startTime = System.currentTimeMillis();
+        SXSSFWorkbook workbook = null;
+        try {
+            RowWriter rowWriter = null;
 
-            // 混合模式：优先使用模板文件，否则动态生成
             boolean hasTemplateFile = template.getHasTemplateFile() != null &&
                     template.getHasTemplateFile() &&
                     template.getTemplateFilePath() != null &&
@@ -112,89 +186,186 @@ public class ExcelExportService {
 
             if (hasTemplateFile) {
                 try {
-                    log.info("尝试使用模板文件导出: {}", template.getTemplateFilePath());
-                    workbook = exportWithTemplateFileCompletely(template, fields, dataList, detailsMap);
+                    workbook = openStreamingTemplateWorkbook(template);
+                    rowWriter = createTemplateFileRowWriter(template, fields, workbook.getSheetAt(0));
                 } catch (Exception e) {
                     log.error("模板文件导出失败，将使用动态生成方式", e);
-                    workbook = exportWithDynamicGeneration(template, fields, dataList, detailsMap);
+                    if (workbook != null) {
+                        workbook.dispose();
+                        workbook.close();
+                        workbook = null;
+                    }
                 }
-            } else {
-                log.info("使用动态生成方式导出");
-                workbook = exportWithDynamicGeneration(template, fields, dataList, detailsMap);
+            }
+            if (workbook == null) {
+                workbook = new SXSSFWorkbook(exportWindowSize);
+                workbook.setCompressTempFiles(true);
+                rowWriter = createDynamicRowWriter(workbook, template, fields, widthMode);
             }
 
-            // 写入字节数组
-            try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-                workbook.write(outputStream);
-                workbook.close();
-                byte[] result = outputStream.toByteArray();
-                log.info("导出成功，文件大小: {} bytes", result.length);
-                return result;
+            long rowCount = 0;
+            List<LedgerData> chunk = firstChunk;
+            while (!chunk.isEmpty()) {
+                List<LedgerData> currentChunk = chunk;
+                Map<Long, List<LedgerDataDetail>> detailsMap =
+                        dbConcurrencyLimiter.call(() -> ledgerRowStorageService.loadDetails(currentChunk));
+                for (LedgerData data : chunk) {
+                    rowWriter.write(detailsMap.get(data.getId()));
+                    rowCount++;
+                }
+
+                Long lastId = chunk.get(chunk.size() - 1).getId();
+                // 释放本批实体，避免持久化上下文随导出行数增长
+                entityManager.clear();
+                chunk = dbConcurrencyLimiter.call(() -> chunkLoader.apply(lastId));
             }
 
-        } catch (Exception e) {
-            log.error("导出过程中发生异常", e);
-            throw new IOException("导出失败: " + e.getMessage(), e);
+            rowWriter.finish();
+            workbook.write(outputStream);
+            outputStream.flush();
+
+            log.info("流式导出完成，模板: {}, 行数: {}, 耗时: {}ms",
+                    template.getId(), rowCount, System.currentTimeMillis() - startTime);
+        } finally {
+            if (workbook != null) {
+                workbook.dispose();
+                workbook.close();
+            }
         }
     }
 
     /**
-     * 直接填充行数据 - 根据列索引映射直接填充
+     * 行写入器
      */
-    private void fillRowDataDirectly(Row row, Map<Integer, String> columnToFieldMap,
-                                     List<LedgerDataDetail> details) {
-        if (details == null || details.isEmpty()) {
-            log.debug("行 {} 没有明细数据", row.getRowNum());
-            return;
+    private interface RowWriter {
+        void write(List<LedgerDataDetail> details);
+
+        default void finish() {
         }
+    }
 
-        // 创建字段值映射
-        Map<String, String> detailMap = new HashMap<>();
-        for (LedgerDataDetail detail : details) {
-            detailMap.put(detail.getFieldName(),
-                    detail.getFieldValue() != null ? detail.getFieldValue() : "");
+    /**
+     * 加载模板文件并清空数据行，包装为窗口化工作簿
+     */
+    private SXSSFWorkbook openStreamingTemplateWorkbook(LedgerTemplate template) throws IOException {
+        File templateFile = fileStorageService.getTemplateFile(template.getTemplateFilePath());
+        if (templateFile == null || !templateFile.exists()) {
+            throw new FileNotFoundException("模板文件不存在: " + template.getTemplateFilePath());
         }
 
-        // 为每个映射的列创建单元格
-        for (Map.Entry<Integer, String> entry : columnToFieldMap.entrySet()) {
-            int columnIndex = entry.getKey();
-            String fieldName = entry.getValue();
-            String value = detailMap.get(fieldName);
+        XSSFWorkbook templateWorkbook;
+        try (FileInputStream fis = new FileInputStream(templateFile)) {
+            templateWorkbook = new XSSFWorkbook(fis);
+        }
+        clearDataRows(templateWorkbook.getSheetAt(0), getTemplateDataStartRow(template));
 
-            if (value != null) {
-                Cell cell = row.createCell(columnIndex);
-                cell.setCellValue(value);
+        SXSSFWorkbook workbook = new SXSSFWorkbook(templateWorkbook, exportWindowSize);
+        workbook.setCompressTempFiles(true);
+        return workbook;
+    }
 
-                if (!value.trim().isEmpty()) {
-                    log.trace("填充: 行{},列{} = {}", row.getRowNum(), columnIndex, value);
-                }
-            } else {
-                log.warn("字段 {} 在数据中没有对应的值", fieldName);
-            }
-        }
+    /**
+     * 模板文件的数据起始行（0开始）
+     */
+    private int getTemplateDataStartRow(LedgerTemplate template) {
+        int headerRowCount = template.getHeaderRowCount() != null ? template.getHeaderRowCount() : 4;
+        return template.getDataStartRow() != null ? template.getDataStartRow() - 1 : headerRowCount;
     }
 
     /**
-     * 检查重复映射
+     * 基于模板文件的行写入器（按excel_column定位列）
      */
-    private void checkDuplicateMappings(Map<Integer, String> columnToFieldMap, List<TemplateField> fields) {
-        // 检查是否有多个字段映射到同一列
-        Map<Integer, List<String>> indexToFields = new HashMap<>();
+    private RowWriter createTemplateFileRowWriter(LedgerTemplate template, List<TemplateField> fields, Sheet sheet) {
+        Map<String, String> combinedFieldMapping = createCombinedFieldMapping(fields);
+        Map<Integer, String> columnToFieldMap = new HashMap<>();
         for (TemplateField field : fields) {
             try {
-                int columnIndex = excelColumnToIndex(field.getExcelColumn());
-                indexToFields.computeIfAbsent(columnIndex, k -> new ArrayList<>())
-                        .add(field.getFieldLabel() + " (" + field.getFieldName() + ")");
+                columnToFieldMap.put(excelColumnToIndex(field.getExcelColumn()),
+                        field.getFieldName() + "_" + field.getExcelColumn());
             } catch (Exception e) {
-                // 忽略无法映射的字段
+                log.warn("字段 {} 无法通过excel_column {} 映射: {}",
+                        field.getFieldName(), field.getExcelColumn(), e.getMessage());
             }
         }
 
-        for (Map.Entry<Integer, List<String>> entry : indexToFields.entrySet()) {
-            if (entry.getValue().size() > 1) {
-                log.warn("警告: 列 {} 有多个字段映射: {}", entry.getKey(), entry.getValue());
+        int[] currentRowNum = {getTemplateDataStartRow(template)};
+        return details -> {
+            Row row = sheet.createRow(currentRowNum[0]++);
+            if (details != null) {
+                fillRowDataWithCombinedMapping(row, columnToFieldMap, combinedFieldMapping, toDetailMap(details));
             }
+        };
+    }
+
+    /**
+     * 动态生成表头的行写入器
+     */
+    private RowWriter createDynamicRowWriter(SXSSFWorkbook workbook, LedgerTemplate template,
+                                             List<TemplateField> fields, String widthMode) {
+        SXSSFSheet sheet = workbook.createSheet("台账");
+        if (ColumnWidthEstimator.MODE_AUTO.equals(widthMode)) {
+            // 列宽在写入过程中逐行统计，不需要保留全部行
+            sheet.trackAllColumnsForAutoSizing();
+        }
+        ExcelStyleRegistry styleRegistry = new ExcelStyleRegistry(workbook);
+        generateHeaderRows(styleRegistry, sheet, template, fields);
+        log.debug("表头样式数: {}, 字体数: {}", styleRegistry.getStyleCount(), styleRegistry.getFontCount());
+
+        ColumnWidthEstimator widthEstimator = ColumnWidthEstimator.MODE_ESTIMATE.equals(widthMode)
+                ? createWidthEstimator(fields) : null;
+        int dataStartRow = template.getDataStartRow() != null ? template.getDataStartRow() : 5;
+        int[] currentRowNum = {dataStartRow - 1};
+        return new RowWriter() {
+            @Override
+            public void write(List<LedgerDataDetail> details) {
+                fillRowDataSimple(sheet.createRow(currentRowNum[0]++), fields, details, widthEstimator);
+            }
+
+            @Override
+            public void finish() {
+                applyColumnWidths(sheet, fields.size(), widthMode, widthEstimator);
+            }
+        };
+    }
+
+    /**
+     * 创建列宽估算器（以字段标签和字段长度作为初始值）
+     */
+    private ColumnWidthEstimator createWidthEstimator(List<TemplateField> fields) {
+        ColumnWidthEstimator widthEstimator = new ColumnWidthEstimator(fields.size(), widthSampleRows);
+        for (int i = 0; i < fields.size(); i++) {
+            widthEstimator.header(i, fields.get(i).getFieldLabel());
+            widthEstimator.hint(i, fields.get(i).getFieldLength());
         }
+        return widthEstimator;
+    }
+
+    /**
+     * 按列宽模式调整列宽
+     */
+    private void applyColumnWidths(Sheet sheet, int columnCount, String widthMode,
+                                   ColumnWidthEstimator widthEstimator) {
+        long startTime = System.currentTimeMillis();
+        if (ColumnWidthEstimator.MODE_AUTO.equals(widthMode)) {
+            for (int i = 0; i < columnCount; i++) {
+                sheet.autoSizeColumn(i);
+            }
+        } else if (widthEstimator != null) {
+            widthEstimator.apply(sheet);
+        }
+        log.debug("列宽模式: {}, 调整列宽耗时: {}ms", widthMode, System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * 明细转为字段值映射
+     */
+    private Map<String, String> toDetailMap(List<LedgerDataDetail> details) {
+        Map<String, String> detailMap = new HashMap<>();
+        for (LedgerDataDetail detail : details) {
+            detailMap.put(detail.getFieldName(),
+                    detail.getFieldValue() != null ? detail.getFieldValue() : "");
+        }
+        return detailMap;
     }
 
     /**
@@ -238,45 +409,15 @@ public class ExcelExportService {
         }
     }
 
-    /**
-     * 方式2：动态生成Excel（基于模板样式）- 作为后备方案
-     */
-    private Workbook exportWithDynamicGeneration(LedgerTemplate template,
-                                                 List<TemplateField> fields,
-                                                 List<LedgerData> dataList,
-                                                 Map<Long, List<LedgerDataDetail>> detailsMap) {
-
-        log.info("动态生成Excel，单位: {}, 数据量: {}", template.getUnitName(), dataList.size());
-
-        Workbook workbook = new XSSFWorkbook();
-        Sheet sheet = workbook.createSheet("台账");
-
-        // 1. 生成表头（前4行）
-        generateHeaderRows(workbook, sheet, template, fields);
-
-        // 2. 生成数据行
-        int dataStartRow = template.getDataStartRow() != null ? template.getDataStartRow() : 5;
-        int currentRowNum = dataStartRow - 1; // 数据起始行
-
-        for (LedgerData data : dataList) {
-            Row row = sheet.createRow(currentRowNum++);
-            fillRowDataSimple(row, fields, detailsMap.get(data.getId()));
-        }
-
-        // 3. 自动调整列宽
-        for (int i = 0; i < fields.size(); i++) {
-            sheet.autoSizeColumn(i);
-        }
-
-        log.info("动态生成完成，共写入 {} 行数据", dataList.size());
-        return workbook;
-    }
-
     /**
      * 简单填充行数据
      */
-    private void fillRowDataSimple(Row row, List<TemplateField> fields, List<LedgerDataDetail> details) {
+    private void fillRowDataSimple(Row row, List<TemplateField> fields, List<LedgerDataDetail> details,
+                                   ColumnWidthEstimator widthEstimator) {
         if (details == null || details.isEmpty()) {
+            if (widthEstimator != null) {
+                widthEstimator.endRow();
+            }
             return;
         }
 
@@ -285,21 +426,32 @@ public class ExcelExportService {
                         detail -> detail.getFieldValue() != null ? detail.getFieldValue() : "",
                         (v1, v2) -> v1));
 
+        boolean sampling = widthEstimator != null && widthEstimator.sampling();
         for (int i = 0; i < fields.size(); i++) {
             TemplateField field = fields.get(i);
-            String value = detailMap.get(field.getFieldName());
+            // 明细中存储的是组合字段名，找不到时再尝试原始字段名
+            String value = detailMap.get(TemplateMetadataCache.buildStoredFieldName(field));
+            if (value == null) {
+                value = detailMap.get(field.getFieldName());
+            }
             Cell cell = row.createCell(i);
 
             if (value != null && !value.trim().isEmpty()) {
                 cell.setCellValue(value);
+                if (sampling) {
+                    widthEstimator.sample(i, value);
+                }
             }
         }
+        if (widthEstimator != null) {
+            widthEstimator.endRow();
+        }
     }
 
     /**
      * 生成表头行（基于模板样式表）
      */
-    private void generateHeaderRows(Workbook workbook, Sheet sheet,
+    private void generateHeaderRows(ExcelStyleRegistry styleRegistry, Sheet sheet,
                                     LedgerTemplate template, List<TemplateField> fields) {
 
         // 获取模板样式
@@ -307,17 +459,17 @@ public class ExcelExportService {
 
         if (styles.isEmpty()) {
             // 如果没有样式，生成简单表头
-            generateSimpleHeader(workbook, sheet, template, fields);
+            generateSimpleHeader(styleRegistry, sheet, template, fields);
         } else {
             // 使用存储的样式生成表头
-            generateStyledHeader(workbook, sheet, template, styles);
+            generateStyledHeader(styleRegistry, sheet, template, styles);
         }
     }
 
     /**
      * 使用存储的样式生成表头
      */
-    private void generateStyledHeader(Workbook workbook, Sheet sheet,
+    private void generateStyledHeader(ExcelStyleRegistry styleRegistry, Sheet sheet,
                                       LedgerTemplate template, List<TemplateStyle> styles) {
 
         // 按行分组
@@ -354,7 +506,8 @@ public class ExcelExportService {
                 if (style.getCellValue() != null) {
                     cell.setCellValue(style.getCellValue());
                 }
-                applyCellStyle(workbook, cell, style);
+                // 相同样式属性的单元格共用一个CellStyle
+                cell.setCellStyle(styleRegistry.getStyle(style));
             }
         }
     }
@@ -362,7 +515,7 @@ public class ExcelExportService {
     /**
      * 生成简单表头（如果没有样式）
      */
-    private void generateSimpleHeader(Workbook workbook, Sheet sheet,
+    private void generateSimpleHeader(ExcelStyleRegistry styleRegistry, Sheet sheet,
                                       LedgerTemplate template, List<TemplateField> fields) {
 
         // 第1行：标题
@@ -375,143 +528,35 @@ public class ExcelExportService {
             sheet.addMergedRegion(new CellRangeAddress(0, 0, 0, fields.size() - 1));
         }
 
-        // 第4行：字段名
-        Row row4 = sheet.createRow(3);
-        for (int i = 0; i < fields.size(); i++) {
-            Cell cell = row4.createCell(i);
-            cell.setCellValue(fields.get(i).getFieldLabel());
-
-            // 设置表头样式
-            CellStyle headerStyle = workbook.createCellStyle();
+        // 第4行：字段名（所有字段名单元格共用一个表头样式）
+        CellStyle headerStyle = styleRegistry.getStyle("simpleHeader", workbook -> {
+            CellStyle style = workbook.createCellStyle();
             Font headerFont = workbook.createFont();
             headerFont.setBold(true);
-            headerStyle.setFont(headerFont);
-            headerStyle.setAlignment(HorizontalAlignment.CENTER);
-            headerStyle.setVerticalAlignment(VerticalAlignment.CENTER);
+            style.setFont(headerFont);
+            style.setAlignment(HorizontalAlignment.CENTER);
+            style.setVerticalAlignment(VerticalAlignment.CENTER);
 
             // 设置边框
-            headerStyle.setBorderTop(BorderStyle.THIN);
-            headerStyle.setBorderBottom(BorderStyle.THIN);
-            headerStyle.setBorderLeft(BorderStyle.THIN);
-            headerStyle.setBorderRight(BorderStyle.THIN);
+            style.setBorderTop(BorderStyle.THIN);
+            style.setBorderBottom(BorderStyle.THIN);
+            style.setBorderLeft(BorderStyle.THIN);
+            style.setBorderRight(BorderStyle.THIN);
 
             // 设置背景色
-            headerStyle.setFillForegroundColor(IndexedColors.GREY_25_PERCENT.getIndex());
-            headerStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
+            style.setFillForegroundColor(IndexedColors.GREY_25_PERCENT.getIndex());
+            style.setFillPattern(FillPatternType.SOLID_FOREGROUND);
+            return style;
+        });
 
+        Row row4 = sheet.createRow(3);
+        for (int i = 0; i < fields.size(); i++) {
+            Cell cell = row4.createCell(i);
+            cell.setCellValue(fields.get(i).getFieldLabel());
             cell.setCellStyle(headerStyle);
         }
     }
 
-    /**
-     * 应用单元格样式
-     */
-    private void applyCellStyle(Workbook workbook, Cell cell, TemplateStyle style) {
-        try {
-            CellStyle cellStyle = workbook.createCellStyle();
-
-            // 创建字体
-            Font font = workbook.createFont();
-
-            // 字体
-            if (style.getFontName() != null) {
-                font.setFontName(style.getFontName());
-            }
-            if (style.getFontBold() != null) {
-                font.setBold(style.getFontBold());
-            }
-            if (style.getFontSize() != null) {
-                font.setFontHeightInPoints(style.getFontSize().shortValue());
-            }
-
-            // 字体颜色
-            if (style.getFontColor() != null) {
-                try {
-                    // 对于 XSSFWorkbook，可以使用 XSSFColor
-                    if (workbook instanceof XSSFWorkbook) {
-                        XSSFFont xssfFont = (XSSFFont) font;
-                        byte[] rgb = hexToRgb(style.getFontColor());
-                        xssfFont.setColor(new XSSFColor(rgb, null));
-                    }
-                } catch (Exception e) {
-                    log.warn("字体颜色解析失败: {}", style.getFontColor());
-                }
-            }
-            cellStyle.setFont(font);
-
-            // 对齐方式
-            if (style.getAlignment() != null) {
-                switch (style.getAlignment()) {
-                    case "CENTER":
-                        cellStyle.setAlignment(HorizontalAlignment.CENTER);
-                        break;
-                    case "RIGHT":
-                        cellStyle.setAlignment(HorizontalAlignment.RIGHT);
-                        break;
-                    default:
-                        cellStyle.setAlignment(HorizontalAlignment.LEFT);
-                }
-            } else {
-                cellStyle.setAlignment(HorizontalAlignment.LEFT);
-            }
-
-            // 垂直对齐
-            if (style.getVerticalAlignment() != null) {
-                switch (style.getVerticalAlignment()) {
-                    case "TOP":
-                        cellStyle.setVerticalAlignment(VerticalAlignment.TOP);
-                        break;
-                    case "BOTTOM":
-                        cellStyle.setVerticalAlignment(VerticalAlignment.BOTTOM);
-                        break;
-                    default:
-                        cellStyle.setVerticalAlignment(VerticalAlignment.CENTER);
-                }
-            } else {
-                cellStyle.setVerticalAlignment(VerticalAlignment.CENTER);
-            }
-
-            // 背景色
-            if (style.getBackgroundColor() != null) {
-                try {
-                    // 对于 XSSFWorkbook，可以使用 XSSFColor
-                    if (workbook instanceof XSSFWorkbook) {
-                        XSSFWorkbook xssfWorkbook = (XSSFWorkbook) workbook;
-                        byte[] rgb = hexToRgb(style.getBackgroundColor());
-                        XSSFColor color = new XSSFColor(rgb, null);
-                        ((XSSFCellStyle) cellStyle).setFillForegroundColor(color);
-                        cellStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-                    }
-                } catch (Exception e) {
-                    log.warn("背景颜色解析失败: {}", style.getBackgroundColor());
-                }
-            }
-
-            // 边框
-            if (style.getBorderTop() != null && style.getBorderTop()) {
-                cellStyle.setBorderTop(BorderStyle.THIN);
-            }
-            if (style.getBorderBottom() != null && style.getBorderBottom()) {
-                cellStyle.setBorderBottom(BorderStyle.THIN);
-            }
-            if (style.getBorderLeft() != null && style.getBorderLeft()) {
-                cellStyle.setBorderLeft(BorderStyle.THIN);
-            }
-            if (style.getBorderRight() != null && style.getBorderRight()) {
-                cellStyle.setBorderRight(BorderStyle.THIN);
-            }
-
-            // 单元格格式
-            if (style.getCellFormat() != null) {
-                cellStyle.setDataFormat(workbook.createDataFormat().getFormat(style.getCellFormat()));
-            }
-
-            cell.setCellStyle(cellStyle);
-        } catch (Exception e) {
-            log.error("应用单元格样式失败", e);
-        }
-    }
-
     /**
      * 清空数据行
      */
@@ -525,119 +570,6 @@ public class ExcelExportService {
         }
     }
 
-    /**
-     * 获取数据详情
-     */
-    private Map<Long, List<LedgerDataDetail>> getDataDetails(List<LedgerData> dataList) {
-        if (dataList.isEmpty()) return new HashMap<>();
-
-        List<Long> dataIds = dataList.stream()
-                .map(LedgerData::getId)
-                .collect(Collectors.toList());
-
-        List<LedgerDataDetail> details = ledgerDataDetailRepository.findByDataIdIn(dataIds);
-
-        // 按数据ID分组
-        Map<Long, List<LedgerDataDetail>> detailsMap = new HashMap<>();
-        for (LedgerDataDetail detail : details) {
-            detailsMap.computeIfAbsent(detail.getDataId(), k -> new ArrayList<>())
-                    .add(detail);
-        }
-
-        log.info("获取到 {} 条数据详情，分组后: {} 组", details.size(), detailsMap.size());
-        return detailsMap;
-    }
-
-    /**
-     * 调试数据详情
-     */
-    private void debugDataDetails(List<LedgerData> dataList, Map<Long, List<LedgerDataDetail>> detailsMap) {
-        log.info("====== 数据详情调试信息 ======");
-        for (LedgerData data : dataList) {
-            List<LedgerDataDetail> details = detailsMap.get(data.getId());
-            log.info("数据ID: {}, 明细数量: {}", data.getId(), details != null ? details.size() : 0);
-            if (details != null) {
-                for (LedgerDataDetail detail : details) {
-                    log.debug("  - 字段: {}, 值: {}", detail.getFieldName(), detail.getFieldValue());
-                }
-            }
-        }
-        log.info("====== 调试信息结束 ======");
-    }
-
-    /**
-     * 十六进制颜色转RGB
-     */
-    private byte[] hexToRgb(String hexColor) {
-        if (hexColor == null || hexColor.trim().isEmpty()) {
-            return new byte[] {0, 0, 0}; // 默认黑色
-        }
-
-        String color = hexColor.trim();
-        if (color.startsWith("#")) {
-            color = color.substring(1);
-        }
-
-        try {
-            if (color.length() == 6) {
-                return new byte[] {
-                        (byte) Integer.parseInt(color.substring(0, 2), 16),
-                        (byte) Integer.parseInt(color.substring(2, 4), 16),
-                        (byte) Integer.parseInt(color.substring(4, 6), 16)
-                };
-            } else if (color.length() == 8) {
-                // 包含Alpha通道，只取RGB
-                return new byte[] {
-                        (byte) Integer.parseInt(color.substring(2, 4), 16),
-                        (byte) Integer.parseInt(color.substring(4, 6), 16),
-                        (byte) Integer.parseInt(color.substring(6, 8), 16)
-                };
-            } else if (color.length() == 3) {
-                // 简写格式如 #FFF
-                return new byte[] {
-                        (byte) Integer.parseInt(color.substring(0, 1) + color.substring(0, 1), 16),
-                        (byte) Integer.parseInt(color.substring(1, 2) + color.substring(1, 2), 16),
-                        (byte) Integer.parseInt(color.substring(2, 3) + color.substring(2, 3), 16)
-                };
-            }
-        } catch (Exception e) {
-            log.warn("颜色格式转换失败: {}", color);
-        }
-
-        return new byte[] {0, 0, 0}; // 黑色
-    }
-
-    /**
-     * 导出单位所有数据
-     */
-    @Transactional(readOnly = true)
-    public byte[] exportAllLedgerDataByUnit(String unitName) throws IOException {
-        log.info("开始导出单位所有数据，单位: {}", unitName);
-
-        // 1. 根据单位名称获取模板
-        LedgerTemplate template = ledgerTemplateRepository.findByUnitNameAndDeletedFalse(unitName)
-                .orElseThrow(() -> new RuntimeException("单位不存在或已被删除: " + unitName));
-
-        // 2. 获取该单位的所有数据
-        List<LedgerData> dataList = ledgerDataRepository.findByUnitNameAndDeletedFalse(unitName);
-
-        if (dataList.isEmpty()) {
-            log.warn("该单位没有台账数据: {}", unitName);
-            // 创建一个空的Excel
-            return createEmptyExcelForUnit(template, unitName);
-        }
-
-        // 3. 提取数据ID
-        List<Long> dataIds = dataList.stream()
-                .map(LedgerData::getId)
-                .collect(Collectors.toList());
-
-        log.info("开始导出单位 {} 的数据，共 {} 条", unitName, dataIds.size());
-
-        // 4. 调用已有的导出方法
-        return exportLedgerData(template.getId(), dataIds);
-    }
-
     /**
      * 为单位创建空Excel（如果没有数据时）
      */
@@ -722,78 +654,4 @@ public class ExcelExportService {
             }
         }
     }
-
-    /**
-     * 方式1：基于模板文件导出 - 修复字段名匹配问题
-     */
-    private Workbook exportWithTemplateFileCompletely(LedgerTemplate template,
-                                                      List<TemplateField> fields,
-                                                      List<LedgerData> dataList,
-                                                      Map<Long, List<LedgerDataDetail>> detailsMap) throws IOException {
-
-        log.info("使用模板文件导出，文件路径: {}", template.getTemplateFilePath());
-
-        File templateFile = fileStorageService.getTemplateFile(template.getTemplateFilePath());
-        if (templateFile == null || !templateFile.exists()) {
-            throw new FileNotFoundException("模板文件不存在: " + template.getTemplateFilePath());
-        }
-
-        try (FileInputStream fis = new FileInputStream(templateFile)) {
-            Workbook workbook = new XSSFWorkbook(fis);
-            Sheet sheet = workbook.getSheetAt(0);
-
-            // 获取表头行数
-            int headerRowCount = template.getHeaderRowCount() != null ? template.getHeaderRowCount() : 4;
-            int dataStartRow = template.getDataStartRow() != null ? template.getDataStartRow() - 1 : headerRowCount;
-
-            log.info("数据起始行: {} (表头行数: {})", dataStartRow, headerRowCount);
-
-            // 清空原有数据
-            clearDataRows(sheet, dataStartRow);
-
-            // 创建组合字段名映射
-            Map<String, String> combinedFieldMapping = createCombinedFieldMapping(fields);
-
-            // 创建列索引到组合字段名的映射
-            Map<Integer, String> columnToFieldMap = new HashMap<>();
-            for (TemplateField field : fields) {
-                try {
-                    int columnIndex = excelColumnToIndex(field.getExcelColumn());
-                    String combinedFieldName = field.getFieldName() + "_" + field.getExcelColumn();
-                    columnToFieldMap.put(columnIndex, combinedFieldName);
-                    log.debug("列映射: 列{} -> {}", columnIndex, combinedFieldName);
-                } catch (Exception e) {
-                    log.warn("字段 {} 无法通过excel_column {} 映射: {}",
-                            field.getFieldName(), field.getExcelColumn(), e.getMessage());
-                }
-            }
-
-            log.info("创建列映射，共{}个字段映射到{}列", fields.size(), columnToFieldMap.size());
-
-            // 填充数据
-            int currentRowNum = dataStartRow;
-            for (LedgerData data : dataList) {
-                Row row = sheet.createRow(currentRowNum);
-
-                // 获取该数据的详情
-                List<LedgerDataDetail> details = detailsMap.get(data.getId());
-                if (details != null) {
-                    // 创建字段值映射（使用组合字段名）
-                    Map<String, String> detailMap = new HashMap<>();
-                    for (LedgerDataDetail detail : details) {
-                        detailMap.put(detail.getFieldName(),
-                                detail.getFieldValue() != null ? detail.getFieldValue() : "");
-                    }
-
-                    // 填充行数据
-                    fillRowDataWithCombinedMapping(row, columnToFieldMap, combinedFieldMapping, detailMap);
-                }
-
-                currentRowNum++;
-            }
-
-            log.info("模板文件导出完成，共写入 {} 行数据", dataList.size());
-            return workbook;
-        }
-    }
 }
\ No newline at end of file
@@ -0,0 +1,223 @@
+package com.example.ledger.service;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 22:45
+ */
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 明细字段值的全文检索（ledger_data_detail.field_value 上的 FULLTEXT ngram 索引）
+ * 模糊条件按短语匹配（近似 LIKE '%值%'），数据过滤条件与全文条件在同一条SQL中执行，
+ * 按相关度排序并限制候选数量后返回数据ID，调用方再按ID加载数据；候选数达到上限时结果标记为截断；索引由数据库随明细的新增、修改、删除自动维护。
+ * 索引不存在或查询值短于 ngram 分词长度时不可用，调用方回退到 LIKE 子查询
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class FieldValueSearchService {
+
+    public static final String FULLTEXT_INDEX = "ft_detail_value";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${app.search.fulltext.enabled:true}")
+    private boolean enabled;
+
+    // 全文检索返回的最大候选数据数
+    @Value("${app.search.fulltext.max-candidates:2000}")
+    private int maxCandidates;
+
+    // 索引状态的缓存时长
+    @Value("${app.search.fulltext.check-interval-ms:300000}")
+    private long checkIntervalMillis;
+
+    private volatile Boolean indexAvailable;
+    private volatile long checkedAt;
+    private volatile int ngramTokenSize = 2;
+
+    /**
+     * 全文索引是否可用
+     */
+    public boolean isAvailable() {
+        if (!enabled) {
+            return false;
+        }
+        if (indexAvailable == null || System.currentTimeMillis() - checkedAt > checkIntervalMillis) {
+            refresh();
+        }
+        return indexAvailable;
+    }
+
+    /**
+     * 重新检查索引状态（创建索引后调用）
+     */
+    public synchronized void refresh() {
+        try {
+            Integer count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM information_schema.STATISTICS " +
+                    "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'ledger_data_detail' AND INDEX_NAME = ?",
+                    Integer.class, FULLTEXT_INDEX);
+            indexAvailable = count != null && count > 0;
+            Integer tokenSize = jdbcTemplate.queryForObject("SELECT @@ngram_token_size", Integer.class);
+            if (tokenSize != null) {
+                ngramTokenSize = tokenSize;
+            }
+        } catch (Exception e) {
+            log.warn("检查全文索引失败: {}", e.getMessage());
+            indexAvailable = false;
+        }
+        checkedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * 查询值能否走全文索引（短于分词长度的值无法匹配）
+     */
+    public boolean canSearch(FieldTerm term) {
+        String phrase = toPhrase(term.getValue());
+        return phrase != null && phrase.codePointCount(0, phrase.length()) >= ngramTokenSize;
+    }
+
+    /**
+     * 按多个字段条件检索（条件之间为AND），返回按相关度倒序的数据ID
+     * 过滤条件必须与调用方的查询条件一致，否则候选名额会被调用方看不到的数据占用
+     */
+    public SearchResult search(List<FieldTerm> terms, SearchFilter filter) {
+        StringBuilder score = new StringBuilder();
+        StringBuilder joins = new StringBuilder();
+        List<Object> scoreArgs = new ArrayList<>();
+        List<Object> joinArgs = new ArrayList<>();
+
+        for (int i = 0; i < terms.size(); i++) {
+            String alias = "t" + i;
+            String phrase = "\"" + toPhrase(terms.get(i).getValue()) + "\"";
+            if (i > 0) {
+                score.append(" + ");
+            }
+            score.append("MATCH(").append(alias).append(".field_value) AGAINST (? IN BOOLEAN MODE)");
+            scoreArgs.add(phrase);
+            joins.append(" JOIN ledger_data_detail ").append(alias).append(" ON ").append(alias)
+                    .append(".data_id = d.id AND ").append(alias).append(".field_name = ? AND MATCH(")
+                    .append(alias).append(".field_value) AGAINST (? IN BOOLEAN MODE)");
+            joinArgs.add(terms.get(i).getFieldName());
+            joinArgs.add(phrase);
+        }
+
+        StringBuilder sql = new StringBuilder("SELECT d.id, ").append(score).append(" AS score FROM ledger_data d")
+                .append(joins).append(" WHERE d.deleted = 0");
+        List<Object> args = new ArrayList<>(scoreArgs);
+        args.addAll(joinArgs);
+        if (StringUtils.hasText(filter.getUnitName())) {
+            sql.append(" AND d.unit_name = ?");
+            args.add(filter.getUnitName());
+        }
+        if (filter.getTemplateId() != null) {
+            sql.append(" AND d.template_id = ?");
+            args.add(filter.getTemplateId());
+        }
+        if (StringUtils.hasText(filter.getDataStatus())) {
+            sql.append(" AND d.data_status = ?");
+            args.add(filter.getDataStatus());
+        }
+        if (StringUtils.hasText(filter.getValidationStatus())) {
+            sql.append(" AND d.validation_status = ?");
+            args.add(filter.getValidationStatus());
+        }
+        if (filter.getStartTime() != null) {
+            sql.append(" AND d.created_time >= ?");
+            args.add(filter.getStartTime());
+        }
+        if (filter.getEndTime() != null) {
+            sql.append(" AND d.created_time <= ?");
+            args.add(filter.getEndTime());
+        }
+        if (filter.getMonthFrom() != null && filter.getMonthTo() != null) {
+            sql.append(" AND d.created_month BETWEEN ? AND ?");
+            args.add(filter.getMonthFrom());
+            args.add(filter.getMonthTo());
+        }
+        if (filter.getCreatedBy() != null) {
+            sql.append(" AND d.created_by = ?");
+            args.add(filter.getCreatedBy());
+        }
+        sql.append(" ORDER BY score DESC, d.id LIMIT ?");
+        args.add(maxCandidates);
+
+        Map<Long, Double> ranked = new LinkedHashMap<>();
+        long start = System.currentTimeMillis();
+        jdbcTemplate.query(sql.toString(), rs -> {
+            ranked.putIfAbsent(rs.getLong("id"), rs.getDouble("score"));
+        }, args.toArray());
+
+        boolean truncated = ranked.size() >= maxCandidates;
+        if (truncated) {
+            log.warn("全文检索候选数据达到上限 {}，结果不完整", maxCandidates);
+        }
+        log.debug("全文检索完成，条件数: {}，候选数据: {}，耗时 {} ms", terms.size(), ranked.size(),
+                System.currentTimeMillis() - start);
+        return new SearchResult(new ArrayList<>(ranked.keySet()), truncated);
+    }
+
+    /**
+     * 转换为短语查询内容（去掉双引号），空值返回null
+     */
+    private static String toPhrase(String value) {
+        if (value == null) {
+            return null;
+        }
+        String phrase = value.replace("\"", " ").trim();
+        return phrase.isEmpty() ? null : phrase;
+    }
+
+    /**
+     * 字段条件：存储字段名 + 查询值
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class FieldTerm {
+        private final String fieldName;
+        private final String value;
+        private final boolean fuzzy;
+    }
+
+    /**
+     * 数据过滤条件：与多字段查询的基础条件一一对应，空值表示不过滤
+     */
+    @Getter
+    @Builder
+    public static class SearchFilter {
+        private final String unitName;
+        private final Long templateId;
+        private final String dataStatus;
+        private final String validationStatus;
+        private final LocalDateTime startTime;
+        private final LocalDateTime endTime;
+        private final Integer monthFrom;   // 创建年月范围（yyyyMM）
+        private final Integer monthTo;
+        private final Long createdBy;
+    }
+
+    /**
+     * 检索结果：按相关度倒序的数据ID，truncated 表示候选数达到上限、可能有匹配数据未返回
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class SearchResult {
+        private final List<Long> dataIds;
+        private final boolean truncated;
+    }
+}
@@ -0,0 +1,306 @@
+package com.example.ledger.service;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 21:50
+ */
+
+import com.example.ledger.entity.*;
+import com.example.ledger.repository.LedgerDataRepository;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.lang.reflect.Method;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.*;
+
+/**
+ * 索引顾问
+ * 1. 受管索引：实体 @Index 声明的索引，加上JPA无法声明的前缀索引（TEXT列）和全文索引，检查是否已在库中创建，可一键补建
+ * 2. 查询诊断：对仓库中的热点查询形态（JPQL查询对应的SQL及 LedgerDataRepository 的原生查询）执行 EXPLAIN，
+ *    使用库中的实际数据作为参数，报告全表扫描、全索引扫描、文件排序和临时表
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class IndexAdvisorService {
+
+    // 声明了受管索引的实体
+    private static final List<Class<?>> INDEXED_ENTITIES = List.of(LedgerData.class, LedgerDataDetail.class,
+            LedgerUpload.class, LedgerEditHistory.class, LedgerTemplate.class, RequiredFieldConfig.class,
+            UploadJob.class);
+
+    // JPA无法声明的索引：索引名 -> {表名, 建索引语句}
+    private static final Map<String, String[]> RAW_INDEXES = Map.of(
+            "idx_detail_field_value", new String[] {"ledger_data_detail",
+                    "CREATE INDEX idx_detail_field_value ON ledger_data_detail (field_name, field_value(191))"},
+            // 模糊查询使用的ngram全文索引（创建时关闭停用词，否则包含停用词的分词不会被索引）
+            FieldValueSearchService.FULLTEXT_INDEX, new String[] {"ledger_data_detail",
+                    "CREATE FULLTEXT INDEX " + FieldValueSearchService.FULLTEXT_INDEX +
+                            " ON ledger_data_detail (field_value) WITH PARSER ngram"});
+
+    // 热点查询形态（与仓库JPQL查询对应的SQL）
+    private static final Map<String, String> QUERY_SHAPES = new LinkedHashMap<>();
+
+    static {
+        QUERY_SHAPES.put("data.byUnit", "SELECT * FROM ledger_data WHERE unit_name = :unitName AND deleted = false " +
+                "ORDER BY created_time DESC");
+        QUERY_SHAPES.put("data.latestByUnit", "SELECT * FROM ledger_data WHERE unit_name = :unitName " +
+                "AND is_latest = true AND deleted = false");
+        QUERY_SHAPES.put("data.byUserAndUnit", "SELECT * FROM ledger_data WHERE created_by = :userId " +
+                "AND unit_name = :unitName AND deleted = false");
+        QUERY_SHAPES.put("data.latestByUserAndUnit", "SELECT * FROM ledger_data WHERE created_by = :userId " +
+                "AND unit_name = :unitName AND is_latest = true AND deleted = false ORDER BY created_time DESC");
+        QUERY_SHAPES.put("data.byUpload", "SELECT * FROM ledger_data WHERE upload_id = :uploadId AND deleted = false " +
+                "ORDER BY row_num");
+        QUERY_SHAPES.put("data.countByTemplate", "SELECT COUNT(*) FROM ledger_data WHERE template_id = :templateId " +
+                "AND deleted = false");
+        QUERY_SHAPES.put("data.byHistorical", "SELECT * FROM ledger_data WHERE historical_data_id = :dataId " +
+                "AND deleted = false");
+        QUERY_SHAPES.put("data.keysetByUserAndUnit", "SELECT * FROM ledger_data WHERE created_by = :userId " +
+                "AND unit_name = :unitName AND deleted = false AND id > :lastId ORDER BY id LIMIT 1000");
+        QUERY_SHAPES.put("data.purgeByUserAndUnit", "DELETE d FROM ledger_data_detail d JOIN ledger_data l " +
+                "ON d.data_id = l.id WHERE l.created_by = :userId AND l.unit_name = :unitName " +
+                "AND l.upload_id <> :uploadId AND l.deleted = 0");
+        QUERY_SHAPES.put("detail.byData", "SELECT * FROM ledger_data_detail WHERE data_id IN (:dataIds)");
+        QUERY_SHAPES.put("detail.fieldExists", "SELECT d.id FROM ledger_data d WHERE d.unit_name = :unitName " +
+                "AND d.deleted = false AND EXISTS (SELECT 1 FROM ledger_data_detail dd WHERE dd.data_id = d.id " +
+                "AND dd.field_name = :fieldName AND dd.field_value = :fieldValue)");
+        QUERY_SHAPES.put("detail.fulltext", "SELECT d.id FROM ledger_data d JOIN ledger_data_detail t0 " +
+                "ON t0.data_id = d.id AND t0.field_name = :fieldName " +
+                "AND MATCH(t0.field_value) AGAINST (:fieldValue IN BOOLEAN MODE) WHERE d.deleted = 0 LIMIT 2000");
+        QUERY_SHAPES.put("detail.byFieldValue", "SELECT * FROM ledger_data_detail WHERE field_name = :fieldName " +
+                "AND field_value = :fieldValue");
+        QUERY_SHAPES.put("detail.numericRange", "SELECT data_id FROM ledger_data_detail WHERE field_name = :fieldName " +
+                "AND numeric_value BETWEEN 0 AND 10000");
+        QUERY_SHAPES.put("detail.dateRange", "SELECT data_id FROM ledger_data_detail WHERE field_name = :fieldName " +
+                "AND date_value BETWEEN '2026-07-01' AND '2026-09-30'");
+        QUERY_SHAPES.put("detail.aggregateByMonth", "SELECT l.created_month, SUM(f0.numeric_value) FROM ledger_data l " +
+                "LEFT JOIN ledger_data_detail f0 ON f0.data_id = l.id AND f0.field_name = :fieldName " +
+                "WHERE l.deleted = 0 AND l.unit_name = :unitName GROUP BY l.created_month LIMIT 1001");
+        QUERY_SHAPES.put("upload.byUserAndUnit", "SELECT * FROM ledger_upload WHERE user_id = :userId " +
+                "AND unit_name = :unitName AND deleted = false ORDER BY upload_time DESC");
+        QUERY_SHAPES.put("upload.byUnit", "SELECT * FROM ledger_upload WHERE unit_name = :unitName " +
+                "AND deleted = false ORDER BY upload_time DESC");
+        QUERY_SHAPES.put("history.byData", "SELECT * FROM ledger_edit_history WHERE data_id = :dataId " +
+                "AND deleted = false ORDER BY edit_time DESC");
+        QUERY_SHAPES.put("template.byUnit", "SELECT * FROM ledger_template WHERE unit_name = :unitName " +
+                "AND deleted = false");
+        QUERY_SHAPES.put("requiredField.byTemplate", "SELECT * FROM required_field_config WHERE template_id = :templateId " +
+                "AND is_required = true AND deleted = false ORDER BY field_name");
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final FieldValueSearchService fieldValueSearchService;
+
+    // 启动时执行一次诊断并输出日志
+    @Value("${app.index-advisor.run-on-startup:false}")
+    private boolean runOnStartup;
+
+    // 扫描行数超过该值的全表/全索引扫描才报告
+    @Value("${app.index-advisor.min-rows:1000}")
+    private long minRows;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        if (!runOnStartup) {
+            return;
+        }
+        try {
+            Map<String, Object> report = analyze();
+            log.info("索引诊断完成，缺失索引: {}，问题查询: {}", report.get("missingIndexes"), report.get("problems"));
+        } catch (Exception e) {
+            log.warn("索引诊断失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 执行索引诊断
+     */
+    public Map<String, Object> analyze() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("missingIndexes", findMissingIndexes().keySet());
+
+        Map<String, Object> params = sampleParameters();
+        NamedParameterJdbcTemplate namedJdbc = new NamedParameterJdbcTemplate(jdbcTemplate);
+        List<Map<String, Object>> problems = new ArrayList<>();
+        List<Map<String, Object>> plans = new ArrayList<>();
+        for (Map.Entry<String, String> shape : collectQueryShapes().entrySet()) {
+            Map<String, Object> plan = new LinkedHashMap<>();
+            plan.put("query", shape.getKey());
+            try {
+                List<Map<String, Object>> rows = namedJdbc.queryForList("EXPLAIN " + shape.getValue(), params);
+                List<String> issues = new ArrayList<>();
+                for (Map<String, Object> row : rows) {
+                    String issue = diagnose(row);
+                    if (issue != null) {
+                        issues.add(issue);
+                    }
+                }
+                plan.put("plan", rows);
+                plan.put("issues", issues);
+                if (!issues.isEmpty()) {
+                    problems.add(Map.of("query", shape.getKey(), "issues", issues));
+                }
+            } catch (Exception e) {
+                plan.put("error", e.getMessage());
+            }
+            plans.add(plan);
+        }
+
+        report.put("problems", problems);
+        report.put("plans", plans);
+        return report;
+    }
+
+    /**
+     * 创建缺失的受管索引
+     */
+    public synchronized Map<String, Object> applyMissingIndexes() {
+        List<String> created = new ArrayList<>();
+        Map<String, String> failed = new LinkedHashMap<>();
+        for (Map.Entry<String, String[]> index : findMissingIndexes().entrySet()) {
+            String sql = index.getValue()[1];
+            try {
+                long start = System.currentTimeMillis();
+                // 停用词设置在建全文索引时生效，与建索引语句使用同一连接，结束后恢复，避免影响连接池中的后续使用者
+                jdbcTemplate.execute((ConnectionCallback<Object>) connection -> {
+                    try (Statement statement = connection.createStatement()) {
+                        String previous;
+                        try (ResultSet rs = statement.executeQuery("SELECT @@SESSION.innodb_ft_enable_stopword")) {
+                            previous = rs.next() ? rs.getString(1) : "1";
+                        }
+                        statement.execute("SET SESSION innodb_ft_enable_stopword = OFF");
+                        try {
+                            statement.execute(sql);
+                        } finally {
+                            statement.execute("SET SESSION innodb_ft_enable_stopword = "
+                                    + ("0".equals(previous) ? "OFF" : "ON"));
+                        }
+                    }
+                    return null;
+                });
+                created.add(index.getKey());
+                log.info("已创建索引 {}，耗时 {} ms", sql, System.currentTimeMillis() - start);
+            } catch (Exception e) {
+                failed.put(index.getKey(), e.getMessage());
+                log.error("创建索引失败: {}", sql, e);
+            }
+        }
+
+        fieldValueSearchService.refresh();
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("created", created);
+        result.put("failed", failed);
+        return result;
+    }
+
+    /**
+     * 受管索引中库里尚不存在的索引：索引名 -> {表名, 建索引语句}
+     */
+    private Map<String, String[]> findMissingIndexes() {
+        Map<String, String[]> managed = new LinkedHashMap<>();
+        for (Class<?> entity : INDEXED_ENTITIES) {
+            Table table = entity.getAnnotation(Table.class);
+            if (table == null) {
+                continue;
+            }
+            for (Index index : table.indexes()) {
+                managed.put(index.name(), new String[] {table.name(),
+                        "CREATE INDEX " + index.name() + " ON " + table.name() + " (" + index.columnList() + ")"});
+            }
+        }
+        managed.putAll(RAW_INDEXES);
+
+        Set<String> existing = new HashSet<>(jdbcTemplate.queryForList(
+                "SELECT DISTINCT CONCAT(TABLE_NAME, '.', INDEX_NAME) FROM information_schema.STATISTICS " +
+                        "WHERE TABLE_SCHEMA = DATABASE()", String.class));
+        managed.entrySet().removeIf(entry -> existing.contains(entry.getValue()[0] + "." + entry.getKey()));
+        return managed;
+    }
+
+    /**
+     * 查询形态：固定的JPQL对应SQL + LedgerDataRepository 中的原生查询
+     */
+    private Map<String, String> collectQueryShapes() {
+        Map<String, String> shapes = new LinkedHashMap<>(QUERY_SHAPES);
+        for (Method method : LedgerDataRepository.class.getDeclaredMethods()) {
+            Query query = method.getAnnotation(Query.class);
+            if (query != null && query.nativeQuery()) {
+                shapes.putIfAbsent("LedgerDataRepository." + method.getName(), query.value());
+            }
+        }
+        return shapes;
+    }
+
+    /**
+     * 从最新数据中取查询参数，使执行计划接近真实查询
+     */
+    private Map<String, Object> sampleParameters() {
+        Map<String, Object> params = new HashMap<>();
+        params.put("unitName", "");
+        params.put("userId", 0L);
+        params.put("uploadId", 0L);
+        params.put("templateId", 0L);
+        params.put("dataId", 0L);
+        params.put("dataIds", List.of(0L));
+        params.put("lastId", 0L);
+        params.put("fieldName", "");
+        params.put("fieldValue", "");
+
+        jdbcTemplate.query("SELECT id, unit_name, created_by, upload_id, template_id, created_month FROM ledger_data " +
+                "ORDER BY id DESC LIMIT 1", rs -> {
+            params.put("dataId", rs.getLong("id"));
+            params.put("dataIds", List.of(rs.getLong("id")));
+            params.put("unitName", rs.getString("unit_name"));
+            params.put("userId", rs.getLong("created_by"));
+            params.put("uploadId", rs.getLong("upload_id"));
+            params.put("templateId", rs.getLong("template_id"));
+            params.put("startMonth", rs.getInt("created_month"));
+            params.put("endMonth", rs.getInt("created_month"));
+        });
+        jdbcTemplate.query("SELECT field_name, field_value FROM ledger_data_detail ORDER BY id DESC LIMIT 1", rs -> {
+            params.put("fieldName", rs.getString("field_name"));
+            params.put("fieldValue", rs.getString("field_value"));
+        });
+        params.putIfAbsent("startMonth", 0);
+        params.putIfAbsent("endMonth", 0);
+        return params;
+    }
+
+    /**
+     * 诊断执行计划中的一行，无问题时返回null
+     */
+    private String diagnose(Map<String, Object> row) {
+        String table = String.valueOf(row.get("table"));
+        String type = String.valueOf(row.get("type"));
+        String extra = row.get("Extra") != null ? String.valueOf(row.get("Extra")) : "";
+        long rows = row.get("rows") instanceof Number ? ((Number) row.get("rows")).longValue() : 0;
+
+        List<String> issues = new ArrayList<>();
+        if ("ALL".equals(type) && rows >= minRows) {
+            issues.add("全表扫描");
+        } else if ("index".equals(type) && rows >= minRows) {
+            issues.add("全索引扫描");
+        }
+        if (extra.contains("Using filesort") && rows >= minRows) {
+            issues.add("文件排序");
+        }
+        if (extra.contains("Using temporary")) {
+            issues.add("临时表");
+        }
+        return issues.isEmpty() ? null : table + ": " + String.join("、", issues) + "（预估 " + rows + " 行）";
+    }
+}
@@ -0,0 +1,809 @@
+package com.example.ledger.service;
+
+/**
+ * @author 霜月
+ * @create 2026/10/18 01:40
+ */
+
+import com.example.ledger.dto.request.FieldCondition;
+import com.example.ledger.dto.request.LedgerDataAggregateRequest;
+import com.example.ledger.dto.response.LedgerDataAggregateResponse;
+import com.example.ledger.entity.TemplateField;
+import com.example.ledger.util.ColumnarSnapshot;
+import com.example.ledger.util.CreatedMonth;
+import com.example.ledger.util.FieldValueConverter;
+import com.example.ledger.util.SecurityUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * 台账数据汇总/透视
+ * 在 ledger_data 上按维度（单位、模板、上传、月份）或字段取值分组，用到的每个字段 LEFT JOIN 一次明细（走 data_id, field_name 索引）；
+ * SUM/AVG 取 numeric_value，MIN/MAX 按字段类型取 numeric_value、date_value 或 field_value；
+ * 透视列先查询取值，再用 CASE WHEN 条件汇总展开为列。结果逐行流式读取，限制返回行数和查询超时
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class LedgerDataAggregateService {
+
+    public static final String KIND_DIMENSION = "DIMENSION";
+    public static final String KIND_METRIC = "METRIC";
+
+    // 结果来源
+    public static final String SOURCE_DATABASE = "DATABASE";
+    public static final String SOURCE_SNAPSHOT = "SNAPSHOT";
+
+    // 透视取值为空时的列名
+    private static final String NULL_PIVOT_LABEL = "(空)";
+    // 流式输出时每隔多少行刷新一次
+    private static final int FLUSH_ROWS = 500;
+
+    private static final Map<String, String> COMPARISON_SQL = Map.of(
+            FieldCondition.EQ, " = ?",
+            FieldCondition.NE, " <> ?",
+            FieldCondition.GT, " > ?",
+            FieldCondition.GTE, " >= ?",
+            FieldCondition.LT, " < ?",
+            FieldCondition.LTE, " <= ?");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final LedgerDataQueryService ledgerDataQueryService;
+    private final DbConcurrencyLimiter dbConcurrencyLimiter;
+    private final ColumnarSnapshotService columnarSnapshotService;
+    private final SecurityUtil securityUtil;
+    private final ObjectMapper objectMapper;
+
+    // 未指定时返回的最大行数
+    @Value("${app.aggregate.default-limit:1000}")
+    private int defaultLimit;
+
+    // 行数限制上限
+    @Value("${app.aggregate.max-limit:50000}")
+    private int maxLimit;
+
+    // 未指定时的查询超时（秒）
+    @Value("${app.aggregate.timeout-seconds:30}")
+    private int defaultTimeoutSeconds;
+
+    // 查询超时上限（秒）
+    @Value("${app.aggregate.max-timeout-seconds:120}")
+    private int maxTimeoutSeconds;
+
+    // 透视列最多展开的取值数
+    @Value("${app.aggregate.max-pivot-values:50}")
+    private int maxPivotValues;
+
+    /**
+     * 汇总查询，结果一次返回
+     */
+    public LedgerDataAggregateResponse aggregate(LedgerDataAggregateRequest request) {
+        long start = System.currentTimeMillis();
+        AggregateQuery query = prepare(request);
+        List<List<Object>> rows = new ArrayList<>();
+        int read = execute(query, rows::add);
+        return LedgerDataAggregateResponse.builder()
+                .columns(query.columns)
+                .rows(rows)
+                .rowCount(rows.size())
+                .truncated(read > query.limit)
+                .source(query.source())
+                .elapsedMillis(System.currentTimeMillis() - start)
+                .build();
+    }
+
+    /**
+     * 流式输出汇总结果（NDJSON）：首行为列定义，之后每行一个JSON数组，末行为行数和是否截断
+     * 结果行（最多 limit 行）在数据库许可内读取完毕，释放许可和连接后再写响应，慢客户端不占用数据库资源
+     */
+    public void stream(AggregateQuery query, OutputStream outputStream) throws IOException {
+        long start = System.currentTimeMillis();
+        writeLine(outputStream, Map.of("columns", query.columns));
+
+        List<List<Object>> rows = new ArrayList<>();
+        int read = execute(query, rows::add);
+
+        int written = 0;
+        for (List<Object> row : rows) {
+            writeLine(outputStream, row);
+            if (++written % FLUSH_ROWS == 0) {
+                outputStream.flush();
+            }
+        }
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("rowCount", written);
+        summary.put("truncated", read > query.limit);
+        summary.put("source", query.source());
+        summary.put("elapsedMillis", System.currentTimeMillis() - start);
+        writeLine(outputStream, summary);
+        outputStream.flush();
+    }
+
+    /**
+     * 解析请求并生成SQL（参数错误在这里抛出，流式输出前调用）
+     * 启用列式快照且指定了模板时先尝试在快照上计算，快照不支持的条件（创建时间范围等）改为查询数据库
+     */
+    public AggregateQuery prepare(LedgerDataAggregateRequest request) {
+        TemplateMetadataCache.TemplateMetadata metadata =
+                ledgerDataQueryService.resolveMetadata(request.getTemplateId(), request.getUnitName());
+        FieldJoins joins = new FieldJoins(metadata);
+
+        AggregateQuery query = new AggregateQuery();
+        query.limit = bounded(request.getLimit(), defaultLimit, maxLimit);
+        query.timeoutSeconds = bounded(request.getTimeoutSeconds(), defaultTimeoutSeconds, maxTimeoutSeconds);
+
+        // 分组维度（重复的维度只保留一个）
+        Map<String, Dimension> dimensions = new LinkedHashMap<>();
+        if (request.getGroupBy() != null) {
+            for (String key : request.getGroupBy()) {
+                if (StringUtils.hasText(key)) {
+                    Dimension dimension = resolveDimension(key, joins);
+                    dimensions.putIfAbsent(dimension.expression, dimension);
+                }
+            }
+        }
+
+        Dimension pivot = null;
+        if (StringUtils.hasText(request.getPivotBy())) {
+            pivot = resolveDimension(request.getPivotBy(), joins);
+            if (dimensions.containsKey(pivot.expression)) {
+                throw new RuntimeException("透视列不能同时作为分组维度: " + request.getPivotBy());
+            }
+        }
+
+        List<MetricExpression> metrics = new ArrayList<>();
+        if (request.getMetrics() == null || request.getMetrics().isEmpty()) {
+            metrics.add(resolveMetric(new LedgerDataAggregateRequest.Metric(), joins));
+        } else {
+            for (LedgerDataAggregateRequest.Metric metric : request.getMetrics()) {
+                metrics.add(resolveMetric(metric, joins));
+            }
+        }
+
+        List<LedgerDataQueryService.ResolvedFieldCondition> conditions = new ArrayList<>();
+        if (request.getFieldConditions() != null) {
+            for (FieldCondition condition : request.getFieldConditions()) {
+                conditions.add(ledgerDataQueryService.resolveFieldCondition(condition, metadata));
+            }
+        }
+
+        if (request.getTemplateId() != null && metadata != null && columnarSnapshotService.isEnabled()) {
+            Dimension snapshotPivot = pivot;
+            List<Object[]> grouped = columnarSnapshotService.read(request.getTemplateId(), snapshot ->
+                    aggregateSnapshot(snapshot, request, dimensions.values(), snapshotPivot, metrics, conditions));
+            if (grouped != null) {
+                fillFromSnapshot(query, grouped, dimensions.values(), pivot, metrics);
+                return query;
+            }
+        }
+
+        // 过滤条件
+        List<Object> whereParams = new ArrayList<>();
+        String where = buildWhere(request, conditions, whereParams);
+
+        // 透视取值
+        List<Object> pivotValues = Collections.singletonList(null);
+        if (pivot != null) {
+            pivotValues = queryPivotValues(pivot, joins, where, whereParams, query.timeoutSeconds);
+        }
+
+        List<String> selects = new ArrayList<>();
+        List<Object> selectParams = new ArrayList<>();
+        for (Dimension dimension : dimensions.values()) {
+            selects.add(dimension.expression);
+        }
+        for (Object pivotValue : pivotValues) {
+            String condition = null;
+            if (pivot != null) {
+                condition = pivotValue == null ? pivot.expression + " IS NULL" : pivot.expression + " = ?";
+            }
+            for (MetricExpression metric : metrics) {
+                selects.add(metric.toSql(condition));
+                if (pivotValue != null) {
+                    selectParams.add(pivotValue);
+                }
+            }
+        }
+        buildColumns(query, dimensions.values(), pivot, pivotValues, metrics);
+
+        StringBuilder sql = new StringBuilder("SELECT ").append(String.join(", ", selects))
+                .append(" FROM ledger_data l").append(joins.toSql()).append(where);
+        if (!dimensions.isEmpty()) {
+            String groupBy = String.join(", ", dimensions.keySet());
+            sql.append(" GROUP BY ").append(groupBy).append(" ORDER BY ").append(groupBy);
+        }
+        // 多取一行用于判断是否截断
+        sql.append(" LIMIT ?");
+
+        query.sql = sql.toString();
+        query.params = new ArrayList<>(selectParams);
+        query.params.addAll(joins.params());
+        query.params.addAll(whereParams);
+        query.params.add(query.limit + 1);
+        return query;
+    }
+
+    /**
+     * 列定义：分组列在前，之后每个透视取值 x 每个汇总项一列
+     */
+    private void buildColumns(AggregateQuery query, Collection<Dimension> dimensions, Dimension pivot,
+                              List<Object> pivotValues, List<MetricExpression> metrics) {
+        List<LedgerDataAggregateResponse.Column> columns = new ArrayList<>();
+        List<Boolean> monthColumns = new ArrayList<>();
+        for (Dimension dimension : dimensions) {
+            columns.add(LedgerDataAggregateResponse.Column.builder()
+                    .name(dimension.name)
+                    .kind(KIND_DIMENSION)
+                    .field(dimension.field)
+                    .build());
+            monthColumns.add(dimension.month);
+        }
+        for (Object pivotValue : pivotValues) {
+            String pivotLabel = null;
+            if (pivot != null) {
+                pivotLabel = pivotValue == null ? NULL_PIVOT_LABEL : String.valueOf(format(pivotValue, pivot.month));
+            }
+            for (MetricExpression metric : metrics) {
+                columns.add(LedgerDataAggregateResponse.Column.builder()
+                        .name(pivot != null ? pivotLabel + "_" + metric.alias : metric.alias)
+                        .kind(KIND_METRIC)
+                        .function(metric.function)
+                        .field(metric.field)
+                        .pivotValue(pivotLabel)
+                        .build());
+                monthColumns.add(false);
+            }
+        }
+        query.columns = columns;
+        query.monthColumns = new boolean[monthColumns.size()];
+        for (int i = 0; i < monthColumns.size(); i++) {
+            query.monthColumns[i] = monthColumns.get(i);
+        }
+    }
+
+    /**
+     * 在列式快照上过滤和分组（透视列作为最后一个分组键），快照无法计算时返回null
+     */
+    private List<Object[]> aggregateSnapshot(ColumnarSnapshot snapshot, LedgerDataAggregateRequest request,
+                                             Collection<Dimension> dimensions, Dimension pivot,
+                                             List<MetricExpression> metrics,
+                                             List<LedgerDataQueryService.ResolvedFieldCondition> conditions) {
+        // 快照不保存创建时间
+        if (request.getStartTime() != null || request.getEndTime() != null) {
+            return null;
+        }
+
+        BitSet rows = snapshot.liveRows();
+        if (StringUtils.hasText(request.getUnitName())) {
+            snapshot.retainUnit(rows, request.getUnitName());
+        }
+        if (request.getUploadId() != null) {
+            snapshot.retainUpload(rows, request.getUploadId());
+        }
+        if (StringUtils.hasText(request.getValidationStatus())) {
+            snapshot.retainValidationStatus(rows, request.getValidationStatus());
+        }
+        if (request.getYear() != null) {
+            snapshot.retainMonths(rows, CreatedMonth.start(request.getYear(), request.getMonth()),
+                    CreatedMonth.end(request.getYear(), request.getMonth()));
+        }
+        if (Boolean.TRUE.equals(request.getViewOwnOnly())) {
+            Long userId = securityUtil.getCurrentUserId();
+            if (userId == null) {
+                return null;
+            }
+            snapshot.retainCreatedBy(rows, userId);
+        }
+        for (LedgerDataQueryService.ResolvedFieldCondition condition : conditions) {
+            if (condition.storedFieldName == null) {
+                return null;
+            }
+            List<Object> values = FieldCondition.LIKE.equals(condition.operator)
+                    ? List.of(unescapeLike((String) condition.values.get(0))) : condition.values;
+            if (!snapshot.retainField(rows, condition.storedFieldName, snapshotType(condition.valueColumn),
+                    condition.operator, values)) {
+                return null;
+            }
+        }
+
+        List<ColumnarSnapshot.GroupKey> keys = new ArrayList<>();
+        for (Dimension dimension : dimensions) {
+            keys.add(new ColumnarSnapshot.GroupKey(dimension.snapshotKey, dimension.storedField));
+        }
+        if (pivot != null) {
+            keys.add(new ColumnarSnapshot.GroupKey(pivot.snapshotKey, pivot.storedField));
+        }
+        List<ColumnarSnapshot.Metric> snapshotMetrics = new ArrayList<>();
+        for (MetricExpression metric : metrics) {
+            snapshotMetrics.add(new ColumnarSnapshot.Metric(metric.function, metric.storedField,
+                    snapshotType(metric.valueColumn)));
+        }
+        return snapshot.aggregate(rows, keys, snapshotMetrics);
+    }
+
+    /**
+     * 快照分组结果转换为与SQL结果相同的行（透视列展开，缺少的组合 COUNT 为0、其余为空）
+     */
+    private void fillFromSnapshot(AggregateQuery query, List<Object[]> grouped, Collection<Dimension> dimensions,
+                                  Dimension pivot, List<MetricExpression> metrics) {
+        int dimensionCount = dimensions.size();
+        List<Object> pivotValues = Collections.singletonList(null);
+        if (pivot != null) {
+            TreeSet<Object> distinct = new TreeSet<>(ColumnarSnapshot.KEY_ORDER);
+            boolean hasNull = false;
+            for (Object[] values : grouped) {
+                if (values[dimensionCount] == null) {
+                    hasNull = true;
+                } else {
+                    distinct.add(values[dimensionCount]);
+                }
+            }
+            pivotValues = new ArrayList<>();
+            if (hasNull) {
+                pivotValues.add(null);
+            }
+            pivotValues.addAll(distinct);
+            if (pivotValues.size() > maxPivotValues) {
+                throw new RuntimeException("透视列 " + pivot.name + " 的取值超过 " + maxPivotValues + " 个，请增加过滤条件或改为分组");
+            }
+        }
+        buildColumns(query, dimensions, pivot, pivotValues, metrics);
+
+        Map<List<Object>, Object[]> rows = new LinkedHashMap<>();
+        for (Object[] values : grouped) {
+            List<Object> dimensionValues = Arrays.asList(Arrays.copyOf(values, dimensionCount));
+            Object[] row = rows.computeIfAbsent(dimensionValues, key -> {
+                Object[] created = new Object[query.columns.size()];
+                System.arraycopy(values, 0, created, 0, dimensionCount);
+                for (int i = dimensionCount; i < created.length; i++) {
+                    MetricExpression metric = metrics.get((i - dimensionCount) % metrics.size());
+                    created[i] = LedgerDataAggregateRequest.COUNT.equals(metric.function) ? 0L : null;
+                }
+                return created;
+            });
+            int offset = dimensionCount;
+            int metricStart = dimensionCount;
+            if (pivot != null) {
+                offset += pivotValues.indexOf(values[dimensionCount]) * metrics.size();
+                metricStart++;
+            }
+            System.arraycopy(values, metricStart, row, offset, metrics.size());
+        }
+
+        query.snapshotRows = new ArrayList<>();
+        for (Object[] row : rows.values()) {
+            if (query.snapshotRows.size() == query.limit) {
+                break;
+            }
+            List<Object> formatted = new ArrayList<>(row.length);
+            for (int i = 0; i < row.length; i++) {
+                formatted.add(format(row[i], query.monthColumns[i]));
+            }
+            query.snapshotRows.add(formatted);
+        }
+        query.snapshotTotal = rows.size();
+    }
+
+    private static String snapshotType(String valueColumn) {
+        if ("numeric_value".equals(valueColumn)) {
+            return ColumnarSnapshot.NUMERIC;
+        }
+        return "date_value".equals(valueColumn) ? ColumnarSnapshot.DATE : ColumnarSnapshot.STRING;
+    }
+
+    /**
+     * LIKE 匹配模式还原为要包含的文本
+     */
+    private static String unescapeLike(String pattern) {
+        String body = pattern.substring(1, pattern.length() - 1);
+        StringBuilder sb = new StringBuilder(body.length());
+        for (int i = 0; i < body.length(); i++) {
+            char c = body.charAt(i);
+            if (c == LedgerDataQueryService.LIKE_ESCAPE && i + 1 < body.length()) {
+                c = body.charAt(++i);
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 执行汇总查询，逐行回调前 limit 行，返回结果的行数（超过 limit 时已截断）
+     */
+    private int execute(AggregateQuery query, Consumer<List<Object>> consumer) {
+        if (query.snapshotRows != null) {
+            query.snapshotRows.forEach(consumer);
+            return query.snapshotTotal;
+        }
+        long start = System.currentTimeMillis();
+        int[] read = {0};
+        try {
+            dbConcurrencyLimiter.call(() -> {
+                jdbcTemplate.query(connection -> prepareStatement(connection, query.sql, query.params,
+                        query.timeoutSeconds, true), (RowCallbackHandler) rs -> {
+                    if (++read[0] > query.limit) {
+                        return;
+                    }
+                    List<Object> row = new ArrayList<>(query.columns.size());
+                    for (int i = 0; i < query.columns.size(); i++) {
+                        row.add(format(rs.getObject(i + 1), query.monthColumns[i]));
+                    }
+                    consumer.accept(row);
+                });
+                return null;
+            });
+        } catch (QueryTimeoutException e) {
+            throw new RuntimeException("汇总查询超时（超过 " + query.timeoutSeconds + " 秒），请缩小查询范围或减少分组");
+        }
+        log.debug("汇总查询完成，行数: {}，耗时 {} ms", Math.min(read[0], query.limit),
+                System.currentTimeMillis() - start);
+        return read[0];
+    }
+
+    /**
+     * 查询透视列的取值（按取值排序，超过上限时报错）
+     */
+    private List<Object> queryPivotValues(Dimension pivot, FieldJoins joins, String where, List<Object> whereParams,
+                                          int timeoutSeconds) {
+        String sql = "SELECT DISTINCT " + pivot.expression + " FROM ledger_data l" + joins.toSql() + where +
+                " ORDER BY 1 LIMIT ?";
+        List<Object> params = new ArrayList<>(joins.params());
+        params.addAll(whereParams);
+        params.add(maxPivotValues + 1);
+
+        List<Object> values;
+        try {
+            values = dbConcurrencyLimiter.call(() -> jdbcTemplate.query(connection -> prepareStatement(connection,
+                    sql, params, timeoutSeconds, false), (rs, rowNum) -> rs.getObject(1)));
+        } catch (QueryTimeoutException e) {
+            throw new RuntimeException("透视列取值查询超时（超过 " + timeoutSeconds + " 秒），请缩小查询范围");
+        }
+        if (values.size() > maxPivotValues) {
+            throw new RuntimeException("透视列 " + pivot.name + " 的取值超过 " + maxPivotValues + " 个，请增加过滤条件或改为分组");
+        }
+        return values;
+    }
+
+    private PreparedStatement prepareStatement(Connection connection, String sql, List<Object> params,
+                                               int timeoutSeconds, boolean streaming) throws SQLException {
+        PreparedStatement ps = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+                ResultSet.CONCUR_READ_ONLY);
+        if (streaming) {
+            // MySQL驱动逐行读取结果，不在内存中缓存整个结果集
+            ps.setFetchSize(Integer.MIN_VALUE);
+        }
+        ps.setQueryTimeout(timeoutSeconds);
+        for (int i = 0; i < params.size(); i++) {
+            ps.setObject(i + 1, params.get(i));
+        }
+        return ps;
+    }
+
+    /**
+     * 过滤条件（字段条件转换为明细上的EXISTS子查询，与条件查询的比较规则一致）
+     */
+    private String buildWhere(LedgerDataAggregateRequest request,
+                              List<LedgerDataQueryService.ResolvedFieldCondition> conditions, List<Object> params) {
+        StringBuilder where = new StringBuilder(" WHERE l.deleted = 0");
+        if (StringUtils.hasText(request.getUnitName())) {
+            where.append(" AND l.unit_name = ?");
+            params.add(request.getUnitName());
+        }
+        if (request.getTemplateId() != null) {
+            where.append(" AND l.template_id = ?");
+            params.add(request.getTemplateId());
+        }
+        if (request.getUploadId() != null) {
+            where.append(" AND l.upload_id = ?");
+            params.add(request.getUploadId());
+        }
+        if (StringUtils.hasText(request.getValidationStatus())) {
+            where.append(" AND l.validation_status = ?");
+            params.add(request.getValidationStatus());
+        }
+        if (request.getYear() != null) {
+            where.append(" AND l.created_month BETWEEN ? AND ?");
+            params.add(CreatedMonth.start(request.getYear(), request.getMonth()));
+            params.add(CreatedMonth.end(request.getYear(), request.getMonth()));
+        }
+        if (request.getStartTime() != null) {
+            where.append(" AND l.created_time >= ?");
+            params.add(Timestamp.valueOf(request.getStartTime()));
+        }
+        if (request.getEndTime() != null) {
+            where.append(" AND l.created_time <= ?");
+            params.add(Timestamp.valueOf(request.getEndTime()));
+        }
+        if (Boolean.TRUE.equals(request.getViewOwnOnly())) {
+            where.append(" AND l.created_by = ?");
+            params.add(securityUtil.getCurrentUserId());
+        }
+
+        int index = 0;
+        for (LedgerDataQueryService.ResolvedFieldCondition condition : conditions) {
+            appendFieldCondition(where, params, condition, "c" + index++);
+        }
+        return where.toString();
+    }
+
+    private void appendFieldCondition(StringBuilder where, List<Object> params,
+                                      LedgerDataQueryService.ResolvedFieldCondition condition, String alias) {
+        String escape = " ESCAPE '" + LedgerDataQueryService.LIKE_ESCAPE + "'";
+        where.append(" AND EXISTS (SELECT 1 FROM ledger_data_detail ").append(alias)
+                .append(" WHERE ").append(alias).append(".data_id = l.id AND ").append(alias);
+        if (condition.storedFieldName != null) {
+            where.append(".field_name = ?");
+            params.add(condition.storedFieldName);
+        } else {
+            where.append(".field_name LIKE ?").append(escape);
+            params.add(condition.fieldNamePattern);
+        }
+
+        where.append(" AND ").append(alias).append('.').append(condition.valueColumn);
+        switch (condition.operator) {
+            case FieldCondition.BETWEEN:
+                where.append(" BETWEEN ? AND ?");
+                break;
+            case FieldCondition.IN:
+                where.append(" IN (").append(String.join(", ", Collections.nCopies(condition.values.size(), "?")))
+                        .append(")");
+                break;
+            case FieldCondition.LIKE:
+                where.append(" LIKE ?").append(escape);
+                break;
+            default:
+                where.append(COMPARISON_SQL.get(condition.operator));
+        }
+        for (Object value : condition.values) {
+            params.add(value instanceof LocalDate ? Date.valueOf((LocalDate) value) : value);
+        }
+        where.append(")");
+    }
+
+    private Dimension resolveDimension(String key, FieldJoins joins) {
+        String trimmed = key.trim();
+        switch (trimmed.toUpperCase()) {
+            case LedgerDataAggregateRequest.UNIT:
+                return new Dimension("unitName", "l.unit_name", null, false, ColumnarSnapshot.KEY_UNIT, null);
+            case LedgerDataAggregateRequest.TEMPLATE:
+                return new Dimension("templateId", "l.template_id", null, false, ColumnarSnapshot.KEY_TEMPLATE, null);
+            case LedgerDataAggregateRequest.UPLOAD:
+                return new Dimension("uploadId", "l.upload_id", null, false, ColumnarSnapshot.KEY_UPLOAD, null);
+            case LedgerDataAggregateRequest.MONTH:
+                return new Dimension("month", "l.created_month", null, true, ColumnarSnapshot.KEY_MONTH, null);
+            default:
+                FieldJoin join = joins.join(trimmed);
+                return new Dimension(trimmed, join.alias + ".field_value", trimmed, false,
+                        ColumnarSnapshot.KEY_FIELD, join.storedName);
+        }
+    }
+
+    private MetricExpression resolveMetric(LedgerDataAggregateRequest.Metric metric, FieldJoins joins) {
+        String function = StringUtils.hasText(metric.getFunction())
+                ? metric.getFunction().trim().toUpperCase() : LedgerDataAggregateRequest.COUNT;
+        String field = StringUtils.hasText(metric.getField()) ? metric.getField().trim() : null;
+
+        String value = null;
+        String valueColumn = null;
+        String storedName = null;
+        if (field == null) {
+            if (!LedgerDataAggregateRequest.COUNT.equals(function)) {
+                throw new RuntimeException(function + " 需要指定字段");
+            }
+        } else {
+            FieldJoin join = joins.join(field);
+            storedName = join.storedName;
+            switch (function) {
+                case LedgerDataAggregateRequest.COUNT:
+                    // 只统计非空值
+                    valueColumn = "field_value";
+                    break;
+                case LedgerDataAggregateRequest.SUM:
+                case LedgerDataAggregateRequest.AVG:
+                    if (!join.converter.isNumeric()) {
+                        throw new RuntimeException("字段 " + field + " 不是数字字段，不能计算 " + function);
+                    }
+                    valueColumn = "numeric_value";
+                    break;
+                case LedgerDataAggregateRequest.MIN:
+                case LedgerDataAggregateRequest.MAX:
+                    valueColumn = join.converter.isNumeric() ? "numeric_value"
+                            : join.converter.isDate() ? "date_value" : "field_value";
+                    break;
+                default:
+                    throw new RuntimeException("不支持的汇总函数: " + metric.getFunction());
+            }
+            value = join.alias + "." + valueColumn;
+        }
+
+        String alias = StringUtils.hasText(metric.getAlias()) ? metric.getAlias().trim()
+                : field == null ? "count" : function.toLowerCase() + "_" + field;
+        return new MetricExpression(function, field, value, alias, storedName, valueColumn);
+    }
+
+    /**
+     * 结果值格式化：月份转为 yyyy-MM，小数去掉末尾的0，日期转为 yyyy-MM-dd
+     */
+    private static Object format(Object value, boolean month) {
+        if (value == null) {
+            return null;
+        }
+        if (month && value instanceof Number) {
+            return CreatedMonth.format(((Number) value).intValue());
+        }
+        if (value instanceof BigDecimal) {
+            BigDecimal decimal = ((BigDecimal) value).stripTrailingZeros();
+            return decimal.scale() < 0 ? decimal.setScale(0) : decimal;
+        }
+        if (value instanceof Date) {
+            return ((Date) value).toLocalDate().toString();
+        }
+        if (value instanceof LocalDate) {
+            return value.toString();
+        }
+        return value;
+    }
+
+    private void writeLine(OutputStream outputStream, Object value) throws IOException {
+        outputStream.write(objectMapper.writeValueAsBytes(value));
+        outputStream.write('\n');
+    }
+
+    private static int bounded(Integer requested, int defaultValue, int max) {
+        int value = requested != null && requested > 0 ? requested : defaultValue;
+        return Math.min(value, max);
+    }
+
+    /**
+     * 解析后的汇总查询
+     */
+    public static class AggregateQuery {
+        String sql;
+        List<Object> params;
+        List<LedgerDataAggregateResponse.Column> columns;
+        boolean[] monthColumns;
+        int limit;
+        int timeoutSeconds;
+        // 在列式快照上计算的结果（前 limit 行）和总行数
+        List<List<Object>> snapshotRows;
+        int snapshotTotal;
+
+        String source() {
+            return snapshotRows != null ? SOURCE_SNAPSHOT : SOURCE_DATABASE;
+        }
+    }
+
+    /**
+     * 分组维度或透视列
+     */
+    private static class Dimension {
+        private final String name;
+        private final String expression;
+        private final String field;
+        private final boolean month;
+        // 列式快照中的分组键类型和存储字段名
+        private final String snapshotKey;
+        private final String storedField;
+
+        Dimension(String name, String expression, String field, boolean month, String snapshotKey,
+                  String storedField) {
+            this.name = name;
+            this.expression = expression;
+            this.field = field;
+            this.month = month;
+            this.snapshotKey = snapshotKey;
+            this.storedField = storedField;
+        }
+    }
+
+    /**
+     * 汇总项（value 为空时统计行数）
+     */
+    private static class MetricExpression {
+        private final String function;
+        private final String field;
+        private final String value;
+        private final String alias;
+        // 列式快照中的存储字段名和汇总的明细列
+        private final String storedField;
+        private final String valueColumn;
+
+        MetricExpression(String function, String field, String value, String alias, String storedField,
+                         String valueColumn) {
+            this.function = function;
+            this.field = field;
+            this.value = value;
+            this.alias = alias;
+            this.storedField = storedField;
+            this.valueColumn = valueColumn;
+        }
+
+        /**
+         * 透视时只汇总满足条件的行
+         */
+        String toSql(String condition) {
+            if (condition == null) {
+                return function + "(" + (value != null ? value : "*") + ")";
+            }
+            return function + "(CASE WHEN " + condition + " THEN " + (value != null ? value : "1") + " END)";
+        }
+    }
+
+    private static class FieldJoin {
+        private final String alias;
+        private final String storedName;
+        private final FieldValueConverter converter;
+
+        FieldJoin(String alias, String storedName, FieldValueConverter converter) {
+            this.alias = alias;
+            this.storedName = storedName;
+            this.converter = converter;
+        }
+    }
+
+    /**
+     * 分组、透视和汇总用到的字段，每个字段 LEFT JOIN 一次明细
+     */
+    private static class FieldJoins {
+        private final TemplateMetadataCache.TemplateMetadata metadata;
+        // 存储字段名 -> 关联
+        private final Map<String, FieldJoin> joins = new LinkedHashMap<>();
+
+        FieldJoins(TemplateMetadataCache.TemplateMetadata metadata) {
+            this.metadata = metadata;
+        }
+
+        FieldJoin join(String field) {
+            if (metadata == null) {
+                throw new RuntimeException("按字段分组或汇总需要指定模板或单位: " + field);
+            }
+            String storedName;
+            TemplateField fieldDef;
+            if (metadata.getStoredToOriginal().containsKey(field)) {
+                storedName = field;
+                fieldDef = metadata.getFieldByName().get(metadata.getStoredToOriginal().get(field));
+            } else if (metadata.getOriginalToStored().containsKey(field)) {
+                storedName = metadata.getOriginalToStored().get(field);
+                fieldDef = metadata.getFieldByName().get(field);
+            } else {
+                throw new RuntimeException("模板中不存在字段: " + field);
+            }
+            return joins.computeIfAbsent(storedName,
+                    name -> new FieldJoin("f" + joins.size(), name, FieldValueConverter.of(fieldDef)));
+        }
+
+        String toSql() {
+            StringBuilder sql = new StringBuilder();
+            for (FieldJoin join : joins.values()) {
+                sql.append(" LEFT JOIN ledger_data_detail ").append(join.alias).append(" ON ")
+                        .append(join.alias).append(".data_id = l.id AND ").append(join.alias).append(".field_name = ?");
+            }
+            return sql.toString();
+        }
+
+        List<Object> params() {
+            return new ArrayList<>(joins.keySet());
+        }
+    }
+}
@@ -10,6 +10,7 @@ import com.example.ledger.dto.request.LedgerDataBatchEditRequest;
 import com.example.ledger.dto.request.LedgerDataDeleteRequest;
 import com.example.ledger.entity.*;
 import com.example.ledger.repository.*;
+import com.example.ledger.util.FieldValueConverter;
 import com.example.ledger.util.SecurityUtil;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -30,9 +31,11 @@ public class LedgerDataEditService {
     private final LedgerDataRepository ledgerDataRepository;
     private final LedgerDataDetailRepository ledgerDataDetailRepository;
     private final LedgerEditHistoryRepository ledgerEditHistoryRepository;
-    private final TemplateFieldRepository templateFieldRepository;
-    private final RequiredFieldConfigRepository requiredFieldConfigRepository;
+    private final TemplateMetadataCache templateMetadataCache;
     private final UserRepository userRepository;
+    private final LedgerRowStorageService ledgerRowStorageService;
+    private final LedgerStatisticsService ledgerStatisticsService;
+    private final ColumnarSnapshotService columnarSnapshotService;
     private final SecurityUtil securityUtil;
 
     /**
@@ -56,16 +59,13 @@ public class LedgerDataEditService {
             throw new RuntimeException("台账数据已被删除，无法编辑");
         }
 
-        // 获取模板字段定义
-        List<TemplateField> templateFields = templateFieldRepository.findByTemplateIdAndDeletedFalse(ledgerData.getTemplateId());
-        Map<String, TemplateField> fieldMap = templateFields.stream()
-                .collect(Collectors.toMap(TemplateField::getFieldName, f -> f));
-
-        // 获取必填项配置
-        Set<String> requiredFields = requiredFieldConfigRepository.findByTemplateIdAndRequiredTrue(ledgerData.getTemplateId())
-                .stream()
-                .map(RequiredFieldConfig::getFieldName)
-                .collect(Collectors.toSet());
+        // 获取模板字段定义和必填项配置（模板元数据缓存）
+        TemplateMetadataCache.TemplateMetadata metadata = templateMetadataCache.get(ledgerData.getTemplateId());
+        if (metadata == null) {
+            throw new RuntimeException("模板不存在: " + ledgerData.getTemplateId());
+        }
+        Map<String, TemplateField> fieldMap = metadata.getFieldByName();
+        Set<String> requiredFields = metadata.getRequiredFieldNames();
 
         // 获取现有字段值
         List<LedgerDataDetail> existingDetails = ledgerDataDetailRepository.findByDataId(request.getDataId());
@@ -111,6 +111,11 @@ public class LedgerDataEditService {
                     continue;
                 }
 
+                // 转换为字段类型的规范值
+                FieldValueConverter converter = FieldValueConverter.of(fieldDef);
+                newValue = converter.normalize(newValue);
+                fieldResult.put("newValue", newValue);
+
                 // 获取原值
                 String oldValue = null;
                 LedgerDataDetail existingDetail = detailMap.get(fieldName);
@@ -130,6 +135,8 @@ public class LedgerDataEditService {
                 if (existingDetail != null) {
                     existingDetail.setFieldValue(newValue);
                     existingDetail.setOriginalValue(newValue);
+                    existingDetail.setNumericValue(converter.toNumericValue(newValue));
+                    existingDetail.setDateValue(converter.toDateValue(newValue));
                     existingDetail.setIsEmpty(newValue == null || newValue.trim().isEmpty());
                     existingDetail.setIsValid(true);
                     existingDetail.setValidationMessage(null);
@@ -141,6 +148,8 @@ public class LedgerDataEditService {
                     newDetail.setFieldName(fieldName);
                     newDetail.setFieldValue(newValue);
                     newDetail.setOriginalValue(newValue);
+                    newDetail.setNumericValue(converter.toNumericValue(newValue));
+                    newDetail.setDateValue(converter.toDateValue(newValue));
                     newDetail.setIsEmpty(newValue == null || newValue.trim().isEmpty());
                     newDetail.setIsValid(true);
                     newDetail.setSortOrder(fieldDef.getSortOrder());
@@ -276,6 +285,8 @@ public class LedgerDataEditService {
 
                         // 删除主数据
                         ledgerDataRepository.delete(ledgerData);
+                        ledgerStatisticsService.recordRemoved(List.of(ledgerData));
+                        columnarSnapshotService.markChanged(List.of(ledgerData));
 
                         dataResult.put("status", "PERMANENTLY_DELETED");
                         dataResult.put("message", "数据已永久删除");
@@ -289,6 +300,8 @@ public class LedgerDataEditService {
                     ledgerData.setUpdatedTime(LocalDateTime.now());
                     ledgerData.setUpdatedBy(userId);
                     ledgerDataRepository.save(ledgerData);
+                    ledgerStatisticsService.recordRemoved(List.of(ledgerData));
+                    columnarSnapshotService.markChanged(List.of(ledgerData));
 
                     // 记录删除历史
                     recordDeleteHistory(ledgerData, request.getDeleteReason(), userId, userName, ipAddress);
@@ -351,6 +364,8 @@ public class LedgerDataEditService {
                 ledgerData.setUpdatedTime(LocalDateTime.now());
                 ledgerData.setUpdatedBy(userId);
                 ledgerDataRepository.save(ledgerData);
+                ledgerStatisticsService.recordAdded(List.of(ledgerData));
+                columnarSnapshotService.markChanged(List.of(ledgerData));
 
                 // 记录恢复历史
                 saveEditHistory(ledgerData, "ALL", "DELETED", "ACTIVE",
@@ -406,40 +421,10 @@ public class LedgerDataEditService {
         }
 
         try {
-            switch (fieldDef.getFieldType()) {
-                case "NUMBER":
-                    // 验证数字
-                    try {
-                        Double.parseDouble(value);
-                    } catch (NumberFormatException e) {
-                        return "值必须是数字";
-                    }
-                    break;
-
-                case "DATE":
-                    // 这里可以添加日期格式验证
-                    // 例如：验证是否符合 yyyy-MM-dd 格式
-                    if (!value.matches("\\d{4}-\\d{2}-\\d{2}")) {
-                        return "日期格式必须为 yyyy-MM-dd";
-                    }
-                    break;
-
-                case "BOOLEAN":
-                    // 验证布尔值
-                    if (!"true".equalsIgnoreCase(value) && !"false".equalsIgnoreCase(value)) {
-                        return "值必须是 true 或 false";
-                    }
-                    break;
-
-                case "STRING":
-                    // 字符串长度验证
-                    if (fieldDef.getFieldLength() != null && value.length() > fieldDef.getFieldLength()) {
-                        return "长度不能超过 " + fieldDef.getFieldLength() + " 个字符";
-                    }
-                    break;
-
-                default:
-                    // 其他类型不验证
+            // 按字段类型校验（与上传共用转换器）
+            String typeMessage = FieldValueConverter.of(fieldDef).validate(value);
+            if (typeMessage != null) {
+                return typeMessage;
             }
 
             // 验证规则（正则表达式）
@@ -461,6 +446,7 @@ public class LedgerDataEditService {
      */
     private void updateValidationStatus(LedgerData ledgerData) {
         List<LedgerDataDetail> details = ledgerDataDetailRepository.findByDataId(ledgerData.getId());
+        String oldStatus = ledgerData.getValidationStatus();
 
         long invalidCount = details.stream()
                 .filter(detail -> Boolean.FALSE.equals(detail.getIsValid()))
@@ -479,7 +465,13 @@ public class LedgerDataEditService {
             ledgerData.setValidationErrors(null);
         }
 
+        // 已打包的行同步刷新打包值
+        ledgerRowStorageService.refreshPackedValues(ledgerData, details);
+
         ledgerDataRepository.save(ledgerData);
+        ledgerStatisticsService.recordValidationChange(ledgerData, oldStatus);
+        // 字段值和校验状态都可能变化
+        columnarSnapshotService.markChanged(List.of(ledgerData));
     }
 
     /**
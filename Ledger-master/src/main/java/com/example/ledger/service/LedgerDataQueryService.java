@@ -5,20 +5,27 @@ package com.example.ledger.service;
  * @create 2025/12/21 10:55
  */
 
+import com.example.ledger.dto.request.FieldCondition;
 import com.example.ledger.dto.request.LedgerDataMultiFieldQueryRequest;
 import com.example.ledger.dto.request.LedgerDataDynamicQueryRequest;
 import com.example.ledger.dto.request.LedgerDataQueryRequest;
 import com.example.ledger.dto.request.LedgerDataAdvancedQueryRequest;
+import com.example.ledger.dto.response.LedgerDataCursorPageResponse;
+import com.example.ledger.dto.response.LedgerDataDynamicCursorPageResponse;
 import com.example.ledger.dto.response.LedgerDataDynamicPageResponse;
 import com.example.ledger.dto.response.LedgerDataDynamicResponse;
 import com.example.ledger.dto.response.LedgerDataPageResponse;
 import com.example.ledger.dto.response.LedgerDataResponse;
 import com.example.ledger.entity.*;
 import com.example.ledger.repository.*;
+import com.example.ledger.util.CreatedMonth;
+import com.example.ledger.util.FieldValueConverter;
+import com.example.ledger.util.LedgerDataCursor;
 import com.example.ledger.util.SecurityUtil;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
@@ -27,7 +34,10 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.StringUtils;
 
+import jakarta.persistence.EntityManager;
 import jakarta.persistence.criteria.*;
+import java.math.BigDecimal;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
@@ -39,12 +49,19 @@ import java.util.stream.Collectors;
 public class LedgerDataQueryService {
 
     private final LedgerDataRepository ledgerDataRepository;
-    private final LedgerDataDetailRepository ledgerDataDetailRepository;
-    private final LedgerUploadRepository ledgerUploadRepository;
     private final LedgerTemplateRepository ledgerTemplateRepository;
-    private final TemplateFieldRepository templateFieldRepository;
+    private final LedgerDataResponseAssembler ledgerDataResponseAssembler;
+    private final TemplateMetadataCache templateMetadataCache;
+    private final LedgerStatisticsService ledgerStatisticsService;
+    private final FieldValueSearchService fieldValueSearchService;
+    private final EntityManager entityManager;
     private final SecurityUtil securityUtil;
 
+    static final char LIKE_ESCAPE = '!';
+    private static final int MAX_CURSOR_PAGE_SIZE = 1000;
+    // 多字段查询按全文检索相关度排序
+    private static final String SORT_RELEVANCE = "relevance";
+
     /**
      * 获取字段的存储列名（用于查询）- 修复带下划线的字段
      */
@@ -53,8 +70,16 @@ public class LedgerDataQueryService {
             return fieldName;
         }
 
-        // 查找模板字段定义
-        List<TemplateField> fields = templateFieldRepository.findByTemplateIdAndDeletedFalse(templateId);
+        // 查找模板字段定义（走模板元数据缓存）
+        TemplateMetadataCache.TemplateMetadata metadata = templateMetadataCache.get(templateId);
+        if (metadata == null) {
+            return fieldName;
+        }
+        String stored = metadata.getOriginalToStored().get(fieldName);
+        if (stored != null) {
+            return stored;
+        }
+        List<TemplateField> fields = metadata.getFields();
 
         // 先尝试精确匹配（原逻辑）
         for (TemplateField field : fields) {
@@ -102,34 +127,9 @@ public class LedgerDataQueryService {
      * 构建存储字段名
      */
     private String buildStoredFieldName(TemplateField field) {
-        // 根据实际存储格式构建：field_name + "_" + excel_column
+        // 与上传写入明细时的规则一致：field_name + "_" + excel_column
         // 注意：如果field_name已以下划线结尾，会形成双下划线
-        String fieldName = field.getFieldName();
-        String excelColumn = field.getExcelColumn();
-
-        // 如果field_name已以下划线结尾，直接拼接列字母
-        if (fieldName.endsWith("_")) {
-            return fieldName + excelColumn;
-        } else {
-            return fieldName + "_" + excelColumn;
-        }
-    }
-
-    /**
-     * 从存储的字段名中提取原始字段名
-     */
-    private String extractOriginalFieldName(String storedFieldName) {
-        if (storedFieldName == null) {
-            return null;
-        }
-
-        // 查找最后一个下划线的位置
-        int lastUnderscoreIndex = storedFieldName.lastIndexOf('_');
-        if (lastUnderscoreIndex > 0) {
-            // 返回下划线前的部分作为原始字段名
-            return storedFieldName.substring(0, lastUnderscoreIndex);
-        }
-        return storedFieldName;
+        return TemplateMetadataCache.buildStoredFieldName(field);
     }
 
     /**
@@ -201,16 +201,11 @@ public class LedgerDataQueryService {
                 predicates.add(criteriaBuilder.lessThanOrEqualTo(root.get("createdTime"), request.getEndTime()));
             }
 
-            // 年份条件
+            // 年份、月份条件（创建年月列上的范围条件，可使用索引和分区裁剪）
             if (request.getYear() != null) {
-                Expression<Integer> yearExpr = criteriaBuilder.function("YEAR", Integer.class, root.get("createdTime"));
-                predicates.add(criteriaBuilder.equal(yearExpr, request.getYear()));
-
-                // 月份条件
-                if (request.getMonth() != null) {
-                    Expression<Integer> monthExpr = criteriaBuilder.function("MONTH", Integer.class, root.get("createdTime"));
-                    predicates.add(criteriaBuilder.equal(monthExpr, request.getMonth()));
-                }
+                predicates.add(criteriaBuilder.between(root.get("createdMonth"),
+                        CreatedMonth.start(request.getYear(), request.getMonth()),
+                        CreatedMonth.end(request.getYear(), request.getMonth())));
             }
 
             // 字段条件（通过子查询）- 修复字段名格式
@@ -226,10 +221,9 @@ public class LedgerDataQueryService {
                 // 获取模板ID
                 Long templateId = request.getTemplateId();
                 if (templateId == null && StringUtils.hasText(request.getUnitName())) {
-                    LedgerTemplate template = ledgerTemplateRepository.findByUnitNameAndDeletedFalse(request.getUnitName())
-                            .orElse(null);
-                    if (template != null) {
-                        templateId = template.getId();
+                    TemplateMetadataCache.TemplateMetadata metadata = templateMetadataCache.getByUnitName(request.getUnitName());
+                    if (metadata != null) {
+                        templateId = metadata.getTemplateId();
                     }
                 }
 
@@ -253,6 +247,148 @@ public class LedgerDataQueryService {
         };
     }
 
+    /**
+     * 游标分页查询 - 按(uploadId, rowNumber, id)或(createdTime, id)键集翻页，不使用OFFSET
+     */
+    @Transactional(readOnly = true)
+    public LedgerDataCursorPageResponse queryLedgerDataByCursor(LedgerDataQueryRequest request) {
+        Specification<LedgerData> spec = buildQuerySpecification(request);
+        CursorSlice slice = fetchByCursor(spec, request.getSortField(), request.getSortOrder(),
+                request.getSize(), request.getCursor(), request.getTotalMode());
+
+        return LedgerDataCursorPageResponse.builder()
+                .data(ledgerDataResponseAssembler.toResponses(slice.rows))
+                .pageSize(slice.pageSize)
+                .hasNext(slice.nextCursor != null)
+                .nextCursor(slice.nextCursor)
+                .totalElements(slice.total)
+                .totalMode(slice.totalMode)
+                .build();
+    }
+
+    /**
+     * 动态列游标分页查询
+     */
+    @Transactional(readOnly = true)
+    public LedgerDataDynamicCursorPageResponse queryDynamicLedgerDataByCursor(LedgerDataDynamicQueryRequest request) {
+        Specification<LedgerData> spec = buildDynamicQuerySpecification(request);
+        CursorSlice slice = fetchByCursor(spec, request.getSortField(), request.getSortOrder(),
+                request.getSize(), request.getCursor(), request.getTotalMode());
+
+        List<LedgerDataDynamicResponse.TemplateFieldInfo> fieldInfos = getTemplateFieldsByRequest(request).stream()
+                .map(this::convertToTemplateFieldInfo)
+                .collect(Collectors.toList());
+
+        return LedgerDataDynamicCursorPageResponse.builder()
+                .data(ledgerDataResponseAssembler.toDynamicResponses(slice.rows))
+                .pageSize(slice.pageSize)
+                .hasNext(slice.nextCursor != null)
+                .nextCursor(slice.nextCursor)
+                .totalElements(slice.total)
+                .totalMode(slice.totalMode)
+                .currentTemplateFields(fieldInfos)
+                .build();
+    }
+
+    /**
+     * 按游标取一页数据：多取一行判断是否有下一页，游标中的排序键作为键集条件
+     */
+    private CursorSlice fetchByCursor(Specification<LedgerData> spec, String sortField, String sortOrder,
+                                      Integer size, String cursorToken, String totalMode) {
+        LedgerDataCursor cursor = StringUtils.hasText(cursorToken) ? LedgerDataCursor.decode(cursorToken) : null;
+
+        // 排序方式以游标为准，首页由排序参数决定
+        String mode = cursor != null ? cursor.getMode()
+                : ("createdTime".equals(sortField) ? LedgerDataCursor.MODE_TIME : LedgerDataCursor.MODE_ROW);
+        boolean desc = cursor != null ? cursor.isDesc() : "DESC".equalsIgnoreCase(sortOrder);
+        Sort.Direction direction = desc ? Sort.Direction.DESC : Sort.Direction.ASC;
+        Sort sort = LedgerDataCursor.MODE_TIME.equals(mode)
+                ? Sort.by(direction, "createdTime", "id")
+                : Sort.by(direction, "uploadId", "rowNumber", "id");
+
+        int pageSize = size != null && size > 0 ? Math.min(size, MAX_CURSOR_PAGE_SIZE) : 10;
+        Specification<LedgerData> pageSpec = cursor != null ? spec.and(keysetAfter(cursor)) : spec;
+        List<LedgerData> rows = new ArrayList<>(ledgerDataRepository.findBy(pageSpec,
+                query -> query.sortBy(sort).limit(pageSize + 1).all()));
+
+        CursorSlice slice = new CursorSlice();
+        slice.pageSize = pageSize;
+        slice.totalMode = StringUtils.hasText(totalMode) ? totalMode.toUpperCase() : "NONE";
+        if ("EXACT".equals(slice.totalMode)) {
+            slice.total = ledgerDataRepository.count(spec);
+        } else if ("APPROXIMATE".equals(slice.totalMode)) {
+            // 首页统计一次，后续页沿用游标中的值
+            slice.total = cursor != null && cursor.getTotal() != null ? cursor.getTotal() : ledgerDataRepository.count(spec);
+        }
+
+        if (rows.size() > pageSize) {
+            rows = rows.subList(0, pageSize);
+            LedgerData last = rows.get(rows.size() - 1);
+
+            LedgerDataCursor next = new LedgerDataCursor();
+            next.setMode(mode);
+            next.setDesc(desc);
+            next.setId(last.getId());
+            if (LedgerDataCursor.MODE_TIME.equals(mode)) {
+                next.setCreatedTime(last.getCreatedTime());
+            } else {
+                next.setUploadId(last.getUploadId());
+                next.setRowNumber(last.getRowNumber());
+            }
+            next.setTotal("APPROXIMATE".equals(slice.totalMode) ? slice.total : null);
+            slice.nextCursor = next.encode();
+        }
+        slice.rows = rows;
+        return slice;
+    }
+
+    /**
+     * 键集条件：排序键元组严格大于（降序时小于）游标位置
+     */
+    private Specification<LedgerData> keysetAfter(LedgerDataCursor cursor) {
+        return (root, query, criteriaBuilder) -> {
+            List<Expression<? extends Comparable>> keys = new ArrayList<>();
+            List<Comparable> values = new ArrayList<>();
+            if (LedgerDataCursor.MODE_TIME.equals(cursor.getMode())) {
+                keys.add(root.get("createdTime"));
+                values.add(cursor.getCreatedTime());
+            } else {
+                keys.add(root.get("uploadId"));
+                values.add(cursor.getUploadId());
+                keys.add(root.get("rowNumber"));
+                values.add(cursor.getRowNumber());
+            }
+            keys.add(root.get("id"));
+            values.add(cursor.getId());
+
+            // (a, b, c) > (x, y, z) 展开为 a > x OR (a = x AND (b > y OR (b = y AND c > z)))
+            int last = keys.size() - 1;
+            Predicate predicate = compareKey(criteriaBuilder, keys.get(last), values.get(last), cursor.isDesc());
+            for (int i = last - 1; i >= 0; i--) {
+                predicate = criteriaBuilder.or(
+                        compareKey(criteriaBuilder, keys.get(i), values.get(i), cursor.isDesc()),
+                        criteriaBuilder.and(criteriaBuilder.equal(keys.get(i), values.get(i)), predicate));
+            }
+            return predicate;
+        };
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Predicate compareKey(CriteriaBuilder criteriaBuilder, Expression key, Comparable value, boolean desc) {
+        return desc ? criteriaBuilder.lessThan(key, value) : criteriaBuilder.greaterThan(key, value);
+    }
+
+    /**
+     * 游标分页的一页结果
+     */
+    private static class CursorSlice {
+        private List<LedgerData> rows;
+        private int pageSize;
+        private String nextCursor;
+        private Long total;
+        private String totalMode;
+    }
+
     /**
      * 构建分页和排序 - 针对 LedgerDataQueryRequest
      */
@@ -269,17 +405,48 @@ public class LedgerDataQueryService {
         try {
             log.info("接收到多字段查询请求: {}", request);
 
-            // 1. 构建查询条件
-            Specification<LedgerData> spec = buildMultiFieldSpecification(request);
+            // 1. 解析字段条件，模糊条件优先走全文索引（带全部过滤条件，按相关度排序并限制候选数量）
+            List<FieldValueSearchService.FieldTerm> terms = collectMultiFieldTerms(request);
+            List<FieldValueSearchService.FieldTerm> fulltextTerms = fieldValueSearchService.isAvailable()
+                    ? terms.stream().filter(FieldValueSearchService.FieldTerm::isFuzzy)
+                    .filter(fieldValueSearchService::canSearch).collect(Collectors.toList())
+                    : Collections.emptyList();
+            boolean relevanceSort = SORT_RELEVANCE.equals(request.getSortField());
+            List<Long> rankedIds = null;
+            boolean truncated = false;
+            if (!fulltextTerms.isEmpty()) {
+                FieldValueSearchService.SearchResult result =
+                        fieldValueSearchService.search(fulltextTerms, buildSearchFilter(request));
+                if (!result.isTruncated()) {
+                    rankedIds = result.getDataIds();
+                } else if (relevanceSort) {
+                    // 相关度排序只能在候选数据上进行，结果不完整时在响应中标明
+                    rankedIds = result.getDataIds();
+                    truncated = true;
+                } else {
+                    // 候选数据被截断，改用LIKE子查询返回完整结果
+                    log.info("全文检索候选数据被截断，多字段查询改用LIKE子查询");
+                    fulltextTerms = Collections.emptyList();
+                }
+            }
 
-            // 2. 构建分页和排序
+            // 2. 构建查询条件（全文索引已覆盖的条件不再生成LIKE子查询）
+            List<FieldValueSearchService.FieldTerm> remainingTerms = new ArrayList<>(terms);
+            remainingTerms.removeAll(fulltextTerms);
+            Specification<LedgerData> spec = buildMultiFieldSpecification(request, remainingTerms, rankedIds);
+
+            // 3. 构建分页和排序
             Pageable pageable = buildPageableForMultiFields(request);
 
-            // 3. 执行查询
-            Page<LedgerData> dataPage = ledgerDataRepository.findAll(spec, pageable);
+            // 4. 执行查询：按相关度排序时在候选ID上分页，只加载当前页的数据
+            Page<LedgerData> dataPage = rankedIds != null && relevanceSort
+                    ? findPageByRelevance(spec, rankedIds, pageable)
+                    : ledgerDataRepository.findAll(spec, pageable);
 
-            // 4. 转换为响应对象
-            return convertToPageResponse(dataPage, request);
+            // 5. 转换为响应对象
+            LedgerDataPageResponse response = convertToPageResponse(dataPage, request);
+            response.setTruncated(truncated);
+            return response;
         } catch (Exception e) {
             log.error("多字段查询失败", e);
             throw new RuntimeException("多字段查询失败: " + e.getMessage());
@@ -294,16 +461,27 @@ public class LedgerDataQueryService {
         try {
             log.info("接收到高级查询请求: {}", request);
 
-            // 1. 先根据基本条件查询数据ID
-            List<Long> dataIds = findDataIdsByBasicConditions(request);
+            // 1. 基本条件和字段条件（EXISTS子查询）统一下推到数据库
+            Specification<LedgerData> spec = buildAdvancedSpecification(request);
 
-            // 2. 根据字段条件进一步筛选
-            if (request.getConditions() != null && !request.getConditions().isEmpty()) {
-                dataIds = filterByFieldConditions(dataIds, request);
-            }
+            // 2. 数据库分页和计数
+            int page = request.getPage() != null && request.getPage() > 0 ? request.getPage() : 1;
+            int size = request.getSize() != null && request.getSize() > 0 ? request.getSize() : 10;
+            Pageable pageable = PageRequest.of(page - 1, size, Sort.by(Sort.Direction.ASC, "id"));
+            Page<LedgerData> dataPage = ledgerDataRepository.findAll(spec, pageable);
+
+            // 3. 转换为响应对象（批量加载关联信息）
+            List<LedgerDataResponse> responses = ledgerDataResponseAssembler.toResponses(dataPage.getContent());
 
-            // 3. 分页查询数据
-            return queryDataByIds(dataIds, request.getPage(), request.getSize());
+            return LedgerDataPageResponse.builder()
+                    .data(responses)
+                    .currentPage(page)
+                    .pageSize(size)
+                    .totalElements(dataPage.getTotalElements())
+                    .totalPages(dataPage.getTotalPages())
+                    .hasPrevious(dataPage.hasPrevious())
+                    .hasNext(dataPage.hasNext())
+                    .build();
         } catch (Exception e) {
             log.error("高级查询失败", e);
             throw new RuntimeException("高级查询失败: " + e.getMessage());
@@ -311,43 +489,90 @@ public class LedgerDataQueryService {
     }
 
     /**
-     * 创建字段查询条件 - 修复字段名格式问题
+     * 按全文检索的相关度分页：先在候选ID中筛选满足其他条件的ID（只查询ID），再加载当前页的数据
      */
-    private Predicate createFieldPredicate(CriteriaQuery<?> query, CriteriaBuilder criteriaBuilder,
-                                           Root<LedgerData> root, String originalFieldName,
-                                           String fieldValue, Boolean fuzzySearch,
-                                           Long templateId, String unitName) {
-        Subquery<Long> subquery = query.subquery(Long.class);
-        Root<LedgerDataDetail> detailRoot = subquery.from(LedgerDataDetail.class);
+    private Page<LedgerData> findPageByRelevance(Specification<LedgerData> spec, List<Long> rankedIds,
+                                                 Pageable pageable) {
+        if (rankedIds.isEmpty()) {
+            return Page.empty(pageable);
+        }
 
-        List<Predicate> detailPredicates = new ArrayList<>();
-        detailPredicates.add(criteriaBuilder.equal(detailRoot.get("dataId"), root.get("id")));
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> idQuery = criteriaBuilder.createQuery(Long.class);
+        Root<LedgerData> root = idQuery.from(LedgerData.class);
+        idQuery.select(root.get("id")).where(spec.toPredicate(root, idQuery, criteriaBuilder));
+        Set<Long> matchedIds = new HashSet<>(entityManager.createQuery(idQuery).getResultList());
+
+        List<Long> orderedIds = rankedIds.stream().filter(matchedIds::contains).collect(Collectors.toList());
+        int from = (int) Math.min(pageable.getOffset(), orderedIds.size());
+        int to = Math.min(from + pageable.getPageSize(), orderedIds.size());
+        List<Long> pageIds = orderedIds.subList(from, to);
+
+        Map<Long, LedgerData> dataById = ledgerDataRepository.findAllById(pageIds).stream()
+                .collect(Collectors.toMap(LedgerData::getId, data -> data));
+        List<LedgerData> content = pageIds.stream().map(dataById::get).filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        return new PageImpl<>(content, pageable, orderedIds.size());
+    }
 
-        // 获取模板ID（如果未提供）
-        if (templateId == null && StringUtils.hasText(unitName)) {
-            LedgerTemplate template = ledgerTemplateRepository.findByUnitNameAndDeletedFalse(unitName)
-                    .orElse(null);
-            if (template != null) {
-                templateId = template.getId();
+    /**
+     * 多字段查询的字段条件（存储字段名在构建查询前解析）
+     */
+    private List<FieldValueSearchService.FieldTerm> collectMultiFieldTerms(LedgerDataMultiFieldQueryRequest request) {
+        Long templateId = request.getTemplateId();
+        if (templateId == null && StringUtils.hasText(request.getUnitName())) {
+            TemplateMetadataCache.TemplateMetadata metadata = templateMetadataCache.getByUnitName(request.getUnitName());
+            if (metadata != null) {
+                templateId = metadata.getTemplateId();
             }
         }
+        boolean fuzzy = Boolean.TRUE.equals(request.getFuzzySearch());
+
+        List<FieldValueSearchService.FieldTerm> terms = new ArrayList<>();
+        addFieldTerm(terms, getStoredFieldName("项目名称", templateId), request.getProjectName(), fuzzy);
+        // 物料组、ERP编码、物资描述使用固定的存储字段名，始终模糊匹配
+        addFieldTerm(terms, "物料组_9位码__D", request.getMaterialGroup9(), true);
+        addFieldTerm(terms, "大erp系统编码_15位码__E", request.getErpCode11(), true);
+        addFieldTerm(terms, "大erp物资描述_名称_规格型号__F", request.getErpMaterialDesc(), true);
+        addFieldTerm(terms, getStoredFieldName("采购业务经办人员名字", templateId), request.getPurchaseAgent(), fuzzy);
+        addFieldTerm(terms, getStoredFieldName("需求计划跟踪编号", templateId), request.getDemandPlanNo(), fuzzy);
+        addFieldTerm(terms, getStoredFieldName("采购计划单号", templateId), request.getPurchasePlanNo(), fuzzy);
+        addFieldTerm(terms, getStoredFieldName("采购方案号", templateId), request.getPurchaseSchemeNo(), fuzzy);
+        addFieldTerm(terms, getStoredFieldName("_框架_一单一采_合同号", templateId), request.getContractNo(), fuzzy);
+        addFieldTerm(terms, getStoredFieldName("报审序号", templateId), request.getReportNo(), fuzzy);
+        addFieldTerm(terms, getStoredFieldName("_即买即结_框架下的订单_订单号", templateId), request.getOrderNo(), fuzzy);
+        addFieldTerm(terms, getStoredFieldName("供应商编码", templateId), request.getSupplierCode(), fuzzy);
+        addFieldTerm(terms, getStoredFieldName("供应商名称", templateId), request.getSupplierName(), fuzzy);
+        addFieldTerm(terms, getStoredFieldName("当前采购进度", templateId), request.getPurchaseProgress(), fuzzy);
+        return terms;
+    }
 
-        // 获取存储的字段名
-        String storedFieldName = getStoredFieldName(originalFieldName, templateId);
-        if (storedFieldName != null) {
-            // 使用精确匹配存储的字段名
-            detailPredicates.add(criteriaBuilder.equal(detailRoot.get("fieldName"), storedFieldName));
-        } else {
-            // 如果没有找到模板字段，使用原始字段名（兼容性）
-            detailPredicates.add(criteriaBuilder.like(detailRoot.get("fieldName"), originalFieldName + "_%"));
+    private void addFieldTerm(List<FieldValueSearchService.FieldTerm> terms, String storedFieldName,
+                              String value, boolean fuzzy) {
+        if (StringUtils.hasText(value)) {
+            terms.add(new FieldValueSearchService.FieldTerm(storedFieldName, value.trim(), fuzzy));
         }
+    }
 
-        if (Boolean.TRUE.equals(fuzzySearch)) {
-            // 模糊查询
-            detailPredicates.add(criteriaBuilder.like(detailRoot.get("fieldValue"), "%" + fieldValue.trim() + "%"));
+    /**
+     * 创建字段查询条件（明细表上的EXISTS子查询）
+     */
+    private Predicate createFieldPredicate(CriteriaQuery<?> query, CriteriaBuilder criteriaBuilder,
+                                           Root<LedgerData> root, FieldValueSearchService.FieldTerm term) {
+        Subquery<Long> subquery = query.subquery(Long.class);
+        Root<LedgerDataDetail> detailRoot = subquery.from(LedgerDataDetail.class);
+
+        List<Predicate> detailPredicates = new ArrayList<>();
+        detailPredicates.add(criteriaBuilder.equal(detailRoot.get("dataId"), root.get("id")));
+        detailPredicates.add(criteriaBuilder.equal(detailRoot.get("fieldName"), term.getFieldName()));
+
+        if (term.isFuzzy()) {
+            // 模糊查询（转义用户输入中的 % 和 _）
+            detailPredicates.add(criteriaBuilder.like(detailRoot.get("fieldValue"),
+                    "%" + escapeLike(term.getValue()) + "%", LIKE_ESCAPE));
         } else {
             // 精确查询
-            detailPredicates.add(criteriaBuilder.equal(detailRoot.get("fieldValue"), fieldValue.trim()));
+            detailPredicates.add(criteriaBuilder.equal(detailRoot.get("fieldValue"), term.getValue()));
         }
 
         subquery.select(detailRoot.get("dataId"))
@@ -360,8 +585,8 @@ public class LedgerDataQueryService {
      * 构建分页和排序
      */
     private Pageable buildPageableForMultiFields(LedgerDataMultiFieldQueryRequest request) {
-        // 确定排序字段和方向
-        String sortField = request.getSortField();
+        // 确定排序字段和方向（按相关度排序时由全文检索结果决定顺序，未使用全文检索时按创建时间排序）
+        String sortField = SORT_RELEVANCE.equals(request.getSortField()) ? "createdTime" : request.getSortField();
         Sort.Direction direction = Sort.Direction.fromString(request.getSortOrder());
 
         // 如果按uploadId排序，同时按rowNumber排序
@@ -395,14 +620,10 @@ public class LedgerDataQueryService {
      * 转换分页数据为响应对象 - 针对 LedgerDataQueryRequest
      */
     private LedgerDataPageResponse convertToPageResponse(Page<LedgerData> dataPage, LedgerDataQueryRequest request) {
-        // 获取数据详情
         List<LedgerData> dataList = dataPage.getContent();
-        Map<Long, List<LedgerDataDetail>> detailsMap = getDataDetails(dataList);
 
-        // 转换为响应列表
-        List<LedgerDataResponse> responses = dataList.stream()
-                .map(data -> convertToResponse(data, detailsMap.get(data.getId())))
-                .collect(Collectors.toList());
+        // 转换为响应列表（批量加载关联信息）
+        List<LedgerDataResponse> responses = ledgerDataResponseAssembler.toResponses(dataList);
 
         // 获取字段名称列表
         List<String> fieldNames = getFieldNames(request);
@@ -431,14 +652,10 @@ public class LedgerDataQueryService {
      * 转换分页数据为响应对象 - 针对 LedgerDataMultiFieldQueryRequest
      */
     private LedgerDataPageResponse convertToPageResponse(Page<LedgerData> dataPage, LedgerDataMultiFieldQueryRequest request) {
-        // 获取数据详情
         List<LedgerData> dataList = dataPage.getContent();
-        Map<Long, List<LedgerDataDetail>> detailsMap = getDataDetails(dataList);
 
-        // 转换为响应列表
-        List<LedgerDataResponse> responses = dataList.stream()
-                .map(data -> convertToResponse(data, detailsMap.get(data.getId())))
-                .collect(Collectors.toList());
+        // 转换为响应列表（批量加载关联信息）
+        List<LedgerDataResponse> responses = ledgerDataResponseAssembler.toResponses(dataList);
 
         // 获取字段名称列表
         List<String> fieldNames = getFieldNames(request);
@@ -468,14 +685,13 @@ public class LedgerDataQueryService {
      */
     private List<String> getFieldNames(LedgerDataQueryRequest request) {
         if (request.getTemplateId() != null) {
-            return templateFieldRepository.findByTemplateIdAndDeletedFalse(request.getTemplateId()).stream()
+            return templateMetadataCache.getFields(request.getTemplateId()).stream()
                     .map(TemplateField::getFieldName)
                     .collect(Collectors.toList());
         } else if (StringUtils.hasText(request.getUnitName())) {
-            LedgerTemplate template = ledgerTemplateRepository.findByUnitNameAndDeletedFalse(request.getUnitName())
-                    .orElse(null);
-            if (template != null) {
-                return templateFieldRepository.findByTemplateIdAndDeletedFalse(template.getId()).stream()
+            TemplateMetadataCache.TemplateMetadata metadata = templateMetadataCache.getByUnitName(request.getUnitName());
+            if (metadata != null) {
+                return metadata.getFields().stream()
                         .map(TemplateField::getFieldName)
                         .collect(Collectors.toList());
             }
@@ -488,14 +704,13 @@ public class LedgerDataQueryService {
      */
     private List<String> getFieldNames(LedgerDataMultiFieldQueryRequest request) {
         if (request.getTemplateId() != null) {
-            return templateFieldRepository.findByTemplateIdAndDeletedFalse(request.getTemplateId()).stream()
+            return templateMetadataCache.getFields(request.getTemplateId()).stream()
                     .map(TemplateField::getFieldName)
                     .collect(Collectors.toList());
         } else if (StringUtils.hasText(request.getUnitName())) {
-            LedgerTemplate template = ledgerTemplateRepository.findByUnitNameAndDeletedFalse(request.getUnitName())
-                    .orElse(null);
-            if (template != null) {
-                return templateFieldRepository.findByTemplateIdAndDeletedFalse(template.getId()).stream()
+            TemplateMetadataCache.TemplateMetadata metadata = templateMetadataCache.getByUnitName(request.getUnitName());
+            if (metadata != null) {
+                return metadata.getFields().stream()
                         .map(TemplateField::getFieldName)
                         .collect(Collectors.toList());
             }
@@ -529,115 +744,6 @@ public class LedgerDataQueryService {
                 .build();
     }
 
-    /**
-     * 获取数据详情
-     */
-    private Map<Long, List<LedgerDataDetail>> getDataDetails(List<LedgerData> dataList) {
-        if (dataList.isEmpty()) {
-            return new HashMap<>();
-        }
-
-        List<Long> dataIds = dataList.stream()
-                .map(LedgerData::getId)
-                .collect(Collectors.toList());
-
-        List<LedgerDataDetail> details = ledgerDataDetailRepository.findByDataIdIn(dataIds);
-
-        return details.stream()
-                .collect(Collectors.groupingBy(LedgerDataDetail::getDataId));
-    }
-
-    /**
-     * 转换单个数据为响应对象 - 修复字段名格式问题
-     */
-    private LedgerDataResponse convertToResponse(LedgerData data, List<LedgerDataDetail> details) {
-        LedgerDataResponse response = new LedgerDataResponse();
-
-        response.setId(data.getId());
-        response.setUploadId(data.getUploadId());
-        response.setTemplateId(data.getTemplateId());
-        response.setUnitName(data.getUnitName());
-        response.setRowNumber(data.getRowNumber());
-        response.setDataStatus(data.getDataStatus());
-        response.setValidationStatus(data.getValidationStatus());
-        response.setValidationErrors(data.getValidationErrors());
-        response.setCreatedBy(data.getCreatedBy());
-        response.setCreatedTime(data.getCreatedTime());
-        response.setUpdatedTime(data.getUpdatedTime());
-
-        // 获取上传信息
-        if (data.getUploadId() != null) {
-            LedgerUpload upload = ledgerUploadRepository.findById(data.getUploadId()).orElse(null);
-            if (upload != null) {
-                response.setUploadNo(upload.getUploadNo());
-            }
-        }
-
-        // 获取模板信息
-        if (data.getTemplateId() != null) {
-            LedgerTemplate template = ledgerTemplateRepository.findById(data.getTemplateId()).orElse(null);
-            if (template != null) {
-                response.setTemplateName(template.getTemplateName());
-            }
-        }
-
-        // 获取用户信息
-        if (data.getCreatedBy() != null) {
-            response.setCreatedByName("用户" + data.getCreatedBy());
-        }
-
-        // 处理字段数据 - 修复字段名格式问题
-        if (details != null) {
-            Map<String, Object> fieldData = new LinkedHashMap<>();
-            Map<String, Boolean> fieldStatus = new LinkedHashMap<>();
-            Map<String, String> fieldValidation = new LinkedHashMap<>();
-
-            int emptyCount = 0;
-            int invalidCount = 0;
-
-            // 获取模板字段定义，用于将存储字段名映射回原始字段名
-            List<TemplateField> templateFields = templateFieldRepository
-                    .findByTemplateIdAndDeletedFalse(data.getTemplateId());
-
-            // 创建存储字段名到原始字段名的映射
-            Map<String, String> storedToOriginalFieldName = new HashMap<>();
-            for (TemplateField field : templateFields) {
-                String storedName = field.getFieldName() + "_" + field.getExcelColumn();
-                storedToOriginalFieldName.put(storedName, field.getFieldName());
-            }
-
-            for (LedgerDataDetail detail : details) {
-                // 将存储字段名转换为原始字段名用于显示
-                String originalFieldName = storedToOriginalFieldName.getOrDefault(
-                        detail.getFieldName(),
-                        extractOriginalFieldName(detail.getFieldName()));
-
-                fieldData.put(originalFieldName, detail.getFieldValue());
-                fieldStatus.put(originalFieldName, detail.getIsValid());
-
-                if (detail.getValidationMessage() != null) {
-                    fieldValidation.put(originalFieldName, detail.getValidationMessage());
-                }
-
-                if (detail.getIsEmpty()) {
-                    emptyCount++;
-                }
-                if (!detail.getIsValid()) {
-                    invalidCount++;
-                }
-            }
-
-            response.setFieldData(fieldData);
-            response.setFieldStatus(fieldStatus);
-            response.setFieldValidation(fieldValidation);
-            response.setEmptyFieldCount(emptyCount);
-            response.setInvalidFieldCount(invalidCount);
-            response.setTotalFieldCount(details.size());
-        }
-
-        return response;
-    }
-
     /**
      * 查询自己的数据
      */
@@ -681,63 +787,22 @@ public class LedgerDataQueryService {
     }
 
     /**
-     * 统计查询
+     * 统计查询（读取统计汇总表）
      */
-    @Transactional(readOnly = true)
     public Map<String, Object> getDataStatistics(String unitName) {
-        Map<String, Object> stats = new HashMap<>();
-
-        if (StringUtils.hasText(unitName)) {
-            // 单位统计
-            Long total = ledgerDataRepository.countByUnitNameAndDeletedFalse(unitName);
-            Long valid = ledgerDataRepository.countByUnitNameAndValidationStatus(unitName, "VALID");
-            Long invalid = ledgerDataRepository.countByUnitNameAndValidationStatus(unitName, "INVALID");
-
-            stats.put("unitName", unitName);
-            stats.put("totalRecords", total);
-            stats.put("validRecords", valid);
-            stats.put("invalidRecords", invalid);
-            stats.put("validRate", total > 0 ? (double) valid / total : 0);
-
-        } else {
-            // 全局统计（管理员权限）
-            List<Object[]> unitStats = ledgerDataRepository.countByUnitGroup();
-            Map<String, Map<String, Long>> unitData = new HashMap<>();
-
-            for (Object[] row : unitStats) {
-                String uName = (String) row[0];
-                Long total = (Long) row[1];
-                Long valid = (Long) row[2];
-                Long invalid = (Long) row[3];
-
-                Map<String, Long> unitStat = new HashMap<>();
-                unitStat.put("total", total);
-                unitStat.put("valid", valid);
-                unitStat.put("invalid", invalid);
-                unitData.put(uName, unitStat);
-            }
-
-            stats.put("unitStats", unitData);
-            stats.put("totalUnits", unitData.size());
-
-            // 按用户统计
-            List<Object[]> userStats = ledgerDataRepository.countByUserGroup();
-            Map<String, Long> userData = userStats.stream()
-                    .collect(Collectors.toMap(
-                            row -> (String) row[0],
-                            row -> (Long) row[1]
-                    ));
-            stats.put("userStats", userData);
-        }
-
-        return stats;
+        return ledgerStatisticsService.getStatistics(unitName);
     }
 
     /**
-     * 根据基本条件查询数据ID
+     * 构建高级查询条件 - 字段条件编译为ledger_data_detail上的EXISTS子查询
      */
-    private List<Long> findDataIdsByBasicConditions(LedgerDataAdvancedQueryRequest request) {
-        Specification<LedgerData> spec = (root, query, criteriaBuilder) -> {
+    private Specification<LedgerData> buildAdvancedSpecification(LedgerDataAdvancedQueryRequest request) {
+        // 获取模板信息，用于原始字段名到存储字段名的映射
+        TemplateMetadataCache.TemplateMetadata metadata = resolveMetadata(request.getTemplateId(), request.getUnitName());
+        Map<String, String> originalToStoredFieldName = metadata != null
+                ? metadata.getOriginalToStored() : Collections.emptyMap();
+
+        return (root, query, criteriaBuilder) -> {
             List<Predicate> predicates = new ArrayList<>();
             predicates.add(criteriaBuilder.equal(root.get("deleted"), false));
 
@@ -762,212 +827,291 @@ public class LedgerDataQueryService {
                 }
             }
 
+            // 字段条件：每个条件一个EXISTS，全部满足用AND，满足任一用OR
+            List<Predicate> fieldPredicates = new ArrayList<>();
+            if (request.getConditions() != null) {
+                for (Map.Entry<String, Object> entry : request.getConditions().entrySet()) {
+                    fieldPredicates.add(createConditionExists(query, criteriaBuilder, root,
+                            entry.getKey(), entry.getValue(), originalToStoredFieldName));
+                }
+            }
+            if (request.getFieldConditions() != null) {
+                for (FieldCondition condition : request.getFieldConditions()) {
+                    fieldPredicates.add(createFieldConditionExists(query, criteriaBuilder, root, condition, metadata));
+                }
+            }
+            if (!fieldPredicates.isEmpty()) {
+                predicates.add(Boolean.FALSE.equals(request.getMatchAll())
+                        ? criteriaBuilder.or(fieldPredicates.toArray(new Predicate[0]))
+                        : criteriaBuilder.and(fieldPredicates.toArray(new Predicate[0])));
+            }
+
             return criteriaBuilder.and(predicates.toArray(new Predicate[0]));
         };
-
-        return ledgerDataRepository.findAll(spec).stream()
-                .map(LedgerData::getId)
-                .collect(Collectors.toList());
     }
 
     /**
-     * 根据字段条件筛选数据ID - 修复字段名格式问题
+     * 单个字段条件的EXISTS子查询
+     * 字段名：有模板映射时精确匹配存储字段名，否则按"原始字段名_"前缀匹配
+     * 字段值：以%开头或结尾时按LIKE匹配，否则精确匹配
      */
-    private List<Long> filterByFieldConditions(List<Long> dataIds, LedgerDataAdvancedQueryRequest request) {
-        if (dataIds.isEmpty()) {
-            return dataIds;
-        }
+    private Predicate createConditionExists(CriteriaQuery<?> query, CriteriaBuilder criteriaBuilder,
+                                            Root<LedgerData> root, String originalFieldName, Object expectedValue,
+                                            Map<String, String> originalToStoredFieldName) {
+        Subquery<Long> subquery = query.subquery(Long.class);
+        Root<LedgerDataDetail> detailRoot = subquery.from(LedgerDataDetail.class);
 
-        // 获取模板信息
-        Long templateId = request.getTemplateId();
-        if (templateId == null && StringUtils.hasText(request.getUnitName())) {
-            LedgerTemplate template = ledgerTemplateRepository.findByUnitNameAndDeletedFalse(request.getUnitName())
-                    .orElse(null);
-            if (template != null) {
-                templateId = template.getId();
-            }
+        List<Predicate> detailPredicates = new ArrayList<>();
+        detailPredicates.add(criteriaBuilder.equal(detailRoot.get("dataId"), root.get("id")));
+
+        String storedFieldName = originalToStoredFieldName.get(originalFieldName);
+        if (storedFieldName != null) {
+            detailPredicates.add(criteriaBuilder.equal(detailRoot.get("fieldName"), storedFieldName));
+        } else {
+            detailPredicates.add(criteriaBuilder.like(detailRoot.get("fieldName"),
+                    escapeLike(originalFieldName + "_") + "%", LIKE_ESCAPE));
         }
 
-        // 创建原始字段名到存储字段名的映射
-        Map<String, String> originalToStoredFieldName = new HashMap<>();
-        if (templateId != null) {
-            List<TemplateField> fields = templateFieldRepository.findByTemplateIdAndDeletedFalse(templateId);
-            for (TemplateField field : fields) {
-                String storedName = field.getFieldName() + "_" + field.getExcelColumn();
-                originalToStoredFieldName.put(field.getFieldName(), storedName);
-            }
+        Expression<String> fieldValue = detailRoot.get("fieldValue");
+        String expected = String.valueOf(expectedValue);
+        if (expectedValue instanceof String && (expected.startsWith("%") || expected.endsWith("%"))) {
+            // 模糊匹配：保留%通配符，其余字符按字面匹配
+            detailPredicates.add(criteriaBuilder.like(fieldValue,
+                    escapeLike(expected).replace(LIKE_ESCAPE + "%", "%"), LIKE_ESCAPE));
+        } else if (expected.isEmpty()) {
+            // 空值在明细中可能存为NULL
+            detailPredicates.add(criteriaBuilder.or(criteriaBuilder.isNull(fieldValue),
+                    criteriaBuilder.equal(fieldValue, "")));
+        } else {
+            detailPredicates.add(criteriaBuilder.equal(fieldValue, expected));
         }
 
-        // 分批处理，避免SQL过长
-        List<Long> result = new ArrayList<>();
-        int batchSize = 1000;
-
-        for (int i = 0; i < dataIds.size(); i += batchSize) {
-            List<Long> batchIds = dataIds.subList(i, Math.min(i + batchSize, dataIds.size()));
-
-            List<LedgerDataDetail> details = ledgerDataDetailRepository.findByDataIdIn(batchIds);
-            Map<Long, Map<String, String>> dataFieldMap = details.stream()
-                    .collect(Collectors.groupingBy(
-                            LedgerDataDetail::getDataId,
-                            Collectors.toMap(
-                                    LedgerDataDetail::getFieldName,
-                                    detail -> detail.getFieldValue() != null ? detail.getFieldValue() : ""
-                            )
-                    ));
-
-            // 根据条件筛选
-            for (Long dataId : batchIds) {
-                Map<String, String> fieldValues = dataFieldMap.get(dataId);
-                if (fieldValues == null) {
-                    continue;
-                }
+        subquery.select(detailRoot.get("dataId"))
+                .where(detailPredicates.toArray(new Predicate[0]));
+        return criteriaBuilder.exists(subquery);
+    }
 
-                boolean match = Boolean.TRUE.equals(request.getMatchAll()) ?
-                        matchAllConditions(fieldValues, request.getConditions(), originalToStoredFieldName) :
-                        matchAnyCondition(fieldValues, request.getConditions(), originalToStoredFieldName);
+    /**
+     * 带操作符的字段条件的EXISTS子查询（比较的列和取值见 resolveFieldCondition）
+     */
+    private Predicate createFieldConditionExists(CriteriaQuery<?> query, CriteriaBuilder criteriaBuilder,
+                                                 Root<LedgerData> root, FieldCondition condition,
+                                                 TemplateMetadataCache.TemplateMetadata metadata) {
+        ResolvedFieldCondition resolved = resolveFieldCondition(condition, metadata);
 
-                if (match) {
-                    result.add(dataId);
-                }
-            }
+        Subquery<Long> subquery = query.subquery(Long.class);
+        Root<LedgerDataDetail> detailRoot = subquery.from(LedgerDataDetail.class);
+
+        List<Predicate> detailPredicates = new ArrayList<>();
+        detailPredicates.add(criteriaBuilder.equal(detailRoot.get("dataId"), root.get("id")));
+        if (resolved.storedFieldName != null) {
+            detailPredicates.add(criteriaBuilder.equal(detailRoot.get("fieldName"), resolved.storedFieldName));
+        } else {
+            detailPredicates.add(criteriaBuilder.like(detailRoot.get("fieldName"), resolved.fieldNamePattern,
+                    LIKE_ESCAPE));
+        }
+
+        if (FieldCondition.LIKE.equals(resolved.operator)) {
+            detailPredicates.add(criteriaBuilder.like(detailRoot.get("fieldValue"),
+                    (String) resolved.values.get(0), LIKE_ESCAPE));
+        } else {
+            detailPredicates.add(compare(criteriaBuilder, detailRoot.get(resolved.valueAttribute),
+                    resolved.operator, resolved.values));
         }
 
-        return result;
+        subquery.select(detailRoot.get("dataId"))
+                .where(detailPredicates.toArray(new Predicate[0]));
+        return criteriaBuilder.exists(subquery);
     }
 
-    private boolean matchAllConditions(Map<String, String> fieldValues, Map<String, Object> conditions,
-                                       Map<String, String> originalToStoredFieldName) {
-        for (Map.Entry<String, Object> entry : conditions.entrySet()) {
-            String originalFieldName = entry.getKey();
-            Object expectedValue = entry.getValue();
-
-            // 获取存储的字段名
-            String storedFieldName = originalToStoredFieldName.get(originalFieldName);
-            if (storedFieldName == null) {
-                // 如果找不到映射，尝试使用原始字段名加上通配符
-                storedFieldName = originalFieldName + "_";
-            }
+    /**
+     * 解析带操作符的字段条件
+     * 有模板定义时按字段类型选择比较的列：数字比较 numeric_value，日期比较 date_value，其余比较 field_value；
+     * 没有模板定义时按条件值推断（全部可以转换为数字时按数字比较，其次按日期比较）
+     */
+    ResolvedFieldCondition resolveFieldCondition(FieldCondition condition,
+                                                 TemplateMetadataCache.TemplateMetadata metadata) {
+        String field = condition.getField();
+        if (!StringUtils.hasText(field)) {
+            throw new RuntimeException("字段条件缺少字段名");
+        }
+        String operator = StringUtils.hasText(condition.getOperator())
+                ? condition.getOperator().trim().toUpperCase() : FieldCondition.EQ;
+        List<String> operands = getConditionOperands(condition, operator);
+
+        ResolvedFieldCondition resolved = new ResolvedFieldCondition();
+        resolved.operator = operator;
+
+        // 字段名：存储字段名、原始字段名，模板未知时按"原始字段名_"前缀匹配
+        TemplateField fieldDef = null;
+        if (metadata != null && metadata.getStoredToOriginal().containsKey(field)) {
+            resolved.storedFieldName = field;
+            fieldDef = metadata.getFieldByName().get(metadata.getStoredToOriginal().get(field));
+        } else if (metadata != null && metadata.getOriginalToStored().containsKey(field)) {
+            resolved.storedFieldName = metadata.getOriginalToStored().get(field);
+            fieldDef = metadata.getFieldByName().get(field);
+        } else {
+            resolved.fieldNamePattern = escapeLike(field + "_") + "%";
+        }
 
-            // 查找匹配的字段
-            boolean found = false;
-            for (Map.Entry<String, String> fieldEntry : fieldValues.entrySet()) {
-                String actualStoredFieldName = fieldEntry.getKey();
-                String actualValue = fieldEntry.getValue();
-
-                // 检查是否匹配存储字段名
-                if (actualStoredFieldName.startsWith(storedFieldName)) {
-                    if (matchesCondition(actualValue, expectedValue)) {
-                        found = true;
-                        break;
-                    }
-                }
-            }
+        if (FieldCondition.LIKE.equals(operator)) {
+            resolved.valueAttribute = "fieldValue";
+            resolved.valueColumn = "field_value";
+            resolved.values.add("%" + escapeLike(operands.get(0)) + "%");
+            return resolved;
+        }
 
-            if (!found) {
-                return false;
+        FieldValueConverter converter = fieldDef != null ? FieldValueConverter.of(fieldDef)
+                : inferConverter(operands);
+        if (converter.isNumeric()) {
+            resolved.valueAttribute = "numericValue";
+            resolved.valueColumn = "numeric_value";
+            for (String operand : operands) {
+                BigDecimal value = converter.toNumericValue(converter.convert(operand.trim()));
+                if (value == null) {
+                    throw new RuntimeException("字段 " + field + " 的条件值不是有效的数字: " + operand);
+                }
+                resolved.values.add(value);
+            }
+        } else if (converter.isDate()) {
+            resolved.valueAttribute = "dateValue";
+            resolved.valueColumn = "date_value";
+            for (String operand : operands) {
+                LocalDate value = converter.toDateValue(converter.convert(operand.trim()));
+                if (value == null) {
+                    throw new RuntimeException("字段 " + field + " 的条件值不是有效的日期: " + operand);
+                }
+                resolved.values.add(value);
             }
+        } else {
+            resolved.valueAttribute = "fieldValue";
+            resolved.valueColumn = "field_value";
+            resolved.values.addAll(operands);
         }
-        return true;
+        return resolved;
     }
 
-    private boolean matchAnyCondition(Map<String, String> fieldValues, Map<String, Object> conditions,
-                                      Map<String, String> originalToStoredFieldName) {
-        for (Map.Entry<String, Object> entry : conditions.entrySet()) {
-            String originalFieldName = entry.getKey();
-            Object expectedValue = entry.getValue();
-
-            // 获取存储的字段名
-            String storedFieldName = originalToStoredFieldName.get(originalFieldName);
-            if (storedFieldName == null) {
-                // 如果找不到映射，尝试使用原始字段名加上通配符
-                storedFieldName = originalFieldName + "_";
-            }
-
-            // 查找匹配的字段
-            for (Map.Entry<String, String> fieldEntry : fieldValues.entrySet()) {
-                String actualStoredFieldName = fieldEntry.getKey();
-                String actualValue = fieldEntry.getValue();
+    /**
+     * 解析后的字段条件（条件查询和汇总查询共用）
+     */
+    static class ResolvedFieldCondition {
+        // 存储字段名，模板未知时为空，按 fieldNamePattern 前缀匹配
+        String storedFieldName;
+        String fieldNamePattern;
+        String operator;
+        // 比较的明细属性和对应的列
+        String valueAttribute;
+        String valueColumn;
+        // 比较值（LIKE 为已转义的匹配模式）
+        final List<Object> values = new ArrayList<>();
+    }
 
-                // 检查是否匹配存储字段名
-                if (actualStoredFieldName.startsWith(storedFieldName)) {
-                    if (matchesCondition(actualValue, expectedValue)) {
-                        return true;
+    /**
+     * 字段条件的比较值：IN 取值列表，BETWEEN 取上下限，其余取单个值
+     */
+    private List<String> getConditionOperands(FieldCondition condition, String operator) {
+        List<String> operands = new ArrayList<>();
+        switch (operator) {
+            case FieldCondition.IN:
+                if (condition.getValues() != null) {
+                    for (String value : condition.getValues()) {
+                        if (value != null) {
+                            operands.add(value);
+                        }
                     }
                 }
-            }
+                if (operands.isEmpty()) {
+                    throw new RuntimeException("字段 " + condition.getField() + " 的IN条件缺少取值");
+                }
+                return operands;
+            case FieldCondition.BETWEEN:
+                if (condition.getValues() == null || condition.getValues().size() != 2
+                        || condition.getValues().contains(null)) {
+                    throw new RuntimeException("字段 " + condition.getField() + " 的BETWEEN条件需要上下限两个值");
+                }
+                return new ArrayList<>(condition.getValues());
+            case FieldCondition.EQ:
+            case FieldCondition.NE:
+            case FieldCondition.GT:
+            case FieldCondition.GTE:
+            case FieldCondition.LT:
+            case FieldCondition.LTE:
+            case FieldCondition.LIKE:
+                if (condition.getValue() == null) {
+                    throw new RuntimeException("字段 " + condition.getField() + " 的条件缺少比较值");
+                }
+                operands.add(condition.getValue());
+                return operands;
+            default:
+                throw new RuntimeException("不支持的操作符: " + condition.getOperator());
         }
-        return false;
     }
 
-    private boolean matchesCondition(String actualValue, Object expectedValue) {
-        if (expectedValue instanceof String) {
-            String expected = (String) expectedValue;
-            if (expected.startsWith("%") || expected.endsWith("%")) {
-                // 模糊匹配
-                String pattern = expected.replace("%", ".*");
-                return actualValue != null && actualValue.matches(pattern);
-            } else {
-                // 精确匹配
-                return actualValue != null && actualValue.equals(expected);
+    /**
+     * 模板未知时按条件值推断字段类型
+     */
+    private FieldValueConverter inferConverter(List<String> operands) {
+        for (String type : new String[] {FieldValueConverter.NUMBER, FieldValueConverter.DATE}) {
+            FieldValueConverter converter = FieldValueConverter.of(type, null, null, null);
+            boolean allConverted = true;
+            for (String operand : operands) {
+                if (operand.trim().isEmpty() || converter.convert(operand.trim()) == null) {
+                    allConverted = false;
+                    break;
+                }
+            }
+            if (allConverted) {
+                return converter;
             }
-        } else {
-            // 其他类型比较
-            return String.valueOf(expectedValue).equals(actualValue);
+        }
+        return FieldValueConverter.of(FieldValueConverter.STRING, null, null, null);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Predicate compare(CriteriaBuilder criteriaBuilder, Expression path, String operator, List<Object> values) {
+        Comparable first = (Comparable) values.get(0);
+        switch (operator) {
+            case FieldCondition.NE:
+                return criteriaBuilder.notEqual(path, first);
+            case FieldCondition.GT:
+                return criteriaBuilder.greaterThan(path, first);
+            case FieldCondition.GTE:
+                return criteriaBuilder.greaterThanOrEqualTo(path, first);
+            case FieldCondition.LT:
+                return criteriaBuilder.lessThan(path, first);
+            case FieldCondition.LTE:
+                return criteriaBuilder.lessThanOrEqualTo(path, first);
+            case FieldCondition.BETWEEN:
+                return criteriaBuilder.between(path, first, (Comparable) values.get(1));
+            case FieldCondition.IN:
+                return path.in(values);
+            default:
+                return criteriaBuilder.equal(path, first);
         }
     }
 
     /**
-     * 根据ID列表查询数据
+     * 按模板ID或单位名称获取模板元数据
      */
-    private LedgerDataPageResponse queryDataByIds(List<Long> dataIds, Integer page, Integer size) {
-        if (dataIds.isEmpty()) {
-            return LedgerDataPageResponse.builder()
-                    .data(Collections.emptyList())
-                    .currentPage(page)
-                    .pageSize(size)
-                    .totalElements(0L)
-                    .totalPages(0)
-                    .hasPrevious(false)
-                    .hasNext(false)
-                    .build();
+    TemplateMetadataCache.TemplateMetadata resolveMetadata(Long templateId, String unitName) {
+        if (templateId != null) {
+            return templateMetadataCache.get(templateId);
         }
+        return StringUtils.hasText(unitName) ? templateMetadataCache.getByUnitName(unitName) : null;
+    }
 
-        // 分页处理
-        int startIndex = (page - 1) * size;
-        int endIndex = Math.min(startIndex + size, dataIds.size());
-
-        if (startIndex >= dataIds.size()) {
-            return LedgerDataPageResponse.builder()
-                    .data(Collections.emptyList())
-                    .currentPage(page)
-                    .pageSize(size)
-                    .totalElements((long) dataIds.size())
-                    .totalPages((int) Math.ceil((double) dataIds.size() / size))
-                    .hasPrevious(page > 1)
-                    .hasNext(endIndex < dataIds.size())
-                    .build();
+    /**
+     * 转义LIKE中的特殊字符
+     */
+    private String escapeLike(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 8);
+        for (char c : value.toCharArray()) {
+            if (c == LIKE_ESCAPE || c == '%' || c == '_') {
+                sb.append(LIKE_ESCAPE);
+            }
+            sb.append(c);
         }
-
-        List<Long> pageIds = dataIds.subList(startIndex, endIndex);
-
-        // 查询数据
-        List<LedgerData> dataList = ledgerDataRepository.findByIdInAndDeletedFalse(pageIds);
-        Map<Long, List<LedgerDataDetail>> detailsMap = getDataDetails(dataList);
-
-        // 转换为响应对象
-        List<LedgerDataResponse> responses = dataList.stream()
-                .map(data -> convertToResponse(data, detailsMap.get(data.getId())))
-                .collect(Collectors.toList());
-
-        return LedgerDataPageResponse.builder()
-                .data(responses)
-                .currentPage(page)
-                .pageSize(size)
-                .totalElements((long) dataIds.size())
-                .totalPages((int) Math.ceil((double) dataIds.size() / size))
-                .hasPrevious(page > 1)
-                .hasNext(endIndex < dataIds.size())
-                .build();
+        return sb.toString();
     }
 
     /**
@@ -1007,12 +1151,11 @@ public class LedgerDataQueryService {
      */
     private List<TemplateField> getTemplateFieldsByRequest(LedgerDataDynamicQueryRequest request) {
         if (request.getTemplateId() != null) {
-            return templateFieldRepository.findByTemplateIdAndDeletedFalse(request.getTemplateId());
+            return templateMetadataCache.getFields(request.getTemplateId());
         } else if (StringUtils.hasText(request.getUnitName())) {
             // 根据单位名称获取模板
-            return ledgerTemplateRepository.findByUnitNameAndDeletedFalse(request.getUnitName())
-                    .map(template -> templateFieldRepository.findByTemplateIdAndDeletedFalse(template.getId()))
-                    .orElse(Collections.emptyList());
+            TemplateMetadataCache.TemplateMetadata metadata = templateMetadataCache.getByUnitName(request.getUnitName());
+            return metadata != null ? metadata.getFields() : Collections.emptyList();
         }
         return Collections.emptyList();
     }
@@ -1021,6 +1164,10 @@ public class LedgerDataQueryService {
      * 构建动态查询条件
      */
     private Specification<LedgerData> buildDynamicQuerySpecification(LedgerDataDynamicQueryRequest request) {
+        TemplateMetadataCache.TemplateMetadata metadata = request.getFieldConditions() != null
+                && !request.getFieldConditions().isEmpty()
+                ? resolveMetadata(request.getTemplateId(), request.getUnitName()) : null;
+
         return (root, query, criteriaBuilder) -> {
             List<Predicate> predicates = new ArrayList<>();
 
@@ -1055,6 +1202,13 @@ public class LedgerDataQueryService {
                 predicates.add(criteriaBuilder.lessThanOrEqualTo(root.get("createdTime"), request.getEndTime()));
             }
 
+            // 字段条件（数字/日期字段的范围条件走类型化取值上的索引）
+            if (request.getFieldConditions() != null) {
+                for (FieldCondition condition : request.getFieldConditions()) {
+                    predicates.add(createFieldConditionExists(query, criteriaBuilder, root, condition, metadata));
+                }
+            }
+
             // 权限控制
             if (request.getViewOwnOnly() != null && request.getViewOwnOnly()) {
                 Long userId = getCurrentUserId();
@@ -1071,14 +1225,10 @@ public class LedgerDataQueryService {
     private LedgerDataDynamicPageResponse convertToDynamicPageResponse(
             Page<LedgerData> dataPage, List<TemplateField> templateFields) {
 
-        // 获取数据详情
         List<LedgerData> dataList = dataPage.getContent();
-        Map<Long, List<LedgerDataDetail>> detailsMap = getDataDetails(dataList);
 
-        // 转换为动态响应列表
-        List<LedgerDataDynamicResponse> responses = dataList.stream()
-                .map(data -> convertToDynamicResponse(data, detailsMap.get(data.getId())))
-                .collect(Collectors.toList());
+        // 转换为动态响应列表（批量加载关联信息）
+        List<LedgerDataDynamicResponse> responses = ledgerDataResponseAssembler.toDynamicResponses(dataList);
 
         // 构建模板字段信息
         List<LedgerDataDynamicResponse.TemplateFieldInfo> fieldInfos = templateFields.stream()
@@ -1097,78 +1247,6 @@ public class LedgerDataQueryService {
                 .build();
     }
 
-    /**
-     * 转换为动态响应对象 - 修复字段名格式问题
-     */
-    private LedgerDataDynamicResponse convertToDynamicResponse(
-            LedgerData data, List<LedgerDataDetail> details) {
-
-        LedgerDataDynamicResponse response = LedgerDataDynamicResponse.builder()
-                .id(data.getId())
-                .unitName(data.getUnitName())
-                .templateId(data.getTemplateId())
-                .rowNumber(data.getRowNumber())
-                .dataStatus(data.getDataStatus())
-                .validationStatus(data.getValidationStatus())
-                .createdTime(data.getCreatedTime())
-                .updatedTime(data.getUpdatedTime())
-                .build();
-
-        // 获取上传信息
-        if (data.getUploadId() != null) {
-            ledgerUploadRepository.findById(data.getUploadId()).ifPresent(upload -> {
-                response.setUploadNo(upload.getUploadNo());
-            });
-        }
-
-        // 获取模板名称
-        if (data.getTemplateId() != null) {
-            ledgerTemplateRepository.findById(data.getTemplateId()).ifPresent(template -> {
-                response.setTemplateName(template.getTemplateName());
-            });
-        }
-
-        // 获取用户信息
-        if (data.getCreatedBy() != null) {
-            response.setCreatedByName("用户" + data.getCreatedBy());
-        }
-
-        // 处理字段数据 - 修复字段名格式问题
-        if (details != null) {
-            Map<String, Object> fieldData = new LinkedHashMap<>();
-            int emptyCount = 0;
-            int invalidCount = 0;
-
-            // 获取模板字段定义
-            List<TemplateField> templateFields = templateFieldRepository
-                    .findByTemplateIdAndDeletedFalse(data.getTemplateId());
-
-            // 创建存储字段名到原始字段名的映射
-            Map<String, String> storedToOriginalFieldName = new HashMap<>();
-            for (TemplateField field : templateFields) {
-                String storedName = field.getFieldName() + "_" + field.getExcelColumn();
-                storedToOriginalFieldName.put(storedName, field.getFieldName());
-            }
-
-            for (LedgerDataDetail detail : details) {
-                // 将存储字段名转换为原始字段名
-                String originalFieldName = storedToOriginalFieldName.getOrDefault(
-                        detail.getFieldName(),
-                        extractOriginalFieldName(detail.getFieldName()));
-
-                fieldData.put(originalFieldName, detail.getFieldValue());
-                if (detail.getIsEmpty()) emptyCount++;
-                if (!detail.getIsValid()) invalidCount++;
-            }
-
-            response.setFieldData(fieldData);
-            response.setEmptyFieldCount(emptyCount);
-            response.setInvalidFieldCount(invalidCount);
-        }
-
-        return response;
-    }
-
     /**
      * 转换为模板字段信息
      */
@@ -1186,9 +1264,11 @@ public class LedgerDataQueryService {
      * 根据单位获取模板字段定义（新增方法）
      */
     public List<TemplateField> getTemplateFieldsByUnit(String unitName) {
-        return ledgerTemplateRepository.findByUnitNameAndDeletedFalse(unitName)
-                .map(template -> templateFieldRepository.findByTemplateIdAndDeletedFalse(template.getId()))
-                .orElseThrow(() -> new RuntimeException("单位没有模板或模板不存在: " + unitName));
+        TemplateMetadataCache.TemplateMetadata metadata = templateMetadataCache.getByUnitName(unitName);
+        if (metadata == null) {
+            throw new RuntimeException("单位没有模板或模板不存在: " + unitName);
+        }
+        return metadata.getFields();
     }
 
     /**
@@ -1205,80 +1285,36 @@ public class LedgerDataQueryService {
      * 从数据库查询年份列表
      */
     private List<Integer> getYearsFromDatabase(String unitName) {
-        List<LocalDateTime> createTimes;
-
-        if (StringUtils.hasText(unitName)) {
-            // 查询特定单位的创建时间
-            List<LedgerData> dataList = ledgerDataRepository.findByUnitNameAndDeletedFalse(unitName);
-            createTimes = dataList.stream()
-                    .map(LedgerData::getCreatedTime)
-                    .collect(Collectors.toList());
-        } else {
-            // 查询所有数据
-            createTimes = ledgerDataRepository.findAll().stream()
-                    .filter(data -> !data.getDeleted())
-                    .map(LedgerData::getCreatedTime)
-                    .collect(Collectors.toList());
-        }
-
-        // 提取不重复的年份
-        return createTimes.stream()
-                .map(time -> time.getYear())
-                .distinct()
-                .sorted(Comparator.reverseOrder()) // 倒序排列，最新的在前面
-                .collect(Collectors.toList());
+        // 倒序排列，最新的在前面
+        return StringUtils.hasText(unitName)
+                ? ledgerDataRepository.findDistinctYearsByUnitName(unitName)
+                : ledgerDataRepository.findAllDistinctYears();
     }
 
     /**
      * 从数据库查询年月列表
      */
     private List<String> getYearMonthsFromDatabase(String unitName) {
-        List<LocalDateTime> createTimes;
-
-        if (StringUtils.hasText(unitName)) {
-            // 查询特定单位的创建时间
-            List<LedgerData> dataList = ledgerDataRepository.findByUnitNameAndDeletedFalse(unitName);
-            createTimes = dataList.stream()
-                    .map(LedgerData::getCreatedTime)
-                    .collect(Collectors.toList());
-        } else {
-            // 查询所有数据
-            createTimes = ledgerDataRepository.findAll().stream()
-                    .filter(data -> !data.getDeleted())
-                    .map(LedgerData::getCreatedTime)
-                    .collect(Collectors.toList());
-        }
-
-        // 提取不重复的年月
-        return createTimes.stream()
-                .map(time -> time.getYear() + "-" + String.format("%02d", time.getMonthValue()))
-                .distinct()
-                .sorted(Comparator.reverseOrder()) // 倒序排列，最新的在前面
-                .collect(Collectors.toList());
+        // 倒序排列，最新的在前面
+        return StringUtils.hasText(unitName)
+                ? ledgerDataRepository.findDistinctYearMonthsByUnitName(unitName)
+                : ledgerDataRepository.findAllDistinctYearMonths();
     }
 
     /**
      * 从数据库查询年份统计
      */
     private Map<Integer, Long> getYearStatisticsFromDatabase(String unitName) {
-        List<LedgerData> dataList;
-
-        if (StringUtils.hasText(unitName)) {
-            // 查询特定单位的数据
-            dataList = ledgerDataRepository.findByUnitNameAndDeletedFalse(unitName);
-        } else {
-            // 查询所有数据
-            dataList = ledgerDataRepository.findAll().stream()
-                    .filter(data -> !data.getDeleted())
-                    .collect(Collectors.toList());
-        }
+        List<Object[]> rows = StringUtils.hasText(unitName)
+                ? ledgerDataRepository.getYearStatisticsByUnitName(unitName)
+                : ledgerDataRepository.getYearStatistics();
 
         // 按年份统计数量
-        return dataList.stream()
-                .collect(Collectors.groupingBy(
-                        data -> data.getCreatedTime().getYear(),
-                        Collectors.counting()
-                ));
+        Map<Integer, Long> statistics = new LinkedHashMap<>();
+        for (Object[] row : rows) {
+            statistics.put(((Number) row[0]).intValue(), ((Number) row[1]).longValue());
+        }
+        return statistics;
     }
 
     /**
@@ -1292,9 +1328,33 @@ public class LedgerDataQueryService {
     }
 
     /**
-     * 构建多字段查询条件 - 针对 LedgerDataMultiFieldQueryRequest（修复版本）
+     * 全文检索的过滤条件，与 buildMultiFieldSpecification 的基础条件保持一致
+     */
+    private FieldValueSearchService.SearchFilter buildSearchFilter(LedgerDataMultiFieldQueryRequest request) {
+        FieldValueSearchService.SearchFilter.SearchFilterBuilder filter = FieldValueSearchService.SearchFilter.builder()
+                .unitName(request.getUnitName())
+                .templateId(request.getTemplateId())
+                .dataStatus(request.getDataStatus())
+                .validationStatus(request.getValidationStatus())
+                .startTime(request.getStartTime())
+                .endTime(request.getEndTime());
+        if (request.getYear() != null) {
+            filter.monthFrom(CreatedMonth.start(request.getYear(), request.getMonth()))
+                    .monthTo(CreatedMonth.end(request.getYear(), request.getMonth()));
+        }
+        if (Boolean.TRUE.equals(request.getViewOwnOnly())) {
+            filter.createdBy(getCurrentUserId());
+        }
+        return filter.build();
+    }
+
+    /**
+     * 构建多字段查询条件 - 针对 LedgerDataMultiFieldQueryRequest
+     * rankedIds 不为空时表示部分字段条件已由全文检索解析为候选数据ID
      */
-    private Specification<LedgerData> buildMultiFieldSpecification(LedgerDataMultiFieldQueryRequest request) {
+    private Specification<LedgerData> buildMultiFieldSpecification(LedgerDataMultiFieldQueryRequest request,
+                                                                   List<FieldValueSearchService.FieldTerm> terms,
+                                                                   List<Long> rankedIds) {
         return (root, query, criteriaBuilder) -> {
             List<Predicate> predicates = new ArrayList<>();
 
@@ -1329,17 +1389,11 @@ public class LedgerDataQueryService {
                 predicates.add(criteriaBuilder.lessThanOrEqualTo(root.get("createdTime"), request.getEndTime()));
             }
 
-            // 新增：年月查询条件
+            // 年月查询条件（创建年月列上的范围条件，可使用索引和分区裁剪）
             if (request.getYear() != null) {
-                // 使用JPA函数提取年份
-                Expression<Integer> yearExpr = criteriaBuilder.function("YEAR", Integer.class, root.get("createdTime"));
-                predicates.add(criteriaBuilder.equal(yearExpr, request.getYear()));
-
-                if (request.getMonth() != null) {
-                    // 使用JPA函数提取月份
-                    Expression<Integer> monthExpr = criteriaBuilder.function("MONTH", Integer.class, root.get("createdTime"));
-                    predicates.add(criteriaBuilder.equal(monthExpr, request.getMonth()));
-                }
+                predicates.add(criteriaBuilder.between(root.get("createdMonth"),
+                        CreatedMonth.start(request.getYear(), request.getMonth()),
+                        CreatedMonth.end(request.getYear(), request.getMonth())));
             }
 
             // 权限控制
@@ -1348,174 +1402,15 @@ public class LedgerDataQueryService {
                 predicates.add(criteriaBuilder.equal(root.get("createdBy"), userId));
             }
 
-            // 台账字段查询条件 - 通过子查询实现
-            List<Predicate> fieldPredicates = new ArrayList<>();
-
-            // 项目名称查询
-            if (StringUtils.hasText(request.getProjectName())) {
-                fieldPredicates.add(createFieldPredicate(query, criteriaBuilder, root, "项目名称",
-                        request.getProjectName(), request.getFuzzySearch(),
-                        request.getTemplateId(), request.getUnitName()));
-            }
-
-//            // 物料组（9位码）查询
-//            if (StringUtils.hasText(request.getMaterialGroup9())) {
-//                fieldPredicates.add(createFieldPredicate(query, criteriaBuilder, root, "物料组（9位码）",
-//                        request.getMaterialGroup9(), request.getFuzzySearch(),
-//                        request.getTemplateId(), request.getUnitName()));
-//            }
-//
-//            // ERP系统编码（11位码）查询
-//            if (StringUtils.hasText(request.getErpCode11())) {
-//                fieldPredicates.add(createFieldPredicate(query, criteriaBuilder, root, "大ERP系统编码（15位码）",
-//                        request.getErpCode11(), request.getFuzzySearch(),
-//                        request.getTemplateId(), request.getUnitName()));
-//            }
-//
-//            // 大ERP物资描述查询
-//            if (StringUtils.hasText(request.getErpMaterialDesc())) {
-//                fieldPredicates.add(createFieldPredicate(query, criteriaBuilder, root, "大ERP物资描述（名称+规格型号）",
-//                        request.getErpMaterialDesc(), request.getFuzzySearch(),
-//                        request.getTemplateId(), request.getUnitName()));
-//            }
-
-            // 物料组（9位码）查询
-            if (StringUtils.hasText(request.getMaterialGroup9())) {
-                // 直接使用正确的存储字段名
-                Subquery<Long> materialSubquery = query.subquery(Long.class);
-                Root<LedgerDataDetail> materialDetailRoot = materialSubquery.from(LedgerDataDetail.class);
-
-                List<Predicate> materialPredicates = new ArrayList<>();
-                materialPredicates.add(criteriaBuilder.equal(materialDetailRoot.get("dataId"), root.get("id")));
-
-                // 关键：直接使用ledger_data_detail中的字段名格式
-                materialPredicates.add(criteriaBuilder.equal(
-                        materialDetailRoot.get("fieldName"),
-                        "物料组_9位码__D"  // 直接从数据库中复制的字段名
-                ));
-
-                // 字段值匹配
-                materialPredicates.add(criteriaBuilder.like(
-                        materialDetailRoot.get("fieldValue"),
-                        "%" + request.getMaterialGroup9().trim() + "%"
-                ));
-
-                materialSubquery.select(materialDetailRoot.get("dataId"))
-                        .where(materialPredicates.toArray(new Predicate[0]));
-
-                fieldPredicates.add(criteriaBuilder.exists(materialSubquery));
-            }
-
-            if (StringUtils.hasText(request.getErpCode11())) {
-                Subquery<Long> erpSubquery = query.subquery(Long.class);
-                Root<LedgerDataDetail> erpDetailRoot = erpSubquery.from(LedgerDataDetail.class);
-
-                List<Predicate> erpPredicates = new ArrayList<>();
-                erpPredicates.add(criteriaBuilder.equal(erpDetailRoot.get("dataId"), root.get("id")));
-                erpPredicates.add(criteriaBuilder.equal(
-                        erpDetailRoot.get("fieldName"),
-                        "大erp系统编码_15位码__E"
-                ));
-                erpPredicates.add(criteriaBuilder.like(
-                        erpDetailRoot.get("fieldValue"),
-                        "%" + request.getErpCode11().trim() + "%"
-                ));
-
-                erpSubquery.select(erpDetailRoot.get("dataId"))
-                        .where(erpPredicates.toArray(new Predicate[0]));
-
-                fieldPredicates.add(criteriaBuilder.exists(erpSubquery));
-            }
-
-            if (StringUtils.hasText(request.getErpMaterialDesc())) {
-                Subquery<Long> descSubquery = query.subquery(Long.class);
-                Root<LedgerDataDetail> descDetailRoot = descSubquery.from(LedgerDataDetail.class);
-
-                List<Predicate> descPredicates = new ArrayList<>();
-                descPredicates.add(criteriaBuilder.equal(descDetailRoot.get("dataId"), root.get("id")));
-                descPredicates.add(criteriaBuilder.equal(
-                        descDetailRoot.get("fieldName"),
-                        "大erp物资描述_名称_规格型号__F"
-                ));
-                descPredicates.add(criteriaBuilder.like(
-                        descDetailRoot.get("fieldValue"),
-                        "%" + request.getErpMaterialDesc().trim() + "%"
-                ));
-
-                descSubquery.select(descDetailRoot.get("dataId"))
-                        .where(descPredicates.toArray(new Predicate[0]));
-
-                fieldPredicates.add(criteriaBuilder.exists(descSubquery));
+            // 全文检索得到的候选数据
+            if (rankedIds != null) {
+                predicates.add(rankedIds.isEmpty() ? criteriaBuilder.disjunction() : root.get("id").in(rankedIds));
             }
 
-            // 采购业务经办人员查询
-            if (StringUtils.hasText(request.getPurchaseAgent())) {
-                fieldPredicates.add(createFieldPredicate(query, criteriaBuilder, root, "采购业务经办人员名字",
-                        request.getPurchaseAgent(), request.getFuzzySearch(),
-                        request.getTemplateId(), request.getUnitName()));
-            }
-
-            // 需求计划编号查询
-            if (StringUtils.hasText(request.getDemandPlanNo())) {
-                fieldPredicates.add(createFieldPredicate(query, criteriaBuilder, root, "需求计划跟踪编号",
-                        request.getDemandPlanNo(), request.getFuzzySearch(),
-                        request.getTemplateId(), request.getUnitName()));
-            }
-
-            // 采购计划单号查询
-            if (StringUtils.hasText(request.getPurchasePlanNo())) {
-                fieldPredicates.add(createFieldPredicate(query, criteriaBuilder, root, "采购计划单号",
-                        request.getPurchasePlanNo(), request.getFuzzySearch(),
-                        request.getTemplateId(), request.getUnitName()));
-            }
-
-            // 采购方案号查询
-            if (StringUtils.hasText(request.getPurchaseSchemeNo())) {
-                fieldPredicates.add(createFieldPredicate(query, criteriaBuilder, root, "采购方案号",
-                        request.getPurchaseSchemeNo(), request.getFuzzySearch(),
-                        request.getTemplateId(), request.getUnitName()));
-            }
-
-            // 合同号查询
-            if (StringUtils.hasText(request.getContractNo())) {
-                fieldPredicates.add(createFieldPredicate(query, criteriaBuilder, root, "_框架_一单一采_合同号",
-                        request.getContractNo(), request.getFuzzySearch(),
-                        request.getTemplateId(), request.getUnitName()));
-            }
-
-            // 报审序号查询
-            if (StringUtils.hasText(request.getReportNo())) {
-                fieldPredicates.add(createFieldPredicate(query, criteriaBuilder, root, "报审序号",
-                        request.getReportNo(), request.getFuzzySearch(),
-                        request.getTemplateId(), request.getUnitName()));
-            }
-
-            // 订单号查询
-            if (StringUtils.hasText(request.getOrderNo())) {
-                fieldPredicates.add(createFieldPredicate(query, criteriaBuilder, root, "_即买即结_框架下的订单_订单号",
-                        request.getOrderNo(), request.getFuzzySearch(),
-                        request.getTemplateId(), request.getUnitName()));
-            }
-
-            // 供应商编码查询
-            if (StringUtils.hasText(request.getSupplierCode())) {
-                fieldPredicates.add(createFieldPredicate(query, criteriaBuilder, root, "供应商编码",
-                        request.getSupplierCode(), request.getFuzzySearch(),
-                        request.getTemplateId(), request.getUnitName()));
-            }
-
-            // 供应商名称查询
-            if (StringUtils.hasText(request.getSupplierName())) {
-                fieldPredicates.add(createFieldPredicate(query, criteriaBuilder, root, "供应商名称",
-                        request.getSupplierName(), request.getFuzzySearch(),
-                        request.getTemplateId(), request.getUnitName()));
-            }
-
-            // 当前采购进度查询
-            if (StringUtils.hasText(request.getPurchaseProgress())) {
-                fieldPredicates.add(createFieldPredicate(query, criteriaBuilder, root, "当前采购进度",
-                        request.getPurchaseProgress(), request.getFuzzySearch(),
-                        request.getTemplateId(), request.getUnitName()));
+            // 台账字段查询条件 - 通过子查询实现
+            List<Predicate> fieldPredicates = new ArrayList<>();
+            for (FieldValueSearchService.FieldTerm term : terms) {
+                fieldPredicates.add(createFieldPredicate(query, criteriaBuilder, root, term));
             }
 
             // 将字段查询条件加入到主条件中
@@ -0,0 +1,253 @@
+package com.example.ledger.service;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 14:05
+ */
+
+import com.example.ledger.dto.response.LedgerDataDynamicResponse;
+import com.example.ledger.dto.response.LedgerDataResponse;
+import com.example.ledger.entity.LedgerData;
+import com.example.ledger.entity.LedgerDataDetail;
+import com.example.ledger.entity.LedgerUpload;
+import com.example.ledger.repository.LedgerUploadRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * 台账数据分页响应组装器
+ * 一页数据的上传记录、模板元数据、字段明细各批量查询一次，再在内存中组装响应，避免逐行查询
+ */
+@Component
+@RequiredArgsConstructor
+public class LedgerDataResponseAssembler {
+
+    private final LedgerUploadRepository ledgerUploadRepository;
+    private final TemplateMetadataCache templateMetadataCache;
+    private final LedgerRowStorageService ledgerRowStorageService;
+
+    /**
+     * 组装台账数据响应列表（顺序与dataList一致）
+     */
+    public List<LedgerDataResponse> toResponses(List<LedgerData> dataList) {
+        if (dataList == null || dataList.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        PageContext context = loadContext(dataList);
+        List<LedgerDataResponse> responses = new ArrayList<>(dataList.size());
+        for (LedgerData data : dataList) {
+            responses.add(convertToResponse(data, context));
+        }
+        return responses;
+    }
+
+    /**
+     * 组装动态台账数据响应列表（顺序与dataList一致）
+     */
+    public List<LedgerDataDynamicResponse> toDynamicResponses(List<LedgerData> dataList) {
+        if (dataList == null || dataList.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        PageContext context = loadContext(dataList);
+        List<LedgerDataDynamicResponse> responses = new ArrayList<>(dataList.size());
+        for (LedgerData data : dataList) {
+            responses.add(convertToDynamicResponse(data, context));
+        }
+        return responses;
+    }
+
+    /**
+     * 批量加载一页数据需要的关联信息
+     */
+    private PageContext loadContext(List<LedgerData> dataList) {
+        Set<Long> uploadIds = new HashSet<>();
+        Set<Long> templateIds = new HashSet<>();
+        for (LedgerData data : dataList) {
+            if (data.getUploadId() != null) {
+                uploadIds.add(data.getUploadId());
+            }
+            if (data.getTemplateId() != null) {
+                templateIds.add(data.getTemplateId());
+            }
+        }
+
+        PageContext context = new PageContext();
+        if (!uploadIds.isEmpty()) {
+            context.uploadNoById = ledgerUploadRepository.findAllById(uploadIds).stream()
+                    .filter(upload -> upload.getUploadNo() != null)
+                    .collect(Collectors.toMap(LedgerUpload::getId, LedgerUpload::getUploadNo, (a, b) -> a));
+        }
+        context.metadataById = templateMetadataCache.getAll(templateIds);
+        context.detailsMap = ledgerRowStorageService.loadDetails(dataList);
+        return context;
+    }
+
+    /**
+     * 转换单个数据为响应对象 - 修复字段名格式问题
+     */
+    private LedgerDataResponse convertToResponse(LedgerData data, PageContext context) {
+        LedgerDataResponse response = new LedgerDataResponse();
+
+        response.setId(data.getId());
+        response.setUploadId(data.getUploadId());
+        response.setTemplateId(data.getTemplateId());
+        response.setUnitName(data.getUnitName());
+        response.setRowNumber(data.getRowNumber());
+        response.setDataStatus(data.getDataStatus());
+        response.setValidationStatus(data.getValidationStatus());
+        response.setValidationErrors(data.getValidationErrors());
+        response.setCreatedBy(data.getCreatedBy());
+        response.setCreatedTime(data.getCreatedTime());
+        response.setUpdatedTime(data.getUpdatedTime());
+
+        // 上传信息
+        if (data.getUploadId() != null) {
+            response.setUploadNo(context.uploadNoById.get(data.getUploadId()));
+        }
+
+        // 模板信息
+        TemplateMetadataCache.TemplateMetadata metadata = context.metadataById.get(data.getTemplateId());
+        if (metadata != null) {
+            response.setTemplateName(metadata.getTemplate().getTemplateName());
+        }
+
+        // 用户信息
+        if (data.getCreatedBy() != null) {
+            response.setCreatedByName("用户" + data.getCreatedBy());
+        }
+
+        // 处理字段数据
+        List<LedgerDataDetail> details = context.detailsMap.get(data.getId());
+        if (details != null) {
+            Map<String, Object> fieldData = new LinkedHashMap<>();
+            Map<String, Boolean> fieldStatus = new LinkedHashMap<>();
+            Map<String, String> fieldValidation = new LinkedHashMap<>();
+
+            int emptyCount = 0;
+            int invalidCount = 0;
+
+            Map<String, String> storedToOriginalFieldName = metadata != null
+                    ? metadata.getStoredToOriginal() : Collections.emptyMap();
+
+            for (LedgerDataDetail detail : details) {
+                // 将存储字段名转换为原始字段名用于显示
+                String originalFieldName = storedToOriginalFieldName.getOrDefault(
+                        detail.getFieldName(),
+                        extractOriginalFieldName(detail.getFieldName()));
+
+                fieldData.put(originalFieldName, detail.getFieldValue());
+                fieldStatus.put(originalFieldName, detail.getIsValid());
+
+                if (detail.getValidationMessage() != null) {
+                    fieldValidation.put(originalFieldName, detail.getValidationMessage());
+                }
+
+                if (detail.getIsEmpty()) {
+                    emptyCount++;
+                }
+                if (!detail.getIsValid()) {
+                    invalidCount++;
+                }
+            }
+
+            response.setFieldData(fieldData);
+            response.setFieldStatus(fieldStatus);
+            response.setFieldValidation(fieldValidation);
+            response.setEmptyFieldCount(emptyCount);
+            response.setInvalidFieldCount(invalidCount);
+            response.setTotalFieldCount(details.size());
+        }
+
+        return response;
+    }
+
+    /**
+     * 转换为动态响应对象 - 修复字段名格式问题
+     */
+    private LedgerDataDynamicResponse convertToDynamicResponse(LedgerData data, PageContext context) {
+        LedgerDataDynamicResponse response = LedgerDataDynamicResponse.builder()
+                .id(data.getId())
+                .unitName(data.getUnitName())
+                .templateId(data.getTemplateId())
+                .rowNumber(data.getRowNumber())
+                .dataStatus(data.getDataStatus())
+                .validationStatus(data.getValidationStatus())
+                .createdTime(data.getCreatedTime())
+                .updatedTime(data.getUpdatedTime())
+                .build();
+
+        // 上传信息
+        if (data.getUploadId() != null) {
+            response.setUploadNo(context.uploadNoById.get(data.getUploadId()));
+        }
+
+        // 模板名称
+        TemplateMetadataCache.TemplateMetadata metadata = context.metadataById.get(data.getTemplateId());
+        if (metadata != null) {
+            response.setTemplateName(metadata.getTemplate().getTemplateName());
+        }
+
+        // 用户信息
+        if (data.getCreatedBy() != null) {
+            response.setCreatedByName("用户" + data.getCreatedBy());
+        }
+
+        // 处理字段数据
+        List<LedgerDataDetail> details = context.detailsMap.get(data.getId());
+        if (details != null) {
+            Map<String, Object> fieldData = new LinkedHashMap<>();
+            int emptyCount = 0;
+            int invalidCount = 0;
+
+            Map<String, String> storedToOriginalFieldName = metadata != null
+                    ? metadata.getStoredToOriginal() : Collections.emptyMap();
+
+            for (LedgerDataDetail detail : details) {
+                // 将存储字段名转换为原始字段名
+                String originalFieldName = storedToOriginalFieldName.getOrDefault(
+                        detail.getFieldName(),
+                        extractOriginalFieldName(detail.getFieldName()));
+
+                fieldData.put(originalFieldName, detail.getFieldValue());
+                if (detail.getIsEmpty()) emptyCount++;
+                if (!detail.getIsValid()) invalidCount++;
+            }
+
+            response.setFieldData(fieldData);
+            response.setEmptyFieldCount(emptyCount);
+            response.setInvalidFieldCount(invalidCount);
+        }
+
+        return response;
+    }
+
+    /**
+     * 从存储的字段名中提取原始字段名（模板中已不存在的字段）
+     */
+    private String extractOriginalFieldName(String storedFieldName) {
+        if (storedFieldName == null) {
+            return null;
+        }
+
+        // 返回最后一个下划线前的部分作为原始字段名
+        int lastUnderscoreIndex = storedFieldName.lastIndexOf('_');
+        if (lastUnderscoreIndex > 0) {
+            return storedFieldName.substring(0, lastUnderscoreIndex);
+        }
+        return storedFieldName;
+    }
+
+    /**
+     * 一页数据的关联信息
+     */
+    private static class PageContext {
+        private Map<Long, String> uploadNoById = Collections.emptyMap();
+        private Map<Long, TemplateMetadataCache.TemplateMetadata> metadataById = Collections.emptyMap();
+        private Map<Long, List<LedgerDataDetail>> detailsMap = Collections.emptyMap();
+    }
+}
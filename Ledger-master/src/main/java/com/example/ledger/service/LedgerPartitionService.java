@@ -0,0 +1,167 @@
+package com.example.ledger.service;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 21:20
+ */
+
+import com.example.ledger.util.CreatedMonth;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ledger_data 按创建年月（created_month 生成列）做 RANGE 分区
+ * 每月一个分区（pYYYYMM），最后保留 pmax 兜底分区；年月查询条件落在 created_month 上，可以裁剪到对应分区。
+ * 分区转换由管理员手动触发，定时任务只在已分区时从 pmax 拆出未来的月份分区。
+ * 明细表按 data_id 访问，不做时间分区
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class LedgerPartitionService {
+
+    private static final String TABLE = "ledger_data";
+    private static final String MAX_PARTITION = "pmax";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // 提前创建的月份分区数
+    @Value("${app.partition.months-ahead:3}")
+    private int monthsAhead;
+
+    /**
+     * 查询分区状态
+     */
+    public Map<String, Object> getStatus() {
+        List<Map<String, Object>> partitions = loadPartitions();
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("table", TABLE);
+        status.put("partitioned", !partitions.isEmpty());
+        status.put("monthsAhead", monthsAhead);
+        status.put("partitions", partitions);
+        return status;
+    }
+
+    /**
+     * 将 ledger_data 转换为按月分区（表较大时耗时较长，应在业务低峰期执行）
+     * MySQL要求分区列包含在所有唯一键中，主键同时调整为 (id, created_month)
+     */
+    public synchronized Map<String, Object> initialize() {
+        if (!loadPartitions().isEmpty()) {
+            throw new RuntimeException("数据表已分区，无需重复初始化");
+        }
+
+        Integer minMonth = jdbcTemplate.queryForObject("SELECT MIN(created_month) FROM " + TABLE, Integer.class);
+        int currentMonth = CreatedMonth.of(LocalDate.now());
+        int fromMonth = minMonth != null ? Math.min(minMonth, currentMonth) : currentMonth;
+        int toMonth = CreatedMonth.of(LocalDate.now().plusMonths(monthsAhead));
+
+        List<String> definitions = new ArrayList<>();
+        for (int month : monthsBetween(fromMonth, toMonth)) {
+            definitions.add(partitionDefinition(month));
+        }
+        definitions.add("PARTITION " + MAX_PARTITION + " VALUES LESS THAN MAXVALUE");
+
+        log.info("开始转换分区表 {}，分区范围: {} - {}", TABLE, fromMonth, toMonth);
+        long start = System.currentTimeMillis();
+        jdbcTemplate.execute("ALTER TABLE " + TABLE + " DROP PRIMARY KEY, ADD PRIMARY KEY (id, created_month)");
+        jdbcTemplate.execute("ALTER TABLE " + TABLE + " PARTITION BY RANGE (created_month) (" +
+                String.join(", ", definitions) + ")");
+        log.info("分区表 {} 转换完成，共 {} 个分区，耗时 {} ms", TABLE, definitions.size(),
+                System.currentTimeMillis() - start);
+
+        return getStatus();
+    }
+
+    /**
+     * 从 pmax 拆分出未来的月份分区
+     */
+    public synchronized Map<String, Object> createUpcomingPartitions() {
+        List<Map<String, Object>> partitions = loadPartitions();
+        Map<String, Object> result = new LinkedHashMap<>();
+        if (partitions.isEmpty()) {
+            result.put("partitioned", false);
+            result.put("created", 0);
+            return result;
+        }
+
+        // 已定义的最大月份（分区上界为下个月）
+        int lastMonth = 0;
+        for (Map<String, Object> partition : partitions) {
+            String name = (String) partition.get("name");
+            if (name != null && name.matches("p\\d{6}")) {
+                lastMonth = Math.max(lastMonth, Integer.parseInt(name.substring(1)));
+            }
+        }
+
+        int toMonth = CreatedMonth.of(LocalDate.now().plusMonths(monthsAhead));
+        int fromMonth = lastMonth > 0 ? CreatedMonth.of(CreatedMonth.firstDay(lastMonth).plusMonths(1))
+                : CreatedMonth.of(LocalDate.now());
+        List<Integer> months = monthsBetween(fromMonth, toMonth);
+
+        if (!months.isEmpty()) {
+            List<String> definitions = new ArrayList<>();
+            for (int month : months) {
+                definitions.add(partitionDefinition(month));
+            }
+            definitions.add("PARTITION " + MAX_PARTITION + " VALUES LESS THAN MAXVALUE");
+            jdbcTemplate.execute("ALTER TABLE " + TABLE + " REORGANIZE PARTITION " + MAX_PARTITION + " INTO (" +
+                    String.join(", ", definitions) + ")");
+            log.info("已为 {} 创建 {} 个月份分区: {} - {}", TABLE, months.size(), fromMonth, toMonth);
+        }
+
+        result.put("partitioned", true);
+        result.put("created", months.size());
+        result.put("months", months);
+        return result;
+    }
+
+    /**
+     * 定时维护：提前创建未来月份的分区（表未分区时不做处理）
+     */
+    @Scheduled(cron = "${app.partition.maintain-cron:0 30 2 * * *}")
+    public void maintainPartitions() {
+        try {
+            createUpcomingPartitions();
+        } catch (Exception e) {
+            log.error("维护数据分区失败", e);
+        }
+    }
+
+    private List<Map<String, Object>> loadPartitions() {
+        return jdbcTemplate.query("SELECT PARTITION_NAME, PARTITION_DESCRIPTION, TABLE_ROWS " +
+                        "FROM information_schema.PARTITIONS WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? " +
+                        "AND PARTITION_NAME IS NOT NULL ORDER BY PARTITION_ORDINAL_POSITION",
+                (rs, rowNum) -> {
+                    Map<String, Object> partition = new LinkedHashMap<>();
+                    partition.put("name", rs.getString("PARTITION_NAME"));
+                    partition.put("lessThan", rs.getString("PARTITION_DESCRIPTION"));
+                    partition.put("rows", rs.getLong("TABLE_ROWS"));
+                    return partition;
+                }, TABLE);
+    }
+
+    private static String partitionDefinition(int month) {
+        int nextMonth = CreatedMonth.of(CreatedMonth.firstDay(month).plusMonths(1));
+        return "PARTITION p" + month + " VALUES LESS THAN (" + nextMonth + ")";
+    }
+
+    private static List<Integer> monthsBetween(int fromMonth, int toMonth) {
+        List<Integer> months = new ArrayList<>();
+        LocalDate end = CreatedMonth.firstDay(toMonth);
+        for (LocalDate day = CreatedMonth.firstDay(fromMonth); !day.isAfter(end); day = day.plusMonths(1)) {
+            months.add(CreatedMonth.of(day));
+        }
+        return months;
+    }
+}
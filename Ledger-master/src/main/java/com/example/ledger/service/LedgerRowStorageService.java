@@ -0,0 +1,287 @@
+package com.example.ledger.service;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 11:20
+ */
+
+import com.example.ledger.entity.LedgerData;
+import com.example.ledger.entity.LedgerDataDetail;
+import com.example.ledger.repository.LedgerDataDetailRepository;
+import com.example.ledger.repository.LedgerDataJdbcRepository;
+import com.example.ledger.repository.LedgerDataRepository;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * 台账行存储服务
+ * EAV模式：字段值只存储在ledger_data_detail中
+ * PACKED模式：上传时额外把整行字段值按sortOrder打包成JSON写入ledger_data.packed_values，
+ * 行读取（查询、导出）优先使用打包值，明细表仅作为字段条件检索的索引
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class LedgerRowStorageService {
+
+    public static final String MODE_EAV = "EAV";
+    public static final String MODE_PACKED = "PACKED";
+
+    private static final int DETAIL_QUERY_BATCH = 1000;
+
+    private final LedgerDataRepository ledgerDataRepository;
+    private final LedgerDataDetailRepository ledgerDataDetailRepository;
+    private final LedgerDataJdbcRepository ledgerDataJdbcRepository;
+
+    @Qualifier("uploadTaskExecutor")
+    private final Executor uploadTaskExecutor;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Value("${app.ledger.storage-mode:EAV}")
+    private String storageMode;
+
+    @Value("${app.ledger.migration-batch-size:500}")
+    private int migrationBatchSize;
+
+    // 迁移任务状态
+    private final AtomicBoolean migrationRunning = new AtomicBoolean(false);
+    private final Map<String, Object> migrationStatus = new LinkedHashMap<>();
+
+    /**
+     * 是否启用紧凑存储模式
+     */
+    public boolean isPackedMode() {
+        return MODE_PACKED.equalsIgnoreCase(storageMode);
+    }
+
+    /**
+     * 把一行的字段明细打包为JSON（按sortOrder排序）
+     */
+    public String pack(List<LedgerDataDetail> details) {
+        List<PackedField> fields = details.stream()
+                .sorted(Comparator.comparing(LedgerDataDetail::getSortOrder,
+                        Comparator.nullsLast(Comparator.naturalOrder())))
+                .map(PackedField::of)
+                .collect(Collectors.toList());
+        try {
+            return objectMapper.writeValueAsString(fields);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("打包字段值失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 把打包的JSON还原为字段明细（非持久化对象，只用于读取）
+     */
+    public List<LedgerDataDetail> unpack(LedgerData data) {
+        try {
+            List<PackedField> fields = objectMapper.readValue(data.getPackedValues(),
+                    new TypeReference<List<PackedField>>() {});
+            List<LedgerDataDetail> details = new ArrayList<>(fields.size());
+            for (PackedField field : fields) {
+                details.add(field.toDetail(data));
+            }
+            return details;
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("解析打包字段值失败，数据ID: " + data.getId(), e);
+        }
+    }
+
+    /**
+     * 批量获取数据的字段明细，按数据ID分组
+     * 已打包的行直接解包，其余行从明细表读取
+     */
+    public Map<Long, List<LedgerDataDetail>> loadDetails(List<LedgerData> dataList) {
+        Map<Long, List<LedgerDataDetail>> detailsMap = new HashMap<>();
+        if (dataList == null || dataList.isEmpty()) {
+            return detailsMap;
+        }
+
+        List<Long> unpackedIds = new ArrayList<>();
+        for (LedgerData data : dataList) {
+            if (data.getPackedValues() != null) {
+                detailsMap.put(data.getId(), unpack(data));
+            } else {
+                unpackedIds.add(data.getId());
+            }
+        }
+
+        for (int i = 0; i < unpackedIds.size(); i += DETAIL_QUERY_BATCH) {
+            List<Long> batchIds = unpackedIds.subList(i, Math.min(i + DETAIL_QUERY_BATCH, unpackedIds.size()));
+            for (LedgerDataDetail detail : ledgerDataDetailRepository.findByDataIdIn(batchIds)) {
+                detailsMap.computeIfAbsent(detail.getDataId(), k -> new ArrayList<>()).add(detail);
+            }
+        }
+
+        return detailsMap;
+    }
+
+    /**
+     * 明细修改后刷新打包值（只处理已打包的行）
+     */
+    public void refreshPackedValues(LedgerData data, List<LedgerDataDetail> details) {
+        if (data.getPackedValues() != null) {
+            data.setPackedValues(pack(details));
+        }
+    }
+
+    /**
+     * 启动迁移任务：把已有数据转换为紧凑存储
+     */
+    public Map<String, Object> startMigration(Long uploadId) {
+        if (!migrationRunning.compareAndSet(false, true)) {
+            throw new RuntimeException("迁移任务正在执行中");
+        }
+
+        synchronized (migrationStatus) {
+            migrationStatus.clear();
+            migrationStatus.put("status", "RUNNING");
+            migrationStatus.put("uploadId", uploadId);
+            migrationStatus.put("migratedRows", 0);
+            migrationStatus.put("startTime", LocalDateTime.now().toString());
+        }
+
+        try {
+            CompletableFuture.runAsync(() -> {
+                try {
+                    int migrated = migrateToPacked(uploadId);
+                    updateMigrationStatus("SUCCESS", migrated, null);
+                    log.info("紧凑存储迁移完成，上传ID: {}，迁移行数: {}", uploadId, migrated);
+                } catch (Exception e) {
+                    log.error("紧凑存储迁移失败，上传ID: {}", uploadId, e);
+                    updateMigrationStatus("FAILED", null, e.getMessage());
+                } finally {
+                    migrationRunning.set(false);
+                }
+            }, uploadTaskExecutor);
+        } catch (RejectedExecutionException e) {
+            // 上传线程池已满
+            migrationRunning.set(false);
+            updateMigrationStatus("FAILED", null, "上传线程池繁忙，请稍后重试");
+            throw new RuntimeException("上传线程池繁忙，请稍后重试");
+        }
+
+        return getMigrationStatus();
+    }
+
+    /**
+     * 获取迁移任务状态
+     */
+    public Map<String, Object> getMigrationStatus() {
+        synchronized (migrationStatus) {
+            Map<String, Object> result = new LinkedHashMap<>(migrationStatus);
+            result.putIfAbsent("status", "IDLE");
+            result.put("storageMode", isPackedMode() ? MODE_PACKED : MODE_EAV);
+            return result;
+        }
+    }
+
+    /**
+     * 按ID游标分批迁移，每批独立提交，可重复执行
+     */
+    private int migrateToPacked(Long uploadId) {
+        int batchSize = Math.max(migrationBatchSize, 1);
+        long lastId = 0L;
+        int migrated = 0;
+
+        while (true) {
+            List<LedgerData> batch = ledgerDataRepository.findUnpackedAfter(lastId, uploadId,
+                    PageRequest.of(0, batchSize));
+            if (batch.isEmpty()) {
+                break;
+            }
+
+            Map<Long, List<LedgerDataDetail>> detailsMap = loadDetails(batch);
+            Map<Long, String> packedValues = new LinkedHashMap<>();
+            for (LedgerData data : batch) {
+                packedValues.put(data.getId(), pack(detailsMap.getOrDefault(data.getId(), Collections.emptyList())));
+            }
+            ledgerDataJdbcRepository.batchUpdatePackedValues(packedValues);
+
+            migrated += batch.size();
+            lastId = batch.get(batch.size() - 1).getId();
+            updateMigrationStatus("RUNNING", migrated, null);
+        }
+
+        return migrated;
+    }
+
+    private void updateMigrationStatus(String status, Integer migratedRows, String errorMessage) {
+        synchronized (migrationStatus) {
+            migrationStatus.put("status", status);
+            if (migratedRows != null) {
+                migrationStatus.put("migratedRows", migratedRows);
+            }
+            if (errorMessage != null) {
+                migrationStatus.put("errorMessage", errorMessage);
+            }
+            if (!"RUNNING".equals(status)) {
+                migrationStatus.put("endTime", LocalDateTime.now().toString());
+            }
+        }
+    }
+
+    /**
+     * 打包的单个字段：n-存储字段名 s-排序 v-字段值 o-原始值(与v相同时省略) m-验证信息(有效时省略)
+     */
+    @Data
+    @NoArgsConstructor
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    static class PackedField {
+        private String n;
+        private Integer s;
+        private String v;
+        private String o;
+        private String m;
+        private Boolean e;
+
+        static PackedField of(LedgerDataDetail detail) {
+            PackedField field = new PackedField();
+            field.n = detail.getFieldName();
+            field.s = detail.getSortOrder();
+            field.v = detail.getFieldValue();
+            field.o = Objects.equals(detail.getOriginalValue(), detail.getFieldValue()) ? null : detail.getOriginalValue();
+            field.m = Boolean.FALSE.equals(detail.getIsValid())
+                    ? (detail.getValidationMessage() != null ? detail.getValidationMessage() : "")
+                    : null;
+            // isEmpty与字段值是否为空不一致时才记录
+            boolean valueEmpty = detail.getFieldValue() == null || detail.getFieldValue().trim().isEmpty();
+            field.e = Boolean.TRUE.equals(detail.getIsEmpty()) == valueEmpty ? null : detail.getIsEmpty();
+            return field;
+        }
+
+        LedgerDataDetail toDetail(LedgerData data) {
+            LedgerDataDetail detail = new LedgerDataDetail();
+            detail.setDataId(data.getId());
+            detail.setFieldName(n);
+            detail.setSortOrder(s != null ? s : 0);
+            detail.setFieldValue(v);
+            detail.setOriginalValue(o != null ? o : v);
+            detail.setIsEmpty(e != null ? e : (v == null || v.trim().isEmpty()));
+            detail.setIsValid(m == null);
+            detail.setValidationMessage(m != null && !m.isEmpty() ? m : null);
+            detail.setCreatedTime(data.getCreatedTime());
+            detail.setUpdatedTime(data.getUpdatedTime());
+            return detail;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.example.ledger.service;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 22:15
+ */
+
+import com.example.ledger.entity.LedgerData;
+import com.example.ledger.entity.LedgerStatRollup;
+import com.example.ledger.repository.LedgerStatRollupRepository;
+import com.example.ledger.util.CreatedMonth;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StringUtils;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * 台账数据统计汇总
+ * 数据变化时调用 record* 方法计算增量并写入汇总表（调用方事务内执行，与数据变更一起提交或回滚）；
+ * 统计查询只读取汇总表，读取的行数与 单位 x 用户 x 模板 x 月份 的组合数相关，与数据行数无关
+ * 汇总表中的锁行（单位为空、其余维度为0、计数为0，统计查询不会读到）协调增量和重建：
+ * 增量写入前对锁行加共享锁，重建时加排他锁，锁在事务提交时释放，跨节点有效
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class LedgerStatisticsService {
+
+    private static final String UPSERT_SQL = "INSERT INTO ledger_stat_rollup (unit_name, user_id, template_id, " +
+            "created_month, total_rows, valid_rows, invalid_rows, updated_time) VALUES (?, ?, ?, ?, ?, ?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE total_rows = total_rows + VALUES(total_rows), " +
+            "valid_rows = valid_rows + VALUES(valid_rows), invalid_rows = invalid_rows + VALUES(invalid_rows), " +
+            "updated_time = VALUES(updated_time)";
+
+    private static final String GROUP_SELECT = "SELECT unit_name, created_by, template_id, created_month, " +
+            "COUNT(*) AS total_rows, SUM(validation_status = 'VALID') AS valid_rows, " +
+            "SUM(validation_status = 'INVALID') AS invalid_rows FROM ledger_data ";
+
+    private static final String LOCK_ROW_WHERE = "unit_name = '' AND user_id = 0 AND template_id = 0 " +
+            "AND created_month = 0";
+
+    // 按ID删除时每次统计的ID数
+    private static final int ID_BATCH_SIZE = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final LedgerStatRollupRepository ledgerStatRollupRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    // 启动时汇总表为空且存在数据则自动重建
+    @Value("${app.statistics.rebuild-on-empty:true}")
+    private boolean rebuildOnEmpty;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        try {
+            ensureLockRow();
+        } catch (Exception e) {
+            log.warn("创建统计汇总锁行失败: {}", e.getMessage());
+        }
+        if (!rebuildOnEmpty) {
+            return;
+        }
+        try {
+            if (jdbcTemplate.queryForObject("SELECT COUNT(*) FROM (SELECT 1 FROM ledger_stat_rollup " +
+                    "WHERE NOT (" + LOCK_ROW_WHERE + ") LIMIT 1) t", Integer.class) == 0
+                    && jdbcTemplate.queryForObject("SELECT COUNT(*) FROM (SELECT 1 FROM ledger_data LIMIT 1) t",
+                    Integer.class) > 0) {
+                log.info("统计汇总表为空，开始重建");
+                rebuild();
+            }
+        } catch (Exception e) {
+            log.warn("检查统计汇总表失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 新增（或恢复）的数据计入汇总
+     */
+    public void recordAdded(Collection<LedgerData> dataList) {
+        applyDelta(aggregate(dataList, 1));
+    }
+
+    /**
+     * 删除的数据从汇总中扣除（传入删除前的数据）
+     */
+    public void recordRemoved(Collection<LedgerData> dataList) {
+        applyDelta(aggregate(dataList, -1));
+    }
+
+    /**
+     * 数据的验证状态变化
+     */
+    public void recordValidationChange(LedgerData data, String oldStatus) {
+        if (Objects.equals(oldStatus, data.getValidationStatus()) || Boolean.TRUE.equals(data.getDeleted())) {
+            return;
+        }
+        Map<RollupKey, long[]> delta = new HashMap<>();
+        long[] counts = delta.computeIfAbsent(RollupKey.of(data), key -> new long[3]);
+        addStatus(counts, oldStatus, -1);
+        addStatus(counts, data.getValidationStatus(), 1);
+        applyDelta(delta);
+    }
+
+    /**
+     * 即将删除某用户在某单位除指定上传外的全部数据（集合删除前调用，按索引分组统计后扣除）
+     */
+    public void recordRemovedByUserAndUnit(Long userId, String unitName, Long keepUploadId) {
+        applyDelta(negate(queryGroups(GROUP_SELECT + "WHERE created_by = ? AND unit_name = ? AND upload_id <> ? " +
+                "AND deleted = 0 GROUP BY unit_name, created_by, template_id, created_month",
+                userId, unitName, keepUploadId)));
+    }
+
+    /**
+     * 即将删除某次上传写入的全部数据（集合删除前调用）
+     */
+    public void recordRemovedByUpload(Long uploadId) {
+        applyDelta(negate(queryGroups(GROUP_SELECT + "WHERE upload_id = ? AND deleted = 0 " +
+                "GROUP BY unit_name, created_by, template_id, created_month", uploadId)));
+    }
+
+    /**
+     * 即将按ID删除数据（删除前调用）
+     */
+    public void recordRemovedByIds(List<Long> dataIds) {
+        for (int i = 0; i < dataIds.size(); i += ID_BATCH_SIZE) {
+            List<Long> batchIds = dataIds.subList(i, Math.min(i + ID_BATCH_SIZE, dataIds.size()));
+            String placeholders = String.join(", ", Collections.nCopies(batchIds.size(), "?"));
+            applyDelta(negate(queryGroups(GROUP_SELECT + "WHERE id IN (" + placeholders + ") AND deleted = 0 " +
+                    "GROUP BY unit_name, created_by, template_id, created_month", batchIds.toArray())));
+        }
+    }
+
+    /**
+     * 从台账数据重建汇总表
+     * 持有锁行的排他锁：先等待已写入增量的事务提交（其数据计入重建结果），重建提交前新的增量等待；
+     * 读已提交隔离级别下 INSERT ... SELECT 不锁定台账数据，不会与等待锁行的数据变更事务死锁
+     */
+    public Map<String, Object> rebuild() {
+        // 使用事务模板：启动时在本类内部调用也在事务中执行
+        TransactionTemplate rebuildTransaction = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        rebuildTransaction.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+        return rebuildTransaction.execute(status -> doRebuild());
+    }
+
+    private Map<String, Object> doRebuild() {
+        long start = System.currentTimeMillis();
+        ensureLockRow();
+        jdbcTemplate.queryForList("SELECT id FROM ledger_stat_rollup WHERE " + LOCK_ROW_WHERE + " FOR UPDATE");
+        jdbcTemplate.update("DELETE FROM ledger_stat_rollup WHERE NOT (" + LOCK_ROW_WHERE + ")");
+        int rows = jdbcTemplate.update("INSERT INTO ledger_stat_rollup (unit_name, user_id, template_id, " +
+                "created_month, total_rows, valid_rows, invalid_rows, updated_time) " +
+                "SELECT unit_name, created_by, template_id, created_month, COUNT(*), " +
+                "SUM(validation_status = 'VALID'), SUM(validation_status = 'INVALID'), NOW() " +
+                "FROM ledger_data WHERE deleted = 0 GROUP BY unit_name, created_by, template_id, created_month");
+        long elapsed = System.currentTimeMillis() - start;
+        log.info("统计汇总表重建完成，汇总行数: {}，耗时 {} ms", rows, elapsed);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("rollupRows", rows);
+        result.put("elapsedMillis", elapsed);
+        return result;
+    }
+
+    /**
+     * 统计查询：指定单位时返回单位统计，否则返回全局统计
+     */
+    public Map<String, Object> getStatistics(String unitName) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+
+        if (StringUtils.hasText(unitName)) {
+            List<LedgerStatRollup> rows = ledgerStatRollupRepository.findByUnitName(unitName);
+            long[] total = new long[3];
+            for (LedgerStatRollup row : rows) {
+                add(total, row);
+            }
+            stats.put("unitName", unitName);
+            stats.put("totalRecords", total[0]);
+            stats.put("validRecords", total[1]);
+            stats.put("invalidRecords", total[2]);
+            stats.put("validRate", total[0] > 0 ? (double) total[1] / total[0] : 0);
+            stats.put("userStats", group(rows, row -> String.valueOf(row.getUserId())));
+            stats.put("templateStats", group(rows, row -> String.valueOf(row.getTemplateId())));
+            stats.put("monthStats", group(rows, row -> CreatedMonth.format(row.getCreatedMonth())));
+        } else {
+            List<LedgerStatRollup> rows = ledgerStatRollupRepository.findAllNonEmpty();
+            Map<String, Map<String, Long>> unitData = group(rows, LedgerStatRollup::getUnitName);
+
+            Map<String, Long> userData = new TreeMap<>();
+            for (LedgerStatRollup row : rows) {
+                userData.merge(String.valueOf(row.getUserId()), row.getTotalRows(), Long::sum);
+            }
+
+            stats.put("unitStats", unitData);
+            stats.put("totalUnits", unitData.size());
+            stats.put("userStats", userData);
+            stats.put("templateStats", group(rows, row -> String.valueOf(row.getTemplateId())));
+            stats.put("monthStats", group(rows, row -> CreatedMonth.format(row.getCreatedMonth())));
+        }
+
+        return stats;
+    }
+
+    private Map<String, Map<String, Long>> group(List<LedgerStatRollup> rows,
+                                                 Function<LedgerStatRollup, String> keyFunction) {
+        Map<String, long[]> totals = new TreeMap<>();
+        for (LedgerStatRollup row : rows) {
+            add(totals.computeIfAbsent(keyFunction.apply(row), key -> new long[3]), row);
+        }
+        Map<String, Map<String, Long>> result = new LinkedHashMap<>();
+        for (Map.Entry<String, long[]> entry : totals.entrySet()) {
+            Map<String, Long> stat = new LinkedHashMap<>();
+            stat.put("total", entry.getValue()[0]);
+            stat.put("valid", entry.getValue()[1]);
+            stat.put("invalid", entry.getValue()[2]);
+            result.put(entry.getKey(), stat);
+        }
+        return result;
+    }
+
+    private static void add(long[] counts, LedgerStatRollup row) {
+        counts[0] += row.getTotalRows();
+        counts[1] += row.getValidRows();
+        counts[2] += row.getInvalidRows();
+    }
+
+    private static Map<RollupKey, long[]> aggregate(Collection<LedgerData> dataList, int sign) {
+        Map<RollupKey, long[]> delta = new HashMap<>();
+        for (LedgerData data : dataList) {
+            long[] counts = delta.computeIfAbsent(RollupKey.of(data), key -> new long[3]);
+            counts[0] += sign;
+            addStatus(counts, data.getValidationStatus(), sign);
+        }
+        return delta;
+    }
+
+    private static void addStatus(long[] counts, String status, int sign) {
+        if ("VALID".equals(status)) {
+            counts[1] += sign;
+        } else if ("INVALID".equals(status)) {
+            counts[2] += sign;
+        }
+    }
+
+    private Map<RollupKey, long[]> queryGroups(String sql, Object... args) {
+        Map<RollupKey, long[]> groups = new HashMap<>();
+        jdbcTemplate.query(sql, rs -> {
+            RollupKey key = new RollupKey(rs.getString("unit_name"), rs.getLong("created_by"),
+                    rs.getLong("template_id"), rs.getInt("created_month"));
+            groups.put(key, new long[] {rs.getLong("total_rows"), rs.getLong("valid_rows"), rs.getLong("invalid_rows")});
+        }, args);
+        return groups;
+    }
+
+    private static Map<RollupKey, long[]> negate(Map<RollupKey, long[]> groups) {
+        for (long[] counts : groups.values()) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = -counts[i];
+            }
+        }
+        return groups;
+    }
+
+    private void applyDelta(Map<RollupKey, long[]> delta) {
+        List<Map.Entry<RollupKey, long[]>> entries = new ArrayList<>();
+        for (Map.Entry<RollupKey, long[]> entry : delta.entrySet()) {
+            long[] counts = entry.getValue();
+            if (counts[0] != 0 || counts[1] != 0 || counts[2] != 0) {
+                entries.add(entry);
+            }
+        }
+        if (entries.isEmpty()) {
+            return;
+        }
+        // 共享锁：增量之间互不阻塞，与重建互斥
+        jdbcTemplate.queryForList("SELECT id FROM ledger_stat_rollup WHERE " + LOCK_ROW_WHERE +
+                " LOCK IN SHARE MODE");
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        jdbcTemplate.batchUpdate(UPSERT_SQL, entries, entries.size(), (ps, entry) -> {
+            RollupKey key = entry.getKey();
+            ps.setString(1, key.unitName);
+            ps.setLong(2, key.userId);
+            ps.setLong(3, key.templateId);
+            ps.setInt(4, key.createdMonth);
+            ps.setLong(5, entry.getValue()[0]);
+            ps.setLong(6, entry.getValue()[1]);
+            ps.setLong(7, entry.getValue()[2]);
+            ps.setTimestamp(8, now);
+        });
+    }
+
+    /**
+     * 创建锁行（已存在时忽略）
+     */
+    private void ensureLockRow() {
+        jdbcTemplate.update("INSERT IGNORE INTO ledger_stat_rollup (unit_name, user_id, template_id, created_month, " +
+                "total_rows, valid_rows, invalid_rows, updated_time) VALUES ('', 0, 0, 0, 0, 0, 0, NOW())");
+    }
+
+    /**
+     * 汇总维度
+     */
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static class RollupKey {
+        private final String unitName;
+        private final long userId;
+        private final long templateId;
+        private final int createdMonth;
+
+        static RollupKey of(LedgerData data) {
+            LocalDate day = data.getCreatedTime() != null ? data.getCreatedTime().toLocalDate() : LocalDate.now();
+            return new RollupKey(data.getUnitName(), data.getCreatedBy(), data.getTemplateId(), CreatedMonth.of(day));
+        }
+    }
+}
@@ -33,6 +33,7 @@ public class LedgerTemplateService {
     private final LedgerTemplateRepository ledgerTemplateRepository;
     private final TemplateFieldRepository templateFieldRepository;
     private final LedgerDataRepository ledgerDataRepository;
+    private final TemplateMetadataCache templateMetadataCache;
 
     /**
      * 获取所有模板
@@ -112,6 +113,7 @@ public class LedgerTemplateService {
         template.setHasTemplateFile(false);
 
         LedgerTemplate savedTemplate = ledgerTemplateRepository.save(template);
+        templateMetadataCache.evict(savedTemplate.getId());
         log.info("创建模板成功: {}", savedTemplate.getUnitName());
 
         return convertToResponse(savedTemplate);
@@ -130,9 +132,15 @@ public class LedgerTemplateService {
         existingTemplate.setDescription(template.getDescription());
         existingTemplate.setVersion(template.getVersion());
         existingTemplate.setStatus(template.getStatus());
+        // 未传时保持原配置，传空字符串时清除
+        if (template.getBusinessKeyFields() != null) {
+            existingTemplate.setBusinessKeyFields(template.getBusinessKeyFields().trim().isEmpty()
+                    ? null : template.getBusinessKeyFields().trim());
+        }
         existingTemplate.setUpdatedTime(LocalDateTime.now());
 
         LedgerTemplate savedTemplate = ledgerTemplateRepository.save(existingTemplate);
+        templateMetadataCache.evict(savedTemplate.getId());
         log.info("更新模板成功: {}", savedTemplate.getUnitName());
 
         return convertToResponse(savedTemplate);
@@ -150,6 +158,7 @@ public class LedgerTemplateService {
         template.setUpdatedTime(LocalDateTime.now());
 
         ledgerTemplateRepository.save(template);
+        templateMetadataCache.evict(id);
         log.info("删除模板成功: {}", template.getUnitName());
     }
 
@@ -169,6 +178,7 @@ public class LedgerTemplateService {
         template.setUpdatedTime(LocalDateTime.now());
 
         ledgerTemplateRepository.save(template);
+        templateMetadataCache.evict(id);
         log.info("更新模板状态: {} -> {}", template.getUnitName(), status);
     }
 
@@ -221,6 +231,7 @@ public class LedgerTemplateService {
         response.setHeaderRowCount(template.getHeaderRowCount());
         response.setDataStartRow(template.getDataStartRow());
         response.setColumnCount(template.getColumnCount());
+        response.setBusinessKeyFields(template.getBusinessKeyFields());
 
         response.setCreatedTime(template.getCreatedTime());
         response.setUpdatedTime(template.getUpdatedTime());
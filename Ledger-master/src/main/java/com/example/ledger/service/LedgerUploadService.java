@@ -8,7 +8,10 @@ import com.example.ledger.dto.request.LedgerUploadRequest;
 import com.example.ledger.dto.response.LedgerUploadResponse;
 import com.example.ledger.entity.*;
 import com.example.ledger.repository.*;
+import com.example.ledger.util.ExcelStreamReader;
+import com.example.ledger.util.OrderedPipeline;
 import com.example.ledger.util.SecurityUtil;
+import com.example.ledger.util.TemplateRowPlan;
 import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -16,24 +19,19 @@ import org.apache.poi.ss.usermodel.*;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.*;
-import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 
-import org.springframework.scheduling.annotation.Async;
-
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Function;
-
 import org.apache.commons.io.IOUtils;
 
 @Service
@@ -42,25 +40,41 @@ import org.apache.commons.io.IOUtils;
 public class LedgerUploadService {
 
     private final LedgerTemplateRepository ledgerTemplateRepository;
-    private final TemplateFieldRepository templateFieldRepository;
     private final LedgerUploadRepository ledgerUploadRepository;
     private final LedgerDataRepository ledgerDataRepository;
     private final LedgerDataDetailRepository ledgerDataDetailRepository;
-    private final RequiredFieldConfigRepository requiredFieldConfigRepository;
+    private final LedgerDataJdbcRepository ledgerDataJdbcRepository;
+    private final LedgerRowStorageService ledgerRowStorageService;
+    private final TemplateMetadataCache templateMetadataCache;
     private final FileStorageService fileStorageService;
     private final SecurityUtil securityUtil;
-
-    @Qualifier("uploadTaskExecutor")
-    private final Executor uploadTaskExecutor;
+    private final UploadJobService uploadJobService;
+    private final TransactionTemplate transactionTemplate;
+    private final UploadScheduler uploadScheduler;
+    private final DbConcurrencyLimiter dbConcurrencyLimiter;
+    private final UploadDiffService uploadDiffService;
+    private final LedgerStatisticsService ledgerStatisticsService;
+    private final ColumnarSnapshotService columnarSnapshotService;
+    @Qualifier("uploadPipelineExecutor")
+    private final Executor uploadPipelineExecutor;
 
     @Value("${app.upload.batch-size:100}")
     private int batchSize;
 
+    // 每个上传同时执行的转换任务数（在共享的 uploadPipelineExecutor 上执行）：-1 按CPU核数自动计算，0 不开启（读取线程逐行处理）
+    @Value("${app.upload.pipeline.workers:-1}")
+    private int pipelineWorkers;
+
+    // 已读取但尚未写入的最大行数
+    @Value("${app.upload.pipeline.queue-size:1000}")
+    private int pipelineQueueSize;
+
     @Value("${app.upload.temp-dir:./temp}")
     private String tempDir;
 
-    // 存储上传进度
-    private final Map<Long, UploadProgress> uploadProgressMap = new ConcurrentHashMap<>();
+    // 校验必填项时，无法按字段类型转换的值是否标记为未通过验证（模板字段类型按表头推断，默认不标记）
+    @Value("${app.upload.validate-field-types:false}")
+    private boolean validateFieldTypes;
 
     // 使用DataFormatter来保持Excel中的原始格式
     private final DataFormatter dataFormatter = new DataFormatter();
@@ -95,6 +109,17 @@ public class LedgerUploadService {
             log.info("用户 {} 在单位 {} 已有 {} 条数据，将执行覆盖更新", userId, request.getUnitName(), existingDataCount);
         }
 
+        // 差异上传：解析业务主键字段（请求中未指定时使用模板配置）
+        String processMode = UploadDiffService.normalizeMode(request.getProcessMode());
+        boolean diffMode = UploadDiffService.MODE_DIFF.equals(processMode);
+        String businessKeyFields = null;
+        if (diffMode) {
+            String keyFields = request.getBusinessKeyFields() != null && !request.getBusinessKeyFields().trim().isEmpty()
+                    ? request.getBusinessKeyFields() : template.getBusinessKeyFields();
+            businessKeyFields = uploadDiffService.resolveKeyFields(keyFields,
+                    templateMetadataCache.getFields(template.getId()));
+        }
+
         // 4. 生成上传批次号
         String uploadNo = generateUploadNo();
 
@@ -106,34 +131,32 @@ public class LedgerUploadService {
 
         // 7. 创建初始上传记录
         LedgerUpload upload = createUploadRecord(request, template, userId, uploadIp, uploadNo, filePath);
+        upload.setProcessMode(processMode);
 
         // 保存并立即刷新
         upload = ledgerUploadRepository.save(upload);
         ledgerUploadRepository.flush(); // 强制刷新到数据库
 
-        log.info("上传记录已保存，ID: {}, UploadNo: {}, 临时文件: {}，将执行覆盖更新",
-                upload.getId(), upload.getUploadNo(), tempFilePath);
-
-        // 8. 初始化进度信息
-        UploadProgress progress = new UploadProgress(upload.getId());
-        uploadProgressMap.put(upload.getId(), progress);
-
-        // 9. 异步处理Excel数据 - 传递临时文件路径
-        final Long uploadId = upload.getId();
-        final Long templateId = template.getId();
-        final String finalTempFilePath = tempFilePath;  // 使用临时文件路径
-        final boolean validateRequiredFields = request.getValidateRequiredFields();
-        final boolean skipInvalidRows = request.getSkipInvalidRows();
-
-        CompletableFuture.runAsync(() -> {
-            try {
-                processExcelDataAsyncWrapper(uploadId, templateId, finalTempFilePath,
-                        validateRequiredFields, skipInvalidRows, true);  // 最后一个参数表示覆盖更新
-            } catch (Exception e) {
-                log.error("异步处理任务启动失败，上传ID: {}", uploadId, e);
-                updateUploadStatusOnError(uploadId, "异步处理启动失败: " + e.getMessage());
-            }
-        }, uploadTaskExecutor);
+        log.info("上传记录已保存，ID: {}, UploadNo: {}, 临时文件: {}，处理模式: {}",
+                upload.getId(), upload.getUploadNo(), tempFilePath, processMode);
+
+        // 8. 创建上传任务（状态、进度和断点持久化在任务表中，任意节点都可以查询和接管）
+        UploadJob job = uploadJobService.createJob(upload, tempFilePath,
+                request.getValidateRequiredFields(), request.getSkipInvalidRows(),
+                !diffMode, businessKeyFields);  // 差异上传之外都执行覆盖更新
+
+        // 9. 事务提交后再异步处理，保证处理线程能读到上传记录和任务
+        final UploadJob submittedJob = job;
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    submitJob(submittedJob);
+                }
+            });
+        } else {
+            submitJob(submittedJob);
+        }
 
         // 10. 返回初始响应
         return createInitialResponse(upload, template, existingDataCount);
@@ -166,76 +189,110 @@ public class LedgerUploadService {
     }
 
     /**
-     * 异步处理包装方法（支持覆盖更新）
+     * 检查上传队列容量，已满时抛出 UploadScheduler.UploadRejectedException（由接收上传的请求调用一次）
      */
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
-    public void processExcelDataAsyncWrapper(Long uploadId, Long templateId, String filePath,
-                                             boolean validateRequiredFields, boolean skipInvalidRows,
-                                             boolean replaceExisting) {
-        try {
-            log.info("开始异步处理，上传ID: {}, 文件路径: {}, 覆盖更新: {}", uploadId, filePath, replaceExisting);
+    public void checkUploadCapacity(String unitName) {
+        uploadScheduler.checkCapacity(unitName);
+    }
 
-            // 短暂等待，确保主事务已提交
-            Thread.sleep(100);
+    /**
+     * 上传调度统计
+     */
+    public Map<String, Object> getSchedulerStats() {
+        Map<String, Object> stats = uploadScheduler.getStats();
+        stats.put("db", dbConcurrencyLimiter.getStats());
+        return stats;
+    }
+
+    /**
+     * 提交上传任务到上传调度器（同一单位串行，单位之间轮转）
+     */
+    public void submitJob(UploadJob job) {
+        final Long jobId = job.getId();
+        uploadScheduler.submit(job.getUnitName(), job.getUserId(), jobId, () -> runUploadJob(jobId));
+    }
+
+    /**
+     * 执行上传任务：抢占租约后处理，重新调度的任务从最后提交的批次继续
+     */
+    public void runUploadJob(Long jobId) {
+        String token = uploadJobService.claim(jobId);
+        if (token == null) {
+            log.info("上传任务已由其他线程处理或已结束，任务ID: {}", jobId);
+            return;
+        }
 
-            // 重新从数据库获取对象
-            LedgerUpload upload = ledgerUploadRepository.findById(uploadId)
-                    .orElseThrow(() -> new RuntimeException("上传记录不存在: " + uploadId));
+        try {
+            UploadJob job = uploadJobService.findById(jobId)
+                    .orElseThrow(() -> new RuntimeException("上传任务不存在: " + jobId));
 
-            LedgerTemplate template = ledgerTemplateRepository.findById(templateId)
-                    .orElseThrow(() -> new RuntimeException("模板不存在: " + templateId));
+            try {
+                LedgerUpload upload = ledgerUploadRepository.findById(job.getUploadId())
+                        .orElseThrow(() -> new RuntimeException("上传记录不存在: " + job.getUploadId()));
 
-            log.info("获取到上传记录和模板，开始处理Excel");
+                LedgerTemplate template = ledgerTemplateRepository.findById(job.getTemplateId())
+                        .orElseThrow(() -> new RuntimeException("模板不存在: " + job.getTemplateId()));
 
-            // 调用实际的异步处理方法
-            processExcelDataAsync(upload, template, filePath, validateRequiredFields, skipInvalidRows, replaceExisting);
-        } catch (Exception e) {
-            log.error("异步处理包装方法异常，上传ID: {}", uploadId, e);
-            updateUploadStatusOnError(uploadId, e.getMessage());
+                if (job.getAttempts() > 1) {
+                    log.info("恢复上传任务，任务ID: {}，上传ID: {}，第 {} 次执行，从第 {} 行之后继续",
+                            jobId, job.getUploadId(), job.getAttempts(), job.getLastCommittedRow());
+                }
+
+                processUploadJob(job, token, upload, template);
+            } catch (Exception e) {
+                log.error("上传任务启动失败，任务ID: {}", jobId, e);
+                if (uploadJobService.finish(jobId, token, "FAILED", e.getMessage(), job.getTotalRows(),
+                        job.getProcessedRows(), job.getSuccessRows(), job.getFailedRows(), "处理失败")) {
+                    markUploadFailed(job.getUploadId(), "异步处理启动失败: " + e.getMessage());
+                }
+            }
+        } finally {
+            uploadJobService.release(jobId);
         }
     }
 
     /**
-     * 异步处理Excel数据（支持覆盖更新）
+     * 处理上传任务（支持覆盖更新和断点续传）
+     * 每个批次的数据与任务断点在同一事务中提交，中断后重新执行时跳过已提交的行；
+     * 覆盖更新的旧数据、差异上传的修改和删除在结束任务的事务中才执行，处理失败或中断时现有数据保持不变
      */
-    @Async("uploadTaskExecutor")
-    @Transactional
-    public void processExcelDataAsync(LedgerUpload upload, LedgerTemplate template, String filePath,
-                                      boolean validateRequiredFields, boolean skipInvalidRows,
-                                      boolean replaceExisting) {
-        log.info("开始异步处理Excel数据，上传ID: {}，单位: {}，文件路径: {}，覆盖更新: {}",
-                upload.getId(), template.getUnitName(), filePath, replaceExisting);
-
-        UploadProgress progress = uploadProgressMap.get(upload.getId());
-        if (progress == null) {
-            progress = new UploadProgress(upload.getId());
-            uploadProgressMap.put(upload.getId(), progress);
-        }
+    private void processUploadJob(UploadJob job, String token, LedgerUpload upload, LedgerTemplate template) {
+        boolean replaceExisting = job.getReplaceExisting();
+        boolean diffMode = UploadDiffService.MODE_DIFF.equals(job.getProcessMode());
+        String filePath = resolveJobFilePath(job, upload);
 
-        try {
-            // 1. 如果是覆盖更新，先删除用户在该单位的所有旧数据
-            if (replaceExisting) {
-                deleteExistingDataForUser(upload.getUserId(), template.getUnitName(), upload.getId());
-                updateProgress(progress, 0, 0, 0, "正在清理旧数据...");
-            }
+        log.info("开始处理Excel数据，上传ID: {}，单位: {}，文件路径: {}，处理模式: {}",
+                upload.getId(), template.getUnitName(), filePath, diffMode ? "差异上传" : "覆盖更新");
+
+        UploadProgress progress = new UploadProgress(job, token);
+        boolean finished = false;
 
-            // 2. 获取模板字段
-            List<TemplateField> templateFields = templateFieldRepository
-                    .findByTemplateIdAndDeletedFalse(template.getId());
+        try {
+            // 1. 获取模板字段（模板元数据缓存）
+            TemplateMetadataCache.TemplateMetadata metadata = templateMetadataCache.get(template.getId());
+            List<TemplateField> templateFields = metadata != null ? metadata.getFields() : Collections.emptyList();
 
             if (templateFields.isEmpty()) {
                 throw new RuntimeException("模板字段定义未配置，请先上传模板文件");
             }
 
-            // 3. 获取必填项配置
-            List<RequiredFieldConfig> requiredFields = requiredFieldConfigRepository
-                    .findByTemplateIdAndRequiredTrue(template.getId());
+            // 2. 获取必填项配置
+            List<RequiredFieldConfig> requiredFields = metadata.getRequiredConfigs();
+
+            // 差异上传：建立现有数据的业务主键索引
+            UploadDiffService.DiffSession diff = null;
+            if (diffMode) {
+                updateProgress(progress, 0, 0, 0, "正在加载现有数据...");
+                persistProgress(progress);
+                diff = dbConcurrencyLimiter.call(() ->
+                        uploadDiffService.open(upload, job.getBusinessKeyFields(), templateFields));
+            }
 
-            // 4. 解析Excel文件 - 使用文件路径
+            // 3. 解析Excel文件 - 使用文件路径
             parseExcelDataWithValidation(filePath, template, templateFields, requiredFields, upload,
-                    validateRequiredFields, skipInvalidRows, progress);
+                    job.getValidateRequiredFields(), job.getSkipInvalidRows(), progress, diff);
 
-            // 5. 更新上传状态
+            // 4. 更新上传状态
             if (upload.getTotalRows() > 0 && upload.getSuccessRows() > 0) {
                 if (upload.getFailedRows() > 0) {
                     upload.setImportStatus("PARTIAL_SUCCESS");
@@ -247,70 +304,137 @@ public class LedgerUploadService {
             }
 
             upload.setCompletedTime(LocalDateTime.now());
-            ledgerUploadRepository.save(upload);
+            if (replaceExisting) {
+                // 覆盖更新：删除旧数据（或丢弃失败上传已写入的数据），与结束任务在同一事务中提交
+                boolean failed = "FAILED".equals(upload.getImportStatus());
+                finishJob(progress, upload, () -> replaceExistingData(job, token, upload, failed), "处理完成");
+            } else if (diff != null && "FAILED".equals(upload.getImportStatus())) {
+                // 差异上传失败：丢弃已写入的新增行，暂存的修改和删除不再执行
+                finishJob(progress, upload, () -> discardUploadData(upload.getId(), upload.getUnitName()), "处理完成");
+            } else if (diff != null) {
+                // 差异上传：写入暂存的修改并删除文件中不再出现的行，与结束任务在同一事务中提交
+                UploadDiffService.DiffSession session = diff;
+                finishJob(progress, upload, () -> {
+                    uploadDiffService.applyChanges(session);
+                    uploadDiffService.deleteUnmatched(session);
+                    session.applyCounts(upload);
+                }, "处理完成，" + session.summary());
+                log.info("差异上传完成，上传ID: {}，{}", upload.getId(), session.summary());
+            } else {
+                finishJob(progress, upload, null, "处理完成");
+            }
+            finished = true;
 
-            progress.setStatus(upload.getImportStatus());
-            log.info("异步处理Excel数据完成，上传ID: {}，总行数: {}，成功行数: {}，失败行数: {}，覆盖更新: {}",
+            log.info("处理Excel数据完成，上传ID: {}，总行数: {}，成功行数: {}，失败行数: {}，处理模式: {}",
                     upload.getId(), upload.getTotalRows(), upload.getSuccessRows(),
-                    upload.getFailedRows(), replaceExisting);
+                    upload.getFailedRows(), diffMode ? "差异上传" : "覆盖更新");
 
+        } catch (UploadJobService.LeaseLostException e) {
+            // 任务已被取消或由其他节点接管，未提交的批次已回滚
+            log.warn("上传任务租约已失效，停止处理，任务ID: {}，上传ID: {}", job.getId(), upload.getId());
         } catch (Exception e) {
-            log.error("异步处理Excel数据异常，上传ID: {}", upload.getId(), e);
+            log.error("处理Excel数据异常，上传ID: {}", upload.getId(), e);
 
             // 更新上传状态
             upload.setImportStatus("FAILED");
             upload.setErrorMessage(e.getMessage());
             upload.setCompletedTime(LocalDateTime.now());
+            try {
+                Runnable discard = replaceExisting ? () -> replaceExistingData(job, token, upload, true)
+                        : diffMode ? () -> discardUploadData(upload.getId(), upload.getUnitName()) : null;
+                finishJob(progress, upload, discard, "处理失败");
+                finished = true;
+            } catch (UploadJobService.LeaseLostException lost) {
+                log.warn("上传任务租约已失效，不再更新状态，任务ID: {}", job.getId());
+            }
+        } finally {
+            // 任务结束后清理临时文件（中断的任务需要保留，供恢复执行使用）
+            if (finished && job.getTempFilePath() != null) {
+                cleanupTempFile(job.getTempFilePath());
+            }
+        }
+    }
+
+    /**
+     * 结束任务并保存上传记录（同一事务，任务已取消或被接管时不修改上传记录）
+     * beforeFinish 在同一事务中先执行（差异上传的删除），租约失效时一起回滚
+     */
+    private void finishJob(UploadProgress progress, LedgerUpload upload, Runnable beforeFinish,
+                           String currentProcessing) {
+        dbConcurrencyLimiter.run(() -> transactionTemplate.executeWithoutResult(status -> {
+            if (beforeFinish != null) {
+                beforeFinish.run();
+            }
+            boolean finished = uploadJobService.finish(progress.getJobId(), progress.getToken(),
+                    upload.getImportStatus(), upload.getErrorMessage(), upload.getTotalRows(),
+                    progress.getProcessedRows(), upload.getSuccessRows(), upload.getFailedRows(), currentProcessing);
+            if (!finished) {
+                throw new UploadJobService.LeaseLostException(progress.getJobId());
+            }
             ledgerUploadRepository.save(upload);
+        }));
+    }
 
-            progress.setStatus("FAILED");
-            progress.setErrorMessage(e.getMessage());
-        } finally {
-            // 清理临时文件
-            cleanupTempFile(filePath);
-            // 清理进度信息
-            scheduleProgressCleanup(upload.getId());
+    /**
+     * 任务使用的文件：优先临时文件，临时文件不在本节点时使用上传记录的永久文件
+     */
+    private String resolveJobFilePath(UploadJob job, LedgerUpload upload) {
+        if (job.getTempFilePath() != null && new File(job.getTempFilePath()).exists()) {
+            return job.getTempFilePath();
+        }
+        log.info("临时文件不存在，使用上传文件: {}", upload.getFilePath());
+        return upload.getFilePath();
+    }
+
+    /**
+     * 覆盖更新结束时替换数据，在结束任务的事务中调用（租约失效时一起回滚）
+     * 成功时删除本次上传之外的旧数据；失败时丢弃本次上传已写入的部分数据，旧数据保持不变。
+     * 处理期间旧数据和已提交的新批次同时可见；放弃的任务（超过重试次数）不经过这里，
+     * 其已写入的数据保留在失败的上传记录下，可通过删除上传记录清除
+     */
+    private void replaceExistingData(UploadJob job, String token, LedgerUpload upload, boolean failed) {
+        if (failed) {
+            discardUploadData(upload.getId(), upload.getUnitName());
+            return;
         }
+        deleteExistingDataForUser(upload.getUserId(), upload.getUnitName(), upload.getId());
+        uploadJobService.markCleanupDone(job.getId(), token);
     }
 
     /**
-     * 删除用户在某单位的现有数据（覆盖更新核心逻辑）
+     * 丢弃某次上传已写入的数据（覆盖更新失败时；差异上传失败时即已写入的新增行）
+     */
+    private void discardUploadData(Long uploadId, String unitName) {
+        ledgerStatisticsService.recordRemovedByUpload(uploadId);
+        columnarSnapshotService.invalidateUnit(unitName);
+        int deletedDetails = ledgerDataJdbcRepository.deleteDetailsByUpload(uploadId);
+        int deletedData = ledgerDataJdbcRepository.deleteDataByUpload(uploadId);
+        log.info("上传处理失败，已丢弃上传 {} 写入的 {} 条主数据、{} 条明细数据", uploadId, deletedData, deletedDetails);
+    }
+
+    /**
+     * 删除用户在某单位除本次上传外的现有数据（覆盖更新核心逻辑）
+     * 明细和主数据各用一条集合删除语句完成，不加载实体，在调用方（结束任务）的事务中与任务状态一起提交
      */
     @Transactional
     protected void deleteExistingDataForUser(Long userId, String unitName, Long newUploadId) {
         try {
             LocalDateTime now = LocalDateTime.now();
 
-            // 1. 查找用户在该单位的所有数据
-            List<LedgerData> existingData = ledgerDataRepository.findByUserIdAndUnitName(userId, unitName);
-            log.info("找到用户 {} 在单位 {} 的 {} 条待删除数据", userId, unitName, existingData.size());
-
-            if (existingData.isEmpty()) {
-                return;
-            }
+            // 1. 从统计汇总中扣除将被删除的数据
+            ledgerStatisticsService.recordRemovedByUserAndUnit(userId, unitName, newUploadId);
+            columnarSnapshotService.invalidateUnit(unitName);
 
-            // 2. 提取数据ID列表
-            List<Long> dataIds = existingData.stream()
-                    .map(LedgerData::getId)
-                    .collect(Collectors.toList());
-
-            // 3. 先删除明细数据（物理删除以提高性能）
-            int deletedDetails = 0;
-            int batchSize = 500;
-            for (int i = 0; i < dataIds.size(); i += batchSize) {
-                int end = Math.min(i + batchSize, dataIds.size());
-                List<Long> batchIds = dataIds.subList(i, end);
-                ledgerDataDetailRepository.deleteByDataIdIn(batchIds);
-                deletedDetails += batchIds.size();
-            }
+            // 2. 先删除明细数据（物理删除，子查询定位主数据）
+            int deletedDetails = ledgerDataJdbcRepository.deleteDetailsByUserAndUnit(userId, unitName, newUploadId);
             log.info("已删除 {} 条明细数据", deletedDetails);
 
-            // 4. 删除主数据（物理删除）
-            ledgerDataRepository.deleteAll(existingData);
-            log.info("已删除 {} 条主数据", existingData.size());
+            // 3. 删除主数据（物理删除）
+            int deletedData = ledgerDataJdbcRepository.deleteDataByUserAndUnit(userId, unitName, newUploadId);
+            log.info("已删除用户 {} 在单位 {} 的 {} 条主数据", userId, unitName, deletedData);
 
-            // 5. 标记旧的上传记录为已删除
-            int markedUploads = ledgerUploadRepository.markUploadsAsDeleted(userId, unitName, now);
+            // 4. 标记旧的上传记录为已删除
+            int markedUploads = ledgerUploadRepository.markUploadsAsDeleted(userId, unitName, newUploadId, now);
             log.info("已标记 {} 条旧上传记录为已删除", markedUploads);
 
         } catch (Exception e) {
@@ -320,396 +444,373 @@ public class LedgerUploadService {
     }
 
     /**
-     * 解析Excel数据（使用文件路径）- 自动检测文件格式
+     * 增强的Excel数据解析方法，包含必填项验证
+     * 使用流式读取，单次遍历，内存占用与文件大小无关
      */
-    private void parseExcelData(String filePath, LedgerTemplate template,
-                                List<TemplateField> templateFields,
-                                List<RequiredFieldConfig> requiredFields,
-                                LedgerUpload upload,
-                                boolean validateRequiredFields,
-                                boolean skipInvalidRows,
-                                UploadProgress progress) throws IOException {
+    private void parseExcelDataWithValidation(String filePath, LedgerTemplate template,
+                                              List<TemplateField> templateFields,
+                                              List<RequiredFieldConfig> requiredFields,
+                                              LedgerUpload upload,
+                                              boolean validateRequiredFields,
+                                              boolean skipInvalidRows,
+                                              UploadProgress progress,
+                                              UploadDiffService.DiffSession diff) throws IOException {
 
         File excelFile = new File(filePath);
         if (!excelFile.exists()) {
             throw new IOException("Excel文件不存在: " + filePath);
         }
 
-        Workbook workbook = null;
-
-        try (FileInputStream fis = new FileInputStream(excelFile)) {
-            // 使用WorkbookFactory自动检测文件格式（支持.xls和.xlsx）
-            workbook = WorkbookFactory.create(fis);
+        int dataStartRow = template.getDataStartRow() - 1;
 
-            Sheet sheet = workbook.getSheetAt(0);
-            int dataStartRow = template.getDataStartRow() - 1;
+        // 准备进度信息，总行数在读取到工作表维度后估算
+        updateProgress(progress, progress.getTotalRows(), progress.getSuccessRows(), progress.getFailedRows(),
+                "开始处理Excel数据...");
 
-            // 准备进度信息
-            progress.setTotalRows(0);  // 初始化为0，后面会计算
-
-            // 先统计总行数
-            int estimatedTotalRows = 0;
-            for (int rowNum = dataStartRow; rowNum <= sheet.getLastRowNum(); rowNum++) {
-                Row row = sheet.getRow(rowNum);
-                if (row != null && !isEmptyRow(row)) {
-                    estimatedTotalRows++;
-                }
-            }
-            progress.setTotalRows(estimatedTotalRows);
-            updateProgress(progress, estimatedTotalRows, 0, 0, "开始处理Excel数据...");
-
-            // 批量处理数据 - 使用LinkedHashMap保持顺序
-            Map<Integer, LedgerData> ledgerDataMap = new LinkedHashMap<>();
-            Map<Integer, List<LedgerDataDetail>> detailMap = new LinkedHashMap<>();
-
-            int processedRows = 0;
-            int successRows = 0;
-            int failedRows = 0;
-
-            // 创建字段映射 - 使用修复后的方法
-            Map<String, TemplateField> fieldMap = createFieldMap(templateFields);
-            Set<String> requiredFieldNames = getRequiredFieldNames(requiredFields);
-
-            // 处理每一行数据
-            for (int rowNum = dataStartRow; rowNum <= sheet.getLastRowNum(); rowNum++) {
-                Row row = sheet.getRow(rowNum);
-                if (row == null || isEmptyRow(row)) {
-                    continue;
-                }
-
-                processedRows++;
-
-                try {
-                    // 计算Excel中的行号（从1开始）
-                    int excelRowNum = rowNum + 1;
-
-                    // 计算台账数据中的行号（从数据起始行开始计算）
-                    int dataRowNumber = excelRowNum - template.getDataStartRow() + 1;
+        StreamingRowProcessor processor = new StreamingRowProcessor(template, templateFields, requiredFields,
+                upload, validateRequiredFields, skipInvalidRows, progress, diff);
+        try {
+            ExcelStreamReader.read(excelFile, dataStartRow, processor);
 
-                    log.debug("处理第{}行，台账行号: {}", excelRowNum, dataRowNumber);
+            // 等待并行处理完成并保存剩余数据
+            processor.finish();
+        } finally {
+            processor.close();
+        }
 
-                    // 创建台账数据
-                    LedgerData ledgerData = createLedgerData(row, template, upload, rowNum, dataRowNumber);
+        int totalRows = processor.processedRows;
+        int successRows = processor.successRows;
+        int failedRows = processor.failedRows;
 
-                    // 创建字段详情
-                    List<LedgerDataDetail> details = createLedgerDataDetails(
-                            row, fieldMap, requiredFieldNames, dataRowNumber,
-                            validateRequiredFields, upload.getUserId()
-                    );
+        // 最终更新数据库
+        upload.setTotalRows(totalRows);
+        upload.setSuccessRows(successRows);
+        upload.setFailedRows(failedRows);
 
-                    // 使用行号作为key，保持顺序
-                    ledgerDataMap.put(dataRowNumber, ledgerData);
-                    detailMap.put(dataRowNumber, details);
+        // 根据处理结果设置状态
+        if (failedRows > 0 && successRows == 0) {
+            upload.setImportStatus("FAILED");
+            upload.setErrorMessage("所有行处理失败");
+        } else if (failedRows > 0) {
+            upload.setImportStatus("PARTIAL_SUCCESS");
+            upload.setErrorMessage("部分行处理失败，失败" + failedRows + "行");
+        } else {
+            upload.setImportStatus("SUCCESS");
+        }
 
-                    successRows++;
+        // 更新最终进度
+        updateProgress(progress, totalRows, successRows, failedRows, "处理完成");
+        log.info("Excel数据写入完成，上传ID: {}，成功行数: {}，写入速率: {} 行/秒",
+                upload.getId(), successRows, progress.getRowsPerSecond());
+    }
 
-                    // 达到批处理大小时保存
-                    if (ledgerDataMap.size() >= batchSize) {
-                        saveBatchDataInOrder(ledgerDataMap, detailMap, template.getUnitName());
-                        ledgerDataMap.clear();
-                        detailMap.clear();
+    /**
+     * 流式行处理器 - 逐行验证并按批次写入
+     * 开启并行处理时：读取线程解析单元格，多个线程并行验证和转换，写入线程按行号顺序分批提交
+     */
+    private class StreamingRowProcessor implements ExcelStreamReader.RowHandler, AutoCloseable {
+
+        private final LedgerTemplate template;
+        private final LedgerUpload upload;
+        private final boolean validateRequiredFields;
+        private final boolean skipInvalidRows;
+        private final UploadProgress progress;
+        // 按模板编译的行解析计划
+        private final TemplateRowPlan rowPlan;
+
+        // 批量处理数据 - 使用LinkedHashMap保持顺序
+        private final Map<Integer, LedgerData> ledgerDataMap = new LinkedHashMap<>();
+        private final Map<Integer, List<LedgerDataDetail>> detailMap = new LinkedHashMap<>();
+        // 差异上传：行号 -> 业务主键
+        private final Map<Integer, String> keyMap = new HashMap<>();
+        private final UploadDiffService.DiffSession diff;
+
+        // 写入速率统计
+        private final long startNanos = System.nanoTime();
+
+        // 断点：该行号及之前的行已在之前的执行中提交
+        private final int resumeAfterRow;
+        private final int initialSuccessRows;
+        private int lastHandledRow;
+        private int committedRow;
+
+        private int estimatedTotalRows;
+        private int processedRows;
+        private int successRows;
+        private int failedRows;
 
-                        // 更新进度
-                        updateProgress(progress, estimatedTotalRows, successRows, failedRows,
-                                String.format("处理中... 已处理 %d/%d 行", processedRows, estimatedTotalRows));
-                    }
+        // 并行处理管道，未开启时为null（在读取线程中逐行处理）
+        private final OrderedPipeline<RowInput, RowResult> pipeline;
+
+        StreamingRowProcessor(LedgerTemplate template, List<TemplateField> templateFields,
+                              List<RequiredFieldConfig> requiredFields, LedgerUpload upload,
+                              boolean validateRequiredFields, boolean skipInvalidRows,
+                              UploadProgress progress, UploadDiffService.DiffSession diff) {
+            this.template = template;
+            this.upload = upload;
+            this.validateRequiredFields = validateRequiredFields;
+            this.skipInvalidRows = skipInvalidRows;
+            this.progress = progress;
+            this.rowPlan = TemplateRowPlan.compile(templateFields, requiredFields, validateFieldTypes);
+            this.diff = diff;
+            // 从任务断点恢复计数；差异上传需要完整的业务主键集合，恢复时从头比对（之前已写入的新增行比对结果为未变化）
+            this.resumeAfterRow = diff != null ? 0 : progress.getLastCommittedRow();
+            this.lastHandledRow = resumeAfterRow;
+            this.committedRow = resumeAfterRow;
+            this.processedRows = diff != null ? 0 : progress.getProcessedRows();
+            this.successRows = diff != null ? 0 : progress.getSuccessRows();
+            this.failedRows = diff != null ? 0 : progress.getFailedRows();
+            this.initialSuccessRows = successRows;
+
+            int workers = resolvePipelineWorkers();
+            this.pipeline = workers > 0
+                    ? new OrderedPipeline<>(uploadPipelineExecutor, "upload-writer-", workers, pipelineQueueSize,
+                            this::convertRow, this::applyRow)
+                    : null;
+        }
 
-                } catch (Exception e) {
-                    failedRows++;
-                    log.warn("第 {} 行处理失败: {}", rowNum + 1, e.getMessage());
-                    log.error("详细错误信息:", e);
+        @Override
+        public void onDimension(int lastRowIndex) {
+            estimatedTotalRows = Math.max(lastRowIndex - (template.getDataStartRow() - 1) + 1, 0);
+            updateProgress(progress, estimatedTotalRows, successRows, failedRows,
+                    resumeAfterRow > 0 ? "从第" + resumeAfterRow + "行之后继续处理..." : "开始处理Excel数据...");
+            persistProgress(progress);
+        }
 
-                    if (!skipInvalidRows) {
-                        throw new RuntimeException("第" + (rowNum + 1) + "行处理失败: " + e.getMessage(), e);
-                    }
-                }
+        @Override
+        public void handleRow(int rowNum, Map<Integer, String> cellValues) {
+            // 计算Excel中的行号（从1开始）
+            int excelRowNum = rowNum + 1;
+            int dataRowNumber = excelRowNum - template.getDataStartRow() + 1;
 
-                // 每处理100行更新一次数据库状态
-                if (processedRows % 100 == 0) {
-                    upload.setTotalRows(estimatedTotalRows);
-                    upload.setSuccessRows(successRows);
-                    upload.setFailedRows(failedRows);
-                    ledgerUploadRepository.save(upload);
-                }
+            // 断点之前的行已提交，恢复执行时跳过
+            if (dataRowNumber <= resumeAfterRow) {
+                return;
             }
 
-            // 保存剩余数据
-            if (!ledgerDataMap.isEmpty()) {
-                saveBatchDataInOrder(ledgerDataMap, detailMap, template.getUnitName());
+            if (isEmptyRow(cellValues)) {
+                return;
             }
 
-            // 最终更新数据库
-            upload.setTotalRows(estimatedTotalRows);
-            upload.setSuccessRows(successRows);
-            upload.setFailedRows(failedRows);
-
-            // 根据处理结果设置状态
-            if (failedRows > 0 && successRows == 0) {
-                upload.setImportStatus("FAILED");
-                upload.setErrorMessage("所有行处理失败");
-            } else if (failedRows > 0) {
-                upload.setImportStatus("PARTIAL_SUCCESS");
-                upload.setErrorMessage("部分行处理失败，失败" + failedRows + "行");
+            if (pipeline != null) {
+                pipeline.submit(new RowInput(rowNum, cellValues));
+            } else {
+                applyRow(convertRow(new RowInput(rowNum, cellValues)));
             }
+        }
 
-            ledgerUploadRepository.save(upload);
-
-            // 更新最终进度
-            updateProgress(progress, estimatedTotalRows, successRows, failedRows, "处理完成");
+        /**
+         * 读取结束：等待管道中的行全部写入，再保存剩余数据
+         */
+        void finish() {
+            if (pipeline != null) {
+                pipeline.finish();
+            }
+            flush();
+        }
 
-        } finally {
-            // 确保Workbook被关闭
-            if (workbook != null) {
-                try {
-                    workbook.close();
-                } catch (IOException e) {
-                    log.warn("关闭Workbook时出错", e);
-                }
+        @Override
+        public void close() {
+            if (pipeline != null) {
+                pipeline.close();
             }
         }
-    }
 
-    /**
-     * 增强的Excel数据解析方法，包含必填项验证
-     */
-    private void parseExcelDataWithValidation(String filePath, LedgerTemplate template,
-                                              List<TemplateField> templateFields,
-                                              List<RequiredFieldConfig> requiredFields,
-                                              LedgerUpload upload,
-                                              boolean validateRequiredFields,
-                                              boolean skipInvalidRows,
-                                              UploadProgress progress) throws IOException {
+        /**
+         * 验证并转换一行（并行执行，只读取共享的模板和配置）
+         */
+        private RowResult convertRow(RowInput input) {
+            int excelRowNum = input.rowNum + 1;
+            int dataRowNumber = excelRowNum - template.getDataStartRow() + 1;
+            RowResult result = new RowResult(excelRowNum, dataRowNumber);
+            if (diff != null) {
+                result.businessKey = diff.extractKey(input.cellValues);
+            }
 
-        File excelFile = new File(filePath);
-        if (!excelFile.exists()) {
-            throw new IOException("Excel文件不存在: " + filePath);
-        }
+            try {
+                log.debug("处理第{}行，台账行号: {}", excelRowNum, dataRowNumber);
 
-        Workbook workbook = null;
+                // 验证必填项
+                if (validateRequiredFields) {
+                    result.validationErrors = rowPlan.validateRequired(input.cellValues, excelRowNum);
+                    if (!result.validationErrors.isEmpty()) {
+                        return result;
+                    }
+                }
 
-        try (FileInputStream fis = new FileInputStream(excelFile)) {
-            workbook = WorkbookFactory.create(fis);
-            Sheet sheet = workbook.getSheetAt(0);
-            int dataStartRow = template.getDataStartRow() - 1;
+                // 创建台账数据
+                result.ledgerData = createLedgerData(template, upload, dataRowNumber);
 
-            // 准备进度信息
-            progress.setTotalRows(0);
+                // 创建字段详情
+                result.details = rowPlan.createDetails(input.cellValues, dataRowNumber, validateRequiredFields);
+                if (validateRequiredFields && rowPlan.hasChecks() && hasInvalidDetail(result.details)) {
+                    result.ledgerData.setValidationStatus("INVALID");
+                }
 
-            // 先统计总行数
-            int estimatedTotalRows = 0;
-            for (int rowNum = dataStartRow; rowNum <= sheet.getLastRowNum(); rowNum++) {
-                Row row = sheet.getRow(rowNum);
-                if (row != null && !isEmptyRow(row)) {
-                    estimatedTotalRows++;
+                // 紧凑存储模式下同时打包整行字段值
+                if (ledgerRowStorageService.isPackedMode()) {
+                    result.ledgerData.setPackedValues(ledgerRowStorageService.pack(result.details));
                 }
+            } catch (Exception e) {
+                result.error = e;
             }
-            progress.setTotalRows(estimatedTotalRows);
-            updateProgress(progress, estimatedTotalRows, 0, 0, "开始处理Excel数据...");
-
-            // 批量处理数据
-            Map<Integer, LedgerData> ledgerDataMap = new LinkedHashMap<>();
-            Map<Integer, List<LedgerDataDetail>> detailMap = new LinkedHashMap<>();
-
-            int processedRows = 0;
-            int successRows = 0;
-            int failedRows = 0;
+            return result;
+        }
 
-            // 创建字段映射 - 使用修复后的方法
-            Map<String, TemplateField> fieldMap = createFieldMap(templateFields);
-            Set<String> requiredFieldNames = getRequiredFieldNames(requiredFields);
+        /**
+         * 按行号顺序计数并加入批次（写入阶段，单线程执行）
+         */
+        private void applyRow(RowResult result) {
+            int excelRowNum = result.excelRowNum;
+            int dataRowNumber = result.dataRowNumber;
 
-            // 记录详细的验证错误
-            List<String> validationErrors = new ArrayList<>();
+            processedRows++;
+            lastHandledRow = dataRowNumber;
 
-            // 处理每一行数据
-            for (int rowNum = dataStartRow; rowNum <= sheet.getLastRowNum(); rowNum++) {
-                Row row = sheet.getRow(rowNum);
-                if (row == null || isEmptyRow(row)) {
-                    continue;
+            try {
+                if (result.error != null) {
+                    throw result.error;
                 }
 
-                processedRows++;
-
-                try {
-                    // 计算Excel中的行号（从1开始）
-                    int excelRowNum = rowNum + 1;
-                    int dataRowNumber = excelRowNum - template.getDataStartRow() + 1;
-
-                    log.debug("处理第{}行，台账行号: {}", excelRowNum, dataRowNumber);
-
-                    // 验证必填项
-                    if (validateRequiredFields) {
-                        List<String> rowValidationErrors = validateRowRequiredFields(
-                                row, fieldMap, requiredFieldNames, requiredFields, excelRowNum);
-
-                        if (!rowValidationErrors.isEmpty()) {
-                            // 记录验证错误
-                            validationErrors.addAll(rowValidationErrors);
-
-                            // 严格模式：只要有一行验证失败，整个文件就失败
-                            if (!skipInvalidRows) {
-                                // 直接抛出异常，停止处理
-                                throw new RuntimeException("第" + excelRowNum + "行必填项验证失败: " +
-                                        String.join("; ", rowValidationErrors));
-                            } else {
-                                // 跳过无效行模式
-                                failedRows++;
-                                log.warn("第{}行必填项验证失败，已跳过: {}", excelRowNum, rowValidationErrors);
-                                continue;
-                            }
-                        }
+                if (result.validationErrors != null && !result.validationErrors.isEmpty()) {
+                    // 严格模式：只要有一行验证失败，整个文件就失败
+                    if (!skipInvalidRows) {
+                        throw new RuntimeException("第" + excelRowNum + "行必填项验证失败: " +
+                                String.join("; ", result.validationErrors));
                     }
+                    // 跳过无效行模式
+                    failedRows++;
+                    retainKey(result);
+                    log.warn("第{}行必填项验证失败，已跳过: {}", excelRowNum, result.validationErrors);
+                    return;
+                }
 
-                    // 创建台账数据
-                    LedgerData ledgerData = createLedgerData(row, template, upload, rowNum, dataRowNumber);
-
-                    // 创建字段详情
-                    List<LedgerDataDetail> details = createLedgerDataDetails(
-                            row, fieldMap, requiredFieldNames, dataRowNumber,
-                            validateRequiredFields, upload.getUserId()
-                    );
-
-                    // 使用行号作为key，保持顺序
-                    ledgerDataMap.put(dataRowNumber, ledgerData);
-                    detailMap.put(dataRowNumber, details);
-
-                    successRows++;
+                // 差异上传：业务主键为空或在文件中重复时按行失败处理
+                if (diff != null) {
+                    diff.register(result.businessKey);
+                    keyMap.put(dataRowNumber, result.businessKey);
+                }
 
-                    // 达到批处理大小时保存
-                    if (ledgerDataMap.size() >= batchSize) {
-                        saveBatchDataInOrder(ledgerDataMap, detailMap, template.getUnitName());
-                        ledgerDataMap.clear();
-                        detailMap.clear();
+                // 使用行号作为key，保持顺序
+                ledgerDataMap.put(dataRowNumber, result.ledgerData);
+                detailMap.put(dataRowNumber, result.details);
 
-                        updateProgress(progress, estimatedTotalRows, successRows, failedRows,
-                                String.format("处理中... 已处理 %d/%d 行", processedRows, estimatedTotalRows));
-                    }
+                successRows++;
 
-                } catch (Exception e) {
-                    failedRows++;
-                    log.warn("第{}行处理失败: {}", rowNum + 1, e.getMessage());
-
-                    // 如果是因为必填项验证失败，则添加到错误信息
-                    if (e.getMessage().contains("必填项验证失败")) {
-                        validationErrors.add(e.getMessage());
-                    }
+            } catch (Exception e) {
+                failedRows++;
+                retainKey(result);
+                log.warn("第{}行处理失败: {}", excelRowNum, e.getMessage());
 
-                    // 严格模式：有错误就停止
-                    if (!skipInvalidRows) {
-                        throw new RuntimeException("第" + (rowNum + 1) + "行处理失败: " + e.getMessage(), e);
-                    }
+                // 严格模式：有错误就停止
+                if (!skipInvalidRows) {
+                    throw new RuntimeException("第" + excelRowNum + "行处理失败: " + e.getMessage(), e);
                 }
+                return;
+            }
 
-                // 每处理100行更新一次数据库状态
-                if (processedRows % 100 == 0) {
-                    upload.setTotalRows(estimatedTotalRows);
-                    upload.setSuccessRows(successRows);
-                    upload.setFailedRows(failedRows);
-                    ledgerUploadRepository.save(upload);
-                }
+            // 达到批处理大小时保存（写入失败或租约丢失时终止处理，不按行失败计数）
+            if (ledgerDataMap.size() >= batchSize) {
+                flush();
             }
+        }
 
-            // 保存剩余数据
-            if (!ledgerDataMap.isEmpty()) {
-                saveBatchDataInOrder(ledgerDataMap, detailMap, template.getUnitName());
+        /**
+         * 差异上传：处理失败的行保留对应的现有数据，不当作删除
+         */
+        private void retainKey(RowResult result) {
+            if (diff != null) {
+                diff.retain(result.businessKey);
             }
+        }
 
-            // 最终更新数据库
-            upload.setTotalRows(estimatedTotalRows);
-            upload.setSuccessRows(successRows);
-            upload.setFailedRows(failedRows);
+        /**
+         * 保存当前批次的数据，批次数据和任务断点在同一事务中提交
+         */
+        void flush() {
+            if (ledgerDataMap.isEmpty() && lastHandledRow <= committedRow) {
+                return;
+            }
 
-            // 根据处理结果设置状态
-            if (failedRows > 0 && successRows == 0) {
-                upload.setImportStatus("FAILED");
-                upload.setErrorMessage("所有行处理失败");
-            } else if (failedRows > 0) {
-                upload.setImportStatus("PARTIAL_SUCCESS");
-                upload.setErrorMessage("部分行处理失败，失败" + failedRows + "行");
-            } else {
-                upload.setImportStatus("SUCCESS");
+            double elapsedSeconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+            if (elapsedSeconds > 0) {
+                progress.setRowsPerSecond((int) ((successRows - initialSuccessRows) / elapsedSeconds));
             }
 
-            ledgerUploadRepository.save(upload);
+            int totalRows = Math.max(estimatedTotalRows, processedRows);
+            String currentProcessing = String.format("处理中... 已处理 %d/%d 行，%d 行/秒",
+                    processedRows, totalRows, progress.getRowsPerSecond());
+            int checkpointRow = lastHandledRow;
+
+            // 批次写入在后台数据库并发许可内执行，解析期间不占用许可
+            dbConcurrencyLimiter.run(() -> transactionTemplate.executeWithoutResult(status -> {
+                if (diff != null) {
+                    // 差异上传：只插入新增行（失败时按上传ID丢弃），修改的行暂存到结束任务时按单元格更新
+                    UploadDiffService.DiffBatch batch = uploadDiffService.classify(diff, ledgerDataMap, detailMap, keyMap);
+                    saveBatchDataInOrder(batch.getInsertData(), batch.getInsertDetails(), template.getUnitName());
+                    uploadDiffService.stage(diff, batch);
+                } else {
+                    saveBatchDataInOrder(ledgerDataMap, detailMap, template.getUnitName());
+                }
+                uploadJobService.checkpoint(progress.getJobId(), progress.getToken(), checkpointRow, totalRows,
+                        processedRows, successRows, failedRows, progress.getRowsPerSecond(), currentProcessing);
+            }));
 
-            // 更新最终进度
-            updateProgress(progress, estimatedTotalRows, successRows, failedRows, "处理完成");
+            committedRow = checkpointRow;
+            ledgerDataMap.clear();
+            detailMap.clear();
+            keyMap.clear();
 
-        } finally {
-            if (workbook != null) {
-                try {
-                    workbook.close();
-                } catch (IOException e) {
-                    log.warn("关闭Workbook时出错", e);
-                }
-            }
+            progress.setProcessedRows(processedRows);
+            updateProgress(progress, totalRows, successRows, failedRows, currentProcessing);
         }
     }
 
     /**
-     * 创建字段映射 - 修复重复列名问题
-     * 使用 字段标签+列索引 作为唯一键，避免重复键问题
+     * 每个上传的并行转换任务数，单核时不开启
      */
-    private Map<String, TemplateField> createFieldMap(List<TemplateField> templateFields) {
-        return templateFields.stream()
-                .filter(field -> field.getFieldLabel() != null && !field.getFieldLabel().trim().isEmpty())
-                .collect(Collectors.toMap(
-                        // 使用字段标签+列字母作为复合键
-                        field -> field.getFieldLabel() + "_" + field.getExcelColumn(),
-                        Function.identity(),
-                        // 如果真有完全相同的键，保留第一个
-                        (f1, f2) -> {
-                            log.warn("发现重复的字段标签+列组合: {}_{}, 保留第一个",
-                                    f1.getFieldLabel(), f1.getExcelColumn());
-                            return f1;
-                        }
-                ));
+    private int resolvePipelineWorkers() {
+        if (pipelineWorkers >= 0) {
+            return pipelineWorkers;
+        }
+        int processors = Runtime.getRuntime().availableProcessors();
+        return processors > 1 ? Math.min(processors - 1, 4) : 0;
     }
 
     /**
-     * 按列索引顺序获取字段列表
+     * 读取阶段输出的一行
      */
-    private List<TemplateField> getFieldsByColumnIndex(Map<String, TemplateField> fieldMap) {
-        return fieldMap.values().stream()
-                .sorted(Comparator.comparing(TemplateField::getSortOrder))
-                .collect(Collectors.toList());
+    private static class RowInput {
+        private final int rowNum;
+        private final Map<Integer, String> cellValues;
+
+        RowInput(int rowNum, Map<Integer, String> cellValues) {
+            this.rowNum = rowNum;
+            this.cellValues = cellValues;
+        }
     }
 
     /**
-     * 验证行的必填项 - 修复重复列名问题
+     * 验证转换阶段输出的一行
      */
-    private List<String> validateRowRequiredFields(Row row, Map<String, TemplateField> fieldMap,
-                                                   Set<String> requiredFieldNames,
-                                                   List<RequiredFieldConfig> requiredFields,
-                                                   int excelRowNum) {
-        List<String> errors = new ArrayList<>();
-
-        // 通过模板字段列表直接遍历，而不是通过fieldMap
-        for (TemplateField field : getFieldsByColumnIndex(fieldMap)) {
-            int colIndex = excelColumnToIndex(field.getExcelColumn());
-            Cell cell = row.getCell(colIndex);
-            String cellValue = getCellValue(cell);
-
-            // 检查是否为必填项
-            if (requiredFieldNames.contains(field.getFieldName())) {
-                if (cellValue == null || cellValue.trim().isEmpty()) {
-                    // 获取必填项的自定义提示信息
-                    String requiredMessage = requiredFields.stream()
-                            .filter(config -> config.getFieldName().equals(field.getFieldName()))
-                            .map(RequiredFieldConfig::getRequiredMessage)
-                            .findFirst()
-                            .orElse(field.getFieldLabel() + "为必填项");
-
-                    errors.add("第" + excelRowNum + "行，" + field.getFieldLabel() + ": " + requiredMessage);
-                }
-            }
+    private static class RowResult {
+        private final int excelRowNum;
+        private final int dataRowNumber;
+        private List<String> validationErrors;
+        private LedgerData ledgerData;
+        private List<LedgerDataDetail> details;
+        private Exception error;
+        // 差异上传的业务主键
+        private String businessKey;
+
+        RowResult(int excelRowNum, int dataRowNumber) {
+            this.excelRowNum = excelRowNum;
+            this.dataRowNumber = dataRowNumber;
         }
-
-        return errors;
     }
 
     /**
-     * 按顺序批量保存数据
+     * 按顺序批量保存数据 - 主表和明细表均使用多行INSERT
      */
     @Transactional
     protected void saveBatchDataInOrder(Map<Integer, LedgerData> ledgerDataMap,
@@ -720,81 +821,36 @@ public class LedgerUploadService {
         }
 
         try {
-            // 1. 按顺序提取LedgerData
+            // 1. 按顺序批量插入LedgerData，插入后按顺序回填ID
             List<LedgerData> ledgerDataList = new ArrayList<>(ledgerDataMap.values());
+            ledgerDataJdbcRepository.batchInsertData(ledgerDataList);
+            ledgerStatisticsService.recordAdded(ledgerDataList);
+            columnarSnapshotService.markChanged(ledgerDataList);
+            log.debug("批量保存LedgerData成功，单位: {}，数量: {}", unitName, ledgerDataList.size());
 
-            // 2. 批量保存LedgerData - 单条插入以确保顺序
-            List<LedgerData> savedLedgerData = new ArrayList<>();
-            for (LedgerData data : ledgerDataList) {
-                LedgerData savedData = ledgerDataRepository.save(data);
-                savedLedgerData.add(savedData);
-            }
-            log.info("批量保存LedgerData成功，单位: {}，数量: {}", unitName, savedLedgerData.size());
-
-            // 3. 建立行号到实际ID的映射
-            Map<Integer, Long> rowNumberToIdMap = new HashMap<>();
-            for (LedgerData savedData : savedLedgerData) {
-                rowNumberToIdMap.put(savedData.getRowNumber(), savedData.getId());
-            }
-
-            // 4. 收集所有明细数据
+            // 2. 按行号顺序收集明细数据，并关联实际的dataId
             List<LedgerDataDetail> allDetails = new ArrayList<>();
             LocalDateTime now = LocalDateTime.now();
 
-            // 5. 按行号顺序处理明细数据
             for (Map.Entry<Integer, List<LedgerDataDetail>> entry : detailMap.entrySet()) {
-                Integer rowNumber = entry.getKey();
-                Long dataId = rowNumberToIdMap.get(rowNumber);
-
-                if (dataId == null) {
-                    log.warn("找不到对应的dataId，行号: {}", rowNumber);
+                LedgerData data = ledgerDataMap.get(entry.getKey());
+                if (data == null || data.getId() == null) {
+                    log.warn("找不到对应的dataId，行号: {}", entry.getKey());
                     continue;
                 }
 
-                List<LedgerDataDetail> details = entry.getValue();
-                for (LedgerDataDetail detail : details) {
-                    LedgerDataDetail newDetail = new LedgerDataDetail();
-                    newDetail.setDataId(dataId);
-
-                    // 关键修改：使用 字段名_列字母 作为存储的字段名，避免重复字段名导致的唯一约束冲突
-                    // 例如："计量单位_T" 和 "计量单位_AH"
-                    String storedFieldName = detail.getFieldName();
-                    if (detail.getFieldName() != null && detail.getFieldName().contains("_")) {
-                        // 如果已经是复合格式，保持原样
-                        storedFieldName = detail.getFieldName();
-                    } else {
-                        // 从原始值中提取列信息，或者使用默认
-                        // 这里需要从原始数据中获取列字母，但当前设计无法获取
-                        // 所以我们使用另一种方式：在创建明细时直接设置复合字段名
-                        // 这需要在 createLedgerDataDetails 方法中实现
-                    }
-
-                    // 暂时使用原字段名，会在 createLedgerDataDetails 中修复
-                    newDetail.setFieldName(detail.getFieldName());
-
-                    newDetail.setFieldValue(detail.getFieldValue());
-                    newDetail.setOriginalValue(detail.getOriginalValue());
-                    newDetail.setIsEmpty(detail.getIsEmpty());
-                    newDetail.setIsValid(detail.getIsValid());
-                    newDetail.setValidationMessage(detail.getValidationMessage());
-                    newDetail.setSortOrder(detail.getSortOrder());
-                    newDetail.setCreatedTime(now);
-                    newDetail.setUpdatedTime(now);
-
-                    allDetails.add(newDetail);
+                for (LedgerDataDetail detail : entry.getValue()) {
+                    detail.setDataId(data.getId());
+                    detail.setCreatedTime(now);
+                    detail.setUpdatedTime(now);
+                    allDetails.add(detail);
                 }
             }
 
-            // 6. 批量保存LedgerDataDetail
+            // 3. 批量插入LedgerDataDetail
             if (!allDetails.isEmpty()) {
-                // 分批保存明细数据，避免一次插入过多
-                int detailBatchSize = 500;
-                for (int i = 0; i < allDetails.size(); i += detailBatchSize) {
-                    int end = Math.min(i + detailBatchSize, allDetails.size());
-                    List<LedgerDataDetail> batch = allDetails.subList(i, end);
-                    ledgerDataDetailRepository.saveAll(batch);
-                }
-                log.info("批量保存LedgerDataDetail成功，单位: {}，数量: {}", unitName, allDetails.size());
+                ledgerDataJdbcRepository.batchInsertDetails(allDetails);
+                log.debug("批量保存LedgerDataDetail成功，单位: {}，数量: {}", unitName, allDetails.size());
             }
 
         } catch (Exception e) {
@@ -820,6 +876,14 @@ public class LedgerUploadService {
         }
     }
 
+    /**
+     * 保存进度说明到任务表
+     */
+    private void persistProgress(UploadProgress progress) {
+        uploadJobService.updateProgress(progress.getJobId(), progress.getToken(),
+                progress.getTotalRows(), progress.getCurrentProcessing());
+    }
+
     /**
      * 清理临时文件
      */
@@ -840,38 +904,17 @@ public class LedgerUploadService {
     }
 
     /**
-     * 安排进度信息清理
-     */
-    private void scheduleProgressCleanup(Long uploadId) {
-        Timer timer = new Timer();
-        timer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                uploadProgressMap.remove(uploadId);
-                timer.cancel();
-            }
-        }, 300000); // 5分钟后清理
-    }
-
-    /**
-     * 更新上传记录的错误状态
+     * 标记上传记录失败（任务无法继续时调用）
      */
-    private void updateUploadStatusOnError(Long uploadId, String errorMessage) {
+    public void markUploadFailed(Long uploadId, String errorMessage) {
         try {
             LedgerUpload upload = ledgerUploadRepository.findById(uploadId).orElse(null);
-            if (upload != null) {
+            if (upload != null && !Boolean.TRUE.equals(upload.getDeleted())) {
                 upload.setImportStatus("FAILED");
                 upload.setErrorMessage(errorMessage);
                 upload.setCompletedTime(LocalDateTime.now());
                 ledgerUploadRepository.save(upload);
             }
-
-            // 更新进度信息
-            UploadProgress progress = uploadProgressMap.get(uploadId);
-            if (progress != null) {
-                progress.setStatus("FAILED");
-                progress.setErrorMessage(errorMessage);
-            }
         } catch (Exception e) {
             log.error("更新上传状态失败，上传ID: {}", uploadId, e);
         }
@@ -881,140 +924,96 @@ public class LedgerUploadService {
      * 获取上传进度
      */
     public Map<String, Object> getUploadProgress(Long uploadId) {
-        UploadProgress progress = uploadProgressMap.get(uploadId);
+        Map<String, Object> result = new HashMap<>();
 
-        if (progress == null) {
-            // 从数据库获取最新状态
-            LedgerUpload upload = ledgerUploadRepository.findById(uploadId).orElse(null);
-            if (upload == null) {
-                return null;
+        // 优先读取任务表（任意节点都能返回处理中的进度）
+        UploadJob job = uploadJobService.findLatestByUploadId(uploadId).orElse(null);
+        if (job != null) {
+            String status = job.getStatus();
+            if (UploadJobService.STATUS_PENDING.equals(status) || UploadJobService.STATUS_RUNNING.equals(status)) {
+                status = "PROCESSING";
             }
 
-            progress = new UploadProgress(uploadId);
-            progress.setTotalRows(upload.getTotalRows());
-            progress.setSuccessRows(upload.getSuccessRows());
-            progress.setFailedRows(upload.getFailedRows());
-            progress.setStatus(upload.getImportStatus());
-
-            if (upload.getTotalRows() > 0) {
-                int processed = upload.getSuccessRows() + upload.getFailedRows();
-                int percentage = (int) ((float) processed / upload.getTotalRows() * 100);
-                progress.setPercentage(Math.min(percentage, 100));
+            result.put("totalRows", job.getTotalRows());
+            result.put("successRows", job.getSuccessRows());
+            result.put("failedRows", job.getFailedRows());
+            result.put("percentage", calculatePercentage(job.getTotalRows(),
+                    job.getSuccessRows() + job.getFailedRows()));
+            result.put("status", status);
+            result.put("currentProcessing", job.getCurrentProcessing() != null ? job.getCurrentProcessing() : "");
+            result.put("errorMessage", job.getErrorMessage() != null ? job.getErrorMessage() : "");
+            result.put("rowsPerSecond", job.getRowsPerSecond());
+            result.put("attempts", job.getAttempts());
+            result.put("processMode", job.getProcessMode());
+            if (UploadDiffService.MODE_DIFF.equals(job.getProcessMode()) && !"PROCESSING".equals(status)) {
+                ledgerUploadRepository.findById(uploadId).ifPresent(upload -> putDiffCounts(result, upload));
             }
+            return result;
         }
 
-        Map<String, Object> result = new HashMap<>();
-        result.put("totalRows", progress.getTotalRows());
-        result.put("successRows", progress.getSuccessRows());
-        result.put("failedRows", progress.getFailedRows());
-        result.put("percentage", progress.getPercentage());
-        result.put("status", progress.getStatus());
-        result.put("currentProcessing", progress.getCurrentProcessing());
-        result.put("errorMessage", progress.getErrorMessage());
+        // 没有任务记录（历史上传或任务已清理）时从上传记录获取
+        LedgerUpload upload = ledgerUploadRepository.findById(uploadId).orElse(null);
+        if (upload == null) {
+            return null;
+        }
+
+        result.put("totalRows", upload.getTotalRows());
+        result.put("successRows", upload.getSuccessRows());
+        result.put("failedRows", upload.getFailedRows());
+        result.put("percentage", calculatePercentage(upload.getTotalRows(),
+                upload.getSuccessRows() + upload.getFailedRows()));
+        result.put("status", upload.getImportStatus());
+        result.put("currentProcessing", "");
+        result.put("errorMessage", upload.getErrorMessage() != null ? upload.getErrorMessage() : "");
+        result.put("rowsPerSecond", 0);
+        result.put("processMode", upload.getProcessMode());
+        if (UploadDiffService.MODE_DIFF.equals(upload.getProcessMode())) {
+            putDiffCounts(result, upload);
+        }
 
         return result;
     }
 
-    /**
-     * 获取必填字段名集合
-     */
-    private Set<String> getRequiredFieldNames(List<RequiredFieldConfig> requiredFields) {
-        return requiredFields.stream()
-                .map(RequiredFieldConfig::getFieldName)
-                .collect(Collectors.toSet());
+    private void putDiffCounts(Map<String, Object> result, LedgerUpload upload) {
+        result.put("insertedRows", upload.getInsertedRows());
+        result.put("updatedRows", upload.getUpdatedRows());
+        result.put("deletedRows", upload.getDeletedRows());
+        result.put("unchangedRows", upload.getUnchangedRows());
     }
 
-    /**
-     * 判断是否为空行
-     */
-    private boolean isEmptyRow(Row row) {
-        if (row == null) {
-            return true;
+    private int calculatePercentage(Integer totalRows, int processedRows) {
+        if (totalRows == null || totalRows <= 0) {
+            return 0;
         }
+        return Math.min((int) ((float) processedRows / totalRows * 100), 100);
+    }
 
-        for (int i = 0; i < row.getLastCellNum(); i++) {
-            Cell cell = row.getCell(i);
-            if (cell != null) {
-                String value = getCellValue(cell);
-                if (value != null && !value.trim().isEmpty()) {
-                    return false;
-                }
+    /**
+     * 是否存在未通过验证的字段
+     */
+    private boolean hasInvalidDetail(List<LedgerDataDetail> details) {
+        for (LedgerDataDetail detail : details) {
+            if (Boolean.FALSE.equals(detail.getIsValid())) {
+                return true;
             }
         }
-        return true;
+        return false;
     }
 
     /**
-     * 获取单元格值 - FIXED: 修复整数溢出问题
+     * 判断是否为空行
      */
-    private String getCellValue(Cell cell) {
-        if (cell == null) {
-            return null;
-        }
-
-        CellType cellType = cell.getCellType();
-        if (cellType == CellType.FORMULA) {
-            cellType = cell.getCachedFormulaResultType();
+    private boolean isEmptyRow(Map<Integer, String> cellValues) {
+        if (cellValues == null) {
+            return true;
         }
 
-        switch (cellType) {
-            case STRING:
-                return cell.getStringCellValue().trim();
-            case NUMERIC:
-                if (DateUtil.isCellDateFormatted(cell)) {
-                    try {
-                        // 日期类型
-                        return cell.getDateCellValue().toString();
-                    } catch (Exception e) {
-                        // 如果日期解析失败，使用原始数值
-                        return String.valueOf(cell.getNumericCellValue());
-                    }
-                } else {
-                    // 数字类型 - 修复整数溢出问题
-                    double numericValue = cell.getNumericCellValue();
-
-                    // 使用BigDecimal来避免精度损失
-                    BigDecimal bd = BigDecimal.valueOf(numericValue);
-
-                    // 尝试判断是否为整数
-                    try {
-                        if (bd.stripTrailingZeros().scale() <= 0) {
-                            // 整数
-                            try {
-                                // 先尝试转为long
-                                long longValue = bd.longValueExact();
-
-                                // 检查是否在int范围内
-                                if (longValue >= Integer.MIN_VALUE && longValue <= Integer.MAX_VALUE) {
-                                    return String.valueOf((int) longValue);
-                                } else {
-                                    // 超出int范围，使用long
-                                    return String.valueOf(longValue);
-                                }
-                            } catch (ArithmeticException e) {
-                                // 不是精确的整数，使用BigDecimal字符串
-                                return bd.toPlainString();
-                            }
-                        } else {
-                            // 小数
-                            return bd.toPlainString();
-                        }
-                    } catch (Exception e) {
-                        log.warn("转换数字单元格时出错，使用原始值: {}", numericValue, e);
-                        return String.valueOf(numericValue);
-                    }
-                }
-            case BOOLEAN:
-                return String.valueOf(cell.getBooleanCellValue());
-            case BLANK:
-                return null;
-            case ERROR:
-                // 错误单元格
-                log.warn("单元格包含错误值: {}", FormulaError.forInt(cell.getErrorCellValue()));
-                return null;
-            default:
-                return null;
+        for (String value : cellValues.values()) {
+            if (value != null && !value.trim().isEmpty()) {
+                return false;
+            }
         }
+        return true;
     }
 
     /**
@@ -1031,35 +1030,7 @@ public class LedgerUploadService {
 
             // 如果单元格是数字类型，可能包含小数位（如123.0），我们去掉小数部分
             if (cell.getCellType() == CellType.NUMERIC && !DateUtil.isCellDateFormatted(cell)) {
-                // 尝试解析为数字
-                try {
-                    double doubleValue = cell.getNumericCellValue();
-                    if (doubleValue == Math.floor(doubleValue) && !Double.isInfinite(doubleValue)) {
-                        // 是整数，但可能很大
-                        try {
-                            // 使用BigDecimal避免精度损失
-                            BigDecimal bd = BigDecimal.valueOf(doubleValue);
-                            // 如果是整数，去掉小数位
-                            if (bd.stripTrailingZeros().scale() <= 0) {
-                                try {
-                                    long longValue = bd.longValueExact();
-                                    if (longValue >= Integer.MIN_VALUE && longValue <= Integer.MAX_VALUE) {
-                                        return String.valueOf((int) longValue);
-                                    } else {
-                                        return String.valueOf(longValue);
-                                    }
-                                } catch (ArithmeticException e) {
-                                    // 不是精确整数
-                                    return bd.toPlainString();
-                                }
-                            }
-                        } catch (Exception e) {
-                            // 使用原始字符串
-                        }
-                    }
-                } catch (Exception e) {
-                    // 保持原值
-                }
+                return ExcelStreamReader.formatNumeric(cell.getNumericCellValue());
             }
 
             return value != null ? value.trim() : null;
@@ -1072,8 +1043,7 @@ public class LedgerUploadService {
     /**
      * 创建台账数据对象
      */
-    private LedgerData createLedgerData(Row row, LedgerTemplate template,
-                                        LedgerUpload upload, int excelRowNum, int dataRowNumber) {
+    private LedgerData createLedgerData(LedgerTemplate template, LedgerUpload upload, int dataRowNumber) {
         LedgerData ledgerData = new LedgerData();
         ledgerData.setUploadId(upload.getId());
         ledgerData.setTemplateId(template.getId());
@@ -1092,84 +1062,6 @@ public class LedgerUploadService {
         return ledgerData;
     }
 
-    /**
-     * 创建字段详情 - 修复重复列名问题
-     * 关键修改：使用 字段名_列字母 作为存储的字段名
-     */
-    private List<LedgerDataDetail> createLedgerDataDetails(Row row, Map<String, TemplateField> fieldMap,
-                                                           Set<String> requiredFieldNames,
-                                                           int rowNumber,
-                                                           boolean validateRequiredFields,
-                                                           Long userId) {
-        List<LedgerDataDetail> details = new ArrayList<>();
-
-        // 按列索引顺序处理
-        for (TemplateField field : getFieldsByColumnIndex(fieldMap)) {
-            int colIndex = excelColumnToIndex(field.getExcelColumn());
-            Cell cell = row.getCell(colIndex);
-
-            LedgerDataDetail detail = new LedgerDataDetail();
-            detail.setDataId((long) rowNumber); // 临时使用，会在保存时替换
-
-            // 关键修改：使用 字段名_列字母 作为存储的字段名，避免重复字段名导致的唯一约束冲突
-            // 例如："计量单位_T" 和 "计量单位_AH"
-            String storedFieldName = field.getFieldName() + "_" + field.getExcelColumn();
-            detail.setFieldName(storedFieldName);
-
-            detail.setSortOrder(field.getSortOrder());
-
-            String cellValue = getCellValue(cell);
-            detail.setOriginalValue(cellValue);
-
-            // 验证必填项
-            if (validateRequiredFields && requiredFieldNames.contains(field.getFieldName())) {
-                if (cellValue == null || cellValue.trim().isEmpty()) {
-                    detail.setIsValid(false);
-                    detail.setValidationMessage(field.getFieldLabel() + "为必填项");
-                    detail.setIsEmpty(true);
-                    detail.setFieldValue(null);
-                } else {
-                    detail.setIsValid(true);
-                    detail.setFieldValue(cellValue.trim());
-                    detail.setIsEmpty(false);
-                }
-            } else {
-                detail.setIsValid(true);
-                if (cellValue != null && !cellValue.trim().isEmpty()) {
-                    detail.setFieldValue(cellValue.trim());
-                    detail.setIsEmpty(false);
-                } else {
-                    detail.setIsEmpty(true);
-                    detail.setFieldValue(null);
-                }
-            }
-
-            details.add(detail);
-        }
-
-        return details;
-    }
-
-    /**
-     * Excel列字母转索引
-     */
-    private int excelColumnToIndex(String column) {
-        if (column == null || column.trim().isEmpty()) {
-            return 0;
-        }
-
-        column = column.toUpperCase().trim();
-        int index = 0;
-        for (int i = 0; i < column.length(); i++) {
-            char ch = column.charAt(i);
-            if (ch < 'A' || ch > 'Z') {
-                throw new IllegalArgumentException("无效的列字母: " + column);
-            }
-            index = index * 26 + (ch - 'A' + 1);
-        }
-        return index - 1;
-    }
-
     /**
      * 生成上传批次号
      */
@@ -1220,8 +1112,15 @@ public class LedgerUploadService {
         response.setUploadTime(upload.getUploadTime());
         response.setTemplateName(template.getTemplateName());
 
+        response.setProcessMode(upload.getProcessMode());
+
         // 添加覆盖更新的信息
-        if (existingDataCount != null && existingDataCount > 0) {
+        if (UploadDiffService.MODE_DIFF.equals(upload.getProcessMode())) {
+            response.setMessage("发现 " + (existingDataCount != null ? existingDataCount : 0) +
+                    " 条现有数据，将按业务主键增量更新");
+            response.setOldDataCount(existingDataCount != null ? existingDataCount.intValue() : 0);
+            response.setIsCoverageUpdate(false);
+        } else if (existingDataCount != null && existingDataCount > 0) {
             response.setMessage("发现 " + existingDataCount + " 条旧数据，将执行覆盖更新");
             response.setOldDataCount(existingDataCount.intValue());
             response.setIsCoverageUpdate(true);
@@ -1257,6 +1156,13 @@ public class LedgerUploadService {
         response.setUploadIp(upload.getUploadIp());
         response.setUploadTime(upload.getUploadTime());
         response.setCompletedTime(upload.getCompletedTime());
+        response.setProcessMode(upload.getProcessMode());
+        if (UploadDiffService.MODE_DIFF.equals(upload.getProcessMode())) {
+            response.setInsertedRows(upload.getInsertedRows());
+            response.setUpdatedRows(upload.getUpdatedRows());
+            response.setDeletedRows(upload.getDeletedRows());
+            response.setUnchangedRows(upload.getUnchangedRows());
+        }
 
         if (template != null) {
             response.setTemplateName(template.getTemplateName());
@@ -1323,6 +1229,9 @@ public class LedgerUploadService {
         LedgerUpload upload = ledgerUploadRepository.findById(uploadId)
                 .orElseThrow(() -> new RuntimeException("上传记录不存在"));
 
+        // 先取消未结束的任务，之后处理线程的批次提交会失败并回滚
+        uploadJobService.cancelByUploadId(uploadId);
+
         // 同时删除相关的台账数据
         List<LedgerData> ledgerDataList = ledgerDataRepository.findByUploadIdAndDeletedFalse(uploadId);
         for (LedgerData data : ledgerDataList) {
@@ -1330,49 +1239,58 @@ public class LedgerUploadService {
             data.setUpdatedTime(LocalDateTime.now());
         }
         ledgerDataRepository.saveAll(ledgerDataList);
+        ledgerStatisticsService.recordRemoved(ledgerDataList);
+        columnarSnapshotService.markChanged(ledgerDataList);
 
         upload.setDeleted(true);
         upload.setCompletedTime(LocalDateTime.now());
         ledgerUploadRepository.save(upload);
 
-        // 清理进度信息
-        uploadProgressMap.remove(uploadId);
-
         log.info("删除上传记录成功，ID: {}", uploadId);
     }
 
     /**
-     * 上传进度内部类
+     * 上传进度内部类（处理线程内使用，持久化的进度在任务表中）
      */
     private static class UploadProgress {
-        private final Long uploadId;
+        private final Long jobId;
+        private final String token;
+        private final int lastCommittedRow;
         private int totalRows;
+        private int processedRows;
         private int successRows;
         private int failedRows;
         private int percentage;
-        private String status = "PROCESSING";
         private String currentProcessing = "";
-        private String errorMessage = "";
-
-        public UploadProgress(Long uploadId) {
-            this.uploadId = uploadId;
+        private int rowsPerSecond;
+
+        public UploadProgress(UploadJob job, String token) {
+            this.jobId = job.getId();
+            this.token = token;
+            this.lastCommittedRow = job.getLastCommittedRow();
+            this.totalRows = job.getTotalRows();
+            this.processedRows = job.getProcessedRows();
+            this.successRows = job.getSuccessRows();
+            this.failedRows = job.getFailedRows();
         }
 
         // getters and setters
-        public Long getUploadId() { return uploadId; }
+        public Long getJobId() { return jobId; }
+        public String getToken() { return token; }
+        public int getLastCommittedRow() { return lastCommittedRow; }
         public int getTotalRows() { return totalRows; }
         public void setTotalRows(int totalRows) { this.totalRows = totalRows; }
+        public int getProcessedRows() { return processedRows; }
+        public void setProcessedRows(int processedRows) { this.processedRows = processedRows; }
         public int getSuccessRows() { return successRows; }
         public void setSuccessRows(int successRows) { this.successRows = successRows; }
         public int getFailedRows() { return failedRows; }
         public void setFailedRows(int failedRows) { this.failedRows = failedRows; }
         public int getPercentage() { return percentage; }
         public void setPercentage(int percentage) { this.percentage = percentage; }
-        public String getStatus() { return status; }
-        public void setStatus(String status) { this.status = status; }
         public String getCurrentProcessing() { return currentProcessing; }
         public void setCurrentProcessing(String currentProcessing) { this.currentProcessing = currentProcessing; }
-        public String getErrorMessage() { return errorMessage; }
-        public void setErrorMessage(String errorMessage) { this.errorMessage = errorMessage; }
+        public int getRowsPerSecond() { return rowsPerSecond; }
+        public void setRowsPerSecond(int rowsPerSecond) { this.rowsPerSecond = rowsPerSecond; }
     }
 }
\ No newline at end of file
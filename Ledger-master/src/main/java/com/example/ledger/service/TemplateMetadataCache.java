@@ -0,0 +1,321 @@
+package com.example.ledger.service;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 13:10
+ */
+
+import com.example.ledger.entity.LedgerTemplate;
+import com.example.ledger.entity.RequiredFieldConfig;
+import com.example.ledger.entity.TemplateField;
+import com.example.ledger.repository.LedgerTemplateRepository;
+import com.example.ledger.repository.RequiredFieldConfigRepository;
+import com.example.ledger.repository.TemplateFieldRepository;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * 模板元数据缓存
+ * 缓存模板、按sortOrder排序的字段、存储字段名映射和必填项配置，供上传、查询、编辑、导出共用
+ * 模板、字段、必填项配置的写操作需调用evict失效对应模板
+ * 每次失效递增模板的版本号，加载期间版本号变化时加载结果只返回给调用方、不放入缓存，
+ * 避免提交前读到的旧数据在提交后的失效之后才写入缓存
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class TemplateMetadataCache {
+
+    private final LedgerTemplateRepository ledgerTemplateRepository;
+    private final TemplateFieldRepository templateFieldRepository;
+    private final RequiredFieldConfigRepository requiredFieldConfigRepository;
+
+    private final Map<Long, TemplateMetadata> metadataById = new ConcurrentHashMap<>();
+    private final Map<String, Long> templateIdByUnit = new ConcurrentHashMap<>();
+    // 模板ID -> 失效版本号；evictAll 递增全局版本号
+    private final Map<Long, Long> generations = new ConcurrentHashMap<>();
+    private final AtomicLong globalGeneration = new AtomicLong();
+    // 任一模板失效时递增，单位映射在加载期间发生失效时不写入
+    private final AtomicLong unitGeneration = new AtomicLong();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * 按模板ID获取元数据，模板不存在或已删除时返回null
+     */
+    public TemplateMetadata get(Long templateId) {
+        if (templateId == null) {
+            return null;
+        }
+
+        TemplateMetadata metadata = metadataById.get(templateId);
+        if (metadata != null) {
+            hitCount.incrementAndGet();
+            return metadata;
+        }
+
+        missCount.incrementAndGet();
+        long generation = generation(templateId);
+        metadata = load(templateId);
+        if (metadata != null) {
+            cacheIfCurrent(templateId, metadata, generation);
+        }
+        return metadata;
+    }
+
+    /**
+     * 批量获取模板元数据，未命中的模板一次性批量加载（模板、字段、必填项各一次查询）
+     */
+    public Map<Long, TemplateMetadata> getAll(Collection<Long> templateIds) {
+        Map<Long, TemplateMetadata> result = new HashMap<>();
+        Set<Long> missing = new HashSet<>();
+        for (Long templateId : templateIds) {
+            if (templateId == null || result.containsKey(templateId) || missing.contains(templateId)) {
+                continue;
+            }
+            TemplateMetadata metadata = metadataById.get(templateId);
+            if (metadata != null) {
+                hitCount.incrementAndGet();
+                result.put(templateId, metadata);
+            } else {
+                missCount.incrementAndGet();
+                missing.add(templateId);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            Map<Long, Long> loadGenerations = new HashMap<>();
+            for (Long templateId : missing) {
+                loadGenerations.put(templateId, generation(templateId));
+            }
+            Map<Long, TemplateMetadata> loaded = loadAll(missing);
+            loaded.forEach((templateId, metadata) ->
+                    cacheIfCurrent(templateId, metadata, loadGenerations.get(templateId)));
+            result.putAll(loaded);
+        }
+        return result;
+    }
+
+    /**
+     * 按单位名称获取有效模板的元数据，单位没有模板时返回null
+     */
+    public TemplateMetadata getByUnitName(String unitName) {
+        if (unitName == null) {
+            return null;
+        }
+
+        Long templateId = templateIdByUnit.get(unitName);
+        if (templateId == null) {
+            long generation = unitGeneration.get();
+            LedgerTemplate template = ledgerTemplateRepository.findByUnitNameAndDeletedFalse(unitName).orElse(null);
+            if (template == null) {
+                return null;
+            }
+            Long loadedId = template.getId();
+            templateIdByUnit.compute(unitName, (unit, current) ->
+                    unitGeneration.get() == generation ? loadedId : current);
+            // 写入后才发生的失效可能没有遍历到这条映射，由本次查询自己移除
+            if (unitGeneration.get() != generation) {
+                templateIdByUnit.remove(unitName, loadedId);
+            }
+            templateId = loadedId;
+        }
+        return get(templateId);
+    }
+
+    /**
+     * 获取模板字段（按sortOrder排序），模板不存在时返回空列表
+     */
+    public List<TemplateField> getFields(Long templateId) {
+        TemplateMetadata metadata = get(templateId);
+        return metadata != null ? metadata.getFields() : Collections.emptyList();
+    }
+
+    /**
+     * 失效指定模板的缓存，事务中调用时在提交后再失效一次，避免并发读取到未提交前的旧数据
+     */
+    public void evict(Long templateId) {
+        if (templateId == null) {
+            return;
+        }
+        doEvict(templateId);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    doEvict(templateId);
+                }
+            });
+        }
+    }
+
+    /**
+     * 清空全部缓存
+     */
+    public void evictAll() {
+        globalGeneration.incrementAndGet();
+        unitGeneration.incrementAndGet();
+        metadataById.clear();
+        templateIdByUnit.clear();
+        evictionCount.incrementAndGet();
+    }
+
+    /**
+     * 缓存统计信息
+     */
+    public Map<String, Object> getStats() {
+        long hits = hitCount.get();
+        long misses = missCount.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", metadataById.size());
+        stats.put("hitCount", hits);
+        stats.put("missCount", misses);
+        stats.put("evictionCount", evictionCount.get());
+        stats.put("hitRate", hits + misses > 0 ? (double) hits / (hits + misses) : 0);
+        return stats;
+    }
+
+    private void doEvict(Long templateId) {
+        // 先递增版本号再移除：与 cacheIfCurrent 在同一个键上互斥，移除之后不会再写入旧数据
+        generations.merge(templateId, 1L, Long::sum);
+        unitGeneration.incrementAndGet();
+        metadataById.remove(templateId);
+        templateIdByUnit.values().removeIf(templateId::equals);
+        evictionCount.incrementAndGet();
+    }
+
+    /**
+     * 模板的当前版本号（全局版本号与模板失效次数之和，任一递增都会变化）
+     */
+    private long generation(Long templateId) {
+        return globalGeneration.get() + generations.getOrDefault(templateId, 0L);
+    }
+
+    /**
+     * 加载期间模板未被失效时才放入缓存
+     */
+    private void cacheIfCurrent(Long templateId, TemplateMetadata metadata, long loadGeneration) {
+        metadataById.compute(templateId, (id, current) ->
+                generation(id) == loadGeneration ? metadata : current);
+    }
+
+    private TemplateMetadata load(Long templateId) {
+        LedgerTemplate template = ledgerTemplateRepository.findById(templateId)
+                .filter(t -> !Boolean.TRUE.equals(t.getDeleted()))
+                .orElse(null);
+        if (template == null) {
+            return null;
+        }
+
+        List<TemplateField> fields = templateFieldRepository.findByTemplateIdAndDeletedFalse(templateId).stream()
+                .sorted(Comparator.comparing(TemplateField::getSortOrder,
+                        Comparator.nullsLast(Comparator.naturalOrder())))
+                .collect(Collectors.toList());
+        List<RequiredFieldConfig> requiredConfigs = requiredFieldConfigRepository.findByTemplateIdAndRequiredTrue(templateId);
+
+        log.debug("加载模板元数据，模板ID: {}，字段数: {}，必填项数: {}", templateId, fields.size(), requiredConfigs.size());
+        return new TemplateMetadata(template, fields, requiredConfigs);
+    }
+
+    private Map<Long, TemplateMetadata> loadAll(Set<Long> templateIds) {
+        List<LedgerTemplate> templates = ledgerTemplateRepository.findAllById(templateIds).stream()
+                .filter(t -> !Boolean.TRUE.equals(t.getDeleted()))
+                .collect(Collectors.toList());
+        if (templates.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<Long, List<TemplateField>> fieldsByTemplate = templateFieldRepository
+                .findByTemplateIdInAndDeletedFalse(templateIds).stream()
+                .collect(Collectors.groupingBy(TemplateField::getTemplateId));
+        Map<Long, List<RequiredFieldConfig>> requiredByTemplate = requiredFieldConfigRepository
+                .findByTemplateIdInAndRequiredTrue(templateIds).stream()
+                .collect(Collectors.groupingBy(RequiredFieldConfig::getTemplateId));
+
+        Map<Long, TemplateMetadata> loaded = new HashMap<>();
+        for (LedgerTemplate template : templates) {
+            List<TemplateField> fields = fieldsByTemplate.getOrDefault(template.getId(), Collections.emptyList()).stream()
+                    .sorted(Comparator.comparing(TemplateField::getSortOrder,
+                            Comparator.nullsLast(Comparator.naturalOrder())))
+                    .collect(Collectors.toList());
+            loaded.put(template.getId(), new TemplateMetadata(template, fields,
+                    requiredByTemplate.getOrDefault(template.getId(), Collections.emptyList())));
+        }
+        log.debug("批量加载模板元数据，模板数: {}", loaded.size());
+        return loaded;
+    }
+
+    /**
+     * 构建存储字段名：字段名_列字母（与上传写入明细时的规则一致）
+     */
+    public static String buildStoredFieldName(TemplateField field) {
+        return field.getFieldName() + "_" + field.getExcelColumn();
+    }
+
+    /**
+     * 模板元数据（只读，调用方不要修改其中的实体对象）
+     */
+    @Getter
+    public static class TemplateMetadata {
+
+        private final LedgerTemplate template;
+        private final List<TemplateField> fields;
+        private final List<RequiredFieldConfig> requiredConfigs;
+        private final Set<String> requiredFieldNames;
+        // 存储字段名 -> 原始字段名
+        private final Map<String, String> storedToOriginal;
+        // 原始字段名 -> 存储字段名（重复字段名取第一个）
+        private final Map<String, String> originalToStored;
+        // 原始字段名 -> 字段定义（重复字段名取第一个）
+        private final Map<String, TemplateField> fieldByName;
+        // 必填字段名 -> 自定义提示信息
+        private final Map<String, String> requiredMessages;
+
+        TemplateMetadata(LedgerTemplate template, List<TemplateField> fields,
+                         List<RequiredFieldConfig> requiredConfigs) {
+            this.template = template;
+            this.fields = Collections.unmodifiableList(fields);
+            this.requiredConfigs = Collections.unmodifiableList(requiredConfigs);
+
+            Map<String, String> stored = new LinkedHashMap<>();
+            Map<String, String> original = new LinkedHashMap<>();
+            Map<String, TemplateField> byName = new LinkedHashMap<>();
+            for (TemplateField field : fields) {
+                String storedName = buildStoredFieldName(field);
+                stored.put(storedName, field.getFieldName());
+                original.putIfAbsent(field.getFieldName(), storedName);
+                byName.putIfAbsent(field.getFieldName(), field);
+            }
+            this.storedToOriginal = Collections.unmodifiableMap(stored);
+            this.originalToStored = Collections.unmodifiableMap(original);
+            this.fieldByName = Collections.unmodifiableMap(byName);
+
+            Set<String> names = new LinkedHashSet<>();
+            Map<String, String> messages = new HashMap<>();
+            for (RequiredFieldConfig config : requiredConfigs) {
+                names.add(config.getFieldName());
+                if (config.getRequiredMessage() != null) {
+                    messages.putIfAbsent(config.getFieldName(), config.getRequiredMessage());
+                }
+            }
+            this.requiredFieldNames = Collections.unmodifiableSet(names);
+            this.requiredMessages = Collections.unmodifiableMap(messages);
+        }
+
+        public Long getTemplateId() {
+            return template.getId();
+        }
+    }
+}
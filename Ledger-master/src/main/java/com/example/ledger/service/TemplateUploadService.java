@@ -33,6 +33,7 @@ public class TemplateUploadService {
     private final TemplateFieldRepository templateFieldRepository;
     private final TemplateStyleRepository templateStyleRepository;
     private final FileStorageService fileStorageService;
+    private final TemplateMetadataCache templateMetadataCache;
 
     /**
      * 上传并解析模板文件
@@ -55,6 +56,7 @@ public class TemplateUploadService {
         template.setUpdatedTime(LocalDateTime.now());
 
         ledgerTemplateRepository.save(template);
+        templateMetadataCache.evict(templateId);
         log.info("模板文件上传成功，模板ID: {}, 文件: {}", templateId, file.getOriginalFilename());
     }
 
@@ -0,0 +1,567 @@
+package com.example.ledger.service;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 20:50
+ */
+
+import com.example.ledger.entity.*;
+import com.example.ledger.repository.LedgerDataDetailRepository;
+import com.example.ledger.repository.LedgerDataJdbcRepository;
+import com.example.ledger.repository.LedgerDataRepository;
+import com.example.ledger.util.FieldValueConverter;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.ss.util.CellReference;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * 差异上传（processMode=DIFF）
+ * 按业务主键把上传文件的行与用户在该单位的现有数据匹配，只写入新增、修改和删除的行，
+ * 每个变化都记录到编辑历史；现有数据只在内存中保留 业务主键 -> (数据ID, 行号, 字段值摘要)
+ * 新增行随批次写入（属于本次上传，失败时按上传ID丢弃）；修改、行号调整、删除和编辑历史暂存在会话中，
+ * 在结束任务的事务中一起写入，处理失败或中断时现有数据保持不变
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class UploadDiffService {
+
+    public static final String MODE_DIFF = "DIFF";
+    public static final String MODE_REPLACE = "REPLACE";
+
+    private static final int LOAD_CHUNK_SIZE = 1000;
+    private static final int DELETE_BATCH_SIZE = 500;
+    private static final char KEY_SEPARATOR = '\u0001';
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final LedgerDataRepository ledgerDataRepository;
+    private final LedgerDataDetailRepository ledgerDataDetailRepository;
+    private final LedgerDataJdbcRepository ledgerDataJdbcRepository;
+    private final LedgerRowStorageService ledgerRowStorageService;
+    private final LedgerStatisticsService ledgerStatisticsService;
+    private final ColumnarSnapshotService columnarSnapshotService;
+
+    /**
+     * 规范化处理模式：只有DIFF走差异上传，其他值按全量替换处理
+     */
+    public static String normalizeMode(String processMode) {
+        return processMode != null && MODE_DIFF.equalsIgnoreCase(processMode.trim()) ? MODE_DIFF : MODE_REPLACE;
+    }
+
+    /**
+     * 解析业务主键字段（字段名、存储字段名或字段标签），返回存储字段名，逗号分隔
+     */
+    public String resolveKeyFields(String keyFields, List<TemplateField> templateFields) {
+        if (keyFields == null || keyFields.trim().isEmpty()) {
+            throw new RuntimeException("差异上传需要配置业务主键字段");
+        }
+
+        List<String> storedNames = new ArrayList<>();
+        for (String name : keyFields.split("[,，]")) {
+            String trimmed = name.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            TemplateField matched = templateFields.stream()
+                    .filter(field -> trimmed.equals(TemplateMetadataCache.buildStoredFieldName(field)))
+                    .findFirst()
+                    .orElseGet(() -> templateFields.stream()
+                            .filter(field -> trimmed.equals(field.getFieldName()) || trimmed.equals(field.getFieldLabel()))
+                            .findFirst()
+                            .orElseThrow(() -> new RuntimeException("业务主键字段不存在: " + trimmed)));
+            String storedName = TemplateMetadataCache.buildStoredFieldName(matched);
+            if (!storedNames.contains(storedName)) {
+                storedNames.add(storedName);
+            }
+        }
+        if (storedNames.isEmpty()) {
+            throw new RuntimeException("差异上传需要配置业务主键字段");
+        }
+        return String.join(",", storedNames);
+    }
+
+    /**
+     * 建立差异上传会话：分批读取用户在该单位的现有数据，建立业务主键索引
+     */
+    public DiffSession open(LedgerUpload upload, String keyFields, List<TemplateField> templateFields) {
+        DiffSession session = new DiffSession(upload, Arrays.asList(keyFields.split(",")), templateFields);
+
+        Long lastId = 0L;
+        int loaded = 0;
+        while (true) {
+            List<LedgerData> chunk = ledgerDataRepository.findByUserIdAndUnitNameAfter(upload.getUserId(),
+                    upload.getUnitName(), lastId, PageRequest.of(0, LOAD_CHUNK_SIZE));
+            if (chunk.isEmpty()) {
+                break;
+            }
+            Map<Long, List<LedgerDataDetail>> detailsMap = ledgerRowStorageService.loadDetails(chunk);
+            for (LedgerData data : chunk) {
+                session.addExisting(data, detailsMap.getOrDefault(data.getId(), Collections.emptyList()));
+            }
+            loaded += chunk.size();
+            lastId = chunk.get(chunk.size() - 1).getId();
+        }
+
+        log.info("差异上传已加载现有数据，上传ID: {}，行数: {}，业务主键数: {}，重复主键行数: {}",
+                upload.getId(), loaded, session.existing.size(), session.duplicateExisting.size());
+        return session;
+    }
+
+    /**
+     * 对一个批次分类：返回需要新增的行（调用方写入并回填ID），修改和未变化的行留在会话中
+     */
+    public DiffBatch classify(DiffSession session, Map<Integer, LedgerData> dataMap,
+                              Map<Integer, List<LedgerDataDetail>> detailMap, Map<Integer, String> keyMap) {
+        DiffBatch batch = new DiffBatch();
+        for (Map.Entry<Integer, LedgerData> entry : dataMap.entrySet()) {
+            Integer rowNumber = entry.getKey();
+            List<LedgerDataDetail> details = detailMap.get(rowNumber);
+            ExistingRow existing = session.existing.get(keyMap.get(rowNumber));
+
+            if (existing == null) {
+                batch.insertData.put(rowNumber, entry.getValue());
+                batch.insertDetails.put(rowNumber, details);
+                batch.insertKeys.put(rowNumber, keyMap.get(rowNumber));
+            } else if (existing.digest == session.digest(details)) {
+                session.unchangedRows++;
+                if (!rowNumber.equals(existing.rowNumber)) {
+                    batch.rowNumberUpdates.put(existing.dataId, rowNumber);
+                    existing.rowNumber = rowNumber;
+                }
+            } else {
+                batch.changed.put(existing.dataId, new ChangedRow(existing, rowNumber, details,
+                        entry.getValue().getValidationStatus()));
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * 记录批次的结果（新增行已由调用方在批次事务中插入并回填ID），修改和行号调整暂存到结束任务时写入
+     */
+    public void stage(DiffSession session, DiffBatch batch) {
+        LocalDateTime now = LocalDateTime.now();
+        for (Map.Entry<Integer, LedgerData> entry : batch.insertData.entrySet()) {
+            LedgerData data = entry.getValue();
+            String key = batch.insertKeys.get(entry.getKey());
+            session.pendingHistories.add(session.history(data.getId(), "ALL", null, session.displayKey(key),
+                    "CREATE", now));
+            session.existing.put(key, new ExistingRow(data.getId(), entry.getKey(),
+                    session.digest(batch.insertDetails.get(entry.getKey()))));
+            session.insertedRows++;
+        }
+        session.pendingRowNumbers.putAll(batch.rowNumberUpdates);
+        session.pendingChanges.putAll(batch.changed);
+        session.updatedRows += batch.changed.size();
+    }
+
+    /**
+     * 写入暂存的修改、行号调整和编辑历史，必须在结束任务的事务中调用
+     */
+    public void applyChanges(DiffSession session) {
+        List<Long> changedIds = new ArrayList<>(session.pendingChanges.keySet());
+        for (int i = 0; i < changedIds.size(); i += LOAD_CHUNK_SIZE) {
+            applyChanged(session, changedIds.subList(i, Math.min(i + LOAD_CHUNK_SIZE, changedIds.size())));
+        }
+        ledgerDataJdbcRepository.batchUpdateRowNumbers(session.pendingRowNumbers);
+        ledgerDataJdbcRepository.batchInsertHistory(session.pendingHistories);
+        session.pendingChanges.clear();
+        session.pendingRowNumbers.clear();
+        session.pendingHistories.clear();
+    }
+
+    /**
+     * 修改的行：与当前明细逐个字段比较（按字段类型的规范值），只更新变化的单元格
+     */
+    private void applyChanged(DiffSession session, List<Long> changedIds) {
+        LocalDateTime now = LocalDateTime.now();
+        List<LedgerEditHistory> histories = new ArrayList<>();
+        List<LedgerData> currentRows = ledgerDataRepository.findAllById(changedIds);
+        Map<Long, List<LedgerDataDetail>> currentDetails = ledgerRowStorageService.loadDetails(currentRows);
+
+        List<LedgerDataDetail> detailUpdates = new ArrayList<>();
+        List<LedgerDataDetail> detailInserts = new ArrayList<>();
+        List<LedgerData> rowUpdates = new ArrayList<>();
+        // 更新后的行 -> 更新前的验证状态
+        Map<LedgerData, String> statusChanges = new IdentityHashMap<>();
+
+        for (LedgerData current : currentRows) {
+            ChangedRow changed = session.pendingChanges.get(current.getId());
+            Map<String, LedgerDataDetail> oldByName = new HashMap<>();
+            for (LedgerDataDetail detail : currentDetails.getOrDefault(current.getId(), Collections.emptyList())) {
+                oldByName.put(detail.getFieldName(), detail);
+            }
+
+            for (LedgerDataDetail detail : changed.details) {
+                LedgerDataDetail old = oldByName.get(detail.getFieldName());
+                String oldValue = old != null ? normalize(old.getFieldValue()) : null;
+                String newValue = normalize(detail.getFieldValue());
+                if (old != null && Objects.equals(session.canonical(detail.getFieldName(), oldValue),
+                        session.canonical(detail.getFieldName(), newValue))) {
+                    continue;
+                }
+
+                detail.setDataId(current.getId());
+                detail.setUpdatedTime(now);
+                if (old != null) {
+                    detailUpdates.add(detail);
+                } else {
+                    detail.setCreatedTime(now);
+                    detailInserts.add(detail);
+                }
+                histories.add(session.history(current.getId(), detail.getFieldName(), oldValue, newValue,
+                        "UPDATE", now));
+            }
+
+            // 不修改托管实体，用独立对象承载更新值（同时携带统计汇总的分组字段）
+            LedgerData update = new LedgerData();
+            update.setId(current.getId());
+            update.setUnitName(current.getUnitName());
+            update.setCreatedBy(current.getCreatedBy());
+            update.setTemplateId(current.getTemplateId());
+            update.setCreatedTime(current.getCreatedTime());
+            update.setDeleted(current.getDeleted());
+            update.setRowNumber(changed.rowNumber);
+            update.setPackedValues(current.getPackedValues() != null
+                    ? ledgerRowStorageService.pack(changed.details) : null);
+            // 验证状态按本次上传的整行结果重新计算
+            update.setValidationStatus(changed.validationStatus != null ? changed.validationStatus : "VALID");
+            update.setValidationErrors("INVALID".equals(update.getValidationStatus())
+                    ? validationErrors(changed.details) : null);
+            update.setUpdatedBy(session.upload.getUserId());
+            update.setUpdatedTime(now);
+            rowUpdates.add(update);
+            statusChanges.put(update, current.getValidationStatus());
+
+            changed.existing.digest = session.digest(changed.details);
+            changed.existing.rowNumber = changed.rowNumber;
+        }
+
+        ledgerDataJdbcRepository.batchUpdateDetailValues(detailUpdates);
+        ledgerDataJdbcRepository.batchInsertDetails(detailInserts);
+        ledgerDataJdbcRepository.batchUpdateChangedRows(rowUpdates);
+        statusChanges.forEach(ledgerStatisticsService::recordValidationChange);
+        columnarSnapshotService.markChanged(currentRows);
+
+        ledgerDataJdbcRepository.batchInsertHistory(histories);
+    }
+
+    /**
+     * 删除文件中不再出现的行（包括现有数据中业务主键重复的多余行），必须在结束任务的事务中调用
+     */
+    public int deleteUnmatched(DiffSession session) {
+        LocalDateTime now = LocalDateTime.now();
+        List<Long> dataIds = new ArrayList<>();
+        List<LedgerEditHistory> histories = new ArrayList<>();
+
+        for (Map.Entry<String, ExistingRow> entry : session.existing.entrySet()) {
+            if (!session.fileKeys.contains(entry.getKey())) {
+                dataIds.add(entry.getValue().dataId);
+                histories.add(session.history(entry.getValue().dataId, "ALL",
+                        session.displayKey(entry.getKey()), null, "DELETE", now));
+            }
+        }
+        for (Map.Entry<Long, String> entry : session.duplicateExisting.entrySet()) {
+            dataIds.add(entry.getKey());
+            histories.add(session.history(entry.getKey(), "ALL", session.displayKey(entry.getValue()), null,
+                    "DELETE", now));
+        }
+
+        for (int i = 0; i < dataIds.size(); i += DELETE_BATCH_SIZE) {
+            List<Long> batchIds = dataIds.subList(i, Math.min(i + DELETE_BATCH_SIZE, dataIds.size()));
+            ledgerStatisticsService.recordRemovedByIds(batchIds);
+            ledgerDataDetailRepository.deleteByDataIdIn(batchIds);
+            ledgerDataRepository.deleteAllByIdInBatch(batchIds);
+        }
+        ledgerDataJdbcRepository.batchInsertHistory(histories);
+        columnarSnapshotService.markChanged(session.upload.getTemplateId(), dataIds);
+
+        session.deletedRows = dataIds.size();
+        return dataIds.size();
+    }
+
+    /**
+     * 未通过验证的字段及提示信息（validation_errors 为JSON列，写入字符串数组）
+     */
+    private static String validationErrors(List<LedgerDataDetail> details) {
+        List<String> errors = new ArrayList<>();
+        for (LedgerDataDetail detail : details) {
+            if (Boolean.FALSE.equals(detail.getIsValid())) {
+                errors.add(detail.getFieldName() + ": " + detail.getValidationMessage());
+            }
+        }
+        if (errors.isEmpty()) {
+            return null;
+        }
+        try {
+            return OBJECT_MAPPER.writeValueAsString(errors);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("验证错误信息序列化失败", e);
+        }
+    }
+
+    private static String normalize(String value) {
+        if (value == null) {
+            return null;
+        }
+        String trimmed = value.trim();
+        return trimmed.isEmpty() ? null : trimmed;
+    }
+
+    /**
+     * 差异上传会话，只在写入线程中使用（业务主键提取除外）
+     */
+    public static class DiffSession {
+        private final LedgerUpload upload;
+        private final List<String> keyFields;
+        private final int[] keyColumns;
+        // 业务主键字段的值转换器，文件和现有数据两侧都按规范值匹配
+        private final FieldValueConverter[] keyConverters;
+        // 存储字段名 -> 值转换器，比较字段值时两侧都转换为规范值（类型转换上线前保存的数据不是规范值）
+        private final Map<String, FieldValueConverter> converters = new HashMap<>();
+
+        // 业务主键 -> 现有行
+        private final Map<String, ExistingRow> existing = new HashMap<>();
+        // 现有数据中业务主键重复的多余行：数据ID -> 业务主键
+        private final Map<Long, String> duplicateExisting = new HashMap<>();
+        // 文件中出现过的业务主键
+        private final Set<String> fileKeys = new HashSet<>();
+
+        // 暂存到结束任务时写入：修改的行、只调整位置的行（数据ID -> 行号）、新增行的编辑历史
+        private final Map<Long, ChangedRow> pendingChanges = new LinkedHashMap<>();
+        private final Map<Long, Integer> pendingRowNumbers = new LinkedHashMap<>();
+        private final List<LedgerEditHistory> pendingHistories = new ArrayList<>();
+
+        private int insertedRows;
+        private int updatedRows;
+        private int deletedRows;
+        private int unchangedRows;
+
+        DiffSession(LedgerUpload upload, List<String> keyFields, List<TemplateField> templateFields) {
+            this.upload = upload;
+            this.keyFields = keyFields;
+            this.keyColumns = new int[keyFields.size()];
+            this.keyConverters = new FieldValueConverter[keyFields.size()];
+            Map<String, TemplateField> byStoredName = new HashMap<>();
+            for (TemplateField field : templateFields) {
+                String storedName = TemplateMetadataCache.buildStoredFieldName(field);
+                byStoredName.put(storedName, field);
+                converters.put(storedName, FieldValueConverter.of(field));
+            }
+            for (int i = 0; i < keyFields.size(); i++) {
+                TemplateField field = byStoredName.get(keyFields.get(i));
+                if (field == null) {
+                    throw new RuntimeException("业务主键字段已不在模板中: " + keyFields.get(i));
+                }
+                keyColumns[i] = CellReference.convertColStringToIndex(field.getExcelColumn().trim());
+                keyConverters[i] = FieldValueConverter.of(field);
+            }
+        }
+
+        /**
+         * 从单元格值提取业务主键，全部为空时返回null（线程安全）
+         * 单元格值与保存明细时一样先转换为字段类型的规范值，与现有数据的字段值一致
+         */
+        public String extractKey(Map<Integer, String> cellValues) {
+            StringBuilder key = new StringBuilder();
+            boolean hasValue = false;
+            for (int i = 0; i < keyColumns.length; i++) {
+                if (i > 0) {
+                    key.append(KEY_SEPARATOR);
+                }
+                String value = keyValue(i, cellValues.get(keyColumns[i]));
+                if (value != null) {
+                    key.append(value);
+                    hasValue = true;
+                }
+            }
+            return hasValue ? key.toString() : null;
+        }
+
+        /**
+         * 记录文件中的业务主键，为空或重复时抛出异常
+         */
+        public void register(String key) {
+            if (key == null) {
+                throw new RuntimeException("业务主键为空");
+            }
+            if (!fileKeys.add(key)) {
+                throw new RuntimeException("业务主键重复: " + displayKey(key));
+            }
+        }
+
+        /**
+         * 记录处理失败行的业务主键，避免对应的现有数据被当作删除
+         */
+        public void retain(String key) {
+            if (key != null) {
+                fileKeys.add(key);
+            }
+        }
+
+        public void applyCounts(LedgerUpload target) {
+            target.setInsertedRows(insertedRows);
+            target.setUpdatedRows(updatedRows);
+            target.setDeletedRows(deletedRows);
+            target.setUnchangedRows(unchangedRows);
+        }
+
+        public String summary() {
+            return String.format("新增 %d 行，修改 %d 行，删除 %d 行，未变化 %d 行",
+                    insertedRows, updatedRows, deletedRows, unchangedRows);
+        }
+
+        void addExisting(LedgerData data, List<LedgerDataDetail> details) {
+            Map<String, String> values = new HashMap<>();
+            for (LedgerDataDetail detail : details) {
+                values.put(detail.getFieldName(), detail.getFieldValue());
+            }
+
+            StringBuilder key = new StringBuilder();
+            boolean hasValue = false;
+            for (int i = 0; i < keyFields.size(); i++) {
+                if (i > 0) {
+                    key.append(KEY_SEPARATOR);
+                }
+                // 类型转换上线前保存的数据可能不是规范值，同样转换一次
+                String value = keyValue(i, values.get(keyFields.get(i)));
+                if (value != null) {
+                    key.append(value);
+                    hasValue = true;
+                }
+            }
+            // 没有业务主键的现有行无法匹配，按文件中不存在处理
+            String keyText = hasValue ? key.toString() : "#" + data.getId();
+
+            ExistingRow row = new ExistingRow(data.getId(), data.getRowNumber(), digest(details));
+            if (existing.putIfAbsent(keyText, row) != null) {
+                duplicateExisting.put(data.getId(), keyText);
+            }
+        }
+
+        /**
+         * 业务主键字段的规范值，无法转换时使用原值，为空时返回null
+         */
+        private String keyValue(int i, String value) {
+            return keyConverters[i].normalize(value);
+        }
+
+        /**
+         * 字段值的规范值，无法转换时使用去掉首尾空白的原值，为空时返回null
+         */
+        String canonical(String fieldName, String value) {
+            FieldValueConverter converter = converters.get(fieldName);
+            return converter != null ? converter.normalize(value) : normalize(value);
+        }
+
+        /**
+         * 一行字段规范值的64位摘要（只包含当前模板的字段）
+         */
+        long digest(List<LedgerDataDetail> details) {
+            TreeMap<String, String> values = new TreeMap<>();
+            if (details != null) {
+                for (LedgerDataDetail detail : details) {
+                    FieldValueConverter converter = converters.get(detail.getFieldName());
+                    if (converter != null) {
+                        String value = converter.normalize(detail.getFieldValue());
+                        if (value != null) {
+                            values.put(detail.getFieldName(), value);
+                        }
+                    }
+                }
+            }
+
+            // FNV-1a
+            long hash = 0xcbf29ce484222325L;
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                hash = fnv(hash, entry.getKey());
+                hash = fnv(hash, "\u0001");
+                hash = fnv(hash, entry.getValue());
+                hash = fnv(hash, "\u0002");
+            }
+            return hash;
+        }
+
+        private static long fnv(long hash, String text) {
+            for (int i = 0; i < text.length(); i++) {
+                hash ^= text.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+            return hash;
+        }
+
+        String displayKey(String key) {
+            return key.replace(KEY_SEPARATOR, '|');
+        }
+
+        LedgerEditHistory history(Long dataId, String fieldName, String oldValue, String newValue,
+                                  String editType, LocalDateTime now) {
+            LedgerEditHistory history = new LedgerEditHistory();
+            history.setDataId(dataId);
+            history.setFieldName(fieldName);
+            history.setOldValue(oldValue);
+            history.setNewValue(newValue);
+            history.setEditType(editType);
+            history.setEditReason("差异上传: " + upload.getUploadNo());
+            history.setEditedBy(upload.getUserId());
+            history.setValidationResult("PASS");
+            history.setIpAddress(upload.getUploadIp());
+            history.setEditTime(now);
+            history.setDeleted(false);
+            return history;
+        }
+    }
+
+    /**
+     * 一个批次的分类结果
+     */
+    public static class DiffBatch {
+        private final Map<Integer, LedgerData> insertData = new LinkedHashMap<>();
+        private final Map<Integer, List<LedgerDataDetail>> insertDetails = new LinkedHashMap<>();
+        private final Map<Integer, String> insertKeys = new HashMap<>();
+        private final Map<Long, ChangedRow> changed = new LinkedHashMap<>();
+        private final Map<Long, Integer> rowNumberUpdates = new LinkedHashMap<>();
+
+        public Map<Integer, LedgerData> getInsertData() {
+            return insertData;
+        }
+
+        public Map<Integer, List<LedgerDataDetail>> getInsertDetails() {
+            return insertDetails;
+        }
+    }
+
+    private static class ExistingRow {
+        private final Long dataId;
+        private Integer rowNumber;
+        private long digest;
+
+        ExistingRow(Long dataId, Integer rowNumber, long digest) {
+            this.dataId = dataId;
+            this.rowNumber = rowNumber;
+            this.digest = digest;
+        }
+    }
+
+    private static class ChangedRow {
+        private final ExistingRow existing;
+        private final Integer rowNumber;
+        private final List<LedgerDataDetail> details;
+        // 本次上传该行的验证状态
+        private final String validationStatus;
+
+        ChangedRow(ExistingRow existing, Integer rowNumber, List<LedgerDataDetail> details, String validationStatus) {
+            this.existing = existing;
+            this.rowNumber = rowNumber;
+            this.details = details;
+            this.validationStatus = validationStatus;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.ledger.service;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 18:30
+ */
+
+import com.example.ledger.entity.UploadJob;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * 上传任务的定时维护（单个调度线程完成）：
+ * 续约本节点任务的租约、重新调度租约过期的任务、清理已结束的历史任务
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class UploadJobReaper {
+
+    private final UploadJobService uploadJobService;
+    private final LedgerUploadService ledgerUploadService;
+
+    // 已结束任务的保留时长
+    @Value("${app.upload.job-retention-hours:72}")
+    private int retentionHours;
+
+    /**
+     * 心跳：为本节点正在处理的任务续约
+     */
+    @Scheduled(fixedDelayString = "${app.upload.job-heartbeat-ms:30000}")
+    public void heartbeat() {
+        try {
+            uploadJobService.renewLocalLeases();
+        } catch (Exception e) {
+            log.error("上传任务心跳失败", e);
+        }
+    }
+
+    /**
+     * 回收租约过期的任务：未超过重试次数的重新调度（从断点继续），否则标记失败
+     */
+    @Scheduled(initialDelayString = "${app.upload.job-reap-initial-ms:30000}",
+            fixedDelayString = "${app.upload.job-reap-ms:60000}")
+    public void reap() {
+        try {
+            List<UploadJob> jobs = uploadJobService.findReclaimable();
+            for (UploadJob job : jobs) {
+                if (uploadJobService.canRetry(job)) {
+                    log.warn("上传任务租约过期，重新调度，任务ID: {}，上传ID: {}，已执行次数: {}，断点行号: {}",
+                            job.getId(), job.getUploadId(), job.getAttempts(), job.getLastCommittedRow());
+                    ledgerUploadService.submitJob(job);
+                } else {
+                    String message = "上传任务多次中断，已放弃处理（已执行" + job.getAttempts() + "次）";
+                    if (uploadJobService.abandon(job.getId(), message)) {
+                        log.error("{}，任务ID: {}，上传ID: {}", message, job.getId(), job.getUploadId());
+                        ledgerUploadService.markUploadFailed(job.getUploadId(), message);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.error("回收上传任务失败", e);
+        }
+    }
+
+    /**
+     * 清理已结束的历史任务
+     */
+    @Scheduled(cron = "${app.upload.job-purge-cron:0 0 * * * *}")
+    public void purge() {
+        try {
+            int deleted = uploadJobService.purgeFinished(retentionHours);
+            if (deleted > 0) {
+                log.info("已清理 {} 条已结束的上传任务", deleted);
+            }
+        } catch (Exception e) {
+            log.error("清理上传任务失败", e);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.ledger.service;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 18:15
+ */
+
+import com.example.ledger.entity.LedgerUpload;
+import com.example.ledger.entity.UploadJob;
+import com.example.ledger.repository.UploadJobRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.net.InetAddress;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 上传任务的持久化状态管理：创建、抢占租约、心跳、断点提交和结束
+ * 每次抢占生成新的租约令牌，断点和结束操作都以令牌为条件，租约被其他节点接管后旧的处理线程无法再提交
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class UploadJobService {
+
+    public static final String STATUS_PENDING = "PENDING";
+    public static final String STATUS_RUNNING = "RUNNING";
+
+    private final UploadJobRepository uploadJobRepository;
+
+    // 租约时长
+    @Value("${app.upload.job-lease-seconds:120}")
+    private int leaseSeconds;
+
+    // 最多执行次数（超过后不再重新调度）
+    @Value("${app.upload.job-max-attempts:3}")
+    private int maxAttempts;
+
+    // 本节点正在处理的任务：任务ID -> 租约令牌
+    private final Map<Long, String> localLeases = new ConcurrentHashMap<>();
+
+    private final String nodeName = resolveNodeName();
+
+    /**
+     * 租约丢失（任务已被其他节点接管或已取消）
+     */
+    public static class LeaseLostException extends RuntimeException {
+        public LeaseLostException(Long jobId) {
+            super("上传任务租约已失效，任务ID: " + jobId);
+        }
+    }
+
+    /**
+     * 创建上传任务
+     */
+    public UploadJob createJob(LedgerUpload upload, String tempFilePath, boolean validateRequiredFields,
+                               boolean skipInvalidRows, boolean replaceExisting, String businessKeyFields) {
+        LocalDateTime now = LocalDateTime.now();
+        UploadJob job = new UploadJob();
+        job.setUploadId(upload.getId());
+        job.setTemplateId(upload.getTemplateId());
+        job.setUnitName(upload.getUnitName());
+        job.setUserId(upload.getUserId());
+        job.setTempFilePath(tempFilePath);
+        job.setValidateRequiredFields(validateRequiredFields);
+        job.setSkipInvalidRows(skipInvalidRows);
+        job.setReplaceExisting(replaceExisting);
+        job.setProcessMode(upload.getProcessMode());
+        job.setBusinessKeyFields(businessKeyFields);
+        job.setStatus(STATUS_PENDING);
+        job.setCurrentProcessing("等待处理...");
+        job.setCreatedTime(now);
+        job.setUpdatedTime(now);
+        return uploadJobRepository.save(job);
+    }
+
+    /**
+     * 抢占任务，成功时返回租约令牌，任务已被其他节点持有或已结束时返回null
+     */
+    public String claim(Long jobId) {
+        String token = nodeName + "#" + UUID.randomUUID().toString().substring(0, 8);
+        LocalDateTime now = LocalDateTime.now();
+        if (uploadJobRepository.claim(jobId, token, now.plusSeconds(leaseSeconds), now) == 0) {
+            return null;
+        }
+        localLeases.put(jobId, token);
+        return token;
+    }
+
+    /**
+     * 释放本地持有记录（任务结束或租约丢失后调用）
+     */
+    public void release(Long jobId) {
+        localLeases.remove(jobId);
+    }
+
+    /**
+     * 为本节点持有的任务续约
+     */
+    public void renewLocalLeases() {
+        if (localLeases.isEmpty()) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        for (Map.Entry<Long, String> entry : localLeases.entrySet()) {
+            if (uploadJobRepository.renewLease(entry.getKey(), entry.getValue(), now.plusSeconds(leaseSeconds), now) == 0) {
+                log.warn("上传任务租约续约失败，任务可能已被接管或取消，任务ID: {}", entry.getKey());
+                localLeases.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * 提交断点和进度，必须在批次数据写入的同一事务中调用，租约丢失时抛出异常使批次回滚
+     */
+    public void checkpoint(Long jobId, String token, int lastRow, int totalRows, int processedRows,
+                           int successRows, int failedRows, int rowsPerSecond, String currentProcessing) {
+        LocalDateTime now = LocalDateTime.now();
+        int updated = uploadJobRepository.checkpoint(jobId, token, lastRow, totalRows, processedRows,
+                successRows, failedRows, rowsPerSecond, currentProcessing, now.plusSeconds(leaseSeconds), now);
+        if (updated == 0) {
+            throw new LeaseLostException(jobId);
+        }
+    }
+
+    /**
+     * 标记覆盖更新的旧数据已清理，必须在清理操作的同一事务中调用
+     */
+    public void markCleanupDone(Long jobId, String token) {
+        if (uploadJobRepository.markCleanupDone(jobId, token, LocalDateTime.now()) == 0) {
+            throw new LeaseLostException(jobId);
+        }
+    }
+
+    /**
+     * 更新进度说明
+     */
+    public void updateProgress(Long jobId, String token, int totalRows, String currentProcessing) {
+        uploadJobRepository.updateProgress(jobId, token, totalRows, currentProcessing, LocalDateTime.now());
+    }
+
+    /**
+     * 结束任务
+     */
+    public boolean finish(Long jobId, String token, String status, String errorMessage, int totalRows,
+                          int processedRows, int successRows, int failedRows, String currentProcessing) {
+        return uploadJobRepository.finish(jobId, token, status, errorMessage, totalRows, processedRows,
+                successRows, failedRows, currentProcessing, LocalDateTime.now()) > 0;
+    }
+
+    /**
+     * 取消上传记录对应的未结束任务
+     */
+    public void cancelByUploadId(Long uploadId) {
+        int cancelled = uploadJobRepository.cancelByUploadId(uploadId, LocalDateTime.now());
+        if (cancelled > 0) {
+            log.info("已取消上传任务，上传ID: {}", uploadId);
+        }
+    }
+
+    /**
+     * 上传记录对应的最新任务
+     */
+    public Optional<UploadJob> findLatestByUploadId(Long uploadId) {
+        return uploadJobRepository.findFirstByUploadIdOrderByIdDesc(uploadId);
+    }
+
+    public Optional<UploadJob> findById(Long jobId) {
+        return uploadJobRepository.findById(jobId);
+    }
+
+    /**
+     * 需要重新调度的任务（租约过期或长时间未开始）
+     */
+    public List<UploadJob> findReclaimable() {
+        LocalDateTime now = LocalDateTime.now();
+        return uploadJobRepository.findReclaimable(now, now.minusSeconds(leaseSeconds));
+    }
+
+    /**
+     * 是否还能重试
+     */
+    public boolean canRetry(UploadJob job) {
+        return job.getAttempts() < maxAttempts;
+    }
+
+    /**
+     * 放弃任务（超过重试次数），返回是否由本次调用放弃
+     */
+    public boolean abandon(Long jobId, String errorMessage) {
+        return uploadJobRepository.abandon(jobId, errorMessage, LocalDateTime.now()) > 0;
+    }
+
+    /**
+     * 清理已结束的历史任务
+     */
+    public int purgeFinished(int retentionHours) {
+        return uploadJobRepository.deleteFinishedBefore(LocalDateTime.now().minusHours(retentionHours));
+    }
+
+    private static String resolveNodeName() {
+        try {
+            String hostName = InetAddress.getLocalHost().getHostName();
+            return hostName.length() > 80 ? hostName.substring(0, 80) : hostName;
+        } catch (Exception e) {
+            return "node";
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package com.example.ledger.service;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 19:00
+ */
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 上传任务调度器
+ * 同一单位的任务串行执行，单位之间轮转调度，单位内部按用户轮转，避免一个单位或用户的批量上传占满线程池；
+ * 队列满时直接拒绝并给出建议的重试时间，不再由请求线程执行；
+ * 容量只在接收上传请求时检查（checkCapacity），已接收的任务（包括回收任务重新调度的）提交时不再检查
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class UploadScheduler {
+
+    @Qualifier("uploadTaskExecutor")
+    private final Executor uploadTaskExecutor;
+
+    // 同时执行的上传任务数
+    @Value("${app.upload.scheduler.workers:5}")
+    private int workers;
+
+    // 全局最多排队的任务数
+    @Value("${app.upload.scheduler.max-queued:100}")
+    private int maxQueued;
+
+    // 每个单位最多排队的任务数
+    @Value("${app.upload.scheduler.max-queued-per-unit:10}")
+    private int maxQueuedPerUnit;
+
+    // 以下状态均由 this 锁保护；单位没有排队和执行中的任务时移除
+    private final Map<String, UnitQueue> units = new LinkedHashMap<>();
+    // 有排队任务且没有任务在执行的单位（轮转顺序）
+    private final Deque<String> readyUnits = new ArrayDeque<>();
+    private final Set<Long> queuedJobIds = new HashSet<>();
+    private int running;
+    private int queued;
+    // 任务平均执行时间（指数平均），用于估算重试时间
+    private double avgRunMillis = 30000;
+
+    /**
+     * 上传队列已满
+     */
+    public static class UploadRejectedException extends RuntimeException {
+        private final int retryAfterSeconds;
+
+        public UploadRejectedException(String message, int retryAfterSeconds) {
+            super(message);
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        public int getRetryAfterSeconds() {
+            return retryAfterSeconds;
+        }
+    }
+
+    /**
+     * 检查是否还能接收该单位的上传，队列已满时抛出异常（每个上传请求只调用一次）
+     */
+    public synchronized void checkCapacity(String unitName) {
+        UnitQueue unit = units.get(unitName);
+        if (unit != null && unit.size() >= maxQueuedPerUnit) {
+            unit.rejected++;
+            // 同单位串行执行，需要等待本单位排队的任务
+            throw new UploadRejectedException("该单位上传任务过多（排队" + unit.size() + "个），请稍后重试",
+                    retryAfterSeconds(unit.size() + 1, 1));
+        }
+        if (queued >= maxQueued) {
+            if (unit != null) {
+                unit.rejected++;
+            }
+            throw new UploadRejectedException("上传队列已满（排队" + queued + "个），请稍后重试",
+                    retryAfterSeconds(queued + 1, workers));
+        }
+    }
+
+    /**
+     * 提交已接收的上传任务，同一任务重复提交时忽略
+     */
+    public void submit(String unitName, Long userId, Long jobId, Runnable task) {
+        synchronized (this) {
+            if (!queuedJobIds.add(jobId)) {
+                return;
+            }
+
+            UnitQueue unit = units.computeIfAbsent(unitName, UnitQueue::new);
+            unit.offer(new QueuedTask(jobId, userId, task, System.currentTimeMillis()));
+            unit.submitted++;
+            queued++;
+            if (!unit.running && !readyUnits.contains(unitName)) {
+                readyUnits.addLast(unitName);
+            }
+        }
+        dispatch();
+    }
+
+    /**
+     * 分派任务：按单位轮转，每个单位同时只执行一个任务
+     */
+    private void dispatch() {
+        List<UnitQueue> toRunUnits = new ArrayList<>();
+        List<Runnable> toRun = new ArrayList<>();
+        synchronized (this) {
+            while (running < workers && !readyUnits.isEmpty()) {
+                UnitQueue unit = units.get(readyUnits.pollFirst());
+                QueuedTask task = unit.poll();
+                if (task == null) {
+                    continue;
+                }
+                queued--;
+                queuedJobIds.remove(task.jobId);
+                running++;
+                unit.running = true;
+
+                long waitMillis = System.currentTimeMillis() - task.enqueuedAt;
+                unit.totalWaitMillis += waitMillis;
+                unit.maxWaitMillis = Math.max(unit.maxWaitMillis, waitMillis);
+                unit.started++;
+
+                toRunUnits.add(unit);
+                toRun.add(() -> runTask(unit, task));
+            }
+        }
+
+        for (int i = 0; i < toRun.size(); i++) {
+            try {
+                uploadTaskExecutor.execute(toRun.get(i));
+            } catch (RejectedExecutionException e) {
+                // 线程池拒绝时任务保持待处理状态，由回收任务重新调度
+                log.error("上传线程池拒绝任务，单位: {}", toRunUnits.get(i).unitName, e);
+                onTaskRejected(toRunUnits.get(i));
+            }
+        }
+    }
+
+    private void runTask(UnitQueue unit, QueuedTask task) {
+        long start = System.currentTimeMillis();
+        try {
+            task.task.run();
+        } catch (Exception e) {
+            log.error("上传任务执行异常，任务ID: {}", task.jobId, e);
+        } finally {
+            onTaskFinished(unit, System.currentTimeMillis() - start);
+        }
+    }
+
+    private void onTaskFinished(UnitQueue unit, long runMillis) {
+        synchronized (this) {
+            running--;
+            unit.running = false;
+            unit.completed++;
+            unit.totalRunMillis += runMillis;
+            avgRunMillis = avgRunMillis * 0.8 + runMillis * 0.2;
+            if (unit.size() > 0) {
+                readyUnits.addLast(unit.unitName);
+            } else {
+                units.remove(unit.unitName);
+            }
+        }
+        dispatch();
+    }
+
+    private synchronized void onTaskRejected(UnitQueue unit) {
+        running--;
+        unit.running = false;
+        unit.rejected++;
+        if (unit.size() == 0) {
+            units.remove(unit.unitName);
+        } else if (!readyUnits.contains(unit.unitName)) {
+            readyUnits.addLast(unit.unitName);
+        }
+    }
+
+    /**
+     * 建议的重试时间（秒）：排在前面的任务数 * 平均执行时间 / 并发数
+     */
+    private int retryAfterSeconds(int tasksAhead, int parallelism) {
+        double seconds = tasksAhead * avgRunMillis / Math.max(parallelism, 1) / 1000;
+        return (int) Math.min(Math.max(Math.ceil(seconds), 5), 600);
+    }
+
+    /**
+     * 调度统计：全局队列以及每个单位的排队数、等待时间
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("workers", workers);
+        stats.put("running", running);
+        stats.put("queued", queued);
+        stats.put("maxQueued", maxQueued);
+        stats.put("maxQueuedPerUnit", maxQueuedPerUnit);
+        stats.put("avgRunMillis", Math.round(avgRunMillis));
+
+        List<Map<String, Object>> unitStats = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (UnitQueue unit : units.values()) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("unitName", unit.unitName);
+            item.put("queued", unit.size());
+            item.put("running", unit.running);
+            item.put("submitted", unit.submitted);
+            item.put("completed", unit.completed);
+            item.put("rejected", unit.rejected);
+            item.put("avgWaitMillis", unit.started > 0 ? unit.totalWaitMillis / unit.started : 0);
+            item.put("maxWaitMillis", unit.maxWaitMillis);
+            item.put("oldestWaitMillis", unit.oldestEnqueuedAt() > 0 ? now - unit.oldestEnqueuedAt() : 0);
+            item.put("avgRunMillis", unit.completed > 0 ? unit.totalRunMillis / unit.completed : 0);
+            unitStats.add(item);
+        }
+        stats.put("units", unitStats);
+        return stats;
+    }
+
+    private static class QueuedTask {
+        private final Long jobId;
+        private final Long userId;
+        private final Runnable task;
+        private final long enqueuedAt;
+
+        QueuedTask(Long jobId, Long userId, Runnable task, long enqueuedAt) {
+            this.jobId = jobId;
+            this.userId = userId;
+            this.task = task;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    /**
+     * 单位队列：内部按用户分队列并轮转取任务
+     */
+    private static class UnitQueue {
+        private final String unitName;
+        private final LinkedHashMap<Long, ArrayDeque<QueuedTask>> userQueues = new LinkedHashMap<>();
+        private boolean running;
+
+        private long submitted;
+        private long started;
+        private long completed;
+        private long rejected;
+        private long totalWaitMillis;
+        private long maxWaitMillis;
+        private long totalRunMillis;
+
+        UnitQueue(String unitName) {
+            this.unitName = unitName;
+        }
+
+        void offer(QueuedTask task) {
+            userQueues.computeIfAbsent(task.userId, k -> new ArrayDeque<>()).addLast(task);
+        }
+
+        /**
+         * 取出队首用户的任务，该用户还有任务时移到队尾
+         */
+        QueuedTask poll() {
+            Iterator<Map.Entry<Long, ArrayDeque<QueuedTask>>> iterator = userQueues.entrySet().iterator();
+            if (!iterator.hasNext()) {
+                return null;
+            }
+            Map.Entry<Long, ArrayDeque<QueuedTask>> entry = iterator.next();
+            QueuedTask task = entry.getValue().pollFirst();
+            iterator.remove();
+            if (!entry.getValue().isEmpty()) {
+                userQueues.put(entry.getKey(), entry.getValue());
+            }
+            return task;
+        }
+
+        int size() {
+            int size = 0;
+            for (ArrayDeque<QueuedTask> queue : userQueues.values()) {
+                size += queue.size();
+            }
+            return size;
+        }
+
+        long oldestEnqueuedAt() {
+            long oldest = 0;
+            for (ArrayDeque<QueuedTask> queue : userQueues.values()) {
+                QueuedTask first = queue.peekFirst();
+                if (first != null && (oldest == 0 || first.enqueuedAt < oldest)) {
+                    oldest = first.enqueuedAt;
+                }
+            }
+            return oldest;
+        }
+    }
+}
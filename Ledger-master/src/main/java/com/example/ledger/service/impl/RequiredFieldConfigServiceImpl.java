@@ -13,10 +13,14 @@ import com.example.ledger.dto.response.UploadValidationResult;
 import com.example.ledger.entity.*;
 import com.example.ledger.repository.*;
 import com.example.ledger.service.RequiredFieldConfigService;
+import com.example.ledger.service.TemplateMetadataCache;
+import com.example.ledger.util.ExcelStreamReader;
+import com.example.ledger.util.FieldValueConverter;
 import com.example.ledger.util.SecurityUtil;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.poi.ss.usermodel.*;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
@@ -36,8 +40,13 @@ public class RequiredFieldConfigServiceImpl implements RequiredFieldConfigServic
     private final LedgerTemplateRepository ledgerTemplateRepository;
     private final TemplateFieldRepository templateFieldRepository;
     private final UserRepository userRepository;
+    private final TemplateMetadataCache templateMetadataCache;
     private final SecurityUtil securityUtil;
 
+    // 与上传一致：无法按字段类型转换的值是否提示
+    @Value("${app.upload.validate-field-types:false}")
+    private boolean validateFieldTypes;
+
     @Override
     @Transactional(readOnly = true)
     public List<RequiredFieldConfigResponse> getRequiredFieldsByTemplate(Long templateId) {
@@ -123,6 +132,7 @@ public class RequiredFieldConfigServiceImpl implements RequiredFieldConfigServic
         }
 
         RequiredFieldConfig savedConfig = requiredFieldConfigRepository.save(config);
+        templateMetadataCache.evict(request.getTemplateId());
 
         // 获取字段标签
         String fieldLabel = templateFields.stream()
@@ -197,6 +207,7 @@ public class RequiredFieldConfigServiceImpl implements RequiredFieldConfigServic
         config.setUpdatedTime(LocalDateTime.now());
 
         RequiredFieldConfig savedConfig = requiredFieldConfigRepository.save(config);
+        templateMetadataCache.evict(config.getTemplateId());
 
         // 获取字段标签
         List<TemplateField> templateFields = templateFieldRepository.findByTemplateIdAndDeletedFalse(config.getTemplateId());
@@ -221,6 +232,7 @@ public class RequiredFieldConfigServiceImpl implements RequiredFieldConfigServic
         config.setUpdatedTime(LocalDateTime.now());
 
         requiredFieldConfigRepository.save(config);
+        templateMetadataCache.evict(config.getTemplateId());
     }
 
     @Override
@@ -304,6 +316,7 @@ public class RequiredFieldConfigServiceImpl implements RequiredFieldConfigServic
             responses.add(convertToResponse(savedConfig, template, Map.of(fieldName, fieldLabel)));
         }
 
+        templateMetadataCache.evict(templateId);
         return responses;
     }
 
@@ -501,6 +514,10 @@ public class RequiredFieldConfigServiceImpl implements RequiredFieldConfigServic
                     RequiredFieldConfig config = requiredConfigMap.get(fieldName);
                     boolean isRequired = config != null && Boolean.TRUE.equals(config.getIsRequired());
                     boolean isEmpty = cellValue == null || cellValue.trim().isEmpty();
+                    // 转换为字段类型的规范值（与上传一致）
+                    FieldValueConverter converter = FieldValueConverter.of(fieldDef);
+                    String typeMessage = validateFieldTypes ? converter.validate(cellValue) : null;
+                    cellValue = typeMessage == null ? converter.normalize(cellValue) : cellValue;
 
                     UploadValidationResult.RowValidationDetail.FieldValidationDetail fieldDetail =
                             UploadValidationResult.RowValidationDetail.FieldValidationDetail.builder()
@@ -525,6 +542,9 @@ public class RequiredFieldConfigServiceImpl implements RequiredFieldConfigServic
                             rowValidationMessage.append("; ");
                         }
                         rowValidationMessage.append(message);
+                    } else if (typeMessage != null) {
+                        // 类型不符只提示，不影响上传（上传时该字段标记为未通过验证）
+                        fieldDetail.setValidationMessage(fieldDef.getFieldLabel() + ": " + typeMessage);
                     }
                     // 移除验证规则检查，只检查是否必填
 
@@ -695,16 +715,11 @@ public class RequiredFieldConfigServiceImpl implements RequiredFieldConfigServic
             case STRING:
                 return cell.getStringCellValue().trim();
             case NUMERIC:
+                // 与上传的流式读取取值规则一致
                 if (DateUtil.isCellDateFormatted(cell)) {
-                    return cell.getDateCellValue().toString();
-                } else {
-                    double value = cell.getNumericCellValue();
-                    if (value == Math.floor(value)) {
-                        return String.valueOf((int) value);
-                    } else {
-                        return String.valueOf(value);
-                    }
+                    return FieldValueConverter.formatDateTime(cell.getLocalDateTimeCellValue());
                 }
+                return ExcelStreamReader.formatNumeric(cell.getNumericCellValue());
             case BOOLEAN:
                 return String.valueOf(cell.getBooleanCellValue());
             case FORMULA:
@@ -0,0 +1,134 @@
+package com.example.ledger.util;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 17:10
+ */
+
+import org.apache.poi.ss.usermodel.Sheet;
+
+/**
+ * 导出列宽估算
+ * 写入数据行时按字符数采样每列的最大宽度（中文等全角字符按2个字符计），
+ * 代替 autoSizeColumn 逐个单元格测量字体，耗时与行数基本无关
+ */
+public class ColumnWidthEstimator {
+
+    // 列宽模式：AUTO-逐个单元格精确计算（原有方式），ESTIMATE-采样估算，NONE-不调整
+    public static final String MODE_AUTO = "AUTO";
+    public static final String MODE_ESTIMATE = "ESTIMATE";
+    public static final String MODE_NONE = "NONE";
+
+    // 列宽上下限（字符数）
+    private static final int MIN_CHARS = 6;
+    private static final int MAX_CHARS = 60;
+    // 左右留白
+    private static final int PADDING_CHARS = 2;
+    // 没有采样到数据时，字段长度提示最多使用的宽度
+    private static final int HINT_MAX_CHARS = 30;
+
+    private final int[] headerChars;
+    private final int[] sampledChars;
+    private final int[] hintChars;
+    private final int sampleRows;
+    private int rowCount;
+
+    public ColumnWidthEstimator(int columnCount, int sampleRows) {
+        this.headerChars = new int[columnCount];
+        this.sampledChars = new int[columnCount];
+        this.hintChars = new int[columnCount];
+        this.sampleRows = sampleRows;
+    }
+
+    /**
+     * 解析列宽模式，为空时使用默认模式
+     */
+    public static String resolveMode(String mode, String defaultMode) {
+        String value = mode == null || mode.trim().isEmpty() ? defaultMode : mode.trim().toUpperCase();
+        if (!MODE_AUTO.equals(value) && !MODE_ESTIMATE.equals(value) && !MODE_NONE.equals(value)) {
+            throw new IllegalArgumentException("不支持的列宽模式: " + mode);
+        }
+        return value;
+    }
+
+    /**
+     * 记录表头文字宽度
+     */
+    public void header(int column, String text) {
+        if (column < headerChars.length) {
+            headerChars[column] = Math.max(headerChars[column], displayChars(text));
+        }
+    }
+
+    /**
+     * 记录字段长度提示（TemplateField.fieldLength）
+     */
+    public void hint(int column, Integer fieldLength) {
+        if (column < hintChars.length && fieldLength != null && fieldLength > 0) {
+            hintChars[column] = Math.min(fieldLength, HINT_MAX_CHARS);
+        }
+    }
+
+    /**
+     * 是否还在采样范围内（超出后不再计算字符宽度）
+     */
+    public boolean sampling() {
+        return rowCount < sampleRows;
+    }
+
+    /**
+     * 记录单元格值
+     */
+    public void sample(int column, String value) {
+        if (sampling() && column < sampledChars.length) {
+            sampledChars[column] = Math.max(sampledChars[column], displayChars(value));
+        }
+    }
+
+    /**
+     * 一行写完
+     */
+    public void endRow() {
+        rowCount++;
+    }
+
+    /**
+     * 估算的列宽（字符数）
+     */
+    public int widthChars(int column) {
+        int chars = sampledChars[column] > 0 ? sampledChars[column] : hintChars[column];
+        chars = Math.max(chars, headerChars[column]) + PADDING_CHARS;
+        return Math.min(Math.max(chars, MIN_CHARS), MAX_CHARS);
+    }
+
+    /**
+     * 设置列宽
+     */
+    public void apply(Sheet sheet) {
+        for (int i = 0; i < sampledChars.length; i++) {
+            sheet.setColumnWidth(i, widthChars(i) * 256);
+        }
+    }
+
+    /**
+     * 显示宽度：全角字符按2个字符计
+     */
+    static int displayChars(String text) {
+        if (text == null) {
+            return 0;
+        }
+        int max = 0;
+        int chars = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                // 多行文本只按最长的一行计算
+                max = Math.max(max, chars);
+                chars = 0;
+                continue;
+            }
+            chars += c >= 0x2E80 ? 2 : 1;
+        }
+        return Math.max(max, chars);
+    }
+}
@@ -0,0 +1,747 @@
+package com.example.ledger.util;
+
+/**
+ * @author 霜月
+ * @create 2026/10/18 02:40
+ */
+
+import com.example.ledger.dto.request.FieldCondition;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * 单个模板的列式快照（只读查询用，写入和查询的并发控制由调用方负责）
+ * 行级属性和每个字段各占一列：字符串列按字典编码存为 int[]（NULL_CODE 为空），
+ * 数字列按列内统一的小数位存为 long[] 非标度值，日期列存为 int[] 纪元日，数字/日期列用 BitSet 记录有值的行；
+ * 数据变化时删除旧行（清除存活位）并追加新行，失效行由调用方按比例重建清理。
+ * 字符串比较、分组和排序不区分大小写，与数据库 _ci 排序规则一致
+ */
+public class ColumnarSnapshot {
+
+    public static final int NULL_CODE = -1;
+
+    // 字段列类型
+    public static final String STRING = "STRING";
+    public static final String NUMERIC = "NUMERIC";
+    public static final String DATE = "DATE";
+
+    // 分组键
+    public static final String KEY_UNIT = "UNIT";
+    public static final String KEY_TEMPLATE = "TEMPLATE";
+    public static final String KEY_UPLOAD = "UPLOAD";
+    public static final String KEY_MONTH = "MONTH";
+    public static final String KEY_FIELD = "FIELD";
+
+    // 汇总函数
+    public static final String COUNT = "COUNT";
+    public static final String SUM = "SUM";
+    public static final String AVG = "AVG";
+    public static final String MIN = "MIN";
+    public static final String MAX = "MAX";
+
+    // 与数据库 AVG 对 DECIMAL 结果保留的小数位一致（列小数位 + 4）
+    private static final int AVG_EXTRA_SCALE = 4;
+    private static final int MAX_SCALE = 10;
+    private static final int INITIAL_CAPACITY = 1024;
+    // HashMap 每个条目（装箱的键值和节点）的估算字节数
+    private static final int MAP_ENTRY_BYTES = 64;
+
+    // 分组键排序：空值在前，文本不区分大小写
+    public static final Comparator<Object> KEY_ORDER = (a, b) -> {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        if (a instanceof String) {
+            return String.CASE_INSENSITIVE_ORDER.compare((String) a, (String) b);
+        }
+        return Long.compare(((Number) a).longValue(), ((Number) b).longValue());
+    };
+
+    private final long templateId;
+
+    // 行级列
+    private long[] dataIds = new long[INITIAL_CAPACITY];
+    private long[] uploadIds = new long[INITIAL_CAPACITY];
+    private int[] months = new int[INITIAL_CAPACITY];
+    private long[] createdBy = new long[INITIAL_CAPACITY];
+    private int[] unitCodes = new int[INITIAL_CAPACITY];
+    private int[] statusCodes = new int[INITIAL_CAPACITY];
+    private final Dictionary units = new Dictionary();
+    private final Dictionary statuses = new Dictionary();
+    private final BitSet live = new BitSet();
+    private final Map<Long, Integer> rowByDataId = new HashMap<>();
+    private int size;
+
+    // 存储字段名 -> 字段列
+    private final Map<String, FieldColumn> fields = new LinkedHashMap<>();
+
+    /**
+     * @param fieldTypes 存储字段名 -> 字段列类型（STRING/NUMERIC/DATE），不在其中的字段值忽略
+     */
+    public ColumnarSnapshot(long templateId, Map<String, String> fieldTypes) {
+        this.templateId = templateId;
+        for (Map.Entry<String, String> entry : fieldTypes.entrySet()) {
+            fields.put(entry.getKey(), new FieldColumn(entry.getValue()));
+        }
+    }
+
+    // ---------- 写入 ----------
+
+    /**
+     * 追加一行（同一数据ID已有的行先删除），返回行号
+     */
+    public int addRow(long dataId, long uploadId, int month, long createdById, String unitName,
+                      String validationStatus) {
+        removeRow(dataId);
+        if (size == dataIds.length) {
+            grow();
+        }
+        int row = size++;
+        dataIds[row] = dataId;
+        uploadIds[row] = uploadId;
+        months[row] = month;
+        createdBy[row] = createdById;
+        unitCodes[row] = units.encode(unitName);
+        statusCodes[row] = statuses.encode(validationStatus);
+        for (FieldColumn column : fields.values()) {
+            column.ensureCapacity(dataIds.length);
+            column.codes[row] = NULL_CODE;
+        }
+        live.set(row);
+        rowByDataId.put(dataId, row);
+        return row;
+    }
+
+    /**
+     * 删除数据ID对应的行，返回是否存在
+     */
+    public boolean removeRow(long dataId) {
+        Integer row = rowByDataId.remove(dataId);
+        if (row == null) {
+            return false;
+        }
+        live.clear(row);
+        return true;
+    }
+
+    /**
+     * 写入字段值（数据ID不存在或字段不在快照中时忽略）
+     */
+    public void setValue(long dataId, String storedFieldName, String fieldValue, BigDecimal numericValue,
+                         LocalDate dateValue) {
+        Integer row = rowByDataId.get(dataId);
+        FieldColumn column = fields.get(storedFieldName);
+        if (row == null || column == null) {
+            return;
+        }
+        column.set(row, fieldValue, numericValue, dateValue);
+    }
+
+    public boolean containsUnit(String unitName) {
+        return units.find(unitName) != NULL_CODE;
+    }
+
+    public long getTemplateId() {
+        return templateId;
+    }
+
+    public int getLiveRows() {
+        return live.cardinality();
+    }
+
+    public int getDeadRows() {
+        return size - live.cardinality();
+    }
+
+    public int getFieldCount() {
+        return fields.size();
+    }
+
+    /**
+     * 估算占用的内存（按数组容量计算）
+     */
+    public long estimateBytes() {
+        long bytes = (long) dataIds.length * (8 + 8 + 4 + 8 + 4 + 4) + dataIds.length / 8
+                + (long) rowByDataId.size() * MAP_ENTRY_BYTES + units.bytes + statuses.bytes;
+        for (FieldColumn column : fields.values()) {
+            bytes += column.estimateBytes();
+        }
+        return bytes;
+    }
+
+    // ---------- 过滤 ----------
+
+    /**
+     * 存活行
+     */
+    public BitSet liveRows() {
+        return (BitSet) live.clone();
+    }
+
+    public void retainUnit(BitSet rows, String unitName) {
+        retainCode(rows, unitCodes, units.find(unitName));
+    }
+
+    public void retainValidationStatus(BitSet rows, String validationStatus) {
+        retainCode(rows, statusCodes, statuses.find(validationStatus));
+    }
+
+    public void retainUpload(BitSet rows, long uploadId) {
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            if (uploadIds[row] != uploadId) {
+                rows.clear(row);
+            }
+        }
+    }
+
+    public void retainCreatedBy(BitSet rows, long userId) {
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            if (createdBy[row] != userId) {
+                rows.clear(row);
+            }
+        }
+    }
+
+    /**
+     * 创建年月范围（yyyyMM，含两端）
+     */
+    public void retainMonths(BitSet rows, int fromMonth, int toMonth) {
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            if (months[row] < fromMonth || months[row] > toMonth) {
+                rows.clear(row);
+            }
+        }
+    }
+
+    /**
+     * 字段条件（与明细上的EXISTS条件语义一致：字段没有值的行不满足任何条件）
+     * valueType 为比较的列类型，operator 取 FieldCondition 的操作符；LIKE 的取值为要包含的文本。
+     * 数字列超出 long 范围时无法在快照中比较，返回false，由调用方改为查询数据库
+     */
+    public boolean retainField(BitSet rows, String storedFieldName, String valueType, String operator,
+                               List<?> values) {
+        FieldColumn column = fields.get(storedFieldName);
+        if (column == null) {
+            rows.clear();
+            return true;
+        }
+        if (NUMERIC.equals(valueType)) {
+            if (!NUMERIC.equals(column.type) || column.overflow) {
+                return false;
+            }
+            retainNumeric(rows, column, operator, values);
+        } else if (DATE.equals(valueType)) {
+            if (!DATE.equals(column.type)) {
+                return false;
+            }
+            retainDate(rows, column, operator, values);
+        } else {
+            BitSet codes = column.dictionary.match(operator, values);
+            for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+                int code = column.codes[row];
+                if (code == NULL_CODE || !codes.get(code)) {
+                    rows.clear(row);
+                }
+            }
+        }
+        return true;
+    }
+
+    private void retainNumeric(BitSet rows, FieldColumn column, String operator, List<?> values) {
+        long[] bounds = new long[values.size() * 2];
+        for (int i = 0; i < values.size(); i++) {
+            BigDecimal value = (BigDecimal) values.get(i);
+            bounds[i * 2] = toBound(value, column.scale, RoundingMode.FLOOR);
+            bounds[i * 2 + 1] = toBound(value, column.scale, RoundingMode.CEILING);
+        }
+        rows.and(column.valid);
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            if (!matchesLong(column.unscaled[row], operator, bounds)) {
+                rows.clear(row);
+            }
+        }
+    }
+
+    private void retainDate(BitSet rows, FieldColumn column, String operator, List<?> values) {
+        long[] bounds = new long[values.size() * 2];
+        for (int i = 0; i < values.size(); i++) {
+            long day = ((LocalDate) values.get(i)).toEpochDay();
+            bounds[i * 2] = day;
+            bounds[i * 2 + 1] = day;
+        }
+        rows.and(column.valid);
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            if (!matchesLong(column.epochDays[row], operator, bounds)) {
+                rows.clear(row);
+            }
+        }
+    }
+
+    /**
+     * bounds 中每个取值占两位：向下取整、向上取整后的非标度值，两者相等时取值可以精确表示
+     */
+    private static boolean matchesLong(long value, String operator, long[] bounds) {
+        switch (operator) {
+            case FieldCondition.NE:
+                return bounds[0] != bounds[1] || value != bounds[0];
+            case FieldCondition.GT:
+                return value > bounds[0];
+            case FieldCondition.GTE:
+                return value >= bounds[1];
+            case FieldCondition.LT:
+                return value < bounds[1];
+            case FieldCondition.LTE:
+                return value <= bounds[0];
+            case FieldCondition.BETWEEN:
+                return value >= bounds[1] && value <= bounds[2];
+            case FieldCondition.IN:
+                for (int i = 0; i < bounds.length; i += 2) {
+                    if (bounds[i] == bounds[i + 1] && value == bounds[i]) {
+                        return true;
+                    }
+                }
+                return false;
+            default:
+                return bounds[0] == bounds[1] && value == bounds[0];
+        }
+    }
+
+    private static long toBound(BigDecimal value, int scale, RoundingMode roundingMode) {
+        BigDecimal scaled = value.setScale(scale, roundingMode);
+        if (scaled.unscaledValue().bitLength() > 63) {
+            return scaled.signum() > 0 ? Long.MAX_VALUE : Long.MIN_VALUE;
+        }
+        return scaled.unscaledValue().longValue();
+    }
+
+    private static void retainCode(BitSet rows, int[] codes, int code) {
+        if (code == NULL_CODE) {
+            rows.clear();
+            return;
+        }
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            if (codes[row] != code) {
+                rows.clear(row);
+            }
+        }
+    }
+
+    // ---------- 汇总 ----------
+
+    /**
+     * 按分组键汇总，结果按分组键升序排列（空值在前）
+     * 每行为分组键取值后接汇总值：月份为 yyyyMM 整数，数字为 BigDecimal，日期为 LocalDate；
+     * 汇总的字段无法在快照中计算（数字列超出范围）时返回null
+     */
+    public List<Object[]> aggregate(BitSet rows, List<GroupKey> keys, List<Metric> metrics) {
+        FieldColumn[] keyColumns = new FieldColumn[keys.size()];
+        for (int k = 0; k < keys.size(); k++) {
+            if (KEY_FIELD.equals(keys.get(k).kind)) {
+                keyColumns[k] = fields.get(keys.get(k).field);
+                if (keyColumns[k] == null) {
+                    throw new IllegalArgumentException("快照中不存在字段: " + keys.get(k).field);
+                }
+            }
+        }
+        FieldColumn[] metricColumns = new FieldColumn[metrics.size()];
+        for (int m = 0; m < metrics.size(); m++) {
+            Metric metric = metrics.get(m);
+            if (metric.field != null) {
+                metricColumns[m] = fields.get(metric.field);
+                if (metricColumns[m] == null) {
+                    throw new IllegalArgumentException("快照中不存在字段: " + metric.field);
+                }
+                if (NUMERIC.equals(metric.valueType) && metricColumns[m].overflow) {
+                    return null;
+                }
+            }
+        }
+
+        Map<GroupProbe, Accumulator[]> groups = new HashMap<>();
+        GroupProbe probe = new GroupProbe(keys.size());
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            for (int k = 0; k < keys.size(); k++) {
+                probe.values[k] = keyValue(keys.get(k).kind, keyColumns[k], row);
+            }
+            Accumulator[] accumulators = groups.get(probe);
+            if (accumulators == null) {
+                accumulators = new Accumulator[metrics.size()];
+                for (int m = 0; m < accumulators.length; m++) {
+                    accumulators[m] = new Accumulator();
+                }
+                groups.put(probe.copy(), accumulators);
+            }
+            for (int m = 0; m < metrics.size(); m++) {
+                accumulate(accumulators[m], metrics.get(m), metricColumns[m], row);
+            }
+        }
+
+        List<Object[]> result = new ArrayList<>(groups.size());
+        for (Map.Entry<GroupProbe, Accumulator[]> entry : groups.entrySet()) {
+            Object[] values = new Object[keys.size() + metrics.size()];
+            for (int k = 0; k < keys.size(); k++) {
+                values[k] = decodeKey(keys.get(k).kind, keyColumns[k], entry.getKey().values[k]);
+            }
+            for (int m = 0; m < metrics.size(); m++) {
+                values[keys.size() + m] = result(entry.getValue()[m], metrics.get(m), metricColumns[m]);
+            }
+            result.add(values);
+        }
+        result.sort((a, b) -> {
+            for (int k = 0; k < keys.size(); k++) {
+                int compared = KEY_ORDER.compare(a[k], b[k]);
+                if (compared != 0) {
+                    return compared;
+                }
+            }
+            return 0;
+        });
+        return result;
+    }
+
+    private long keyValue(String kind, FieldColumn column, int row) {
+        switch (kind) {
+            case KEY_UNIT:
+                return unitCodes[row];
+            case KEY_UPLOAD:
+                return uploadIds[row];
+            case KEY_MONTH:
+                return months[row];
+            case KEY_FIELD:
+                return column.codes[row];
+            default:
+                return 0;
+        }
+    }
+
+    private Object decodeKey(String kind, FieldColumn column, long value) {
+        switch (kind) {
+            case KEY_UNIT:
+                return units.decode((int) value);
+            case KEY_TEMPLATE:
+                return templateId;
+            case KEY_UPLOAD:
+                return value;
+            case KEY_MONTH:
+                return (int) value;
+            default:
+                return column.dictionary.decode((int) value);
+        }
+    }
+
+    private static void accumulate(Accumulator accumulator, Metric metric, FieldColumn column, int row) {
+        if (column == null) {
+            // COUNT(*)
+            accumulator.count++;
+            return;
+        }
+        if (COUNT.equals(metric.function)) {
+            if (column.codes[row] != NULL_CODE) {
+                accumulator.count++;
+            }
+            return;
+        }
+        if (STRING.equals(metric.valueType)) {
+            int code = column.codes[row];
+            if (code != NULL_CODE) {
+                String value = column.dictionary.decode(code);
+                if (accumulator.text == null || (MIN.equals(metric.function)
+                        ? String.CASE_INSENSITIVE_ORDER.compare(value, accumulator.text) < 0
+                        : String.CASE_INSENSITIVE_ORDER.compare(value, accumulator.text) > 0)) {
+                    accumulator.text = value;
+                }
+            }
+            return;
+        }
+        if (!column.valid.get(row)) {
+            return;
+        }
+        long value = NUMERIC.equals(metric.valueType) ? column.unscaled[row] : column.epochDays[row];
+        accumulator.count++;
+        accumulator.min = Math.min(accumulator.min, value);
+        accumulator.max = Math.max(accumulator.max, value);
+        if (accumulator.overflowSum != null) {
+            accumulator.overflowSum = accumulator.overflowSum.add(BigDecimal.valueOf(value));
+        } else {
+            long sum = accumulator.sum + value;
+            // 溢出时改用 BigDecimal 累加
+            if (((accumulator.sum ^ sum) & (value ^ sum)) < 0) {
+                accumulator.overflowSum = BigDecimal.valueOf(accumulator.sum).add(BigDecimal.valueOf(value));
+            } else {
+                accumulator.sum = sum;
+            }
+        }
+    }
+
+    private static Object result(Accumulator accumulator, Metric metric, FieldColumn column) {
+        if (column == null || COUNT.equals(metric.function)) {
+            return accumulator.count;
+        }
+        if (STRING.equals(metric.valueType)) {
+            return accumulator.text;
+        }
+        if (accumulator.count == 0) {
+            return null;
+        }
+        if (DATE.equals(metric.valueType)) {
+            return LocalDate.ofEpochDay(MIN.equals(metric.function) ? accumulator.min : accumulator.max);
+        }
+        switch (metric.function) {
+            case MIN:
+                return BigDecimal.valueOf(accumulator.min, column.scale);
+            case MAX:
+                return BigDecimal.valueOf(accumulator.max, column.scale);
+            default:
+                BigDecimal sum = accumulator.overflowSum != null
+                        ? accumulator.overflowSum.movePointLeft(column.scale)
+                        : BigDecimal.valueOf(accumulator.sum, column.scale);
+                return AVG.equals(metric.function)
+                        ? sum.divide(BigDecimal.valueOf(accumulator.count), column.scale + AVG_EXTRA_SCALE,
+                        RoundingMode.HALF_UP)
+                        : sum;
+        }
+    }
+
+    private void grow() {
+        int capacity = dataIds.length * 2;
+        dataIds = Arrays.copyOf(dataIds, capacity);
+        uploadIds = Arrays.copyOf(uploadIds, capacity);
+        months = Arrays.copyOf(months, capacity);
+        createdBy = Arrays.copyOf(createdBy, capacity);
+        unitCodes = Arrays.copyOf(unitCodes, capacity);
+        statusCodes = Arrays.copyOf(statusCodes, capacity);
+    }
+
+    /**
+     * 分组键：行级属性或字段取值
+     */
+    public static class GroupKey {
+        private final String kind;
+        private final String field;
+
+        public GroupKey(String kind, String field) {
+            this.kind = kind;
+            this.field = field;
+        }
+    }
+
+    /**
+     * 汇总项：field 为空时统计行数；valueType 为汇总的列类型（STRING/NUMERIC/DATE）
+     */
+    public static class Metric {
+        private final String function;
+        private final String field;
+        private final String valueType;
+
+        public Metric(String function, String field, String valueType) {
+            this.function = function;
+            this.field = field;
+            this.valueType = valueType;
+        }
+    }
+
+    private static class Accumulator {
+        private long count;
+        private long sum;
+        private BigDecimal overflowSum;
+        private long min = Long.MAX_VALUE;
+        private long max = Long.MIN_VALUE;
+        private String text;
+    }
+
+    /**
+     * 分组键取值，查找时复用同一个对象，新分组时复制
+     */
+    private static class GroupProbe {
+        private final long[] values;
+
+        GroupProbe(int size) {
+            this.values = new long[size];
+        }
+
+        GroupProbe copy() {
+            GroupProbe copy = new GroupProbe(values.length);
+            System.arraycopy(values, 0, copy.values, 0, values.length);
+            return copy;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof GroupProbe && Arrays.equals(values, ((GroupProbe) o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(values);
+        }
+    }
+
+    /**
+     * 字段列
+     */
+    private static class FieldColumn {
+        private final String type;
+        private final Dictionary dictionary = new Dictionary();
+        private int[] codes = new int[0];
+        // 数字列：按列小数位存储的非标度值
+        private long[] unscaled;
+        private int scale;
+        private boolean overflow;
+        // 日期列：纪元日
+        private int[] epochDays;
+        // 数字/日期列有值的行
+        private final BitSet valid = new BitSet();
+
+        FieldColumn(String type) {
+            this.type = type;
+        }
+
+        void ensureCapacity(int capacity) {
+            if (codes.length >= capacity) {
+                return;
+            }
+            codes = Arrays.copyOf(codes, capacity);
+            if (NUMERIC.equals(type)) {
+                unscaled = unscaled == null ? new long[capacity] : Arrays.copyOf(unscaled, capacity);
+            } else if (DATE.equals(type)) {
+                epochDays = epochDays == null ? new int[capacity] : Arrays.copyOf(epochDays, capacity);
+            }
+        }
+
+        void set(int row, String fieldValue, BigDecimal numericValue, LocalDate dateValue) {
+            codes[row] = dictionary.encode(fieldValue);
+            valid.clear(row);
+            if (NUMERIC.equals(type) && numericValue != null && !overflow) {
+                setNumeric(row, numericValue);
+            } else if (DATE.equals(type) && dateValue != null) {
+                epochDays[row] = (int) dateValue.toEpochDay();
+                valid.set(row);
+            }
+        }
+
+        /**
+         * 取值的小数位超过列小数位时整列放大；超出 long 范围时标记溢出，数字汇总和比较改为查询数据库
+         */
+        private void setNumeric(int row, BigDecimal value) {
+            BigDecimal stripped = value.stripTrailingZeros();
+            int valueScale = Math.min(Math.max(stripped.scale(), 0), MAX_SCALE);
+            try {
+                if (valueScale > scale) {
+                    long factor = BigDecimal.TEN.pow(valueScale - scale).longValueExact();
+                    for (int r = valid.nextSetBit(0); r >= 0; r = valid.nextSetBit(r + 1)) {
+                        unscaled[r] = Math.multiplyExact(unscaled[r], factor);
+                    }
+                    scale = valueScale;
+                }
+                unscaled[row] = stripped.setScale(scale, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+                valid.set(row);
+            } catch (ArithmeticException e) {
+                overflow = true;
+            }
+        }
+
+        long estimateBytes() {
+            long bytes = (long) codes.length * 4 + codes.length / 8 + dictionary.bytes;
+            if (unscaled != null) {
+                bytes += (long) unscaled.length * 8;
+            }
+            if (epochDays != null) {
+                bytes += (long) epochDays.length * 4;
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * 字符串字典（按不区分大小写的值编码，保留第一次出现的原值）
+     */
+    private static class Dictionary {
+        private final Map<String, Integer> codeByKey = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+        private long bytes;
+
+        int encode(String value) {
+            if (value == null) {
+                return NULL_CODE;
+            }
+            String key = value.toLowerCase(Locale.ROOT);
+            Integer code = codeByKey.get(key);
+            if (code == null) {
+                code = values.size();
+                codeByKey.put(key, code);
+                values.add(value);
+                // 原值和键各一份字符串，加上映射条目
+                bytes += 2L * (40 + 2L * value.length()) + MAP_ENTRY_BYTES;
+            }
+            return code;
+        }
+
+        int find(String value) {
+            if (value == null) {
+                return NULL_CODE;
+            }
+            Integer code = codeByKey.get(value.toLowerCase(Locale.ROOT));
+            return code != null ? code : NULL_CODE;
+        }
+
+        String decode(int code) {
+            return code == NULL_CODE ? null : values.get(code);
+        }
+
+        /**
+         * 满足条件的字典编码
+         */
+        BitSet match(String operator, List<?> operands) {
+            BitSet matched = new BitSet(values.size());
+            String first = String.valueOf(operands.get(0));
+            String likeKey = first.toLowerCase(Locale.ROOT);
+            for (int code = 0; code < values.size(); code++) {
+                String value = values.get(code);
+                int compared = String.CASE_INSENSITIVE_ORDER.compare(value, first);
+                boolean match;
+                switch (operator) {
+                    case FieldCondition.NE:
+                        match = compared != 0;
+                        break;
+                    case FieldCondition.GT:
+                        match = compared > 0;
+                        break;
+                    case FieldCondition.GTE:
+                        match = compared >= 0;
+                        break;
+                    case FieldCondition.LT:
+                        match = compared < 0;
+                        break;
+                    case FieldCondition.LTE:
+                        match = compared <= 0;
+                        break;
+                    case FieldCondition.BETWEEN:
+                        match = compared >= 0
+                                && String.CASE_INSENSITIVE_ORDER.compare(value, String.valueOf(operands.get(1))) <= 0;
+                        break;
+                    case FieldCondition.IN:
+                        match = false;
+                        for (Object operand : operands) {
+                            if (value.equalsIgnoreCase(String.valueOf(operand))) {
+                                match = true;
+                                break;
+                            }
+                        }
+                        break;
+                    case FieldCondition.LIKE:
+                        match = value.toLowerCase(Locale.ROOT).contains(likeKey);
+                        break;
+                    default:
+                        match = compared == 0;
+                }
+                if (match) {
+                    matched.set(code);
+                }
+            }
+            return matched;
+        }
+    }
+}
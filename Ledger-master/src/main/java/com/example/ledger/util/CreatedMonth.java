@@ -0,0 +1,58 @@
+package com.example.ledger.util;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 21:05
+ */
+
+import java.time.LocalDate;
+
+/**
+ * 创建年月键（yyyyMM 整数，如 202410），与 ledger_data.created_month 生成列及分区边界一致
+ * 年、月条件转换为该列上的范围条件，可以使用索引和分区裁剪
+ */
+public final class CreatedMonth {
+
+    private CreatedMonth() {
+    }
+
+    public static int of(int year, int month) {
+        return year * 100 + month;
+    }
+
+    public static int of(LocalDate date) {
+        return of(date.getYear(), date.getMonthValue());
+    }
+
+    /**
+     * 范围起点（含）：指定月份时为该月，否则为该年1月
+     */
+    public static int start(int year, Integer month) {
+        return month != null ? of(year, month) : of(year, 1);
+    }
+
+    /**
+     * 范围终点（含）：指定月份时为该月，否则为该年12月
+     */
+    public static int end(int year, Integer month) {
+        return month != null ? of(year, month) : of(year, 12);
+    }
+
+    public static int year(int createdMonth) {
+        return createdMonth / 100;
+    }
+
+    /**
+     * 格式化为 yyyy-MM
+     */
+    public static String format(int createdMonth) {
+        return year(createdMonth) + "-" + String.format("%02d", createdMonth % 100);
+    }
+
+    /**
+     * 该月第一天
+     */
+    public static LocalDate firstDay(int createdMonth) {
+        return LocalDate.of(year(createdMonth), createdMonth % 100, 1);
+    }
+}
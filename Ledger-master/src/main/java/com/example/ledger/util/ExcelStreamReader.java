@@ -0,0 +1,469 @@
+package com.example.ledger.util;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 09:12
+ */
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.hssf.eventusermodel.*;
+import org.apache.poi.hssf.eventusermodel.dummyrecord.LastCellOfRowDummyRecord;
+import org.apache.poi.hssf.record.*;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.poifs.filesystem.FileMagic;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Excel流式读取工具 - 基于事件模型逐行读取第一个工作表
+ * xlsx使用XSSFReader + SAX，xls使用HSSF事件模型，内存占用与文件大小无关
+ * 数字单元格取值规则与原DOM方式的getCellValue保持一致，日期单元格输出规范格式（yyyy-MM-dd [HH:mm:ss]）
+ */
+@Slf4j
+public class ExcelStreamReader {
+
+    /**
+     * 行处理回调
+     */
+    public interface RowHandler {
+
+        /**
+         * 读取到工作表维度信息时回调（最后一行的索引，从0开始），可用于估算总行数
+         */
+        default void onDimension(int lastRowIndex) {
+        }
+
+        /**
+         * 处理一行数据
+         *
+         * @param rowIndex   行索引（从0开始）
+         * @param cellValues 列索引 -> 单元格值，只包含非空单元格
+         */
+        void handleRow(int rowIndex, Map<Integer, String> cellValues);
+    }
+
+    // 2^53以内的整数可由double精确表示
+    private static final double EXACT_LONG_LIMIT = 9007199254740992d;
+
+    // 日期单元格数值 -> 规范文本
+    private static final int DATE_CACHE_SIZE = 4096;
+    private static final Map<Long, String> DATE_CACHE = new ConcurrentHashMap<>();
+
+    private ExcelStreamReader() {
+    }
+
+    /**
+     * 流式读取第一个工作表中从startRowIndex开始的所有非空行
+     */
+    public static void read(File file, int startRowIndex, RowHandler handler) throws IOException {
+        FileMagic fileMagic;
+        try (InputStream is = FileMagic.prepareToCheckMagic(new FileInputStream(file))) {
+            fileMagic = FileMagic.valueOf(is);
+        }
+
+        if (fileMagic == FileMagic.OOXML) {
+            readXlsx(file, startRowIndex, handler);
+        } else if (fileMagic == FileMagic.OLE2) {
+            readXls(file, startRowIndex, handler);
+        } else {
+            throw new IOException("不支持的Excel文件格式: " + file.getName());
+        }
+    }
+
+    /**
+     * 数字单元格转字符串 - 整数去掉小数位，避免科学计数法和整数溢出
+     * 可精确表示的整数直接转long，不经过BigDecimal和异常处理
+     */
+    public static String formatNumeric(double numericValue) {
+        if (Double.isNaN(numericValue) || Double.isInfinite(numericValue)) {
+            return String.valueOf(numericValue);
+        }
+        if (numericValue == Math.rint(numericValue)) {
+            if (Math.abs(numericValue) < EXACT_LONG_LIMIT) {
+                return String.valueOf((long) numericValue);
+            }
+            return BigDecimal.valueOf(numericValue).stripTrailingZeros().toPlainString();
+        }
+        return BigDecimal.valueOf(numericValue).toPlainString();
+    }
+
+    /**
+     * 日期单元格转字符串（规范格式见 FieldValueConverter#formatDateTime），按单元格数值缓存
+     */
+    public static String formatDate(double value, boolean date1904) {
+        long key = Double.doubleToLongBits(value) ^ (date1904 ? 1L : 0L);
+        String cached = DATE_CACHE.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        String formatted = FieldValueConverter.formatDateTime(DateUtil.getLocalDateTime(value, date1904));
+        if (DATE_CACHE.size() >= DATE_CACHE_SIZE) {
+            DATE_CACHE.clear();
+        }
+        DATE_CACHE.put(key, formatted);
+        return formatted;
+    }
+
+    /**
+     * 数字或日期单元格转字符串
+     */
+    private static String formatNumberOrDate(double value, boolean dateFormatted, boolean date1904) {
+        if (dateFormatted && DateUtil.isValidExcelDate(value)) {
+            return formatDate(value, date1904);
+        }
+        return formatNumeric(value);
+    }
+
+    private static String trimValue(String value) {
+        return value == null ? null : value.trim();
+    }
+
+    // ==================== xlsx ====================
+
+    private static void readXlsx(File file, int startRowIndex, RowHandler handler) throws IOException {
+        try (OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ)) {
+            XSSFReader reader = new XSSFReader(pkg);
+            ReadOnlySharedStringsTable sharedStrings = new ReadOnlySharedStringsTable(pkg);
+            StylesTable styles = reader.getStylesTable();
+            boolean date1904 = isDate1904(reader);
+
+            Iterator<InputStream> sheets = reader.getSheetsData();
+            if (!sheets.hasNext()) {
+                throw new IOException("Excel文件中没有工作表");
+            }
+
+            try (InputStream sheetStream = sheets.next()) {
+                XMLReader xmlReader = XMLHelper.newXMLReader();
+                xmlReader.setContentHandler(
+                        new SheetHandler(sharedStrings, styles, date1904, startRowIndex, handler));
+                xmlReader.parse(new InputSource(sheetStream));
+            }
+        } catch (SAXException e) {
+            if (e.getException() instanceof RuntimeException) {
+                throw (RuntimeException) e.getException();
+            }
+            throw new IOException("解析Excel文件失败: " + e.getMessage(), e);
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("读取Excel文件失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 读取workbook.xml中的date1904标记
+     */
+    private static boolean isDate1904(XSSFReader reader) throws Exception {
+        boolean[] date1904 = new boolean[1];
+        try (InputStream workbookStream = reader.getWorkbookData()) {
+            XMLReader xmlReader = XMLHelper.newXMLReader();
+            xmlReader.setContentHandler(new DefaultHandler() {
+                @Override
+                public void startElement(String uri, String localName, String qName, Attributes attributes) {
+                    if ("workbookPr".equals(localName)) {
+                        String value = attributes.getValue("date1904");
+                        date1904[0] = "1".equals(value) || "true".equalsIgnoreCase(value);
+                    }
+                }
+            });
+            xmlReader.parse(new InputSource(workbookStream));
+        }
+        return date1904[0];
+    }
+
+    /**
+     * sheet.xml的SAX处理器
+     */
+    private static class SheetHandler extends DefaultHandler {
+
+        private final ReadOnlySharedStringsTable sharedStrings;
+        private final StylesTable styles;
+        private final boolean date1904;
+        private final int startRowIndex;
+        private final RowHandler handler;
+
+        // 样式索引 -> 是否日期格式
+        private final Map<Integer, Boolean> dateStyleCache = new HashMap<>();
+
+        private int currentRow = -1;
+        private int currentColumn = -1;
+        private String cellType;
+        private String cellStyle;
+        private boolean collectingValue;
+        private boolean inInlineString;
+        private final StringBuilder valueBuffer = new StringBuilder();
+        private Map<Integer, String> rowValues = new HashMap<>();
+
+        SheetHandler(ReadOnlySharedStringsTable sharedStrings, StylesTable styles,
+                     boolean date1904, int startRowIndex, RowHandler handler) {
+            this.sharedStrings = sharedStrings;
+            this.styles = styles;
+            this.date1904 = date1904;
+            this.startRowIndex = startRowIndex;
+            this.handler = handler;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            switch (localName) {
+                case "dimension":
+                    String ref = attributes.getValue("ref");
+                    if (ref != null) {
+                        String lastRef = ref.contains(":") ? ref.substring(ref.indexOf(':') + 1) : ref;
+                        handler.onDimension(new CellReference(lastRef).getRow());
+                    }
+                    break;
+                case "row":
+                    String r = attributes.getValue("r");
+                    currentRow = r != null ? Integer.parseInt(r) - 1 : currentRow + 1;
+                    currentColumn = -1;
+                    rowValues = new HashMap<>();
+                    break;
+                case "c":
+                    String cellRef = attributes.getValue("r");
+                    currentColumn = cellRef != null ? new CellReference(cellRef).getCol() : currentColumn + 1;
+                    cellType = attributes.getValue("t");
+                    cellStyle = attributes.getValue("s");
+                    valueBuffer.setLength(0);
+                    break;
+                case "v":
+                    collectingValue = true;
+                    break;
+                case "is":
+                    inInlineString = true;
+                    break;
+                case "t":
+                    if (inInlineString) {
+                        collectingValue = true;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (collectingValue) {
+                valueBuffer.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            switch (localName) {
+                case "v":
+                case "t":
+                    collectingValue = false;
+                    break;
+                case "is":
+                    inInlineString = false;
+                    break;
+                case "c":
+                    if (currentRow >= startRowIndex) {
+                        String value = resolveCellValue();
+                        if (value != null) {
+                            rowValues.put(currentColumn, value);
+                        }
+                    }
+                    break;
+                case "row":
+                    if (currentRow >= startRowIndex && !rowValues.isEmpty()) {
+                        handler.handleRow(currentRow, rowValues);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private String resolveCellValue() {
+            String raw = valueBuffer.toString();
+            if (cellType == null || "n".equals(cellType)) {
+                if (raw.isEmpty()) {
+                    return null;
+                }
+                double value = Double.parseDouble(raw);
+                return formatNumberOrDate(value, isDateStyle(), date1904);
+            }
+
+            switch (cellType) {
+                case "s":
+                    if (raw.isEmpty()) {
+                        return null;
+                    }
+                    return trimValue(sharedStrings.getItemAt(Integer.parseInt(raw)).getString());
+                case "inlineStr":
+                case "str":
+                case "d":
+                    return trimValue(raw);
+                case "b":
+                    return raw.isEmpty() ? null : String.valueOf("1".equals(raw));
+                case "e":
+                    log.warn("单元格包含错误值: {}", raw);
+                    return null;
+                default:
+                    return null;
+            }
+        }
+
+        private boolean isDateStyle() {
+            if (cellStyle == null || styles == null) {
+                return false;
+            }
+            int styleIndex = Integer.parseInt(cellStyle);
+            return dateStyleCache.computeIfAbsent(styleIndex, idx -> {
+                XSSFCellStyle style = styles.getStyleAt(idx);
+                if (style == null) {
+                    return false;
+                }
+                return DateUtil.isADateFormat(style.getDataFormat(), style.getDataFormatString());
+            });
+        }
+    }
+
+    // ==================== xls ====================
+
+    private static void readXls(File file, int startRowIndex, RowHandler handler) throws IOException {
+        try (POIFSFileSystem fs = new POIFSFileSystem(file, true)) {
+            XlsListener xlsListener = new XlsListener(startRowIndex, handler);
+            FormatTrackingHSSFListener formatListener =
+                    new FormatTrackingHSSFListener(new MissingRecordAwareHSSFListener(xlsListener));
+            xlsListener.formatListener = formatListener;
+
+            HSSFRequest request = new HSSFRequest();
+            request.addListenerForAllRecords(formatListener);
+            new HSSFEventFactory().processWorkbookEvents(request, fs);
+        }
+    }
+
+    /**
+     * HSSF事件监听器，只处理第一个工作表
+     */
+    private static class XlsListener implements HSSFListener {
+
+        private final int startRowIndex;
+        private final RowHandler handler;
+        private FormatTrackingHSSFListener formatListener;
+
+        private SSTRecord sstRecord;
+        private boolean date1904;
+        private int sheetIndex = -1;
+        private boolean pendingFormulaString;
+        private int pendingFormulaColumn;
+        private Map<Integer, String> rowValues = new HashMap<>();
+
+        XlsListener(int startRowIndex, RowHandler handler) {
+            this.startRowIndex = startRowIndex;
+            this.handler = handler;
+        }
+
+        @Override
+        public void processRecord(org.apache.poi.hssf.record.Record record) {
+            if (record instanceof BOFRecord) {
+                if (((BOFRecord) record).getType() == BOFRecord.TYPE_WORKSHEET) {
+                    sheetIndex++;
+                }
+                return;
+            }
+            if (record instanceof SSTRecord) {
+                sstRecord = (SSTRecord) record;
+                return;
+            }
+            if (record instanceof DateWindow1904Record) {
+                date1904 = ((DateWindow1904Record) record).getWindowing() == 1;
+                return;
+            }
+            if (sheetIndex != 0) {
+                return;
+            }
+
+            if (record instanceof DimensionsRecord) {
+                handler.onDimension(((DimensionsRecord) record).getLastRow() - 1);
+            } else if (record instanceof LastCellOfRowDummyRecord) {
+                int row = ((LastCellOfRowDummyRecord) record).getRow();
+                if (row >= startRowIndex && !rowValues.isEmpty()) {
+                    handler.handleRow(row, rowValues);
+                }
+                rowValues = new HashMap<>();
+            } else if (record instanceof StringRecord) {
+                if (pendingFormulaString) {
+                    putValue(pendingFormulaColumn, trimValue(((StringRecord) record).getString()));
+                    pendingFormulaString = false;
+                }
+            } else if (record instanceof CellValueRecordInterface) {
+                CellValueRecordInterface cell = (CellValueRecordInterface) record;
+                if (cell.getRow() >= startRowIndex) {
+                    putValue(cell.getColumn(), resolveCellValue(record));
+                }
+            }
+        }
+
+        private String resolveCellValue(org.apache.poi.hssf.record.Record record) {
+            if (record instanceof LabelSSTRecord) {
+                LabelSSTRecord label = (LabelSSTRecord) record;
+                return sstRecord == null ? null : trimValue(sstRecord.getString(label.getSSTIndex()).getString());
+            }
+            if (record instanceof LabelRecord) {
+                return trimValue(((LabelRecord) record).getValue());
+            }
+            if (record instanceof NumberRecord) {
+                NumberRecord number = (NumberRecord) record;
+                return formatNumberOrDate(number.getValue(), isDateFormatted(number), date1904);
+            }
+            if (record instanceof BoolErrRecord) {
+                BoolErrRecord boolErr = (BoolErrRecord) record;
+                return boolErr.isBoolean() ? String.valueOf(boolErr.getBooleanValue()) : null;
+            }
+            if (record instanceof FormulaRecord) {
+                FormulaRecord formula = (FormulaRecord) record;
+                CellType resultType = formula.getCachedResultTypeEnum();
+                if (resultType == CellType.STRING) {
+                    if (formula.hasCachedResultString()) {
+                        pendingFormulaString = true;
+                        pendingFormulaColumn = formula.getColumn();
+                    }
+                    return null;
+                }
+                if (resultType == CellType.NUMERIC) {
+                    return formatNumberOrDate(formula.getValue(), isDateFormatted(formula), date1904);
+                }
+                if (resultType == CellType.BOOLEAN) {
+                    return String.valueOf(formula.getCachedBooleanValue());
+                }
+                return null;
+            }
+            return null;
+        }
+
+        private boolean isDateFormatted(CellValueRecordInterface cell) {
+            return DateUtil.isADateFormat(formatListener.getFormatIndex(cell), formatListener.getFormatString(cell));
+        }
+
+        private void putValue(int column, String value) {
+            if (value != null) {
+                rowValues.put(column, value);
+            }
+        }
+    }
+}
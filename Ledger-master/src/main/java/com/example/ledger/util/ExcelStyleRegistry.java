@@ -0,0 +1,210 @@
+package com.example.ledger.util;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 16:40
+ */
+
+import com.example.ledger.entity.TemplateStyle;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.apache.poi.xssf.usermodel.XSSFColor;
+import org.apache.poi.xssf.usermodel.XSSFFont;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * 单次导出的样式池
+ * 按TemplateStyle的样式属性（字体、加粗、字号、颜色、对齐、边框、背景、格式）去重，
+ * 同一工作簿内所有行、所有sheet共用相同的CellStyle和Font，避免超出Excel的样式数量上限
+ * 非线程安全，每个工作簿创建一个
+ */
+@Slf4j
+public class ExcelStyleRegistry {
+
+    private final Workbook workbook;
+    private final Map<String, CellStyle> styleCache = new HashMap<>();
+    private final Map<String, Font> fontCache = new HashMap<>();
+
+    public ExcelStyleRegistry(Workbook workbook) {
+        this.workbook = workbook;
+    }
+
+    /**
+     * 获取模板样式对应的单元格样式（相同属性只创建一次）
+     */
+    public CellStyle getStyle(TemplateStyle style) {
+        String fontKey = fontKey(style);
+        String styleKey = String.join("|", fontKey,
+                normalize(style.getAlignment(), "LEFT"),
+                normalize(style.getVerticalAlignment(), "CENTER"),
+                normalizeColor(style.getBackgroundColor()),
+                flag(style.getBorderTop()),
+                flag(style.getBorderBottom()),
+                flag(style.getBorderLeft()),
+                flag(style.getBorderRight()),
+                style.getCellFormat() == null ? "" : style.getCellFormat());
+
+        return styleCache.computeIfAbsent(styleKey, key -> createStyle(style, getFont(fontKey, style)));
+    }
+
+    /**
+     * 获取自定义样式（按key去重，用于没有模板样式的表头等固定样式）
+     */
+    public CellStyle getStyle(String key, Function<Workbook, CellStyle> factory) {
+        return styleCache.computeIfAbsent("custom:" + key, k -> factory.apply(workbook));
+    }
+
+    public int getStyleCount() {
+        return styleCache.size();
+    }
+
+    public int getFontCount() {
+        return fontCache.size();
+    }
+
+    private Font getFont(String fontKey, TemplateStyle style) {
+        return fontCache.computeIfAbsent(fontKey, key -> {
+            Font font = workbook.createFont();
+            if (style.getFontName() != null) {
+                font.setFontName(style.getFontName());
+            }
+            if (style.getFontBold() != null) {
+                font.setBold(style.getFontBold());
+            }
+            if (style.getFontSize() != null) {
+                font.setFontHeightInPoints(style.getFontSize().shortValue());
+            }
+            // XSSF及SXSSF工作簿的字体都可以使用 XSSFColor
+            if (style.getFontColor() != null && font instanceof XSSFFont) {
+                ((XSSFFont) font).setColor(new XSSFColor(hexToRgb(style.getFontColor()), null));
+            }
+            return font;
+        });
+    }
+
+    private CellStyle createStyle(TemplateStyle style, Font font) {
+        CellStyle cellStyle = workbook.createCellStyle();
+        cellStyle.setFont(font);
+
+        // 对齐方式
+        switch (normalize(style.getAlignment(), "LEFT")) {
+            case "CENTER":
+                cellStyle.setAlignment(HorizontalAlignment.CENTER);
+                break;
+            case "RIGHT":
+                cellStyle.setAlignment(HorizontalAlignment.RIGHT);
+                break;
+            default:
+                cellStyle.setAlignment(HorizontalAlignment.LEFT);
+        }
+
+        // 垂直对齐
+        switch (normalize(style.getVerticalAlignment(), "CENTER")) {
+            case "TOP":
+                cellStyle.setVerticalAlignment(VerticalAlignment.TOP);
+                break;
+            case "BOTTOM":
+                cellStyle.setVerticalAlignment(VerticalAlignment.BOTTOM);
+                break;
+            default:
+                cellStyle.setVerticalAlignment(VerticalAlignment.CENTER);
+        }
+
+        // 背景色
+        if (style.getBackgroundColor() != null && cellStyle instanceof XSSFCellStyle) {
+            ((XSSFCellStyle) cellStyle).setFillForegroundColor(
+                    new XSSFColor(hexToRgb(style.getBackgroundColor()), null));
+            cellStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
+        }
+
+        // 边框
+        if (Boolean.TRUE.equals(style.getBorderTop())) {
+            cellStyle.setBorderTop(BorderStyle.THIN);
+        }
+        if (Boolean.TRUE.equals(style.getBorderBottom())) {
+            cellStyle.setBorderBottom(BorderStyle.THIN);
+        }
+        if (Boolean.TRUE.equals(style.getBorderLeft())) {
+            cellStyle.setBorderLeft(BorderStyle.THIN);
+        }
+        if (Boolean.TRUE.equals(style.getBorderRight())) {
+            cellStyle.setBorderRight(BorderStyle.THIN);
+        }
+
+        // 单元格格式
+        if (style.getCellFormat() != null) {
+            cellStyle.setDataFormat(workbook.createDataFormat().getFormat(style.getCellFormat()));
+        }
+        return cellStyle;
+    }
+
+    private String fontKey(TemplateStyle style) {
+        return String.join("|",
+                style.getFontName() == null ? "" : style.getFontName(),
+                style.getFontBold() == null ? "" : style.getFontBold().toString(),
+                style.getFontSize() == null ? "" : style.getFontSize().toString(),
+                normalizeColor(style.getFontColor()));
+    }
+
+    private String normalize(String value, String defaultValue) {
+        return value == null ? defaultValue : value;
+    }
+
+    private String flag(Boolean value) {
+        return Boolean.TRUE.equals(value) ? "1" : "0";
+    }
+
+    private String normalizeColor(String color) {
+        if (color == null) {
+            return "";
+        }
+        String value = color.trim().toUpperCase();
+        return value.startsWith("#") ? value.substring(1) : value;
+    }
+
+    /**
+     * 十六进制颜色转RGB
+     */
+    public static byte[] hexToRgb(String hexColor) {
+        if (hexColor == null || hexColor.trim().isEmpty()) {
+            return new byte[] {0, 0, 0}; // 默认黑色
+        }
+
+        String color = hexColor.trim();
+        if (color.startsWith("#")) {
+            color = color.substring(1);
+        }
+
+        try {
+            if (color.length() == 6) {
+                return new byte[] {
+                        (byte) Integer.parseInt(color.substring(0, 2), 16),
+                        (byte) Integer.parseInt(color.substring(2, 4), 16),
+                        (byte) Integer.parseInt(color.substring(4, 6), 16)
+                };
+            } else if (color.length() == 8) {
+                // 包含Alpha通道，只取RGB
+                return new byte[] {
+                        (byte) Integer.parseInt(color.substring(2, 4), 16),
+                        (byte) Integer.parseInt(color.substring(4, 6), 16),
+                        (byte) Integer.parseInt(color.substring(6, 8), 16)
+                };
+            } else if (color.length() == 3) {
+                // 简写格式如 #FFF
+                return new byte[] {
+                        (byte) Integer.parseInt(color.substring(0, 1) + color.substring(0, 1), 16),
+                        (byte) Integer.parseInt(color.substring(1, 2) + color.substring(1, 2), 16),
+                        (byte) Integer.parseInt(color.substring(2, 3) + color.substring(2, 3), 16)
+                };
+            }
+        } catch (Exception e) {
+            log.warn("颜色格式转换失败: {}", color);
+        }
+
+        return new byte[] {0, 0, 0}; // 黑色
+    }
+}
@@ -0,0 +1,545 @@
+package com.example.ledger.util;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 23:55
+ */
+
+import com.example.ledger.entity.TemplateField;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 字段值转换器：按模板字段的 fieldType / dataType / decimalPlaces 把单元格文本转换为规范值
+ * 上传、上传前验证、在线编辑共用，保证同一字段无论从哪里写入都得到相同的存储值。
+ * <ul>
+ *     <li>STRING：原样保留，配置了字段长度时校验长度</li>
+ *     <li>NUMBER：去掉千分位和多余的0（1,200.50 -> 1200.5），带前导0的整数视为编码原样保留</li>
+ *     <li>INTEGER：dataType 为 INTEGER/INT/BIGINT/LONG，12.0 -> 12，有小数部分的值无法转换</li>
+ *     <li>DECIMAL：dataType 为 DECIMAL 或配置了小数位数，按小数位数四舍五入</li>
+ *     <li>DATE：yyyy-MM-dd（dataType 为 DATETIME/TIMESTAMP 时为 yyyy-MM-dd HH:mm:ss），
+ *     支持 - / . 年月日 分隔、yyyyMMdd 以及旧版本导入的 Date.toString() 格式</li>
+ *     <li>BOOLEAN：true/false，同时接受 是/否、Y/N、yes/no、1/0</li>
+ * </ul>
+ * 转换逐字符解析，格式不合法时返回null而不抛异常；转换器按类型组合缓存，线程安全
+ */
+public abstract class FieldValueConverter {
+
+    public static final String STRING = "STRING";
+    public static final String NUMBER = "NUMBER";
+    public static final String INTEGER = "INTEGER";
+    public static final String DECIMAL = "DECIMAL";
+    public static final String DATE = "DATE";
+    public static final String BOOLEAN = "BOOLEAN";
+
+    private static final Map<String, FieldValueConverter> REGISTRY = new ConcurrentHashMap<>();
+
+    // 日期文本 -> 规范值缓存（同一文件中日期大量重复）
+    private static final int DATE_CACHE_SIZE = 4096;
+    private static final Map<String, String> DATE_CACHE = new ConcurrentHashMap<>();
+
+    // 旧版本上传时日期单元格保存为 java.util.Date#toString() 的格式
+    private static final DateTimeFormatter LEGACY_DATE_FORMAT =
+            DateTimeFormatter.ofPattern("EEE MMM dd HH:mm:ss zzz yyyy", Locale.US);
+
+    // numeric_value 列的精度
+    private static final int NUMERIC_PRECISION = 38;
+    private static final int NUMERIC_SCALE = 10;
+
+    private final String type;
+
+    protected FieldValueConverter(String type) {
+        this.type = type;
+    }
+
+    /**
+     * 按模板字段获取转换器
+     */
+    public static FieldValueConverter of(TemplateField field) {
+        return of(field.getFieldType(), field.getDataType(), field.getDecimalPlaces(), field.getFieldLength());
+    }
+
+    /**
+     * 按字段类型、数据类型、小数位数、字段长度获取转换器
+     */
+    public static FieldValueConverter of(String fieldType, String dataType, Integer decimalPlaces, Integer fieldLength) {
+        String type = resolveType(fieldType, dataType, decimalPlaces);
+        boolean withTime = dataType != null && (dataType.equalsIgnoreCase("DATETIME")
+                || dataType.equalsIgnoreCase("TIMESTAMP"));
+        String key = type + "|" + (DECIMAL.equals(type) ? decimalPlaces : null) + "|" + withTime + "|"
+                + (STRING.equals(type) ? fieldLength : null);
+        return REGISTRY.computeIfAbsent(key, k -> create(type, decimalPlaces, withTime, fieldLength));
+    }
+
+    /**
+     * 转换类型：NUMBER / INTEGER / DECIMAL / DATE / BOOLEAN / STRING
+     */
+    public static String resolveType(String fieldType, String dataType, Integer decimalPlaces) {
+        String upperType = fieldType != null ? fieldType.trim().toUpperCase(Locale.ROOT) : STRING;
+        String upperDataType = dataType != null ? dataType.trim().toUpperCase(Locale.ROOT) : "";
+        switch (upperType) {
+            case NUMBER:
+            case INTEGER:
+            case DECIMAL:
+                if (INTEGER.equals(upperType) || upperDataType.equals("INTEGER") || upperDataType.equals("INT")
+                        || upperDataType.equals("BIGINT") || upperDataType.equals("LONG")) {
+                    return INTEGER;
+                }
+                if (DECIMAL.equals(upperType) || upperDataType.equals("DECIMAL") || decimalPlaces != null) {
+                    return DECIMAL;
+                }
+                return NUMBER;
+            case DATE:
+            case "DATETIME":
+                return DATE;
+            case BOOLEAN:
+                return BOOLEAN;
+            default:
+                return STRING;
+        }
+    }
+
+    private static FieldValueConverter create(String type, Integer decimalPlaces, boolean withTime,
+                                              Integer fieldLength) {
+        switch (type) {
+            case NUMBER:
+                return new NumberConverter(NUMBER, null);
+            case INTEGER:
+                return new NumberConverter(INTEGER, null);
+            case DECIMAL:
+                return new NumberConverter(DECIMAL, decimalPlaces);
+            case DATE:
+                return new DateConverter(withTime);
+            case BOOLEAN:
+                return new BooleanConverter();
+            default:
+                return new StringConverter(fieldLength);
+        }
+    }
+
+    /**
+     * 转换类型
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * 转换为规范值，无法转换时返回null
+     *
+     * @param value 已去掉首尾空白的非空值
+     */
+    public abstract String convert(String value);
+
+    /**
+     * 无法转换时的提示信息
+     */
+    public abstract String getErrorMessage();
+
+    /**
+     * 是否存在无法转换的值（STRING 不限长度时总能转换）
+     */
+    public boolean canFail() {
+        return true;
+    }
+
+    /**
+     * 校验值：空值不校验，返回错误提示，通过时返回null
+     */
+    public String validate(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+        return convert(value.trim()) == null ? getErrorMessage() : null;
+    }
+
+    /**
+     * 转换为规范值，空值返回null，无法转换时返回去掉首尾空白的原值
+     */
+    public String normalize(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+        String trimmed = value.trim();
+        String converted = convert(trimmed);
+        return converted != null ? converted : trimmed;
+    }
+
+    /**
+     * 是否为数字类型（NUMBER / INTEGER / DECIMAL）
+     */
+    public boolean isNumeric() {
+        return NUMBER.equals(type) || INTEGER.equals(type) || DECIMAL.equals(type);
+    }
+
+    /**
+     * 是否为日期类型
+     */
+    public boolean isDate() {
+        return DATE.equals(type);
+    }
+
+    /**
+     * 数字字段的值（写入 numeric_value），非数字类型或超出 DECIMAL(38,10) 范围时返回null
+     *
+     * @param converted convert 的结果
+     */
+    public BigDecimal toNumericValue(String converted) {
+        if (converted == null || !isNumeric()) {
+            return null;
+        }
+        BigDecimal value = new BigDecimal(converted);
+        if (value.scale() > NUMERIC_SCALE) {
+            value = value.setScale(NUMERIC_SCALE, RoundingMode.HALF_UP);
+        }
+        return value.precision() - value.scale() > NUMERIC_PRECISION - NUMERIC_SCALE ? null : value;
+    }
+
+    /**
+     * 日期字段的值（写入 date_value），非日期类型时返回null
+     *
+     * @param converted convert 的结果
+     */
+    public LocalDate toDateValue(String converted) {
+        if (converted == null || !isDate()) {
+            return null;
+        }
+        return LocalDate.of(Integer.parseInt(converted, 0, 4, 10), Integer.parseInt(converted, 5, 7, 10),
+                Integer.parseInt(converted, 8, 10, 10));
+    }
+
+    /**
+     * 日期时间的规范格式：零点时为 yyyy-MM-dd，否则为 yyyy-MM-dd HH:mm:ss
+     */
+    public static String formatDateTime(LocalDateTime dateTime) {
+        boolean midnight = dateTime.getHour() == 0 && dateTime.getMinute() == 0 && dateTime.getSecond() == 0;
+        return format(dateTime.getYear(), dateTime.getMonthValue(), dateTime.getDayOfMonth(),
+                dateTime.getHour(), dateTime.getMinute(), dateTime.getSecond(), !midnight);
+    }
+
+    private static String format(int year, int month, int day, int hour, int minute, int second, boolean withTime) {
+        char[] chars = new char[withTime ? 19 : 10];
+        writeDigits(chars, 0, year, 4);
+        chars[4] = '-';
+        writeDigits(chars, 5, month, 2);
+        chars[7] = '-';
+        writeDigits(chars, 8, day, 2);
+        if (withTime) {
+            chars[10] = ' ';
+            writeDigits(chars, 11, hour, 2);
+            chars[13] = ':';
+            writeDigits(chars, 14, minute, 2);
+            chars[16] = ':';
+            writeDigits(chars, 17, second, 2);
+        }
+        return new String(chars);
+    }
+
+    private static void writeDigits(char[] chars, int offset, int value, int width) {
+        for (int i = offset + width - 1; i >= offset; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    // ==================== 字符串 ====================
+
+    private static class StringConverter extends FieldValueConverter {
+
+        private final Integer maxLength;
+
+        StringConverter(Integer maxLength) {
+            super(STRING);
+            this.maxLength = maxLength != null && maxLength > 0 ? maxLength : null;
+        }
+
+        @Override
+        public String convert(String value) {
+            return maxLength == null || value.length() <= maxLength ? value : null;
+        }
+
+        @Override
+        public String getErrorMessage() {
+            return "长度不能超过 " + maxLength + " 个字符";
+        }
+
+        @Override
+        public boolean canFail() {
+            return maxLength != null;
+        }
+    }
+
+    // ==================== 数字 ====================
+
+    private static class NumberConverter extends FieldValueConverter {
+
+        // 不超过该位数的整数直接按字符处理，不创建BigDecimal
+        private static final int FAST_PATH_DIGITS = 18;
+
+        private final Integer scale;
+
+        NumberConverter(String type, Integer scale) {
+            super(type);
+            this.scale = scale != null && scale >= 0 ? scale : null;
+        }
+
+        @Override
+        public String convert(String value) {
+            String number = value.indexOf(',') >= 0 ? stripGrouping(value) : value;
+            if (number == null) {
+                return null;
+            }
+
+            int length = number.length();
+            int start = number.charAt(0) == '+' || number.charAt(0) == '-' ? 1 : 0;
+            int digits = 0;
+            int intDigits = 0;
+            boolean dot = false;
+            boolean exponent = false;
+            int exponentDigits = 0;
+
+            for (int i = start; i < length; i++) {
+                char ch = number.charAt(i);
+                if (ch >= '0' && ch <= '9') {
+                    if (exponent) {
+                        exponentDigits++;
+                    } else {
+                        digits++;
+                        if (!dot) {
+                            intDigits++;
+                        }
+                    }
+                } else if (ch == '.' && !dot && !exponent) {
+                    dot = true;
+                } else if ((ch == 'e' || ch == 'E') && !exponent && digits > 0) {
+                    exponent = true;
+                    if (i + 1 < length && (number.charAt(i + 1) == '+' || number.charAt(i + 1) == '-')) {
+                        i++;
+                    }
+                } else {
+                    return null;
+                }
+            }
+            if (digits == 0 || (exponent && (exponentDigits == 0 || exponentDigits > 4))) {
+                return null;
+            }
+
+            boolean negative = start == 1 && number.charAt(0) == '-';
+            // 带前导0的整数（如 000123）一般是编码，原样保留
+            if (NUMBER.equals(getType()) && !dot && !exponent && intDigits > 1 && number.charAt(start) == '0') {
+                return number;
+            }
+
+            // 快速路径：普通整数
+            if (!dot && !exponent && digits <= FAST_PATH_DIGITS && (scale == null || scale == 0)) {
+                int first = start;
+                while (first < length - 1 && number.charAt(first) == '0') {
+                    first++;
+                }
+                boolean zero = first == length - 1 && number.charAt(first) == '0';
+                if (zero) {
+                    return "0";
+                }
+                if (negative) {
+                    return first == 1 ? number : "-" + number.substring(first);
+                }
+                return first == 0 ? number : number.substring(first);
+            }
+
+            BigDecimal decimal = new BigDecimal(number);
+            if (DECIMAL.equals(getType()) && scale != null) {
+                return decimal.setScale(scale, RoundingMode.HALF_UP).toPlainString();
+            }
+            decimal = decimal.signum() == 0 ? BigDecimal.ZERO : decimal.stripTrailingZeros();
+            if (INTEGER.equals(getType()) && decimal.scale() > 0) {
+                return null;
+            }
+            return decimal.toPlainString();
+        }
+
+        @Override
+        public String getErrorMessage() {
+            return INTEGER.equals(getType()) ? "值必须是整数" : "值必须是数字";
+        }
+
+        /**
+         * 去掉千分位逗号（逗号位于整数部分，前面是数字，后面恰好3位数字），格式不合法返回null
+         */
+        private static String stripGrouping(String value) {
+            StringBuilder builder = new StringBuilder(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                char ch = value.charAt(i);
+                if (ch == ',') {
+                    int groupEnd = i + 1;
+                    while (groupEnd < value.length() && Character.isDigit(value.charAt(groupEnd))) {
+                        groupEnd++;
+                    }
+                    boolean grouped = i > 0 && Character.isDigit(value.charAt(i - 1)) && groupEnd - i - 1 == 3
+                            && (groupEnd == value.length() || value.charAt(groupEnd) == ','
+                            || value.charAt(groupEnd) == '.');
+                    if (!grouped || value.lastIndexOf('.', i) >= 0) {
+                        return null;
+                    }
+                } else {
+                    builder.append(ch);
+                }
+            }
+            return builder.toString();
+        }
+    }
+
+    // ==================== 日期 ====================
+
+    private static class DateConverter extends FieldValueConverter {
+
+        private final boolean withTime;
+
+        DateConverter(boolean withTime) {
+            super(DATE);
+            this.withTime = withTime;
+        }
+
+        @Override
+        public String convert(String value) {
+            String cacheKey = withTime ? "T" + value : value;
+            String cached = DATE_CACHE.get(cacheKey);
+            if (cached != null) {
+                return cached;
+            }
+
+            String converted = Character.isLetter(value.charAt(0)) ? parseLegacy(value) : parse(value);
+            if (converted != null) {
+                if (DATE_CACHE.size() >= DATE_CACHE_SIZE) {
+                    DATE_CACHE.clear();
+                }
+                DATE_CACHE.put(cacheKey, converted);
+            }
+            return converted;
+        }
+
+        @Override
+        public String getErrorMessage() {
+            return withTime ? "日期时间格式必须为 yyyy-MM-dd HH:mm:ss" : "日期格式必须为 yyyy-MM-dd";
+        }
+
+        /**
+         * 按数字分组解析：年 月 日 [时 分 秒 [毫秒]]，或8位的 yyyyMMdd
+         */
+        private String parse(String value) {
+            int[] parts = new int[7];
+            int count = 0;
+            int current = 0;
+            int digits = 0;
+            int firstDigits = 0;
+
+            for (int i = 0; i <= value.length(); i++) {
+                char ch = i < value.length() ? value.charAt(i) : ' ';
+                if (ch >= '0' && ch <= '9') {
+                    if (++digits > 9) {
+                        return null;
+                    }
+                    current = current * 10 + (ch - '0');
+                } else if (ch == '-' || ch == '/' || ch == '.' || ch == ':' || ch == ' ' || ch == 'T'
+                        || ch == '年' || ch == '月' || ch == '日' || ch == '时' || ch == '分' || ch == '秒') {
+                    if (digits > 0) {
+                        if (count == parts.length) {
+                            return null;
+                        }
+                        if (count == 0) {
+                            firstDigits = digits;
+                        }
+                        parts[count++] = current;
+                        current = 0;
+                        digits = 0;
+                    }
+                } else {
+                    return null;
+                }
+            }
+
+            if (count == 1 && firstDigits == 8) {
+                int date = parts[0];
+                parts[0] = date / 10000;
+                parts[1] = date / 100 % 100;
+                parts[2] = date % 100;
+                count = 3;
+            } else if (count < 3 || firstDigits != 4 || count == 4) {
+                return null;
+            }
+
+            int year = parts[0];
+            int month = parts[1];
+            int day = parts[2];
+            int hour = count > 3 ? parts[3] : 0;
+            int minute = count > 3 ? parts[4] : 0;
+            int second = count > 5 ? parts[5] : 0;
+            if (month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)
+                    || hour > 23 || minute > 59 || second > 59) {
+                return null;
+            }
+            return format(year, month, day, hour, minute, second, withTime);
+        }
+
+        private String parseLegacy(String value) {
+            try {
+                ZonedDateTime dateTime = ZonedDateTime.parse(value, LEGACY_DATE_FORMAT);
+                LocalDateTime local = dateTime.withZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime();
+                return format(local.getYear(), local.getMonthValue(), local.getDayOfMonth(),
+                        local.getHour(), local.getMinute(), local.getSecond(), withTime);
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        private static int lengthOfMonth(int year, int month) {
+            if (month == 2) {
+                boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+                return leap ? 29 : 28;
+            }
+            return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+        }
+    }
+
+    // ==================== 布尔 ====================
+
+    private static class BooleanConverter extends FieldValueConverter {
+
+        BooleanConverter() {
+            super(BOOLEAN);
+        }
+
+        @Override
+        public String convert(String value) {
+            switch (value.toLowerCase(Locale.ROOT)) {
+                case "true":
+                case "是":
+                case "y":
+                case "yes":
+                case "1":
+                    return "true";
+                case "false":
+                case "否":
+                case "n":
+                case "no":
+                case "0":
+                    return "false";
+                default:
+                    return null;
+            }
+        }
+
+        @Override
+        public String getErrorMessage() {
+            return "值必须是 true 或 false（或 是/否）";
+        }
+    }
+}
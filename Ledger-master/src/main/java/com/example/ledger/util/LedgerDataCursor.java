@@ -0,0 +1,87 @@
+package com.example.ledger.util;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 15:05
+ */
+
+import lombok.Data;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+/**
+ * 台账数据游标（键集分页）
+ * ROW模式按(uploadId, rowNumber, id)排序，TIME模式按(createdTime, id)排序
+ * 对外是不透明的字符串，内容为上一页最后一行的排序键以及首页统计的总数
+ */
+@Data
+public class LedgerDataCursor {
+
+    public static final String MODE_ROW = "ROW";
+    public static final String MODE_TIME = "TIME";
+
+    private static final String VERSION = "v1";
+    private static final String SEPARATOR = ";";
+
+    private String mode;
+    private boolean desc;
+    private Long uploadId;
+    private Integer rowNumber;
+    private LocalDateTime createdTime;
+    private Long id;
+    // 首页统计的总数（近似总数模式下沿用）
+    private Long total;
+
+    /**
+     * 编码为游标字符串
+     */
+    public String encode() {
+        String raw = String.join(SEPARATOR,
+                VERSION,
+                mode,
+                desc ? "D" : "A",
+                toText(uploadId),
+                toText(rowNumber),
+                toText(createdTime),
+                toText(id),
+                toText(total));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解析游标字符串
+     */
+    public static LedgerDataCursor decode(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split(SEPARATOR, -1);
+            if (parts.length != 8 || !VERSION.equals(parts[0])
+                    || !(MODE_ROW.equals(parts[1]) || MODE_TIME.equals(parts[1]))) {
+                throw new IllegalArgumentException(raw);
+            }
+
+            LedgerDataCursor cursor = new LedgerDataCursor();
+            cursor.mode = parts[1];
+            cursor.desc = "D".equals(parts[2]);
+            cursor.uploadId = parts[3].isEmpty() ? null : Long.valueOf(parts[3]);
+            cursor.rowNumber = parts[4].isEmpty() ? null : Integer.valueOf(parts[4]);
+            cursor.createdTime = parts[5].isEmpty() ? null : LocalDateTime.parse(parts[5]);
+            cursor.id = Long.valueOf(parts[6]);
+            cursor.total = parts[7].isEmpty() ? null : Long.valueOf(parts[7]);
+
+            if (MODE_ROW.equals(cursor.mode) && (cursor.uploadId == null || cursor.rowNumber == null)
+                    || MODE_TIME.equals(cursor.mode) && cursor.createdTime == null) {
+                throw new IllegalArgumentException(raw);
+            }
+            return cursor;
+        } catch (Exception e) {
+            throw new RuntimeException("无效的分页游标");
+        }
+    }
+
+    private static String toText(Object value) {
+        return value == null ? "" : value.toString();
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.ledger.util;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 20:10
+ */
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 有序并行处理管道：读取线程提交 -> 共享执行器上并行转换 -> 写入线程按提交顺序消费
+ * 转换任务在调用方传入的共享执行器上执行，全局线程数由执行器限制，每个管道同时最多有 workers 个转换任务；
+ * 只有写入线程是每个管道独占的。提交线程与写入线程之间最多有 capacity 个未消费的元素，
+ * 超出时提交线程阻塞（背压）；任一阶段出错后管道停止，错误在提交线程的 submit/finish 中原样抛出
+ */
+public class OrderedPipeline<I, O> implements AutoCloseable {
+
+    private final Function<I, O> transformer;
+    private final Consumer<O> consumer;
+    private final Executor transformExecutor;
+
+    private final Map<Long, O> completed = new ConcurrentHashMap<>();
+    private final Semaphore inFlight;
+    private final Semaphore transforming;
+    private final ExecutorService writer;
+    private final Future<?> writerFuture;
+    private final Object signal = new Object();
+
+    private volatile Throwable failure;
+    private volatile boolean closed;
+    private volatile long total = -1;
+    private long nextSeq;
+
+    /**
+     * @param transformExecutor 执行转换任务的共享执行器
+     * @param workers           本管道同时执行的最大转换任务数
+     * @param capacity          提交后尚未被写入线程消费的最大元素数
+     * @param transformer       转换函数（并行执行，必须线程安全，不能返回null）
+     * @param consumer          写入函数（单线程按提交顺序执行）
+     */
+    public OrderedPipeline(Executor transformExecutor, String writerThreadNamePrefix, int workers, int capacity,
+                           Function<I, O> transformer, Consumer<O> consumer) {
+        this.transformer = transformer;
+        this.consumer = consumer;
+        this.transformExecutor = transformExecutor;
+        this.inFlight = new Semaphore(capacity);
+        this.transforming = new Semaphore(Math.max(workers, 1));
+        this.writer = Executors.newSingleThreadExecutor(new CustomizableThreadFactory(writerThreadNamePrefix));
+        this.writerFuture = writer.submit(this::writeLoop);
+    }
+
+    /**
+     * 提交一个元素，未消费的元素达到上限或本管道的转换任务数达到上限时阻塞
+     */
+    public void submit(I item) {
+        acquire(inFlight);
+        try {
+            acquire(transforming);
+        } catch (RuntimeException | Error e) {
+            inFlight.release();
+            throw e;
+        }
+
+        long seq = nextSeq++;
+        try {
+            transformExecutor.execute(() -> transform(seq, item));
+        } catch (RejectedExecutionException e) {
+            transforming.release();
+            inFlight.release();
+            throw new RuntimeException("处理管道的转换任务被拒绝", e);
+        }
+    }
+
+    /**
+     * 提交结束，等待所有元素写入完成
+     */
+    public void finish() {
+        total = nextSeq;
+        wakeWriter();
+        try {
+            writerFuture.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("处理管道被中断", e);
+        } catch (ExecutionException e) {
+            fail(e.getCause());
+        }
+        checkFailure();
+    }
+
+    /**
+     * 停止写入线程，尚未执行的转换任务直接跳过（不占用共享执行器）
+     */
+    @Override
+    public void close() {
+        closed = true;
+        writer.shutdownNow();
+    }
+
+    private void acquire(Semaphore semaphore) {
+        checkFailure();
+        try {
+            while (!semaphore.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("处理管道被中断", e);
+        }
+    }
+
+    private void transform(long seq, I item) {
+        try {
+            if (failure != null || closed) {
+                return;
+            }
+            completed.put(seq, transformer.apply(item));
+            wakeWriter();
+        } catch (Throwable e) {
+            fail(e);
+        } finally {
+            transforming.release();
+        }
+    }
+
+    private void writeLoop() {
+        long expected = 0;
+        try {
+            while (true) {
+                O output;
+                synchronized (signal) {
+                    while ((output = completed.remove(expected)) == null) {
+                        if (failure != null || total == expected) {
+                            return;
+                        }
+                        signal.wait(100);
+                    }
+                }
+                consumer.accept(output);
+                inFlight.release();
+                expected++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            fail(e);
+        }
+    }
+
+    private void wakeWriter() {
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+    }
+
+    private void fail(Throwable e) {
+        if (failure == null) {
+            failure = e;
+        }
+        wakeWriter();
+    }
+
+    private void checkFailure() {
+        Throwable e = failure;
+        if (e == null) {
+            return;
+        }
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        throw new RuntimeException(e.getMessage(), e);
+    }
+}
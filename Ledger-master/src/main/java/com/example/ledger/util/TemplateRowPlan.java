@@ -0,0 +1,264 @@
+package com.example.ledger.util;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 23:10
+ */
+
+import com.example.ledger.entity.LedgerDataDetail;
+import com.example.ledger.entity.RequiredFieldConfig;
+import com.example.ledger.entity.TemplateField;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.StringUtils;
+
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * 模板行解析计划：每次上传按模板字段和必填配置编译一次，逐行处理时直接按数组下标访问
+ * 字段按排序序号预先排好，列索引、存储字段名（字段名_列字母）、必填标记及提示信息、
+ * 验证规则正则和字段值转换器都在编译时算好，处理每行时不再排序、解析列字母或查找必填配置。
+ * 编译后只读，可在并行处理线程间共享
+ */
+@Slf4j
+public class TemplateRowPlan {
+
+    public static final String RULE_MISMATCH_MESSAGE = "值不符合验证规则";
+
+    private final int size;
+    private final int[] columnIndexes;
+    private final String[] storedFieldNames;
+    private final String[] fieldLabels;
+    private final FieldValueConverter[] converters;
+    private final Integer[] sortOrders;
+    private final boolean[] required;
+    private final String[] requiredMessages;
+    private final Pattern[] rules;
+    private final boolean hasRequired;
+    private final boolean validateTypes;
+    private final boolean hasChecks;
+
+    private TemplateRowPlan(List<TemplateField> fields, Map<String, RequiredFieldConfig> requiredConfigs,
+                            boolean validateTypes) {
+        this.size = fields.size();
+        this.columnIndexes = new int[size];
+        this.storedFieldNames = new String[size];
+        this.fieldLabels = new String[size];
+        this.converters = new FieldValueConverter[size];
+        this.sortOrders = new Integer[size];
+        this.required = new boolean[size];
+        this.requiredMessages = new String[size];
+        this.rules = new Pattern[size];
+
+        boolean anyRequired = false;
+        boolean anyCheck = false;
+        for (int i = 0; i < size; i++) {
+            TemplateField field = fields.get(i);
+            RequiredFieldConfig config = requiredConfigs.get(field.getFieldName());
+
+            columnIndexes[i] = toColumnIndex(field.getExcelColumn());
+            // 使用 字段名_列字母 作为存储的字段名，避免重复字段名导致的唯一约束冲突
+            storedFieldNames[i] = field.getFieldName() + "_" + field.getExcelColumn();
+            fieldLabels[i] = field.getFieldLabel();
+            converters[i] = FieldValueConverter.of(field);
+            sortOrders[i] = field.getSortOrder();
+            required[i] = config != null;
+            requiredMessages[i] = config != null && config.getRequiredMessage() != null
+                    ? config.getRequiredMessage() : field.getFieldLabel() + "为必填项";
+
+            // 模板字段的验证规则优先，其次为必填配置中的验证规则
+            String rule = StringUtils.hasText(field.getValidationRule()) ? field.getValidationRule()
+                    : config != null ? config.getValidationRule() : null;
+            rules[i] = compileRule(rule, field);
+
+            anyRequired |= required[i];
+            anyCheck |= rules[i] != null || (validateTypes && converters[i].canFail());
+        }
+        this.hasRequired = anyRequired;
+        this.validateTypes = validateTypes;
+        this.hasChecks = anyCheck;
+    }
+
+    /**
+     * 编译行解析计划
+     *
+     * @param templateFields 模板字段（字段标签为空的不参与处理）
+     * @param requiredFields 必填项配置，同一字段有多条配置时取第一条
+     * @param validateTypes  无法按字段类型转换的值是否标记为未通过验证
+     */
+    public static TemplateRowPlan compile(Collection<TemplateField> templateFields,
+                                          List<RequiredFieldConfig> requiredFields, boolean validateTypes) {
+        // 按 字段标签+列字母 去重，保留第一个
+        Map<String, TemplateField> unique = new LinkedHashMap<>();
+        for (TemplateField field : templateFields) {
+            if (field.getFieldLabel() == null || field.getFieldLabel().trim().isEmpty()) {
+                continue;
+            }
+            TemplateField existing = unique.putIfAbsent(field.getFieldLabel() + "_" + field.getExcelColumn(), field);
+            if (existing != null) {
+                log.warn("发现重复的字段标签+列组合: {}_{}, 保留第一个",
+                        existing.getFieldLabel(), existing.getExcelColumn());
+            }
+        }
+
+        List<TemplateField> fields = new ArrayList<>(unique.values());
+        fields.sort(Comparator.comparing(TemplateField::getSortOrder, Comparator.nullsLast(Comparator.naturalOrder()))
+                .thenComparing(field -> toColumnIndex(field.getExcelColumn())));
+
+        Map<String, RequiredFieldConfig> requiredConfigs = new HashMap<>();
+        if (requiredFields != null) {
+            for (RequiredFieldConfig config : requiredFields) {
+                requiredConfigs.putIfAbsent(config.getFieldName(), config);
+            }
+        }
+        return new TemplateRowPlan(fields, requiredConfigs, validateTypes);
+    }
+
+    /**
+     * 字段数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 除必填项外是否还有会导致字段未通过验证的检查（验证规则、类型转换）
+     */
+    public boolean hasChecks() {
+        return hasChecks;
+    }
+
+    /**
+     * 存储字段名（按处理顺序）
+     */
+    public String storedFieldName(int i) {
+        return storedFieldNames[i];
+    }
+
+    /**
+     * 列索引（从0开始，按处理顺序）
+     */
+    public int columnIndex(int i) {
+        return columnIndexes[i];
+    }
+
+    /**
+     * 字段值转换器（按处理顺序）
+     */
+    public FieldValueConverter converter(int i) {
+        return converters[i];
+    }
+
+    /**
+     * 校验一行的必填项，没有错误时返回空列表（不分配新对象）
+     */
+    public List<String> validateRequired(Map<Integer, String> cellValues, int excelRowNum) {
+        if (!hasRequired) {
+            return Collections.emptyList();
+        }
+        List<String> errors = null;
+        for (int i = 0; i < size; i++) {
+            if (required[i] && isBlank(cellValues.get(columnIndexes[i]))) {
+                if (errors == null) {
+                    errors = new ArrayList<>(2);
+                }
+                errors.add("第" + excelRowNum + "行，" + fieldLabels[i] + ": " + requiredMessages[i]);
+            }
+        }
+        return errors != null ? errors : Collections.emptyList();
+    }
+
+    /**
+     * 创建一行的字段详情
+     *
+     * @param rowNumber 台账行号，临时写入 dataId，保存时替换为真实ID
+     * @param validate  是否标记必填项、类型转换和验证规则的校验结果
+     */
+    public List<LedgerDataDetail> createDetails(Map<Integer, String> cellValues, int rowNumber, boolean validate) {
+        List<LedgerDataDetail> details = new ArrayList<>(size);
+        Long tempDataId = (long) rowNumber;
+
+        for (int i = 0; i < size; i++) {
+            String cellValue = cellValues.get(columnIndexes[i]);
+            String value = cellValue != null ? cellValue.trim() : null;
+            boolean empty = value == null || value.isEmpty();
+            // 转换为字段类型的规范值，无法转换时保留原值
+            String converted = empty ? null : converters[i].convert(value);
+
+            LedgerDataDetail detail = new LedgerDataDetail();
+            detail.setDataId(tempDataId);
+            detail.setFieldName(storedFieldNames[i]);
+            detail.setSortOrder(sortOrders[i]);
+            detail.setOriginalValue(cellValue);
+            detail.setFieldValue(empty ? null : converted != null ? converted : value);
+            if (converted != null) {
+                detail.setNumericValue(converters[i].toNumericValue(converted));
+                detail.setDateValue(converters[i].toDateValue(converted));
+            }
+            detail.setIsEmpty(empty);
+            detail.setIsValid(true);
+
+            if (validate) {
+                if (empty && required[i]) {
+                    detail.setIsValid(false);
+                    detail.setValidationMessage(fieldLabels[i] + "为必填项");
+                } else if (!empty && converted == null && validateTypes) {
+                    detail.setIsValid(false);
+                    detail.setValidationMessage(converters[i].getErrorMessage());
+                } else if (!empty && rules[i] != null && !rules[i].matcher(value).matches()) {
+                    detail.setIsValid(false);
+                    detail.setValidationMessage(RULE_MISMATCH_MESSAGE);
+                }
+            }
+
+            details.add(detail);
+        }
+        return details;
+    }
+
+    private static boolean isBlank(String value) {
+        if (value == null) {
+            return true;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            // 与 String.trim() 一致，码值不大于空格的字符视为空白
+            if (value.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Pattern compileRule(String rule, TemplateField field) {
+        if (!StringUtils.hasText(rule)) {
+            return null;
+        }
+        try {
+            return Pattern.compile(rule);
+        } catch (PatternSyntaxException e) {
+            log.warn("字段 {} 的验证规则无效，已忽略: {}", field.getFieldName(), rule);
+            return null;
+        }
+    }
+
+    /**
+     * Excel列字母转索引
+     */
+    private static int toColumnIndex(String column) {
+        if (column == null || column.trim().isEmpty()) {
+            return 0;
+        }
+
+        column = column.toUpperCase().trim();
+        int index = 0;
+        for (int i = 0; i < column.length(); i++) {
+            char ch = column.charAt(i);
+            if (ch < 'A' || ch > 'Z') {
+                throw new IllegalArgumentException("无效的列字母: " + column);
+            }
+            index = index * 26 + (ch - 'A' + 1);
+        }
+        return index - 1;
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.ledger;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 19:55
+ */
+
+import com.example.ledger.service.DbConcurrencyLimiter;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+/**
+ * 异步执行模式压测：平台线程池 / 虚拟线程
+ * 模拟上传任务：每批先读取解析（阻塞I/O），再在数据库并发许可内写入（阻塞JDBC往返）
+ * 用法：java AsyncModeLoadBenchmark [任务数] [每任务批次数] [解析耗时ms] [写入耗时ms] [连接池大小]
+ * 虚拟线程模式需要 JDK 21 及以上运行
+ */
+public class AsyncModeLoadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int tasks = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int batches = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int parseMillis = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int writeMillis = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+        int poolSize = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+
+        System.out.printf("任务数: %d, 每任务批次: %d, 解析: %dms, 写入: %dms, 连接池: %d%n",
+                tasks, batches, parseMillis, writeMillis, poolSize);
+
+        ThreadPoolTaskExecutor platform = new ThreadPoolTaskExecutor();
+        platform.setCorePoolSize(10);
+        platform.setMaxPoolSize(10);
+        platform.setQueueCapacity(Integer.MAX_VALUE);
+        platform.setThreadNamePrefix("upload-thread-");
+        platform.initialize();
+        run("PLATFORM", platform, tasks, batches, parseMillis, writeMillis, poolSize);
+        platform.shutdown();
+
+        if (Runtime.version().feature() < 21) {
+            System.out.println("VIRTUAL  跳过：当前 JDK " + Runtime.version().feature() + " 不支持虚拟线程");
+            return;
+        }
+        SimpleAsyncTaskExecutor virtual = new SimpleAsyncTaskExecutor("upload-vthread-");
+        virtual.setVirtualThreads(true);
+        run("VIRTUAL", virtual, tasks, batches, parseMillis, writeMillis, poolSize);
+    }
+
+    private static void run(String mode, Executor executor, int tasks, int batches,
+                            int parseMillis, int writeMillis, int poolSize) throws Exception {
+        DbConcurrencyLimiter limiter = new DbConcurrencyLimiter();
+        ReflectionTestUtils.setField(limiter, "poolSize", poolSize);
+        ReflectionTestUtils.setField(limiter, "reservedConnections", 2);
+        limiter.init();
+
+        long[] latencies = new long[tasks];
+        CountDownLatch latch = new CountDownLatch(tasks);
+        long start = System.currentTimeMillis();
+
+        for (int i = 0; i < tasks; i++) {
+            final int index = i;
+            final long submitted = System.currentTimeMillis();
+            executor.execute(() -> {
+                try {
+                    for (int b = 0; b < batches; b++) {
+                        sleep(parseMillis);
+                        limiter.run(() -> sleep(writeMillis));
+                    }
+                } finally {
+                    latencies[index] = System.currentTimeMillis() - submitted;
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+
+        long total = System.currentTimeMillis() - start;
+        Arrays.sort(latencies);
+        Map<String, Object> stats = limiter.getStats();
+        System.out.printf("%-8s 总耗时: %6dms, 吞吐: %7.1f 批/秒, 任务耗时 p50: %6dms p95: %6dms, 许可平均等待: %sms%n",
+                mode, total, tasks * batches * 1000.0 / total,
+                latencies[tasks / 2], latencies[(int) (tasks * 0.95)], stats.get("avgWaitMillis"));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
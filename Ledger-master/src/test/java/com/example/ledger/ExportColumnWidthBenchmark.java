@@ -0,0 +1,97 @@
+package com.example.ledger;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 17:30
+ */
+
+import com.example.ledger.util.ColumnWidthEstimator;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * 导出列宽模式对比：AUTO(autoSizeColumn) / ESTIMATE(采样估算) / NONE
+ * 用法：java ExportColumnWidthBenchmark [行数] [列数]
+ */
+public class ExportColumnWidthBenchmark {
+
+    private static final String[] SAMPLES = {
+            "物料组", "一体化服务台账信息", "2026-10-17", "123456.78", "备注：按合同约定分批交付",
+            "ABC-2026-0001", "需求数量", "某某供电公司物资部", "是", "Cable 3x185mm2"
+    };
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int columns = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        // 预热
+        run(ColumnWidthEstimator.MODE_AUTO, 2000, columns);
+        run(ColumnWidthEstimator.MODE_ESTIMATE, 2000, columns);
+
+        System.out.println("行数: " + rows + ", 列数: " + columns);
+        for (String mode : new String[] {ColumnWidthEstimator.MODE_NONE,
+                ColumnWidthEstimator.MODE_ESTIMATE, ColumnWidthEstimator.MODE_AUTO}) {
+            long[] result = run(mode, rows, columns);
+            System.out.printf("%-8s 总耗时: %6dms, 列宽计算耗时: %6dms%n", mode, result[0], result[1]);
+        }
+    }
+
+    /**
+     * 返回 {总耗时, 列宽计算耗时}
+     */
+    private static long[] run(String mode, int rows, int columns) throws Exception {
+        long start = System.currentTimeMillis();
+        long widthNanos = 0;
+        Random random = new Random(42);
+
+        try (SXSSFWorkbook workbook = new SXSSFWorkbook(200)) {
+            workbook.setCompressTempFiles(true);
+            SXSSFSheet sheet = workbook.createSheet("台账");
+            ColumnWidthEstimator estimator = null;
+            if (ColumnWidthEstimator.MODE_AUTO.equals(mode)) {
+                sheet.trackAllColumnsForAutoSizing();
+            } else if (ColumnWidthEstimator.MODE_ESTIMATE.equals(mode)) {
+                estimator = new ColumnWidthEstimator(columns, 1000);
+            }
+
+            for (int r = 0; r < rows; r++) {
+                Row row = sheet.createRow(r);
+                boolean sampling = estimator != null && estimator.sampling();
+                for (int c = 0; c < columns; c++) {
+                    String value = SAMPLES[random.nextInt(SAMPLES.length)];
+                    row.createCell(c).setCellValue(value);
+                    if (sampling) {
+                        long t = System.nanoTime();
+                        estimator.sample(c, value);
+                        widthNanos += System.nanoTime() - t;
+                    }
+                }
+                if (estimator != null) {
+                    estimator.endRow();
+                }
+            }
+
+            long t = System.nanoTime();
+            if (ColumnWidthEstimator.MODE_AUTO.equals(mode)) {
+                for (int c = 0; c < columns; c++) {
+                    sheet.autoSizeColumn(c);
+                }
+            } else if (estimator != null) {
+                estimator.apply(sheet);
+            }
+            widthNanos += System.nanoTime() - t;
+
+            workbook.write(OutputStream.nullOutputStream());
+            workbook.dispose();
+        }
+
+        long total = System.currentTimeMillis() - start;
+        // AUTO模式的测量发生在每次刷新行到磁盘时，计入总耗时，这里只统计最后的调整
+        return new long[] {total, widthNanos / 1_000_000};
+    }
+}
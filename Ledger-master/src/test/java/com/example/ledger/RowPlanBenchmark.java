@@ -0,0 +1,197 @@
+package com.example.ledger;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 23:30
+ */
+
+import com.example.ledger.entity.LedgerDataDetail;
+import com.example.ledger.entity.RequiredFieldConfig;
+import com.example.ledger.entity.TemplateField;
+import com.example.ledger.util.TemplateRowPlan;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 上传逐行处理对比：原实现（每行排序字段、解析列字母、查找必填配置）/ 预编译行解析计划
+ * 只测量必填校验和字段详情创建，不含Excel读取和数据库写入
+ * 用法：java RowPlanBenchmark [行数] [列数] [必填列数]
+ */
+public class RowPlanBenchmark {
+
+    private static final String[] SAMPLES = {
+            "物料组", "一体化服务台账信息", "2026-10-17", "123456.78", "备注：按合同约定分批交付",
+            "ABC-2026-0001", "需求数量", "某某供电公司物资部", "是", "Cable 3x185mm2"
+    };
+
+    // 防止结果被优化掉
+    private static long sink;
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int columns = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+        int requiredColumns = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        List<TemplateField> fields = createFields(columns);
+        List<RequiredFieldConfig> requiredFields = createRequiredFields(fields, requiredColumns);
+        List<Map<Integer, String>> sampleRows = createRows(1000, columns);
+
+        // 预热
+        for (int i = 0; i < 5; i++) {
+            runLegacy(fields, requiredFields, sampleRows, 20000);
+            runPlan(fields, requiredFields, sampleRows, 20000);
+        }
+
+        System.out.println("行数: " + rows + ", 列数: " + columns + ", 必填列数: " + requiredColumns);
+        long legacy = runLegacy(fields, requiredFields, sampleRows, rows);
+        long plan = runPlan(fields, requiredFields, sampleRows, rows);
+        System.out.printf("%-10s 总耗时: %6dms, 每行: %6dns%n", "LEGACY", legacy / 1_000_000, legacy / rows);
+        System.out.printf("%-10s 总耗时: %6dms, 每行: %6dns%n", "ROW_PLAN", plan / 1_000_000, plan / rows);
+        System.out.println("(" + sink + ")");
+    }
+
+    private static long runPlan(List<TemplateField> fields, List<RequiredFieldConfig> requiredFields,
+                                List<Map<Integer, String>> sampleRows, int rows) {
+        long start = System.nanoTime();
+        TemplateRowPlan plan = TemplateRowPlan.compile(fields, requiredFields, false);
+        for (int r = 0; r < rows; r++) {
+            Map<Integer, String> cellValues = sampleRows.get(r % sampleRows.size());
+            List<String> errors = plan.validateRequired(cellValues, r + 1);
+            if (errors.isEmpty()) {
+                sink += plan.createDetails(cellValues, r + 1, true).size();
+            } else {
+                sink += errors.size();
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    // ---------- 原实现（与重构前的 LedgerUploadService 一致） ----------
+
+    private static long runLegacy(List<TemplateField> fields, List<RequiredFieldConfig> requiredFields,
+                                  List<Map<Integer, String>> sampleRows, int rows) {
+        long start = System.nanoTime();
+        Map<String, TemplateField> fieldMap = fields.stream()
+                .collect(Collectors.toMap(field -> field.getFieldLabel() + "_" + field.getExcelColumn(),
+                        Function.identity(), (f1, f2) -> f1));
+        Set<String> requiredFieldNames = requiredFields.stream()
+                .map(RequiredFieldConfig::getFieldName)
+                .collect(Collectors.toSet());
+        for (int r = 0; r < rows; r++) {
+            Map<Integer, String> cellValues = sampleRows.get(r % sampleRows.size());
+            List<String> errors = legacyValidate(cellValues, fieldMap, requiredFieldNames, requiredFields, r + 1);
+            if (errors.isEmpty()) {
+                sink += legacyDetails(cellValues, fieldMap, requiredFieldNames, r + 1).size();
+            } else {
+                sink += errors.size();
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static List<String> legacyValidate(Map<Integer, String> cellValues, Map<String, TemplateField> fieldMap,
+                                               Set<String> requiredFieldNames,
+                                               List<RequiredFieldConfig> requiredFields, int excelRowNum) {
+        List<String> errors = new ArrayList<>();
+        for (TemplateField field : sorted(fieldMap)) {
+            String cellValue = cellValues.get(excelColumnToIndex(field.getExcelColumn()));
+            if (requiredFieldNames.contains(field.getFieldName())
+                    && (cellValue == null || cellValue.trim().isEmpty())) {
+                String requiredMessage = requiredFields.stream()
+                        .filter(config -> config.getFieldName().equals(field.getFieldName()))
+                        .map(RequiredFieldConfig::getRequiredMessage)
+                        .findFirst()
+                        .orElse(field.getFieldLabel() + "为必填项");
+                errors.add("第" + excelRowNum + "行，" + field.getFieldLabel() + ": " + requiredMessage);
+            }
+        }
+        return errors;
+    }
+
+    private static List<LedgerDataDetail> legacyDetails(Map<Integer, String> cellValues,
+                                                        Map<String, TemplateField> fieldMap,
+                                                        Set<String> requiredFieldNames, int rowNumber) {
+        List<LedgerDataDetail> details = new ArrayList<>();
+        for (TemplateField field : sorted(fieldMap)) {
+            LedgerDataDetail detail = new LedgerDataDetail();
+            detail.setDataId((long) rowNumber);
+            detail.setFieldName(field.getFieldName() + "_" + field.getExcelColumn());
+            detail.setSortOrder(field.getSortOrder());
+            String cellValue = cellValues.get(excelColumnToIndex(field.getExcelColumn()));
+            detail.setOriginalValue(cellValue);
+            boolean empty = cellValue == null || cellValue.trim().isEmpty();
+            detail.setIsValid(!(empty && requiredFieldNames.contains(field.getFieldName())));
+            detail.setIsEmpty(empty);
+            detail.setFieldValue(empty ? null : cellValue.trim());
+            details.add(detail);
+        }
+        return details;
+    }
+
+    private static List<TemplateField> sorted(Map<String, TemplateField> fieldMap) {
+        return fieldMap.values().stream()
+                .sorted(Comparator.comparing(TemplateField::getSortOrder))
+                .collect(Collectors.toList());
+    }
+
+    private static int excelColumnToIndex(String column) {
+        column = column.toUpperCase().trim();
+        int index = 0;
+        for (int i = 0; i < column.length(); i++) {
+            index = index * 26 + (column.charAt(i) - 'A' + 1);
+        }
+        return index - 1;
+    }
+
+    // ---------- 测试数据 ----------
+
+    private static List<TemplateField> createFields(int columns) {
+        List<TemplateField> fields = new ArrayList<>();
+        for (int c = 0; c < columns; c++) {
+            TemplateField field = new TemplateField();
+            field.setFieldName("field" + c);
+            field.setFieldLabel("字段" + c);
+            field.setExcelColumn(columnLetter(c));
+            field.setSortOrder(c);
+            fields.add(field);
+        }
+        return fields;
+    }
+
+    private static List<RequiredFieldConfig> createRequiredFields(List<TemplateField> fields, int count) {
+        List<RequiredFieldConfig> configs = new ArrayList<>();
+        for (int i = 0; i < Math.min(count, fields.size()); i++) {
+            RequiredFieldConfig config = new RequiredFieldConfig();
+            config.setFieldName(fields.get(i).getFieldName());
+            config.setRequiredMessage(fields.get(i).getFieldLabel() + "不能为空");
+            configs.add(config);
+        }
+        return configs;
+    }
+
+    private static List<Map<Integer, String>> createRows(int count, int columns) {
+        Random random = new Random(42);
+        List<Map<Integer, String>> rows = new ArrayList<>();
+        for (int r = 0; r < count; r++) {
+            Map<Integer, String> cellValues = new HashMap<>();
+            for (int c = 0; c < columns; c++) {
+                // 约2%的单元格为空，部分行会因必填项校验失败
+                if (random.nextInt(50) != 0) {
+                    cellValues.put(c, SAMPLES[random.nextInt(SAMPLES.length)]);
+                }
+            }
+            rows.add(cellValues);
+        }
+        return rows;
+    }
+
+    private static String columnLetter(int index) {
+        StringBuilder letter = new StringBuilder();
+        for (int i = index + 1; i > 0; i = (i - 1) / 26) {
+            letter.insert(0, (char) ('A' + (i - 1) % 26));
+        }
+        return letter.toString();
+    }
+}
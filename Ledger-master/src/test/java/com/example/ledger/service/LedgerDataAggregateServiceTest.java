@@ -0,0 +1,161 @@
+package com.example.ledger.service;
+
+/**
+ * @author 霜月
+ * @create 2026/10/18 02:10
+ */
+
+import com.example.ledger.dto.request.FieldCondition;
+import com.example.ledger.dto.request.LedgerDataAggregateRequest;
+import com.example.ledger.dto.response.LedgerDataAggregateResponse;
+import com.example.ledger.entity.LedgerTemplate;
+import com.example.ledger.entity.TemplateField;
+import com.example.ledger.repository.LedgerDataRepository;
+import com.example.ledger.repository.LedgerTemplateRepository;
+import com.example.ledger.util.SecurityUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * 汇总查询生成的SQL：每个字段关联一次明细，数字字段汇总 numeric_value，透视取值展开为条件汇总列
+ */
+class LedgerDataAggregateServiceTest {
+
+    private JdbcTemplate jdbcTemplate;
+    private LedgerDataAggregateService service;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        LedgerTemplate template = new LedgerTemplate();
+        template.setId(1L);
+        TemplateMetadataCache.TemplateMetadata metadata = new TemplateMetadataCache.TemplateMetadata(template,
+                List.of(field("计量单位", "C", "STRING"), field("金额", "D", "NUMBER")), List.of());
+        TemplateMetadataCache templateMetadataCache = mock(TemplateMetadataCache.class);
+        when(templateMetadataCache.get(1L)).thenReturn(metadata);
+
+        LedgerDataQueryService queryService = new LedgerDataQueryService(mock(LedgerDataRepository.class),
+                mock(LedgerTemplateRepository.class), mock(LedgerDataResponseAssembler.class), templateMetadataCache,
+                mock(LedgerStatisticsService.class), mock(FieldValueSearchService.class), mock(EntityManager.class),
+                mock(SecurityUtil.class));
+
+        DbConcurrencyLimiter limiter = mock(DbConcurrencyLimiter.class);
+        when(limiter.call(any())).thenAnswer(invocation -> ((Supplier<Object>) invocation.getArgument(0)).get());
+
+        jdbcTemplate = mock(JdbcTemplate.class);
+        service = new LedgerDataAggregateService(jdbcTemplate, queryService, limiter,
+                mock(ColumnarSnapshotService.class), mock(SecurityUtil.class), new ObjectMapper());
+        ReflectionTestUtils.setField(service, "defaultLimit", 1000);
+        ReflectionTestUtils.setField(service, "maxLimit", 5000);
+        ReflectionTestUtils.setField(service, "defaultTimeoutSeconds", 30);
+        ReflectionTestUtils.setField(service, "maxTimeoutSeconds", 120);
+        ReflectionTestUtils.setField(service, "maxPivotValues", 2);
+    }
+
+    @Test
+    void groupsByMonthAndFieldWithRangeCondition() {
+        LedgerDataAggregateRequest request = new LedgerDataAggregateRequest();
+        request.setTemplateId(1L);
+        request.setGroupBy(List.of("month", "计量单位"));
+        request.setMetrics(List.of(metric("金额", "sum"), metric(null, null)));
+        FieldCondition condition = new FieldCondition();
+        condition.setField("金额");
+        condition.setOperator(FieldCondition.GTE);
+        condition.setValue("1,000");
+        request.setFieldConditions(List.of(condition));
+        request.setLimit(100000);
+
+        LedgerDataAggregateService.AggregateQuery query = service.prepare(request);
+
+        assertEquals("SELECT l.created_month, f0.field_value, SUM(f1.numeric_value), COUNT(*) FROM ledger_data l " +
+                "LEFT JOIN ledger_data_detail f0 ON f0.data_id = l.id AND f0.field_name = ? " +
+                "LEFT JOIN ledger_data_detail f1 ON f1.data_id = l.id AND f1.field_name = ? " +
+                "WHERE l.deleted = 0 AND l.template_id = ? AND EXISTS (SELECT 1 FROM ledger_data_detail c0 " +
+                "WHERE c0.data_id = l.id AND c0.field_name = ? AND c0.numeric_value >= ?) " +
+                "GROUP BY l.created_month, f0.field_value ORDER BY l.created_month, f0.field_value LIMIT ?", query.sql);
+        assertEquals(Arrays.asList("计量单位_C", "金额_D", 1L, "金额_D"), query.params.subList(0, 4));
+        assertEquals(0, new BigDecimal("1000").compareTo((BigDecimal) query.params.get(4)));
+        // 行数限制不超过上限，多取一行判断截断
+        assertEquals(5001, query.params.get(5));
+        assertEquals(List.of("month", "计量单位", "sum_金额", "count"), names(query.columns));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void expandsPivotValuesIntoColumns() {
+        when(jdbcTemplate.query(any(PreparedStatementCreator.class), any(RowMapper.class)))
+                .thenReturn(new ArrayList<>(Arrays.asList("件", null)));
+
+        LedgerDataAggregateRequest request = new LedgerDataAggregateRequest();
+        request.setTemplateId(1L);
+        request.setGroupBy(List.of("UNIT"));
+        request.setPivotBy("计量单位");
+        request.setMetrics(List.of(metric("金额", "SUM")));
+
+        LedgerDataAggregateService.AggregateQuery query = service.prepare(request);
+
+        assertTrue(query.sql.startsWith("SELECT l.unit_name, SUM(CASE WHEN f0.field_value = ? THEN f1.numeric_value END), " +
+                "SUM(CASE WHEN f0.field_value IS NULL THEN f1.numeric_value END) FROM ledger_data l"), query.sql);
+        assertEquals(Arrays.asList("件", "计量单位_C", "金额_D", 1L, 1001), query.params);
+        assertEquals(List.of("unitName", "件_sum_金额", "(空)_sum_金额"), names(query.columns));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void rejectsInvalidRequests() {
+        LedgerDataAggregateRequest sumOfText = new LedgerDataAggregateRequest();
+        sumOfText.setTemplateId(1L);
+        sumOfText.setMetrics(List.of(metric("计量单位", "AVG")));
+        assertThrows(RuntimeException.class, () -> service.prepare(sumOfText));
+
+        LedgerDataAggregateRequest noTemplate = new LedgerDataAggregateRequest();
+        noTemplate.setGroupBy(List.of("金额"));
+        assertThrows(RuntimeException.class, () -> service.prepare(noTemplate));
+
+        when(jdbcTemplate.query(any(PreparedStatementCreator.class), any(RowMapper.class)))
+                .thenReturn(new ArrayList<>(Arrays.asList("件", "吨", "米")));
+        LedgerDataAggregateRequest tooManyPivotValues = new LedgerDataAggregateRequest();
+        tooManyPivotValues.setTemplateId(1L);
+        tooManyPivotValues.setPivotBy("计量单位");
+        assertThrows(RuntimeException.class, () -> service.prepare(tooManyPivotValues));
+    }
+
+    private static List<String> names(List<LedgerDataAggregateResponse.Column> columns) {
+        return columns.stream().map(LedgerDataAggregateResponse.Column::getName).collect(Collectors.toList());
+    }
+
+    private static LedgerDataAggregateRequest.Metric metric(String field, String function) {
+        LedgerDataAggregateRequest.Metric metric = new LedgerDataAggregateRequest.Metric();
+        metric.setField(field);
+        if (function != null) {
+            metric.setFunction(function);
+        }
+        return metric;
+    }
+
+    private static TemplateField field(String name, String column, String type) {
+        TemplateField field = new TemplateField();
+        field.setFieldName(name);
+        field.setFieldLabel(name);
+        field.setExcelColumn(column);
+        field.setFieldType(type);
+        return field;
+    }
+}
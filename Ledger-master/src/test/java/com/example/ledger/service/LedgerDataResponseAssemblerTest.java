@@ -0,0 +1,162 @@
+package com.example.ledger.service;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 14:30
+ */
+
+import com.example.ledger.dto.response.LedgerDataDynamicResponse;
+import com.example.ledger.dto.response.LedgerDataResponse;
+import com.example.ledger.entity.*;
+import com.example.ledger.repository.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.*;
+
+/**
+ * 分页响应组装的查询次数与每页行数无关
+ */
+class LedgerDataResponseAssemblerTest {
+
+    private LedgerUploadRepository ledgerUploadRepository;
+    private LedgerTemplateRepository ledgerTemplateRepository;
+    private TemplateFieldRepository templateFieldRepository;
+    private RequiredFieldConfigRepository requiredFieldConfigRepository;
+    private LedgerDataDetailRepository ledgerDataDetailRepository;
+
+    private LedgerDataResponseAssembler assembler;
+
+    @BeforeEach
+    void setUp() {
+        ledgerUploadRepository = mock(LedgerUploadRepository.class);
+        ledgerTemplateRepository = mock(LedgerTemplateRepository.class);
+        templateFieldRepository = mock(TemplateFieldRepository.class);
+        requiredFieldConfigRepository = mock(RequiredFieldConfigRepository.class);
+        ledgerDataDetailRepository = mock(LedgerDataDetailRepository.class);
+
+        when(ledgerUploadRepository.findAllById(any())).thenAnswer(invocation -> {
+            List<LedgerUpload> uploads = new ArrayList<>();
+            for (Long id : (Iterable<Long>) invocation.getArgument(0)) {
+                LedgerUpload upload = new LedgerUpload();
+                upload.setId(id);
+                upload.setUploadNo("UPLOAD_" + id);
+                uploads.add(upload);
+            }
+            return uploads;
+        });
+        when(ledgerTemplateRepository.findAllById(any())).thenAnswer(invocation -> {
+            List<LedgerTemplate> templates = new ArrayList<>();
+            for (Long id : (Iterable<Long>) invocation.getArgument(0)) {
+                LedgerTemplate template = new LedgerTemplate();
+                template.setId(id);
+                template.setTemplateName("模板" + id);
+                templates.add(template);
+            }
+            return templates;
+        });
+        when(templateFieldRepository.findByTemplateIdInAndDeletedFalse(anyCollection())).thenAnswer(invocation -> {
+            Collection<Long> templateIds = invocation.getArgument(0);
+            return templateIds.stream().map(id -> field(id, "物料组_", "A")).collect(Collectors.toList());
+        });
+        when(requiredFieldConfigRepository.findByTemplateIdInAndRequiredTrue(anyCollection()))
+                .thenReturn(Collections.emptyList());
+        when(ledgerDataDetailRepository.findByDataIdIn(any())).thenAnswer(invocation -> {
+            List<Long> dataIds = invocation.getArgument(0);
+            return dataIds.stream().map(this::detail).collect(Collectors.toList());
+        });
+
+        TemplateMetadataCache cache = new TemplateMetadataCache(ledgerTemplateRepository,
+                templateFieldRepository, requiredFieldConfigRepository);
+        LedgerRowStorageService rowStorageService = new LedgerRowStorageService(mock(LedgerDataRepository.class),
+                ledgerDataDetailRepository, mock(LedgerDataJdbcRepository.class), Runnable::run);
+        assembler = new LedgerDataResponseAssembler(ledgerUploadRepository, cache, rowStorageService);
+    }
+
+    @Test
+    void queryCountIsConstantPerPage() {
+        List<LedgerDataResponse> small = assembler.toResponses(page(10));
+        assertEquals(10, small.size());
+        int firstPageQueries = totalQueries();
+        // 上传记录、模板、字段、必填项、明细各一次
+        assertEquals(5, firstPageQueries);
+
+        resetCounts();
+        List<LedgerDataResponse> large = assembler.toResponses(page(100));
+        assertEquals(100, large.size());
+        // 模板元数据已缓存，只剩上传记录和明细两次查询
+        assertEquals(2, totalQueries());
+
+        resetCounts();
+        List<LedgerDataDynamicResponse> dynamic = assembler.toDynamicResponses(page(100));
+        assertEquals(100, dynamic.size());
+        assertEquals(2, totalQueries());
+    }
+
+    @Test
+    void responsesKeepOrderAndMapFieldNames() {
+        List<LedgerDataResponse> responses = assembler.toResponses(page(3));
+
+        for (int i = 0; i < responses.size(); i++) {
+            LedgerDataResponse response = responses.get(i);
+            long id = i + 1;
+            assertEquals(id, response.getId());
+            assertEquals("UPLOAD_" + (id % 2 + 1), response.getUploadNo());
+            assertEquals("模板" + (id % 3 + 1), response.getTemplateName());
+            // 以下划线结尾的字段名存储为双下划线，应映射回原始字段名
+            assertEquals("值" + id, response.getFieldData().get("物料组_"));
+        }
+    }
+
+    private int totalQueries() {
+        return mockingDetails(ledgerUploadRepository).getInvocations().size()
+                + mockingDetails(ledgerTemplateRepository).getInvocations().size()
+                + mockingDetails(templateFieldRepository).getInvocations().size()
+                + mockingDetails(requiredFieldConfigRepository).getInvocations().size()
+                + mockingDetails(ledgerDataDetailRepository).getInvocations().size();
+    }
+
+    private void resetCounts() {
+        clearInvocations(ledgerUploadRepository, ledgerTemplateRepository, templateFieldRepository,
+                requiredFieldConfigRepository, ledgerDataDetailRepository);
+    }
+
+    private List<LedgerData> page(int size) {
+        List<LedgerData> dataList = new ArrayList<>();
+        for (long id = 1; id <= size; id++) {
+            LedgerData data = new LedgerData();
+            data.setId(id);
+            data.setUploadId(id % 2 + 1);
+            data.setTemplateId(id % 3 + 1);
+            data.setCreatedBy(1L);
+            dataList.add(data);
+        }
+        return dataList;
+    }
+
+    private TemplateField field(Long templateId, String fieldName, String column) {
+        TemplateField field = new TemplateField();
+        field.setTemplateId(templateId);
+        field.setFieldName(fieldName);
+        field.setExcelColumn(column);
+        field.setSortOrder(1);
+        return field;
+    }
+
+    private LedgerDataDetail detail(Long dataId) {
+        LedgerDataDetail detail = new LedgerDataDetail();
+        detail.setDataId(dataId);
+        detail.setFieldName("物料组__A");
+        detail.setFieldValue("值" + dataId);
+        detail.setIsEmpty(false);
+        detail.setIsValid(true);
+        detail.setSortOrder(1);
+        return detail;
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.ledger.service;
+
+/**
+ * @author 霜月
+ * @create 2026/10/18 11:05
+ */
+
+import com.example.ledger.entity.LedgerTemplate;
+import com.example.ledger.repository.LedgerTemplateRepository;
+import com.example.ledger.repository.RequiredFieldConfigRepository;
+import com.example.ledger.repository.TemplateFieldRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 加载期间被失效的模板元数据不放入缓存
+ */
+class TemplateMetadataCacheTest {
+
+    private LedgerTemplateRepository ledgerTemplateRepository;
+    private TemplateMetadataCache cache;
+
+    @BeforeEach
+    void setUp() {
+        ledgerTemplateRepository = mock(LedgerTemplateRepository.class);
+        TemplateFieldRepository templateFieldRepository = mock(TemplateFieldRepository.class);
+        RequiredFieldConfigRepository requiredFieldConfigRepository = mock(RequiredFieldConfigRepository.class);
+        when(templateFieldRepository.findByTemplateIdAndDeletedFalse(anyLong())).thenReturn(Collections.emptyList());
+        when(templateFieldRepository.findByTemplateIdInAndDeletedFalse(any())).thenReturn(Collections.emptyList());
+        when(requiredFieldConfigRepository.findByTemplateIdAndRequiredTrue(anyLong())).thenReturn(Collections.emptyList());
+        when(requiredFieldConfigRepository.findByTemplateIdInAndRequiredTrue(any())).thenReturn(Collections.emptyList());
+        cache = new TemplateMetadataCache(ledgerTemplateRepository, templateFieldRepository,
+                requiredFieldConfigRepository);
+    }
+
+    @Test
+    void cachesLoadedMetadata() {
+        when(ledgerTemplateRepository.findById(1L)).thenReturn(Optional.of(template(1L, "v1")));
+
+        assertSame(cache.get(1L), cache.get(1L));
+        verify(ledgerTemplateRepository, times(1)).findById(1L);
+    }
+
+    @Test
+    void doesNotCacheMetadataEvictedDuringLoad() {
+        AtomicBoolean first = new AtomicBoolean(true);
+        when(ledgerTemplateRepository.findById(1L)).thenAnswer(invocation -> {
+            if (first.getAndSet(false)) {
+                // 读取到旧数据后，模板写事务提交并失效缓存
+                cache.evict(1L);
+                return Optional.of(template(1L, "v1"));
+            }
+            return Optional.of(template(1L, "v2"));
+        });
+
+        assertEquals("v1", cache.get(1L).getTemplate().getTemplateName());
+        assertEquals("v2", cache.get(1L).getTemplate().getTemplateName());
+    }
+
+    @Test
+    void doesNotCacheBatchLoadEvictedDuringLoad() {
+        AtomicBoolean first = new AtomicBoolean(true);
+        when(ledgerTemplateRepository.findAllById(any())).thenAnswer(invocation -> {
+            if (first.getAndSet(false)) {
+                cache.evictAll();
+                return List.of(template(1L, "v1"));
+            }
+            return List.of(template(1L, "v2"));
+        });
+
+        assertEquals("v1", cache.getAll(List.of(1L)).get(1L).getTemplate().getTemplateName());
+        assertEquals("v2", cache.getAll(List.of(1L)).get(1L).getTemplate().getTemplateName());
+    }
+
+    @Test
+    void skipsDeletedTemplates() {
+        LedgerTemplate deleted = template(1L, "v1");
+        deleted.setDeleted(true);
+        when(ledgerTemplateRepository.findById(1L)).thenReturn(Optional.of(deleted));
+        when(ledgerTemplateRepository.findAllById(any())).thenReturn(List.of(deleted));
+
+        assertNull(cache.get(1L));
+        assertTrue(cache.getAll(List.of(1L)).isEmpty());
+    }
+
+    @Test
+    void doesNotCacheUnitMappingEvictedDuringLookup() {
+        AtomicBoolean first = new AtomicBoolean(true);
+        when(ledgerTemplateRepository.findByUnitNameAndDeletedFalse("单位A")).thenAnswer(invocation -> {
+            if (first.getAndSet(false)) {
+                // 查到旧模板后，模板被删除并失效缓存
+                cache.evict(1L);
+                return Optional.of(template(1L, "v1"));
+            }
+            return Optional.of(template(2L, "v2"));
+        });
+        when(ledgerTemplateRepository.findById(1L)).thenReturn(Optional.of(template(1L, "v1")));
+        when(ledgerTemplateRepository.findById(2L)).thenReturn(Optional.of(template(2L, "v2")));
+
+        assertEquals("v1", cache.getByUnitName("单位A").getTemplate().getTemplateName());
+        assertEquals("v2", cache.getByUnitName("单位A").getTemplate().getTemplateName());
+    }
+
+    private static LedgerTemplate template(Long id, String name) {
+        LedgerTemplate template = new LedgerTemplate();
+        template.setId(id);
+        template.setTemplateName(name);
+        return template;
+    }
+}
@@ -0,0 +1,195 @@
+package com.example.ledger.service;
+
+/**
+ * @author 霜月
+ * @create 2026/10/18 10:20
+ */
+
+import com.example.ledger.entity.LedgerData;
+import com.example.ledger.entity.LedgerDataDetail;
+import com.example.ledger.entity.LedgerUpload;
+import com.example.ledger.entity.TemplateField;
+import com.example.ledger.repository.LedgerDataDetailRepository;
+import com.example.ledger.repository.LedgerDataJdbcRepository;
+import com.example.ledger.repository.LedgerDataRepository;
+import com.example.ledger.util.TemplateRowPlan;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * 差异上传按字段类型的规范值匹配业务主键
+ */
+class UploadDiffServiceTest {
+
+    private static final List<String> KEY_FIELDS = Arrays.asList("contractDate_A", "amount_B");
+
+    private List<TemplateField> fields;
+    private TemplateRowPlan rowPlan;
+    private LedgerDataRepository ledgerDataRepository;
+    private LedgerDataJdbcRepository ledgerDataJdbcRepository;
+    private LedgerRowStorageService ledgerRowStorageService;
+    private LedgerStatisticsService ledgerStatisticsService;
+    private UploadDiffService service;
+
+    @BeforeEach
+    void setUp() {
+        fields = Arrays.asList(
+                field("contractDate", "合同日期", "A", 1, "DATE", null),
+                field("amount", "金额", "B", 2, "NUMBER", 2),
+                field("name", "名称", "C", 3, "STRING", null));
+        rowPlan = TemplateRowPlan.compile(fields, null, true);
+        ledgerDataRepository = mock(LedgerDataRepository.class);
+        ledgerDataJdbcRepository = mock(LedgerDataJdbcRepository.class);
+        ledgerRowStorageService = mock(LedgerRowStorageService.class);
+        ledgerStatisticsService = mock(LedgerStatisticsService.class);
+        service = new UploadDiffService(ledgerDataRepository, mock(LedgerDataDetailRepository.class),
+                ledgerDataJdbcRepository, ledgerRowStorageService, ledgerStatisticsService,
+                mock(ColumnarSnapshotService.class));
+    }
+
+    @Test
+    void matchesDateAndDecimalKeysByConvertedValue() {
+        UploadDiffService.DiffSession session = newSession();
+        session.addExisting(data(10L, 1), storedDetails("2024-01-05", "1200.00", "甲"));
+
+        Map<Integer, String> cells = cells("2024/01/05", "1200", "甲");
+        String key = session.extractKey(cells);
+        assertEquals("2024-01-05|1200.00", session.displayKey(key));
+
+        UploadDiffService.DiffBatch batch = classify(session, cells, key);
+        assertTrue(batch.getInsertData().isEmpty());
+        assertEquals("新增 0 行，修改 0 行，删除 0 行，未变化 1 行", session.summary());
+    }
+
+    @Test
+    void matchesExistingRowsSavedBeforeConversion() {
+        UploadDiffService.DiffSession session = newSession();
+        // 类型转换上线前保存的原始单元格文本
+        session.addExisting(data(10L, 1), storedDetails("2024/1/5", "1,200", "甲"));
+
+        Map<Integer, String> cells = cells("20240105", "1200.0", "乙");
+        UploadDiffService.DiffBatch batch = classify(session, cells, session.extractKey(cells));
+        assertTrue(batch.getInsertData().isEmpty());
+    }
+
+    @Test
+    void legacyValuesAreNotReportedAsChanged() {
+        UploadDiffService.DiffSession session = newSession();
+        // 类型转换上线前保存的原始单元格文本，内容与文件一致
+        session.addExisting(data(10L, 1), storedDetails("2024/1/5", "1,200", " 甲 "));
+
+        Map<Integer, String> cells = cells("2024-01-05", "1200", "甲");
+        classify(session, cells, session.extractKey(cells));
+        assertEquals("新增 0 行，修改 0 行，删除 0 行，未变化 1 行", session.summary());
+    }
+
+    @Test
+    void insertsRowsWithNewKeys() {
+        UploadDiffService.DiffSession session = newSession();
+        session.addExisting(data(10L, 1), storedDetails("2024-01-05", "1200.00", "甲"));
+
+        Map<Integer, String> cells = cells("2024-01-06", "1200", "甲");
+        UploadDiffService.DiffBatch batch = classify(session, cells, session.extractKey(cells));
+        assertEquals(1, batch.getInsertData().size());
+    }
+
+    @Test
+    void changedRowsTakeNewValidationStatus() {
+        UploadDiffService.DiffSession session = newSession();
+        LedgerData current = data(10L, 1);
+        current.setValidationStatus("VALID");
+        List<LedgerDataDetail> stored = storedDetails("2024-01-05", "1200.00", "甲");
+        session.addExisting(current, stored);
+        when(ledgerDataRepository.findAllById(any())).thenReturn(List.of(current));
+        when(ledgerRowStorageService.loadDetails(any())).thenReturn(Map.of(10L, stored));
+
+        // 同一业务主键，名称列超出字段长度
+        fields.get(2).setFieldLength(2);
+        rowPlan = TemplateRowPlan.compile(fields, null, true);
+        Map<Integer, String> cells = cells("2024-01-05", "1200", "甲乙丙");
+        LedgerData incoming = new LedgerData();
+        incoming.setValidationStatus("INVALID");
+        UploadDiffService.DiffBatch batch = classify(session, cells, session.extractKey(cells), incoming);
+        service.stage(session, batch);
+        // 修改暂存到结束任务时写入
+        verify(ledgerDataJdbcRepository, never()).batchUpdateChangedRows(any());
+        service.applyChanges(session);
+
+        ArgumentCaptor<List<LedgerData>> updates = ArgumentCaptor.forClass(List.class);
+        verify(ledgerDataJdbcRepository).batchUpdateChangedRows(updates.capture());
+        LedgerData update = updates.getValue().get(0);
+        assertEquals("INVALID", update.getValidationStatus());
+        assertTrue(update.getValidationErrors().startsWith("[\"name_C: "));
+        verify(ledgerStatisticsService).recordValidationChange(update, "VALID");
+    }
+
+    private UploadDiffService.DiffSession newSession() {
+        LedgerUpload upload = new LedgerUpload();
+        upload.setId(1L);
+        upload.setUserId(1L);
+        upload.setUploadNo("UPLOAD_1");
+        return new UploadDiffService.DiffSession(upload, KEY_FIELDS, fields);
+    }
+
+    private UploadDiffService.DiffBatch classify(UploadDiffService.DiffSession session,
+                                                 Map<Integer, String> cells, String key) {
+        return classify(session, cells, key, new LedgerData());
+    }
+
+    private UploadDiffService.DiffBatch classify(UploadDiffService.DiffSession session,
+                                                 Map<Integer, String> cells, String key, LedgerData incoming) {
+        session.register(key);
+        Map<Integer, LedgerData> dataMap = new LinkedHashMap<>();
+        dataMap.put(1, incoming);
+        Map<Integer, List<LedgerDataDetail>> detailMap = new LinkedHashMap<>();
+        detailMap.put(1, rowPlan.createDetails(cells, 1, true));
+        Map<Integer, String> keyMap = new HashMap<>();
+        keyMap.put(1, key);
+        return service.classify(session, dataMap, detailMap, keyMap);
+    }
+
+    private static Map<Integer, String> cells(String date, String amount, String name) {
+        Map<Integer, String> cells = new HashMap<>();
+        cells.put(0, date);
+        cells.put(1, amount);
+        cells.put(2, name);
+        return cells;
+    }
+
+    private static List<LedgerDataDetail> storedDetails(String date, String amount, String name) {
+        return Arrays.asList(detail("contractDate_A", date), detail("amount_B", amount), detail("name_C", name));
+    }
+
+    private static LedgerDataDetail detail(String fieldName, String value) {
+        LedgerDataDetail detail = new LedgerDataDetail();
+        detail.setFieldName(fieldName);
+        detail.setFieldValue(value);
+        return detail;
+    }
+
+    private static LedgerData data(Long id, int rowNumber) {
+        LedgerData data = new LedgerData();
+        data.setId(id);
+        data.setRowNumber(rowNumber);
+        return data;
+    }
+
+    private static TemplateField field(String name, String label, String column, int sortOrder,
+                                       String fieldType, Integer decimalPlaces) {
+        TemplateField field = new TemplateField();
+        field.setFieldName(name);
+        field.setFieldLabel(label);
+        field.setExcelColumn(column);
+        field.setSortOrder(sortOrder);
+        field.setFieldType(fieldType);
+        field.setDecimalPlaces(decimalPlaces);
+        return field;
+    }
+}
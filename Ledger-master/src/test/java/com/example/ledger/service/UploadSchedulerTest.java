@@ -0,0 +1,97 @@
+package com.example.ledger.service;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 19:20
+ */
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 同一单位串行、单位内按用户轮转、队列满时拒绝
+ */
+class UploadSchedulerTest {
+
+    private final List<Runnable> pending = new ArrayList<>();
+    private final List<Long> executed = new ArrayList<>();
+
+    private UploadScheduler scheduler(int workers, int maxQueuedPerUnit) {
+        UploadScheduler scheduler = new UploadScheduler(pending::add);
+        ReflectionTestUtils.setField(scheduler, "workers", workers);
+        ReflectionTestUtils.setField(scheduler, "maxQueued", 100);
+        ReflectionTestUtils.setField(scheduler, "maxQueuedPerUnit", maxQueuedPerUnit);
+        return scheduler;
+    }
+
+    private void submit(UploadScheduler scheduler, String unitName, long userId, long jobId) {
+        scheduler.submit(unitName, userId, jobId, () -> executed.add(jobId));
+    }
+
+    private void runNext() {
+        pending.remove(0).run();
+    }
+
+    @Test
+    void serializesPerUnitAndRoundRobinsUsers() {
+        UploadScheduler scheduler = scheduler(4, 10);
+        submit(scheduler, "A", 1L, 1L);
+        submit(scheduler, "A", 1L, 2L);
+        submit(scheduler, "A", 1L, 3L);
+        submit(scheduler, "A", 2L, 4L);
+        submit(scheduler, "B", 3L, 5L);
+
+        // 单位A只有一个任务在执行，单位B不受影响
+        assertEquals(2, pending.size());
+        runNext();
+        runNext();
+        assertEquals(List.of(1L, 5L), executed);
+
+        // 单位A内部按用户轮转：用户1执行一个后轮到用户2
+        runNext();
+        runNext();
+        runNext();
+        assertEquals(List.of(1L, 5L, 2L, 4L, 3L), executed);
+        assertTrue(pending.isEmpty());
+    }
+
+    @Test
+    void rejectsWhenUnitQueueIsFull() {
+        UploadScheduler scheduler = scheduler(1, 2);
+        submit(scheduler, "A", 1L, 1L);
+        submit(scheduler, "A", 1L, 2L);
+        submit(scheduler, "A", 1L, 3L);
+
+        UploadScheduler.UploadRejectedException e = assertThrows(UploadScheduler.UploadRejectedException.class,
+                () -> scheduler.checkCapacity("A"));
+        assertTrue(e.getRetryAfterSeconds() >= 5);
+
+        // 重复提交同一任务被忽略
+        submit(scheduler, "A", 1L, 2L);
+        // 其他单位仍可提交
+        scheduler.checkCapacity("B");
+
+        Map<String, Object> stats = scheduler.getStats();
+        assertEquals(2, stats.get("queued"));
+        assertEquals(1, stats.get("running"));
+        List<Map<String, Object>> units = (List<Map<String, Object>>) stats.get("units");
+        assertEquals(1L, units.get(0).get("rejected"));
+    }
+
+    @Test
+    void removesIdleUnits() {
+        UploadScheduler scheduler = scheduler(2, 10);
+        submit(scheduler, "A", 1L, 1L);
+        submit(scheduler, "B", 2L, 2L);
+        runNext();
+        runNext();
+
+        assertTrue(((List<?>) scheduler.getStats().get("units")).isEmpty());
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.ledger.util;
+
+/**
+ * @author 霜月
+ * @create 2026/10/18 03:20
+ */
+
+import com.example.ledger.dto.request.FieldCondition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 列式快照的过滤和分组汇总与数据库查询结果一致：文本不区分大小写，数字按原小数位精确汇总
+ */
+class ColumnarSnapshotTest {
+
+    private static final String UNIT = "计量单位_C";
+    private static final String AMOUNT = "金额_D";
+    private static final String DAY = "日期_E";
+
+    private ColumnarSnapshot snapshot;
+
+    @BeforeEach
+    void setUp() {
+        snapshot = new ColumnarSnapshot(1L, Map.of(UNIT, ColumnarSnapshot.STRING,
+                AMOUNT, ColumnarSnapshot.NUMERIC, DAY, ColumnarSnapshot.DATE));
+        row(1, 202609, "单位A", "件", "1.5", LocalDate.of(2026, 9, 1));
+        row(2, 202610, "单位A", "吨", "2.25", LocalDate.of(2026, 10, 2));
+        row(3, 202610, "单位B", "件", "10", null);
+        row(4, 202610, "单位B", null, null, LocalDate.of(2026, 10, 8));
+        snapshot.addRow(5, 100, 202610, 8, "单位B", "INVALID");
+        snapshot.setValue(5, UNIT, "吨", null, null);
+    }
+
+    @Test
+    void filtersRowsLikeDetailConditions() {
+        BitSet rows = snapshot.liveRows();
+        snapshot.retainUnit(rows, "单位a");
+        assertEquals(2, rows.cardinality());
+
+        rows = snapshot.liveRows();
+        snapshot.retainValidationStatus(rows, "VALID");
+        snapshot.retainMonths(rows, 202610, 202612);
+        assertEquals(3, rows.cardinality());
+
+        rows = snapshot.liveRows();
+        assertTrue(snapshot.retainField(rows, AMOUNT, ColumnarSnapshot.NUMERIC, FieldCondition.GTE,
+                List.of(new BigDecimal("2.25"))));
+        assertEquals(2, rows.cardinality());
+
+        // 字段没有值的行不满足任何条件
+        rows = snapshot.liveRows();
+        assertTrue(snapshot.retainField(rows, UNIT, ColumnarSnapshot.STRING, FieldCondition.NE, List.of("件")));
+        assertEquals(2, rows.cardinality());
+
+        rows = snapshot.liveRows();
+        assertTrue(snapshot.retainField(rows, DAY, ColumnarSnapshot.DATE, FieldCondition.LT,
+                List.of(LocalDate.of(2026, 10, 5))));
+        assertEquals(2, rows.cardinality());
+
+        // 文本字段不能按数字比较
+        assertFalse(snapshot.retainField(snapshot.liveRows(), UNIT, ColumnarSnapshot.NUMERIC, FieldCondition.GT,
+                List.of(BigDecimal.ONE)));
+    }
+
+    @Test
+    void aggregatesGroupsInKeyOrder() {
+        List<Object[]> grouped = snapshot.aggregate(snapshot.liveRows(),
+                List.of(new ColumnarSnapshot.GroupKey(ColumnarSnapshot.KEY_MONTH, null),
+                        new ColumnarSnapshot.GroupKey(ColumnarSnapshot.KEY_FIELD, UNIT)),
+                List.of(new ColumnarSnapshot.Metric(ColumnarSnapshot.SUM, AMOUNT, ColumnarSnapshot.NUMERIC),
+                        new ColumnarSnapshot.Metric(ColumnarSnapshot.COUNT, null, null),
+                        new ColumnarSnapshot.Metric(ColumnarSnapshot.MAX, DAY, ColumnarSnapshot.DATE)));
+
+        assertEquals(4, grouped.size());
+        assertEquals(Arrays.asList(202609, "件", new BigDecimal("1.50"), 1L, LocalDate.of(2026, 9, 1)),
+                Arrays.asList(grouped.get(0)));
+        assertEquals(Arrays.asList(202610, null, null, 1L, LocalDate.of(2026, 10, 8)),
+                Arrays.asList(grouped.get(1)));
+        assertEquals(Arrays.asList(202610, "件", new BigDecimal("10.00"), 1L, null),
+                Arrays.asList(grouped.get(2)));
+        assertEquals(Arrays.asList(202610, "吨", new BigDecimal("2.25"), 2L, LocalDate.of(2026, 10, 2)),
+                Arrays.asList(grouped.get(3)));
+    }
+
+    @Test
+    void averagesWithExtraScale() {
+        List<Object[]> grouped = snapshot.aggregate(snapshot.liveRows(), List.of(),
+                List.of(new ColumnarSnapshot.Metric(ColumnarSnapshot.AVG, AMOUNT, ColumnarSnapshot.NUMERIC)));
+
+        assertEquals(1, grouped.size());
+        assertEquals(new BigDecimal("4.583333"), grouped.get(0)[0]);
+    }
+
+    @Test
+    void removedAndReplacedRowsAreNotCounted() {
+        assertTrue(snapshot.removeRow(3));
+        assertFalse(snapshot.removeRow(3));
+        row(1, 202610, "单位C", "件", "3", null);
+
+        assertEquals(4, snapshot.getLiveRows());
+        assertEquals(2, snapshot.getDeadRows());
+        assertFalse(snapshot.containsUnit("单位X"));
+
+        BitSet rows = snapshot.liveRows();
+        snapshot.retainUnit(rows, "单位C");
+        List<Object[]> grouped = snapshot.aggregate(rows, List.of(),
+                List.of(new ColumnarSnapshot.Metric(ColumnarSnapshot.SUM, AMOUNT, ColumnarSnapshot.NUMERIC)));
+        assertEquals(new BigDecimal("3.00"), grouped.get(0)[0]);
+    }
+
+    private void row(long dataId, int month, String unitName, String unit, String amount, LocalDate day) {
+        snapshot.addRow(dataId, 100, month, 7, unitName, "VALID");
+        snapshot.setValue(dataId, UNIT, unit, null, null);
+        snapshot.setValue(dataId, AMOUNT, amount, amount != null ? new BigDecimal(amount) : null, null);
+        snapshot.setValue(dataId, DAY, day != null ? day.toString() : null, null, day);
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.ledger.util;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 16:55
+ */
+
+import com.example.ledger.entity.TemplateStyle;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 相同样式属性在同一工作簿内只创建一次
+ */
+class ExcelStyleRegistryTest {
+
+    @Test
+    void sameAttributesShareStyleAndFont() throws Exception {
+        try (SXSSFWorkbook workbook = new SXSSFWorkbook()) {
+            int initialStyles = workbook.getNumCellStyles();
+            ExcelStyleRegistry registry = new ExcelStyleRegistry(workbook);
+
+            CellStyle first = null;
+            for (int i = 0; i < 1000; i++) {
+                CellStyle style = registry.getStyle(style("#ffffff", true));
+                if (first == null) {
+                    first = style;
+                }
+                assertSame(first, style);
+            }
+
+            // 背景色不同：新样式，字体复用
+            CellStyle other = registry.getStyle(style("CCCCCC", true));
+            assertNotSame(first, other);
+            assertEquals(first.getFontIndex(), other.getFontIndex());
+
+            // 边框不同：新样式
+            assertNotSame(first, registry.getStyle(style("FFFFFF", false)));
+
+            assertEquals(3, registry.getStyleCount());
+            assertEquals(1, registry.getFontCount());
+            assertEquals(initialStyles + 3, workbook.getNumCellStyles());
+        }
+    }
+
+    private TemplateStyle style(String backgroundColor, boolean border) {
+        TemplateStyle style = new TemplateStyle();
+        style.setFontName("宋体");
+        style.setFontBold(true);
+        style.setFontSize(12);
+        style.setFontColor("000000");
+        style.setAlignment("CENTER");
+        style.setBackgroundColor(backgroundColor);
+        style.setBorderTop(border);
+        style.setBorderBottom(border);
+        return style;
+    }
+}
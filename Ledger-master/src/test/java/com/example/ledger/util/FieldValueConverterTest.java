@@ -0,0 +1,101 @@
+package com.example.ledger.util;
+
+/**
+ * @author 霜月
+ * @create 2026/10/18 00:20
+ */
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 按字段类型转换为规范值，无法转换时返回null
+ */
+class FieldValueConverterTest {
+
+    @Test
+    void resolvesTypeFromFieldDefinition() {
+        assertEquals("STRING", FieldValueConverter.of(null, null, null, null).getType());
+        assertEquals("NUMBER", FieldValueConverter.of("NUMBER", null, null, null).getType());
+        assertEquals("INTEGER", FieldValueConverter.of("NUMBER", "bigint", null, null).getType());
+        assertEquals("DECIMAL", FieldValueConverter.of("NUMBER", null, 2, null).getType());
+        assertSame(FieldValueConverter.of("NUMBER", "DECIMAL", 2, null),
+                FieldValueConverter.of("DECIMAL", null, 2, 20));
+    }
+
+    @Test
+    void convertsNumbers() {
+        FieldValueConverter number = FieldValueConverter.of("NUMBER", null, null, null);
+        assertEquals("1200.5", number.convert("1,200.50"));
+        assertEquals("-12", number.convert("-12"));
+        assertEquals("12", number.convert("+12"));
+        assertEquals("0", number.convert("-0.00"));
+        assertEquals("1500", number.convert("1.5E3"));
+        assertEquals("000123", number.convert("000123"));
+        assertNull(number.convert("12件"));
+        assertNull(number.convert("1,2.5"));
+        assertNull(number.convert("1e"));
+
+        FieldValueConverter integer = FieldValueConverter.of("NUMBER", "INTEGER", null, null);
+        assertEquals("12", integer.convert("12.0"));
+        assertEquals("7", integer.convert("007"));
+        assertNull(integer.convert("12.5"));
+        assertEquals("值必须是整数", integer.validate("12.5"));
+
+        FieldValueConverter decimal = FieldValueConverter.of("NUMBER", "DECIMAL", 2, null);
+        assertEquals("3.15", decimal.convert("3.145"));
+        assertEquals("12.00", decimal.convert("12"));
+    }
+
+    @Test
+    void convertsDates() {
+        FieldValueConverter date = FieldValueConverter.of("DATE", null, null, null);
+        assertEquals("2026-10-07", date.convert("2026/10/7"));
+        assertEquals("2026-10-07", date.convert("2026年10月7日"));
+        assertEquals("2026-10-07", date.convert("20261007"));
+        assertEquals("2026-10-07", date.convert("2026-10-07 08:30:00"));
+        assertNull(date.convert("2026-02-30"));
+        assertNull(date.convert("10/07/2026"));
+
+        FieldValueConverter dateTime = FieldValueConverter.of("DATE", "DATETIME", null, null);
+        assertEquals("2026-10-07 08:30:00", dateTime.convert("2026-10-07 8:30"));
+        assertEquals("2026-10-07 00:00:00", dateTime.convert("2026-10-07"));
+
+        assertEquals("2026-10-07", FieldValueConverter.formatDateTime(LocalDateTime.of(2026, 10, 7, 0, 0)));
+        assertEquals("2026-10-07 08:05:09",
+                FieldValueConverter.formatDateTime(LocalDateTime.of(2026, 10, 7, 8, 5, 9)));
+    }
+
+    @Test
+    void producesTypedValues() {
+        FieldValueConverter number = FieldValueConverter.of("NUMBER", null, null, null);
+        assertEquals(new BigDecimal("1200.5"), number.toNumericValue(number.convert("1,200.50")));
+        assertEquals(new BigDecimal("123"), number.toNumericValue(number.convert("000123")));
+        assertNull(number.toNumericValue(number.convert("1" + "0".repeat(30))));
+        assertNull(number.toDateValue("2026-10-07"));
+
+        FieldValueConverter date = FieldValueConverter.of("DATE", "DATETIME", null, null);
+        assertEquals(LocalDate.of(2026, 10, 7), date.toDateValue(date.convert("2026/10/7 08:30")));
+        assertNull(date.toNumericValue("12"));
+    }
+
+    @Test
+    void convertsBooleansAndStrings() {
+        FieldValueConverter bool = FieldValueConverter.of("BOOLEAN", null, null, null);
+        assertEquals("true", bool.convert("是"));
+        assertEquals("false", bool.convert("FALSE"));
+        assertNull(bool.convert("maybe"));
+
+        FieldValueConverter string = FieldValueConverter.of("STRING", "VARCHAR", null, 4);
+        assertEquals("abcd", string.convert("abcd"));
+        assertNull(string.convert("abcde"));
+        assertEquals("长度不能超过 4 个字符", string.validate("abcde"));
+        assertEquals("abcde", string.normalize(" abcde "));
+        assertFalse(FieldValueConverter.of("STRING", null, null, null).canFail());
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.ledger.util;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 20:25
+ */
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 并行转换后按提交顺序写入，出错时在提交线程抛出
+ */
+class OrderedPipelineTest {
+
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void consumesInSubmitOrder() {
+        List<Integer> written = new ArrayList<>();
+        try (OrderedPipeline<Integer, Integer> pipeline = new OrderedPipeline<>(executor, "test-writer-", 4, 16,
+                OrderedPipelineTest::shuffledDouble, written::add)) {
+            for (int i = 0; i < 2000; i++) {
+                pipeline.submit(i);
+            }
+            pipeline.finish();
+        }
+
+        assertInOrder(written, 2000);
+    }
+
+    @Test
+    void sharesExecutorBetweenPipelines() {
+        // 两个管道的转换任务数之和超过共享执行器的线程数
+        List<Integer> first = new ArrayList<>();
+        List<Integer> second = new ArrayList<>();
+        try (OrderedPipeline<Integer, Integer> a = new OrderedPipeline<>(executor, "test-writer-a-", 4, 16,
+                OrderedPipelineTest::shuffledDouble, first::add);
+             OrderedPipeline<Integer, Integer> b = new OrderedPipeline<>(executor, "test-writer-b-", 4, 16,
+                     OrderedPipelineTest::shuffledDouble, second::add)) {
+            for (int i = 0; i < 1000; i++) {
+                a.submit(i);
+                b.submit(i);
+            }
+            a.finish();
+            b.finish();
+        }
+
+        assertInOrder(first, 1000);
+        assertInOrder(second, 1000);
+    }
+
+    @Test
+    void rethrowsConsumerFailureToSubmitter() {
+        IllegalStateException error = new IllegalStateException("第10行处理失败");
+        List<Integer> written = new ArrayList<>();
+        try (OrderedPipeline<Integer, Integer> pipeline = new OrderedPipeline<>(executor, "test-writer-", 2, 4,
+                value -> value,
+                value -> {
+                    if (value == 10) {
+                        throw error;
+                    }
+                    written.add(value);
+                })) {
+            RuntimeException thrown = assertThrows(RuntimeException.class, () -> {
+                for (int i = 0; i < 1000; i++) {
+                    pipeline.submit(i);
+                }
+                pipeline.finish();
+            });
+            assertSame(error, thrown);
+        }
+
+        // 出错行之前的行按顺序写入，之后的行不再写入
+        assertEquals(10, written.size());
+        assertEquals(9, written.get(9));
+    }
+
+    private static Integer shuffledDouble(Integer value) {
+        // 打乱各线程的完成顺序
+        LockSupport.parkNanos(ThreadLocalRandom.current().nextInt(200_000));
+        return value * 2;
+    }
+
+    private static void assertInOrder(List<Integer> written, int count) {
+        assertEquals(count, written.size());
+        for (int i = 0; i < written.size(); i++) {
+            assertEquals(i * 2, written.get(i));
+        }
+    }
+}
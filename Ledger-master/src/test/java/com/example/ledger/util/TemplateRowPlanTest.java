@@ -0,0 +1,86 @@
+package com.example.ledger.util;
+
+/**
+ * @author 霜月
+ * @create 2026/10/17 23:40
+ */
+
+import com.example.ledger.entity.LedgerDataDetail;
+import com.example.ledger.entity.RequiredFieldConfig;
+import com.example.ledger.entity.TemplateField;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 行解析计划按排序序号输出字段，必填提示取自配置，验证规则标记到字段详情
+ */
+class TemplateRowPlanTest {
+
+    @Test
+    void createsDetailsInSortOrder() {
+        TemplateRowPlan plan = TemplateRowPlan.compile(List.of(
+                field("amount", "金额", "AB", 2, null),
+                field("unit", "计量单位", "C", 1, null),
+                field("unit", "计量单位", "T", 3, null)), List.of(), false);
+
+        Map<Integer, String> cellValues = new HashMap<>();
+        cellValues.put(2, " 吨 ");
+        cellValues.put(27, "12.5");
+
+        List<LedgerDataDetail> details = plan.createDetails(cellValues, 7, true);
+
+        assertEquals(3, details.size());
+        assertEquals("unit_C", details.get(0).getFieldName());
+        assertEquals("吨", details.get(0).getFieldValue());
+        assertEquals(" 吨 ", details.get(0).getOriginalValue());
+        assertEquals("amount_AB", details.get(1).getFieldName());
+        assertEquals("12.5", details.get(1).getFieldValue());
+        assertEquals("unit_T", details.get(2).getFieldName());
+        assertTrue(details.get(2).getIsEmpty());
+        assertNull(details.get(2).getFieldValue());
+        assertEquals(7L, details.get(0).getDataId());
+    }
+
+    @Test
+    void validatesRequiredFieldsAndRules() {
+        RequiredFieldConfig config = new RequiredFieldConfig();
+        config.setFieldName("code");
+        config.setRequiredMessage("编码不能为空");
+
+        TemplateRowPlan plan = TemplateRowPlan.compile(List.of(
+                field("code", "编码", "A", 1, null),
+                field("qty", "数量", "B", 2, "\\d+")), List.of(config), false);
+
+        Map<Integer, String> blank = new HashMap<>();
+        blank.put(0, "  ");
+        assertEquals(List.of("第5行，编码: 编码不能为空"), plan.validateRequired(blank, 5));
+
+        Map<Integer, String> cellValues = new HashMap<>();
+        cellValues.put(0, "A-01");
+        cellValues.put(1, "12件");
+        assertTrue(plan.validateRequired(cellValues, 6).isEmpty());
+
+        List<LedgerDataDetail> details = plan.createDetails(cellValues, 6, true);
+        assertTrue(details.get(0).getIsValid());
+        assertFalse(details.get(1).getIsValid());
+        assertEquals(TemplateRowPlan.RULE_MISMATCH_MESSAGE, details.get(1).getValidationMessage());
+
+        // 不校验时只转换
+        assertTrue(plan.createDetails(cellValues, 6, false).get(1).getIsValid());
+    }
+
+    private static TemplateField field(String name, String label, String column, int sortOrder, String rule) {
+        TemplateField field = new TemplateField();
+        field.setFieldName(name);
+        field.setFieldLabel(label);
+        field.setExcelColumn(column);
+        field.setSortOrder(sortOrder);
+        field.setValidationRule(rule);
+        return field;
+    }
+}